@@ -43,8 +43,10 @@ public class DataSummary extends DataCommon
 	private int size_metid;
 	private int size_metval;
 
-	private int   [][]metric_id;
-	private float [][]metric_val;
+	/** offset of the metrics of each CCT, mapped from the file */
+	private LongBuffer offset_table;
+	/** pairs of (metric id, metric value), mapped from the file and decoded on demand */
+	private ByteBuffer metric_buffer;
 	
 	// --------------------------------------------------------------------
 	// Public methods
@@ -107,19 +109,20 @@ public class DataSummary extends DataCommon
 	 */
 	private void printMetrics(PrintStream out, int cct)
 	{
-		int []metrics = metric_id[cct];
-		for(int i=0; i<metrics.length; i++)
+		final int num_metrics = getNumMetrics(cct);
+		final int position	  = getMetricPosition(cct);
+		for(int i=0; i<num_metrics; i++)
 		{
-			out.format("(%d, %1.2e)\t", metric_id[cct][i], metric_val[cct][i]);
+			out.format("(%d, %1.2e)\t", getMetricId(position, i), getMetricValue(position, i));
 		}
 		out.println();
 	}
 	
 	
 	/**********
-	 * Reading a set of metrics from the file for a given CCT 
-	 * This method does not support concurrency. The caller is
-	 * responsible to handle mutual exclusion.
+	 * Reading a set of metrics from the file for a given CCT.
+	 * The metrics are decoded directly from the mapped file, and
+	 * concurrent calls are allowed.
 	 * 
 	 * @param cct_id
 	 * @return
@@ -135,26 +138,39 @@ public class DataSummary extends DataCommon
 			values[i] = MetricValue.NONE;
 		}
 		
-		int []metrics = metric_id[cct_id];
-		for (int i=0; i<metrics.length; i++)
+		final int num_metrics = getNumMetrics(cct_id);
+		final int position	  = getMetricPosition(cct_id);
+		for (int i=0; i<num_metrics; i++)
 		{
-			int id = metrics[i];
+			int id = getMetricId(position, i);
 			BaseMetric metric = experiment.getMetric(String.valueOf(id));
 			int index = metric.getIndex();
-			values[index] = new MetricValue(metric_val[cct_id][i]);
+			values[index] = new MetricValue(getMetricValue(position, i));
 		}
 	
 		return values;
 	}
 	
+	/**********
+	 * get the number of non-empty metrics of a given CCT
+	 * 
+	 * @param cct_id
+	 * @return
+	 */
+	public int getNumMetrics(int cct_id)
+	{
+		final long size = offset_table.get(cct_id+1) - offset_table.get(cct_id);
+		return (int) (size / METRIC_ENTRY_SIZE);
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see edu.rice.cs.hpc.data.db.DataCommon#dispose()
 	 */
 	public void dispose() throws IOException
 	{
-		metric_id = null;
-		metric_val = null;
+		offset_table  = null;
+		metric_buffer = null;
 	}
 	
 
@@ -199,53 +215,51 @@ public class DataSummary extends DataCommon
 	// Private methods
 	// --------------------------------------------------------------------
 	
+	/***
+	 * Map the offset table and the metric section of the file. 
+	 * Nothing is decoded here: the metrics of a CCT are read when they are requested.
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
 	private void fillOffsetTable(final String filename)
 			throws IOException
 	{
 		final RandomAccessFile file = new RandomAccessFile(filename, "r");
 		final FileChannel channel	= file.getChannel();
-		// map all the table into memory. 
-		// This statement can be problematic if the offset_size is huge
-		
-		MappedByteBuffer mappedBuffer = channel.map(MapMode.READ_ONLY, offset_start, offset_size);
-		LongBuffer longBuffer = mappedBuffer.asLongBuffer();
-		
-		final int []cct_table = new int[(int) num_cctid+1];
-		
-		for (int i=0; i<=num_cctid; i++)
-		{
-			cct_table[i] = (int) longBuffer.get(i);
-		}
-		
-		metric_id 	  = new int  [(int)num_cctid][];
-		metric_val 	  = new float[(int)num_cctid][];
-		byte []buffer = new byte [(int) metric_size];
 		
-		file.seek(metric_start);
-		file.readFully(buffer);
-		
-		int offset = 0;
-		for (int i=0; i<num_cctid; i++)
-		{
-			int offset_size  = (cct_table[i+1] - cct_table[i]);
-			int num_metrics  = offset_size / METRIC_ENTRY_SIZE;
-			
-			metric_id[i] 	 = new int  [num_metrics]; 
-			metric_val[i] 	 = new float[num_metrics]; 
-			
-			for (int j=0; j<num_metrics; j++)
-			{
-				ByteBuffer bb = ByteBuffer.wrap(buffer, offset, Constants.SIZEOF_INT);
-				metric_id[i][j] = bb.getInt();
-				offset += Constants.SIZEOF_INT;
-				
-				bb = ByteBuffer.wrap(buffer, offset, Constants.SIZEOF_FLOAT);
-				metric_val[i][j] = bb.getFloat();
-				offset += Constants.SIZEOF_FLOAT;
-			}
+		try {
+			// the mapping remains valid after the file is closed
+			MappedByteBuffer mappedBuffer = channel.map(MapMode.READ_ONLY, offset_start, offset_size);
+			offset_table  = mappedBuffer.asLongBuffer();
+			metric_buffer = channel.map(MapMode.READ_ONLY, metric_start, metric_size);
+		} finally {
+			channel.close();
+			file.close();
 		}
 	}
 	
+	/***
+	 * get the position of the metrics of a CCT in the metric buffer.
+	 * The metrics are stored contiguously from the first CCT.
+	 * 
+	 * @param cct_id
+	 * @return
+	 */
+	private int getMetricPosition(int cct_id)
+	{
+		return (int) (offset_table.get(cct_id) - offset_table.get(0));
+	}
+	
+	private int getMetricId(int position, int i)
+	{
+		return metric_buffer.getInt(position + i * METRIC_ENTRY_SIZE);
+	}
+	
+	private float getMetricValue(int position, int i)
+	{
+		return metric_buffer.getFloat(position + i * METRIC_ENTRY_SIZE + Constants.SIZEOF_INT);
+	}
 	
 
 	/***************************
@@ -158,8 +158,7 @@ public abstract class BaseExperiment implements IExperiment
 			throws	Exception
 	{
 		databaseRepresentation = new LocalDatabaseRepresentation(fileExperiment, userData, need_metric);
-		databaseRepresentation.open(this);
-		open_finalize();
+		openDatabase();
 	}
 	
 	
@@ -174,8 +173,7 @@ public abstract class BaseExperiment implements IExperiment
 	public void open(InputStream expStream, IUserData<String, String> userData,
 		String name) throws Exception {
 		databaseRepresentation = new RemoteDatabaseRepresentation(expStream, userData, name);
-		databaseRepresentation.open(this);
-		open_finalize();
+		openDatabase();
 	}
 
 	/******
@@ -187,13 +185,30 @@ public abstract class BaseExperiment implements IExperiment
 	{
 		if (databaseRepresentation != null)
 		{
-			databaseRepresentation.open(this);
-			open_finalize();
+			openDatabase();
 		} else {
 			throw new Exception("Database has not been opened.");
 		}
 	}
 
+	/******
+	 * Read the database and finalize the experiment.<br/>
+	 * If the database has a valid snapshot, the experiment is restored from
+	 * the snapshot as it was after the finalization, and it isn't finalized
+	 * again. Otherwise a new snapshot is saved once the experiment is finalized.
+	 * 
+	 * @throws Exception
+	 */
+	private void openDatabase() throws Exception
+	{
+		if (databaseRepresentation.openSnapshot(this))
+			return;
+
+		databaseRepresentation.open(this);
+		open_finalize();
+		databaseRepresentation.saveSnapshot(this);
+	}
+
 	/******
 	 * set the database version
 	 * 
@@ -204,6 +219,16 @@ public abstract class BaseExperiment implements IExperiment
 		this.version = v;
 	}
 
+	/******
+	 * get the database version
+	 * 
+	 * @return the version, null if the database doesn't have one
+	 */
+	public String getVersion()
+	{
+		return this.version;
+	}
+
 
 	/*************************************************************************
 	 *	Returns the name of the experiment.
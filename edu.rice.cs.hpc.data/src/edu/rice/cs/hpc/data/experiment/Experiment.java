@@ -169,9 +169,13 @@ public class Experiment extends BaseExperimentWithMetrics
 	 */
 	public RootScope createFlatView(Scope callingContextViewRootScope, RootScope flatViewRootScope)
 	{
-		FlatViewScopeVisitor fv = new FlatViewScopeVisitor(this, (RootScope) flatViewRootScope);
-
-		callingContextViewRootScope.dfsVisitScopeTree(fv);
+		FlatViewScopeVisitor fv = new FlatViewScopeVisitor(this, (RootScope) flatViewRootScope,
+				Runtime.getRuntime().availableProcessors());
+		try {
+			callingContextViewRootScope.dfsVisitScopeTree(fv);
+		} finally {
+			fv.finish();
+		}
 
 		EmptyMetricValuePropagationFilter filter = new EmptyMetricValuePropagationFilter();
 		flatViewRootScope.accumulateMetrics(callingContextViewRootScope, filter	, getMetricCount());
@@ -180,15 +184,15 @@ public class Experiment extends BaseExperimentWithMetrics
 
 
 
-	private void addInclusiveMetrics(Scope scope, MetricValuePropagationFilter filter)
+	private void addInclusiveMetrics(Scope scope, MetricValuePropagationFilter filter, ParallelScopeTraversal traversal)
 	{
 		InclusiveMetricsScopeVisitor isv = new InclusiveMetricsScopeVisitor(this, filter);
-		scope.dfsVisitScopeTree(isv);
+		traversal.dfsVisitScopeTree(scope, isv);
 	}
 
-	private void computeExclusiveMetrics(Scope scope) {
+	private void computeExclusiveMetrics(Scope scope, ParallelScopeTraversal traversal) {
 		ExclusiveCallingContextVisitor visitor = new ExclusiveCallingContextVisitor(this);
-		scope.dfsVisitScopeTree(visitor);
+		traversal.dfsVisitScopeTree(scope, visitor);
 	}
 
 	protected void copyMetricsToPartner(Scope scope, MetricType sourceType, MetricValuePropagationFilter filter) {
@@ -269,10 +273,18 @@ public class Experiment extends BaseExperimentWithMetrics
 			// Inclusive metrics
 			//----------------------------------------------------------------------------------------------
 			if (inclusiveNeeded()) {
+				// the visitors only propagate the metrics of a scope to its parent (or the nearest
+				// call site for nested loops). Subtrees rooted at call sites are then independent
+				// and can be computed concurrently.
+				// Note: the metrics of the root are read by the other scopes (for the annotations),
+				// so they have to be initialized before the concurrent traversal
+				callingContextViewRootScope.getMetricValue(0);
+				ParallelScopeTraversal traversal = new ParallelScopeTraversal(Runtime.getRuntime().availableProcessors());
+
 				// TODO: if the metric is a derived metric then DO NOT do this process !
 				InclusiveOnlyMetricPropagationFilter rootInclProp = new InclusiveOnlyMetricPropagationFilter(this);
-				addInclusiveMetrics(callingContextViewRootScope, rootInclProp);
-				computeExclusiveMetrics(callingContextViewRootScope);
+				addInclusiveMetrics(callingContextViewRootScope, rootInclProp, traversal);
+				computeExclusiveMetrics(callingContextViewRootScope, traversal);
 			}
 
 			EmptyMetricValuePropagationFilter emptyFilter = new EmptyMetricValuePropagationFilter();
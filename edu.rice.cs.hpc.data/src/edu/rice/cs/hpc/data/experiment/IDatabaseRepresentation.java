@@ -9,5 +9,23 @@ public interface IDatabaseRepresentation
 	public void setFile(File file);
 	
 	public void open(BaseExperiment experiment) throws	Exception;
+	
+	/****
+	 * restore the experiment from a snapshot of the database, if the
+	 * representation has a valid one. The restored experiment is finalized.
+	 * 
+	 * @param experiment
+	 * @return true if the experiment has been restored, false otherwise
+	 */
+	public boolean openSnapshot(BaseExperiment experiment);
+	
+	/****
+	 * save a snapshot of an experiment opened and finalized, if the
+	 * representation supports it
+	 * 
+	 * @param experiment
+	 */
+	public void saveSnapshot(BaseExperiment experiment);
+	
 	public IDatabaseRepresentation duplicate();
 }
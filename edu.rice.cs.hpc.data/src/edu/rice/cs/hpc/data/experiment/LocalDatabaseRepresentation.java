@@ -1,8 +1,12 @@
 package edu.rice.cs.hpc.data.experiment;
 
 import java.io.File;
+import java.io.IOException;
 
 import edu.rice.cs.hpc.data.experiment.xml.ExperimentFileXML;
+import edu.rice.cs.hpc.data.experiment.xml.SnapshotParser;
+import edu.rice.cs.hpc.data.experiment.xml.SnapshotRecorder;
+import edu.rice.cs.hpc.data.util.Constants;
 import edu.rice.cs.hpc.data.util.IUserData;
 
 
@@ -16,6 +20,9 @@ public class LocalDatabaseRepresentation implements IDatabaseRepresentation
 	private File fileExperiment;
 	final private IUserData<String, String> userData; 
 	final private boolean need_metric;
+	
+	/** aliases of the procedures used by the last parse, until its snapshot is saved */
+	private SnapshotRecorder.ProcedureTable procedureTable;
 
 	/*****
 	 * Create a local database representation. T
@@ -38,7 +45,41 @@ public class LocalDatabaseRepresentation implements IDatabaseRepresentation
 	public void open(BaseExperiment experiment) throws Exception
 	{		
 		ExperimentFileXML fileXML = new ExperimentFileXML();
-		fileExperiment = fileXML.parse(fileExperiment, experiment, need_metric, userData);	
+		procedureTable = new SnapshotRecorder.ProcedureTable(userData);
+		fileExperiment = fileXML.parse(fileExperiment, experiment, need_metric, procedureTable);	
+	}
+
+	@Override
+	public boolean openSnapshot(BaseExperiment experiment)
+	{
+		final File fileXML = (fileExperiment.isDirectory() ? 
+				new File(fileExperiment, Constants.DATABASE_FILENAME) : fileExperiment);
+		final File snapshot = SnapshotParser.getSnapshotFile(fileXML, need_metric);
+
+		if (!SnapshotParser.isValid(snapshot, fileXML, need_metric))
+			return false;
+		
+		try {
+			// the experiment is modified only if the whole snapshot is correct
+			if (new SnapshotParser(snapshot, experiment, userData).parse()) {
+				fileExperiment = fileXML;
+				return true;
+			}
+		} catch (IOException e) {
+			System.err.println("Warning: " + e.getMessage() + ". Parsing " + fileXML);
+		}
+		return false;
+	}
+
+	@Override
+	public void saveSnapshot(BaseExperiment experiment)
+	{
+		if (procedureTable == null)
+			return;
+		
+		final File snapshot = SnapshotParser.getSnapshotFile(fileExperiment, need_metric);
+		new SnapshotRecorder(fileExperiment, snapshot).write(experiment, procedureTable);
+		procedureTable = null;
 	}
 
 	@Override
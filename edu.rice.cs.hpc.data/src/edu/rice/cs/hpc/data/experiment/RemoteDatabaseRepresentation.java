@@ -36,6 +36,16 @@ public class RemoteDatabaseRepresentation implements IDatabaseRepresentation
 		fileXML.parse(expStream, name, experiment, false, userData);
 	}
 
+	@Override
+	public boolean openSnapshot(BaseExperiment experiment) {
+		// no snapshot of a remote database
+		return false;
+	}
+
+	@Override
+	public void saveSnapshot(BaseExperiment experiment) {
+	}
+
 	@Override
 	public IDatabaseRepresentation duplicate() {
 		RemoteDatabaseRepresentation dup = new RemoteDatabaseRepresentation(expStream, userData, name);	
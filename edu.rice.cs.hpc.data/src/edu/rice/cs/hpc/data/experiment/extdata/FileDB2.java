@@ -170,6 +170,40 @@ public class FileDB2 implements IFileDB
 		return masterBuff.getDouble(position);
 	}
 
+	/****
+	 * Read doubles at a regular interval
+	 * 
+	 * @param position : the position of the first double
+	 * @param stride : the distance in bytes between two consecutive doubles
+	 * @param values : the output
+	 * @param offset : the index in the output of the first double
+	 * @param count : the number of doubles
+	 * @throws IOException
+	 * 
+	 * @see LargeByteBuffer#getDoubles(long, long, double[], int, int)
+	 */
+	public void getDoubles(long position, long stride, double []values, int offset, int count) 
+			throws IOException {
+		masterBuff.getDoubles(position, stride, values, offset, count);
+	}
+
+	/****
+	 * Read the doubles at the same displacement from a sorted list of positions
+	 * 
+	 * @param positions : the base positions
+	 * @param displacement : the displacement of the doubles from the base positions
+	 * @param values : the output, values[i] is the double of positions[i]
+	 * @param from : the index of the first position
+	 * @param to : the index of the last position (exclusive)
+	 * @throws IOException
+	 * 
+	 * @see LargeByteBuffer#getDoubles(long[], long, double[], int, int)
+	 */
+	public void getDoubles(long []positions, long displacement, double []values, int from, int to) 
+			throws IOException {
+		masterBuff.getDoubles(positions, displacement, values, from, to);
+	}
+
 	/***
 	 * Disposing native resources
 	 */
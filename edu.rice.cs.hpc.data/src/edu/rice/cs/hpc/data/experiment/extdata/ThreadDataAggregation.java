@@ -0,0 +1,346 @@
+package edu.rice.cs.hpc.data.experiment.extdata;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.rice.cs.hpc.data.util.IProgressReport;
+
+/********************************************************************************
+ *
+ * Aggregation of the thread-level values of a metric over a set of threads,
+ * for all the CCT nodes at once.<br/>
+ * Instead of reading the values of all the threads each time the value of a
+ * node is needed, the values are read in one pass: thread by thread when the
+ * database can provide the values of all the nodes of a thread (version 2),
+ * or node by node otherwise (version 3). The sum, min, max and the sum of
+ * squared deviations are accumulated in columns indexed by CCT index, from
+ * which the mean and the standard deviation are derived.
+ * <p>
+ * The columns of the last few thread sets are cached, so that displaying
+ * or sorting the Thread view doesn't read the thread-level data anymore.
+ * Computing the columns can take long: it is done by
+ * {@link #getColumns(int, int, List, int, int, IProgressReport)} in a
+ * background job, while the UI only looks up the cache with
+ * {@link #getColumnsIfExist(int, List)}.
+ * </p>
+ ********************************************************************************/
+public class ThreadDataAggregation
+{
+	/** the statistics computed for each CCT node */
+	public enum Statistic {SUM, MEAN, MIN, MAX, STDDEV};
+
+	/** maximum number of aggregations kept in the cache */
+	final static private int MAX_CACHED_COLUMNS = 8;
+
+	final private IThreadDataCollection threadData;
+	final private Map<Key, Columns> cache;
+
+	/** to compute the columns one at a time without locking the cache */
+	final private Object computeLock = new Object();
+
+
+	/****
+	 * Create an aggregation engine
+	 *
+	 * @param threadData : the thread-level data
+	 */
+	public ThreadDataAggregation(IThreadDataCollection threadData)
+	{
+		this.threadData = threadData;
+		this.cache = new LinkedHashMap<Key, Columns>(MAX_CACHED_COLUMNS, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Columns> eldest) {
+				return size() > MAX_CACHED_COLUMNS;
+			}
+		};
+	}
+
+
+	/****
+	 * Get the aggregated values of a metric for a set of threads.
+	 * The values are computed the first time, then cached.<br/>
+	 * This method reads all the thread-level values of the metric, it
+	 * shouldn't be called by the UI thread.
+	 * The computation stops if the progress report throws a runtime
+	 * exception (to cancel it), and nothing is cached.
+	 *
+	 * @param metricIndex : the index of the raw metric
+	 * @param numMetrics : the number of raw metrics
+	 * @param threads : the indexes of the threads. Cannot be empty.
+	 * @param minCCTIndex : the lowest CCT index of the experiment
+	 * @param maxCCTIndex : the highest CCT index of the experiment
+	 * @param progress : the progress of the computation
+	 *
+	 * @return the columns of the aggregated values
+	 * @throws IOException
+	 */
+	public Columns getColumns(int metricIndex, int numMetrics, List<Integer> threads,
+			int minCCTIndex, int maxCCTIndex, IProgressReport progress) throws IOException
+	{
+		final Key key = new Key(metricIndex, threads);
+		synchronized (computeLock)
+		{
+			Columns columns = getCachedColumns(key);
+			if (columns == null) {
+				columns = new Columns(key.threads.length, Math.max(maxCCTIndex, 0) + 1);
+				try {
+					if (!aggregateByThread(columns, metricIndex, numMetrics, key.threads, progress))
+						aggregateByNode(columns, metricIndex, numMetrics, key.threads, 
+								Math.max(minCCTIndex, 0), progress);
+				} finally {
+					progress.end();
+				}
+				synchronized (cache) {
+					cache.put(key, columns);
+				}
+			}
+			return columns;
+		}
+	}
+
+
+	/****
+	 * Get the aggregated values of a metric for a set of threads if they
+	 * are already computed. This method doesn't read the thread-level data.
+	 *
+	 * @param metricIndex : the index of the raw metric
+	 * @param threads : the indexes of the threads
+	 *
+	 * @return the columns of the aggregated values, null if they are not computed yet
+	 */
+	public Columns getColumnsIfExist(int metricIndex, List<Integer> threads)
+	{
+		return getCachedColumns(new Key(metricIndex, threads));
+	}
+
+
+	/****
+	 * remove the cached aggregations
+	 */
+	public void clear()
+	{
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+
+	private Columns getCachedColumns(Key key)
+	{
+		synchronized (cache) {
+			return cache.get(key);
+		}
+	}
+
+
+	/****
+	 * aggregate the values of all the nodes of a thread, one thread after another
+	 *
+	 * @return false if the database cannot provide the values of a whole thread
+	 * @throws IOException
+	 */
+	private boolean aggregateByThread(Columns columns, int metricIndex, int numMetrics, int []threads,
+			IProgressReport progress) throws IOException
+	{
+		final double []values = new double[columns.size()];
+		for (int i=0; i<threads.length; i++)
+		{
+			// the values of a thread are ordered by CCT index, starting from 1
+			final double []scopeValues = threadData.getScopeMetrics(threads[i], metricIndex, numMetrics);
+			if (scopeValues == null) {
+				if (i == 0)
+					return false;
+				throw new IOException("Missing values of thread " + threads[i]);
+			}
+			if (i == 0)
+				progress.begin("Aggregating the values of " + threads.length + " threads", threads.length);
+
+			final int length = Math.min(scopeValues.length, values.length-1);
+			System.arraycopy(scopeValues, 0, values, 1, length);
+			Arrays.fill(values, length+1, values.length, 0.0d);
+
+			columns.add(i, values, 1);
+			progress.advance();
+		}
+		return true;
+	}
+
+
+	/****
+	 * aggregate the values of all the threads of a node, one node after another
+	 *
+	 * @throws IOException
+	 */
+	private void aggregateByNode(Columns columns, int metricIndex, int numMetrics, int []threads,
+			int minCCTIndex, IProgressReport progress) throws IOException
+	{
+		progress.begin("Aggregating the values of " + threads.length + " threads", 
+				Math.max(columns.size() - minCCTIndex, 0));
+
+		for (int cct=minCCTIndex; cct<columns.size(); cct++)
+		{
+			final double []values = threadData.getMetrics(cct, metricIndex, numMetrics);
+			for (int i=0; i<threads.length; i++)
+			{
+				columns.add(i, cct, values[threads[i]]);
+			}
+			progress.advance();
+		}
+	}
+
+
+	/********************************************************************************
+	 *
+	 * The aggregated values of a set of threads, indexed by CCT index
+	 *
+	 ********************************************************************************/
+	static public class Columns
+	{
+		final private int numThreads;
+		final private double []sum;
+		final private double []min;
+		final private double []max;
+		final private double []squares; // sum of squared deviations from the mean
+
+		private Columns(int numThreads, int size)
+		{
+			this.numThreads = numThreads;
+			sum 	= new double[size];
+			min 	= new double[size];
+			max 	= new double[size];
+			squares = new double[size];
+		}
+
+		/****
+		 * get the number of aggregated threads
+		 * @return
+		 */
+		public int getNumThreads()
+		{
+			return numThreads;
+		}
+
+		/****
+		 * get the number of values of a column (the highest CCT index + 1)
+		 * @return
+		 */
+		public int size()
+		{
+			return sum.length;
+		}
+
+		/****
+		 * get a statistic of a CCT node
+		 *
+		 * @param statistic
+		 * @param cctIndex
+		 * @return the value, 0 if the node has no value
+		 */
+		public double getValue(Statistic statistic, int cctIndex)
+		{
+			if (cctIndex < 0 || cctIndex >= sum.length)
+				return 0.0d;
+
+			switch (statistic)
+			{
+			case SUM:
+				return sum[cctIndex];
+			case MEAN:
+				return sum[cctIndex] / numThreads;
+			case MIN:
+				return min[cctIndex];
+			case MAX:
+				return max[cctIndex];
+			case STDDEV:
+				return Math.sqrt(squares[cctIndex] / numThreads);
+			}
+			return 0.0d;
+		}
+
+		/****
+		 * get a statistic of all the CCT nodes
+		 *
+		 * @param statistic
+		 * @return a new array of values indexed by CCT index
+		 */
+		public double[] getColumn(Statistic statistic)
+		{
+			final double []column = new double[sum.length];
+			for (int i=0; i<column.length; i++)
+				column[i] = getValue(statistic, i);
+			return column;
+		}
+
+		/****
+		 * add the values of the i-th thread for a range of nodes
+		 */
+		private void add(int thread, double []values, int from)
+		{
+			for (int cct=from; cct<values.length; cct++)
+				add(thread, cct, values[cct]);
+		}
+
+		/****
+		 * add the value of the i-th thread of a node.
+		 * The deviations are updated with Welford's method, which doesn't
+		 * need a second pass and doesn't lose the precision of the naive
+		 * sum of squares.
+		 */
+		private void add(int thread, int cct, double value)
+		{
+			if (thread == 0) {
+				sum[cct] = value;
+				min[cct] = value;
+				max[cct] = value;
+				return;
+			}
+			final double oldMean = sum[cct] / thread;
+			sum[cct] += value;
+			squares[cct] += (value - oldMean) * (value - sum[cct] / (thread+1));
+
+			if (value < min[cct])
+				min[cct] = value;
+			else if (value > max[cct])
+				max[cct] = value;
+		}
+	}
+
+
+	/********************************************************************************
+	 *
+	 * Key of the cache: a metric and a set of threads (in any order)
+	 *
+	 ********************************************************************************/
+	static private class Key
+	{
+		final private int metricIndex;
+		final private int []threads;
+
+		Key(int metricIndex, List<Integer> threads)
+		{
+			this.metricIndex = metricIndex;
+			this.threads = new int[threads.size()];
+			for (int i=0; i<this.threads.length; i++)
+				this.threads[i] = threads.get(i);
+			Arrays.sort(this.threads);
+		}
+
+		@Override
+		public int hashCode() {
+			return metricIndex * 31 + Arrays.hashCode(threads);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return metricIndex == other.metricIndex && Arrays.equals(threads, other.threads);
+		}
+	}
+}
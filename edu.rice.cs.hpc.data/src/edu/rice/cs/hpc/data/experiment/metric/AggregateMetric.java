@@ -27,6 +27,8 @@ public class AggregateMetric extends BaseMetric {
 	
 	// formula expression
 	private Expression formulaCombine, formulaFinalize;
+	// text of the formula, as given to setFormula()
+	private String sFormulaCombine, sFormulaFinalize;
 	//private Expression formulaCurrent = null;
 	
 	// map function
@@ -66,8 +68,10 @@ public class AggregateMetric extends BaseMetric {
 		try {
 			if (type == FORMULA_COMBINE) {
 				formulaCombine = ExpressionTree.parse(sFormula);				
+				sFormulaCombine = sFormula;
 			} else {
 				formulaFinalize = ExpressionTree.parse(sFormula);
+				sFormulaFinalize = sFormula;
 			}
 		} catch (ExpressionParseException e) {
 			e.printStackTrace();
@@ -75,6 +79,16 @@ public class AggregateMetric extends BaseMetric {
 	}
 	
 	
+	/****
+	 * get the text of the math expression
+	 * @param type : {@link #FORMULA_COMBINE} or {@link #FORMULA_FINALIZE}
+	 * @return the formula, null if it has not been set
+	 *******/
+	public String getFormula(char type) {
+		return (type == FORMULA_COMBINE ? sFormulaCombine : sFormulaFinalize);
+	}
+	
+	
 	/*********
 	 * initialize the metric.
 	 * THIS METHOD HAS TO BE CALLED before asking the value
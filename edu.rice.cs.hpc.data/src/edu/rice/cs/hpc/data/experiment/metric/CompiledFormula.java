@@ -0,0 +1,454 @@
+package edu.rice.cs.hpc.data.experiment.metric;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.graphbuilder.math.AddNode;
+import com.graphbuilder.math.DivNode;
+import com.graphbuilder.math.Expression;
+import com.graphbuilder.math.FuncMap;
+import com.graphbuilder.math.FuncNode;
+import com.graphbuilder.math.MultNode;
+import com.graphbuilder.math.OpNode;
+import com.graphbuilder.math.PowNode;
+import com.graphbuilder.math.SubNode;
+import com.graphbuilder.math.ValNode;
+import com.graphbuilder.math.VarNode;
+import com.graphbuilder.math.func.Function;
+
+import edu.rice.cs.hpc.data.experiment.scope.IMetricScope;
+
+
+/*************************************************************************
+ *
+ * A metric formula compiled into a postfix program.<br/>
+ * The expression tree is interpreted by looking up every variable and
+ * every function by name, for each scope. A compiled formula resolves
+ * the metrics and the functions once, and evaluates the formula with a
+ * small stack of doubles, in the same order and with the same semantics
+ * as {@link Expression#eval(com.graphbuilder.math.VarMap, FuncMap)} with
+ * a {@link MetricVarMap}.
+ * <p>
+ * Unlike the interpreter, a compiled formula keeps no state of its own
+ * during an evaluation: the working memory is a {@link Frame}. However
+ * the value of a variable is read from its metric, and some metrics are not
+ * thread safe: an aggregate metric evaluates its own formula with a shared
+ * variable map. A formula can be evaluated by several threads at the same
+ * time (each with its own frame) only if {@link #isThreadSafe()} is true.
+ * </p>
+ *************************************************************************/
+public class CompiledFormula
+{
+	// instructions: the operand (if any) is the next element of the code
+	final static private int PUSH_VALUE  = 0;	// operand: index of the constant
+	final static private int PUSH_METRIC = 1;	// operand: index of the metric
+	final static private int PUSH_ROOT	 = 2;	// operand: index of the metric
+	final static private int NEGATE 	 = 3;
+	final static private int ADD 		 = 4;
+	final static private int SUBTRACT 	 = 5;
+	final static private int MULTIPLY 	 = 6;
+	final static private int DIVIDE 	 = 7;
+	final static private int POWER 		 = 8;
+	final static private int CALL 		 = 9;	// operand: index of the function
+
+	final private int []code;
+	final private double []constants;
+	final private BaseMetric []metrics;
+	final private Function []functions;
+	final private int []numParams;
+	final private int maxDepth;
+
+	/** the metric which owns the formula: it queries its own raw value */
+	final private BaseMetric owner;
+
+	/** true if a variable of the formula is a derived metric */
+	final private boolean hasDerivedMetrics;
+
+
+	/*************************************************************************
+	 * Compiles a formula
+	 *
+	 * @param expression : the parsed formula
+	 * @param owner : the metric of the formula
+	 * @param metricManager : the metrics of the variables
+	 * @param fctMap : the functions
+	 *
+	 * @return the compiled formula, or null if the formula cannot be compiled:
+	 * 	unknown metric or function, or a variable which is not a metric.
+	 * 	In this case, the expression has to be interpreted.
+	 *************************************************************************/
+	static public CompiledFormula compile(Expression expression, BaseMetric owner,
+			IMetricManager metricManager, FuncMap fctMap)
+	{
+		if (expression == null || metricManager == null)
+			return null;
+
+		final Compiler compiler = new Compiler(metricManager, fctMap);
+		try {
+			if (!compiler.compile(expression))
+				return null;
+		} catch (RuntimeException e) {
+			// unknown function: the interpreter will report the error
+			return null;
+		}
+		return new CompiledFormula(compiler, owner);
+	}
+
+
+	private CompiledFormula(Compiler compiler, BaseMetric owner)
+	{
+		this.owner = owner;
+
+		code = new int[compiler.code.size()];
+		for (int i=0; i<code.length; i++)
+			code[i] = compiler.code.get(i);
+
+		constants = new double[compiler.constants.size()];
+		for (int i=0; i<constants.length; i++)
+			constants[i] = compiler.constants.get(i);
+
+		metrics   = compiler.metrics.toArray(new BaseMetric[compiler.metrics.size()]);
+		functions = compiler.functions.toArray(new Function[compiler.functions.size()]);
+
+		numParams = new int[compiler.numParams.size()];
+		for (int i=0; i<numParams.length; i++)
+			numParams[i] = compiler.numParams.get(i);
+
+		maxDepth  = compiler.maxDepth;
+
+		boolean derived = false;
+		for (BaseMetric metric : metrics)
+			derived |= (metric instanceof DerivedMetric);
+		hasDerivedMetrics = derived;
+	}
+
+
+	/*************************************************************************
+	 * Checks if the formula can be evaluated by several threads at the same
+	 * time: all its variables are raw metrics ({@link Metric}), or derived
+	 * metrics whose compiled formula is thread safe as well.<br/>
+	 * The result can change if the formula of a derived variable is modified.
+	 *
+	 * @return true if the formula is thread safe
+	 *************************************************************************/
+	public boolean isThreadSafe()
+	{
+		final Set<BaseMetric> visited = new HashSet<BaseMetric>();
+		visited.add(owner);
+		return isThreadSafe(visited);
+	}
+
+
+	/*************************************************************************
+	 * Checks if the formula is thread safe, without checking again the
+	 * metrics which have been visited (a formula may refer to itself)
+	 *
+	 * @param visited : the metrics which have been checked or are being checked
+	 * @return true if the formula is thread safe
+	 *************************************************************************/
+	boolean isThreadSafe(Set<BaseMetric> visited)
+	{
+		for (BaseMetric metric : metrics) {
+			if (!visited.add(metric) || metric instanceof Metric)
+				continue;
+
+			if (metric instanceof DerivedMetric && ((DerivedMetric)metric).isThreadSafe(visited))
+				continue;
+
+			// aggregate metric, interpreted formula or unknown kind of metric
+			return false;
+		}
+		return true;
+	}
+
+
+	/*************************************************************************
+	 * Checks if a variable of the formula is a derived metric: the cached
+	 * values of the formula depend on the generation of this metric.
+	 *
+	 * @return true if the formula depends on a derived metric
+	 *************************************************************************/
+	boolean hasDerivedMetrics()
+	{
+		return hasDerivedMetrics;
+	}
+
+
+	/*************************************************************************
+	 * Gets the latest generation of the derived metrics of the formula (see
+	 * {@link DerivedMetric#getGeneration()}), without checking again the
+	 * metrics which have been visited (a formula may refer to itself)
+	 *
+	 * @param visited : the metrics which have been checked or are being checked
+	 * @return the latest generation, 0 if the formula has no derived metric
+	 *************************************************************************/
+	int getGeneration(Set<BaseMetric> visited)
+	{
+		int generation = 0;
+		for (BaseMetric metric : metrics) {
+			if (metric instanceof DerivedMetric && visited.add(metric))
+				generation = Math.max(generation, ((DerivedMetric)metric).getGeneration(visited));
+		}
+		return generation;
+	}
+
+
+	/*************************************************************************
+	 * Creates the working memory of an evaluation. A frame can be reused
+	 * for any number of evaluations, but by one thread at a time.
+	 *************************************************************************/
+	public Frame newFrame()
+	{
+		return new Frame(maxDepth, numParams);
+	}
+
+
+	/*************************************************************************
+	 * Evaluates the formula for a scope
+	 *
+	 * @param scope : the scope of the "$" variables
+	 * @param root : the scope of the "@" variables
+	 *
+	 * @return the value of the formula
+	 *************************************************************************/
+	public double eval(IMetricScope scope, IMetricScope root)
+	{
+		return eval(scope, root, newFrame());
+	}
+
+
+	/*************************************************************************
+	 * Evaluates the formula for a set of scopes
+	 *
+	 * @param scopes : the scopes of the "$" variables
+	 * @param root : the scope of the "@" variables
+	 * @param results : the value of each scope
+	 *************************************************************************/
+	public void eval(IMetricScope []scopes, IMetricScope root, double []results)
+	{
+		final Frame frame = newFrame();
+		for (int i=0; i<scopes.length; i++)
+			results[i] = eval(scopes[i], root, frame);
+	}
+
+
+	/*************************************************************************
+	 * Evaluates the formula for a scope with a given frame
+	 *
+	 * @param scope
+	 * @param root
+	 * @param frame : a frame of this formula
+	 * @return the value of the formula
+	 *************************************************************************/
+	public double eval(IMetricScope scope, IMetricScope root, Frame frame)
+	{
+		final double []stack = frame.stack;
+		int sp = -1;
+
+		for (int pc=0; pc<code.length; pc++)
+		{
+			switch (code[pc])
+			{
+			case PUSH_VALUE:
+				stack[++sp] = constants[code[++pc]];
+				break;
+			case PUSH_METRIC:
+				stack[++sp] = getValue(metrics[code[++pc]], scope);
+				break;
+			case PUSH_ROOT:
+				stack[++sp] = getValue(metrics[code[++pc]], root);
+				break;
+			case NEGATE:
+				stack[sp] = -stack[sp];
+				break;
+			case ADD:
+				sp--;
+				stack[sp] = stack[sp] + stack[sp+1];
+				break;
+			case SUBTRACT:
+				sp--;
+				stack[sp] = stack[sp] - stack[sp+1];
+				break;
+			case MULTIPLY:
+				sp--;
+				stack[sp] = stack[sp] * stack[sp+1];
+				break;
+			case DIVIDE:
+				sp--;
+				stack[sp] = stack[sp] / stack[sp+1];
+				break;
+			case POWER:
+				sp--;
+				stack[sp] = Math.pow(stack[sp], stack[sp+1]);
+				break;
+			case CALL:
+				final int f 	  = code[++pc];
+				final int n 	  = numParams[f];
+				final double []params = frame.params[f];
+				sp -= n;
+				System.arraycopy(stack, sp+1, params, 0, n);
+				stack[++sp] = functions[f].of(params, n);
+				break;
+			}
+		}
+		return stack[0];
+	}
+
+
+	/****
+	 * get the value of a metric variable, as {@link MetricVarMap#getValue(String)}
+	 *
+	 * @param metric
+	 * @param scope
+	 * @return the value, 0 if the value is not available
+	 */
+	private double getValue(BaseMetric metric, IMetricScope scope)
+	{
+		if (scope == null)
+			return 0.0d;
+
+		// avoid recursive call: if the metric queries its own value, we return the "raw" value
+		final MetricValue value = (metric == owner ? metric.getRawValue(scope) : metric.getValue(scope));
+		if (MetricValue.isAvailable(value))
+			return value.getValue();
+
+		return 0.0d;
+	}
+
+
+	/*************************************************************************
+	 *
+	 * Working memory of an evaluation
+	 *
+	 *************************************************************************/
+	static public class Frame
+	{
+		final private double []stack;
+		final private double [][]params;
+
+		private Frame(int maxDepth, int []numParams)
+		{
+			stack  = new double[Math.max(maxDepth, 1)];
+			params = new double[numParams.length][];
+			for (int i=0; i<numParams.length; i++)
+				params[i] = new double[numParams[i]];
+		}
+	}
+
+
+	/*************************************************************************
+	 *
+	 * Translation of an expression tree into a postfix program
+	 *
+	 *************************************************************************/
+	static private class Compiler
+	{
+		final private IMetricManager metricManager;
+		final private FuncMap fctMap;
+
+		final ArrayList<Integer> code 		 = new ArrayList<Integer>();
+		final ArrayList<Double> constants 	 = new ArrayList<Double>();
+		final ArrayList<BaseMetric> metrics  = new ArrayList<BaseMetric>();
+		final ArrayList<Function> functions  = new ArrayList<Function>();
+		final ArrayList<Integer> numParams 	 = new ArrayList<Integer>();
+
+		private int depth = 0;
+		int maxDepth = 0;
+
+		Compiler(IMetricManager metricManager, FuncMap fctMap)
+		{
+			this.metricManager = metricManager;
+			this.fctMap 	   = fctMap;
+		}
+
+		/****
+		 * generate the code of an expression
+		 * @param x
+		 * @return false if the expression contains an unsupported node
+		 */
+		boolean compile(Expression x)
+		{
+			if (x instanceof ValNode)
+			{
+				emit(PUSH_VALUE, constants.size());
+				constants.add(((ValNode)x).getValue());
+				push(1);
+			}
+			else if (x instanceof VarNode)
+			{
+				final VarNode var = (VarNode) x;
+				final String name = var.getName();
+				final char firstLetter = name.charAt(0);
+				if (firstLetter != '$' && firstLetter != '@')
+					return false;
+
+				final BaseMetric metric = metricManager.getMetric(name.substring(1));
+				if (metric == null)
+					return false;
+
+				emit(firstLetter == '@' ? PUSH_ROOT : PUSH_METRIC, metrics.size());
+				metrics.add(metric);
+				push(1);
+
+				if (var.getNegate())
+					code.add(NEGATE);
+			}
+			else if (x instanceof FuncNode)
+			{
+				final FuncNode func = (FuncNode) x;
+				final int n = func.numChildren();
+				for (int i=0; i<n; i++) {
+					if (!compile(func.child(i)))
+						return false;
+				}
+				emit(CALL, functions.size());
+				functions.add(fctMap.getFunction(func.getName(), n));
+				numParams.add(n);
+				push(1 - n);
+
+				if (func.getNegate())
+					code.add(NEGATE);
+			}
+			else if (x instanceof OpNode)
+			{
+				final OpNode op = (OpNode) x;
+				final int instruction;
+				if (x instanceof AddNode)
+					instruction = ADD;
+				else if (x instanceof SubNode)
+					instruction = SUBTRACT;
+				else if (x instanceof MultNode)
+					instruction = MULTIPLY;
+				else if (x instanceof DivNode)
+					instruction = DIVIDE;
+				else if (x instanceof PowNode)
+					instruction = POWER;
+				else
+					return false;
+
+				if (!compile(op.getLeftChild()) || !compile(op.getRightChild()))
+					return false;
+				code.add(instruction);
+				push(-1);
+			}
+			else
+			{
+				return false;
+			}
+			return true;
+		}
+
+		private void emit(int instruction, int operand)
+		{
+			code.add(instruction);
+			code.add(operand);
+		}
+
+		private void push(int n)
+		{
+			depth += n;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+	}
+}
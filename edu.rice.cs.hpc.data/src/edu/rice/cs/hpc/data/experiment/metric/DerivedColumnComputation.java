@@ -0,0 +1,179 @@
+package edu.rice.cs.hpc.data.experiment.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.rice.cs.hpc.data.experiment.scope.CallSiteScopeCallerView;
+import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.util.IProgressReport;
+
+/*******************************************************************
+ *
+ * One-time computation of the values of a derived metric for all the
+ * scopes of a set of trees (typically the calling context tree, the
+ * callers tree and the flat tree).
+ * <p>
+ * The values are computed by chunks of scopes in parallel if the formula
+ * is thread safe (see {@link DerivedMetric#isThreadSafe()}), and cached
+ * in the metric storage of the scopes (see {@link DerivedMetric#computeValues(Scope[])}),
+ * so that displaying or sorting the metric doesn't evaluate the formula
+ * anymore. The value of the root, needed for the percent annotations,
+ * is computed first.
+ * </p>
+ * Only the scopes which exist are computed: the lazily created scopes
+ * (like the callers of the callers tree) are computed on demand.
+ *
+ *******************************************************************/
+public class DerivedColumnComputation
+{
+	/** number of scopes computed by a task */
+	final static private int CHUNK_SIZE = 4096;
+
+	final private DerivedMetric metric;
+	final private int numThreads;
+
+	/****
+	 * Create a computation
+	 *
+	 * @param metric : the metric to compute
+	 * @param numThreads : if it's 1 or less, or if the formula of the metric is not
+	 * 	thread safe, the values are computed by the caller's thread.
+	 */
+	public DerivedColumnComputation(DerivedMetric metric, int numThreads)
+	{
+		this.metric 	= metric;
+		this.numThreads = numThreads;
+	}
+
+	/****
+	 * Compute the values of all the scopes of the given trees.
+	 *
+	 * @param roots : the roots of the trees
+	 * @param progress : progress report, called by the caller's thread. Can be null.
+	 */
+	public void compute(RootScope []roots, IProgressReport progress)
+	{
+		// the root value has to be known before the annotations can be computed
+		for (RootScope root : roots) {
+			if (root != null)
+				metric.getValue(root);
+		}
+
+		final List<Scope[]> chunks = split(roots);
+		if (progress != null)
+			progress.begin("Computing " + metric.getDisplayName(), chunks.size());
+
+		try {
+			// a formula which depends on an aggregate metric (directly or through 
+			// another derived metric) cannot be evaluated concurrently
+			if (numThreads <= 1 || chunks.size() < 2 || !metric.isThreadSafe()) {
+				for (Scope []chunk : chunks) {
+					metric.computeValues(chunk);
+					if (progress != null)
+						progress.advance();
+				}
+			} else {
+				computeConcurrently(chunks, progress);
+			}
+		} finally {
+			if (progress != null)
+				progress.end();
+		}
+	}
+
+
+	/****
+	 * compute the chunks with a pool of threads, and report the progress
+	 * each time a chunk is done
+	 *
+	 * @param chunks
+	 * @param progress
+	 */
+	private void computeConcurrently(List<Scope[]> chunks, IProgressReport progress)
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, chunks.size()));
+		try {
+			final CompletionService<Object> ecs = new ExecutorCompletionService<Object>(executor);
+			for (final Scope []chunk : chunks) {
+				ecs.submit(new Callable<Object>() {
+					public Object call() {
+						metric.computeValues(chunk);
+						return null;
+					}
+				});
+			}
+			for (int i=0; i<chunks.size(); i++) {
+				ecs.take().get();
+				if (progress != null)
+					progress.advance();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Computation of " + metric.getDisplayName() + " interrupted");
+
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/****
+	 * collect the scopes of the trees (except the roots) into chunks
+	 *
+	 * @param roots
+	 * @return the list of chunks
+	 */
+	static private List<Scope[]> split(RootScope []roots)
+	{
+		final List<Scope[]> chunks = new ArrayList<Scope[]>();
+		final Scope []buffer = new Scope[CHUNK_SIZE];
+		int size = 0;
+
+		final ArrayList<Scope> stack = new ArrayList<Scope>();
+		for (RootScope root : roots) {
+			if (root != null)
+				stack.add(root);
+		}
+		// the callers tree can be expanded by another thread in the meantime
+		synchronized (CallSiteScopeCallerView.getTreeLock()) {
+			while (!stack.isEmpty())
+			{
+				final Scope scope = stack.remove(stack.size()-1);
+				if (!(scope instanceof RootScope)) {
+					buffer[size++] = scope;
+					if (size == CHUNK_SIZE) {
+						chunks.add(buffer.clone());
+						size = 0;
+					}
+				}
+				final int nKids = scope.getSubscopeCount();
+				for (int i=0; i<nKids; i++) {
+					final Scope child = scope.getSubscope(i);
+					if (child != null)
+						stack.add(child);
+				}
+			}
+		}
+		if (size > 0) {
+			final Scope []chunk = new Scope[size];
+			System.arraycopy(buffer, 0, chunk, 0, size);
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+}
@@ -3,6 +3,10 @@
  */
 package edu.rice.cs.hpc.data.experiment.metric;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import edu.rice.cs.hpc.data.experiment.Experiment;
 import edu.rice.cs.hpc.data.experiment.scope.*;
 
@@ -18,8 +22,19 @@ public class DerivedMetric extends BaseMetric {
 	// DATA
 	//===================================================================================
 
+	/** counter of the compilations of the formulas: a new formula has a newer
+	 * generation than all the existing ones */
+	static final private AtomicInteger generations = new AtomicInteger(0);
+
+	/** generation of the formula of this metric. The cached values of this metric
+	 * become obsolete when its formula, or the formula of a derived metric it depends on,
+	 * is modified (see {@link #getGeneration()}) */
+	private volatile int generation;
+
 	// formula expression
 	private Expression expression;
+	// compiled formula, null if the expression has to be interpreted
+	private volatile CompiledFormula formula;
 	// the total aggregate value
 	//private double dRootValue = 0.0;
 	// map function
@@ -83,7 +98,7 @@ public class DerivedMetric extends BaseMetric {
 	 */
 	public void setExpression( String expr ) {
 		expression = ExpressionTree.parse(expr);
-		rootValue  = setRootValue(root);
+		compile();
 		// new formula has been set, refresh the root value used for computing percent
 		//dRootValue = getDoubleValue(root);
 	}
@@ -100,13 +115,58 @@ public class DerivedMetric extends BaseMetric {
 	// GET VALUE
 	//===================================================================================
 	/**
-	 * Computing the value of the derived metric
+	 * Computing the value of the derived metric.<br/>
+	 * This method can be called by several threads at the same time.
 	 * @param scope: the current scope
 	 * @return the object Double if there is a value, null otherwise
 	 */
 	public double getDoubleValue(IMetricScope scope) {
-		this.varMap.setScope(scope);
-		return expression.eval(this.varMap, this.fctMap);
+		final CompiledFormula f = formula;
+		if (f != null) {
+			return f.eval(scope, root);
+		}
+		// the variable map is shared
+		synchronized (varMap) {
+			this.varMap.setScope(scope);
+			return expression.eval(this.varMap, this.fctMap);
+		}
+	}
+	
+	/**
+	 * Checks if the values of this metric can be computed by several threads
+	 * at the same time. It's the case only if the formula is compiled and it
+	 * doesn't depend, directly or through another derived metric, on a metric
+	 * which is not thread safe like an aggregate metric.
+	 * @return true if the metric can be computed concurrently
+	 */
+	public boolean isThreadSafe() {
+		return isThreadSafe(new HashSet<BaseMetric>());
+	}
+	
+	boolean isThreadSafe(Set<BaseMetric> visited) {
+		visited.add(this);
+		final CompiledFormula f = formula;
+		return f != null && f.isThreadSafe(visited);
+	}
+	
+	/**
+	 * Computing the values of the derived metric for a set of scopes, and
+	 * caching them in the metric storage of the scopes.
+	 * @param scopes: the scopes to compute
+	 */
+	public void computeValues(Scope []scopes) {
+		final int gen = getGeneration();
+		final CompiledFormula f = formula;
+		final CompiledFormula.Frame frame = (f == null ? null : f.newFrame());
+		
+		for (Scope scope : scopes) {
+			final IMetricValueCollection values = scope.getMetricValues();
+			if (values == null || !Float.isNaN(values.getDerivedValue(index, gen)))
+				continue;
+			
+			final double dVal = (f == null ? getDoubleValue(scope) : f.eval(scope, root, frame));
+			values.setDerivedValue(index, gen, (float) dVal);
+		}
 	}
 	
 	/**
@@ -125,7 +185,8 @@ public class DerivedMetric extends BaseMetric {
 			return rootValue;
 		} else {
 			// otherwise, we need to recompute the value again via the equation
-			dVal = getDoubleValue(scope);
+			// (unless it has been cached)
+			dVal = getCachedValue(scope);
 			
 			// ugly test to check whether the value exist or not
 			if(Double.compare(dVal, 0.0d) == 0)
@@ -173,6 +234,78 @@ public class DerivedMetric extends BaseMetric {
 		this.experiment = experiment;
 		// updating as well the variable mapping to metrics
 		varMap.setMetricManager(experiment);
+		compile();
+	}
+	
+	/****
+	 * get the current generation of the formula of this metric: the latest
+	 * generation of its own formula and of the formulas of the derived metrics
+	 * it depends on. The cached values of a previous generation are obsolete.
+	 * 
+	 * @return the generation, always positive
+	 */
+	public int getGeneration()
+	{
+		final CompiledFormula f = formula;
+		if (f != null && !f.hasDerivedMetrics())
+			return generation;
+
+		final Set<BaseMetric> visited = new HashSet<BaseMetric>();
+		visited.add(this);
+		return getGeneration(visited);
+	}
+	
+	int getGeneration(Set<BaseMetric> visited) {
+		final CompiledFormula f = formula;
+		if (f != null)
+			return Math.max(generation, f.getGeneration(visited));
+
+		// the variables of an interpreted formula are not known:
+		// it may depend on any derived metric
+		int gen = generation;
+		for (BaseMetric metric : experiment.getMetrics()) {
+			if (metric instanceof DerivedMetric && visited.add(metric))
+				gen = Math.max(gen, ((DerivedMetric)metric).getGeneration(visited));
+		}
+		return gen;
+	}
+	
+	/****
+	 * compile the expression, and make the cached values obsolete
+	 */
+	private void compile()
+	{
+		formula 	= CompiledFormula.compile(expression, this, experiment, fctMap);
+		generation 	= generations.incrementAndGet();
+		rootValue  	= setRootValue(root);
+	}
+	
+	/****
+	 * get the value of a scope from the metric storage of the scope,
+	 * or compute and cache it if it doesn't exist.
+	 * 
+	 * @param scope
+	 * @return the value of the scope
+	 */
+	private double getCachedValue(IMetricScope scope)
+	{
+		if (!(scope instanceof Scope))
+			return getDoubleValue(scope);
+		
+		final IMetricValueCollection values = ((Scope)scope).getMetricValues();
+		if (values == null)
+			return getDoubleValue(scope);
+		
+		final int gen = getGeneration();
+		float value = values.getDerivedValue(index, gen);
+		if (Float.isNaN(value))
+		{
+			// the value is stored in single precision, as the other metrics.
+			// a NaN value is never cached: it is computed again.
+			value = (float) getDoubleValue(scope);
+			values.setDerivedValue(index, gen, value);
+		}
+		return value;
 	}
 	
 	private MetricValue setRootValue(RootScope rootScope) 
@@ -0,0 +1,82 @@
+package edu.rice.cs.hpc.data.experiment.metric;
+
+import java.util.Arrays;
+
+/*********************************************************************
+ *
+ * Cached values of the derived metrics of a scope, for the metric
+ * collections which don't use a {@link MetricValueStore}.<br/>
+ * Each value is tagged with the generation of the formula of its
+ * metric (see {@link DerivedMetric#getGeneration()}): a value of an
+ * older generation is not returned.
+ * <p>
+ * A value is never overwritten by a newer generation: a new cache is
+ * created instead, so that a value computed with an old formula is
+ * never returned for the new one.
+ * </p>
+ *********************************************************************/
+public class DerivedValues
+{
+	final private int []generations;
+	final private float []values;
+
+	private DerivedValues(int []generations, float []values)
+	{
+		this.generations = generations;
+		this.values 	 = values;
+	}
+
+	/****
+	 * get the cached value of a derived metric
+	 *
+	 * @param cache : the cache, can be null
+	 * @param index : the index of the metric
+	 * @param generation : the current generation of the metric
+	 * @return the value, or NaN if the value has not been computed in this generation
+	 */
+	static public float get(DerivedValues cache, int index, int generation)
+	{
+		if (cache != null && index < cache.values.length && cache.generations[index] == generation)
+			return cache.values[index];
+
+		return Float.NaN;
+	}
+
+	/****
+	 * cache the value of a derived metric
+	 *
+	 * @param cache : the current cache, can be null
+	 * @param index : the index of the metric
+	 * @param generation : the generation of the metric when the value was computed
+	 * @param value
+	 * @return the cache to keep
+	 */
+	static public DerivedValues set(DerivedValues cache, int index, int generation, float value)
+	{
+		if (cache != null && index < cache.values.length)
+		{
+			if (cache.generations[index] > generation)
+				// the value is already obsolete
+				return cache;
+
+			if (cache.generations[index] == generation)
+			{
+				cache.values[index] = value;
+				return cache;
+			}
+		}
+		final int length = Math.max(index + 1, cache == null ? 0 : cache.values.length);
+		final int []generations = new int[length];
+		final float []values 	= new float[length];
+		Arrays.fill(values, Float.NaN);
+		if (cache != null)
+		{
+			System.arraycopy(cache.generations, 0, generations, 0, cache.generations.length);
+			System.arraycopy(cache.values, 0, values, 0, cache.values.length);
+		}
+		generations[index] = generation;
+		values[index] 	   = value;
+
+		return new DerivedValues(generations, values);
+	}
+}
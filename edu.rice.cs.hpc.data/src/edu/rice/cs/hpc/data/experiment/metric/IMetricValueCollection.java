@@ -42,6 +42,27 @@ public interface IMetricValueCollection
 	 */
 	public void setAnnotation(int index, float ann);
 	
+	/****
+	 * get the cached value of a derived metric.
+	 * 
+	 * @param index : the index of the derived metric
+	 * @param generation : the current generation of the derived metric
+	 * 	(see {@link DerivedMetric#getGeneration()})
+	 * @return the value, or NaN if the value has not been computed
+	 * 	in this generation
+	 */
+	public float getDerivedValue(int index, int generation);
+	
+	/****
+	 * cache the value of a derived metric
+	 * 
+	 * @param index : the index of the derived metric
+	 * @param generation : the generation of the derived metric when
+	 * 	the value was computed
+	 * @param value
+	 */
+	public void setDerivedValue(int index, int generation, float value);
+	
 	/***
 	 * return if the current scope has at least a metric value
 	 * @return true if a metric value exists, false otherwise.
@@ -3,10 +3,14 @@ package edu.rice.cs.hpc.data.experiment.metric;
 import java.io.IOException;
 import java.util.List;
 
+import edu.rice.cs.hpc.data.experiment.BaseExperiment;
 import edu.rice.cs.hpc.data.experiment.extdata.IThreadDataCollection;
+import edu.rice.cs.hpc.data.experiment.extdata.ThreadDataAggregation;
+import edu.rice.cs.hpc.data.experiment.extdata.ThreadDataAggregation.Statistic;
 import edu.rice.cs.hpc.data.experiment.scope.IMetricScope;
 import edu.rice.cs.hpc.data.experiment.scope.RootScope;
 import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.util.IProgressReport;
 
 /****************************************
  * Raw metric class\n
@@ -14,6 +18,9 @@ import edu.rice.cs.hpc.data.experiment.scope.Scope;
  ****************************************/
 public class MetricRaw  extends BaseMetric {
 
+	/*** the text displayed until the values of the threads are computed **/
+	static final private String TEXT_NOT_COMPUTED = "...";
+
 	private int ID;			 // the index of this metric as specified in XML
 	private String db_glob;  // old format: the glob pattern of the metric-db file
 	private int db_id;		 // sequential index of the metric in the XML. Is has to be between 0 to the number of metrics
@@ -21,13 +28,16 @@ public class MetricRaw  extends BaseMetric {
 	
 	private IThreadDataCollection threadData;
 	
+	/*** aggregation of the thread values, shared with the duplicates of this metric **/
+	private ThreadDataAggregation aggregation;
+	
+	/*** the statistic of the threads displayed by this metric. By default, the mean. **/
+	private Statistic statistic = Statistic.MEAN;
+	
 	/*** list of threads that its metric values have to be computed.<br/> 
 	 *   each MetricRaw may have different threads. **/
 	private List<Integer> threads = null;
 	
-	/*** list of scope metric values of a certain threads. The length of the array is the number of cct nodes*/
-	private double []thread_values = null;
-	
 	/*** similar to partner index, but this partner refers directly to the metric partner.**/
 	private MetricRaw partner;
 	
@@ -56,7 +66,8 @@ public class MetricRaw  extends BaseMetric {
 	
 	public void setThreadData(IThreadDataCollection threadData)
 	{
-		this.threadData = threadData;
+		this.threadData  = threadData;
+		this.aggregation = (threadData == null ? null : new ThreadDataAggregation(threadData));
 	}
 	
 	public void setThread(List<Integer> threads)
@@ -69,6 +80,20 @@ public class MetricRaw  extends BaseMetric {
 		return threads;
 	}
 	
+	/****
+	 * set the statistic of the threads to be displayed
+	 * @param statistic : sum, mean, min, max or standard deviation
+	 */
+	public void setStatistic(Statistic statistic)
+	{
+		this.statistic = statistic;
+	}
+	
+	public Statistic getStatistic()
+	{
+		return statistic;
+	}
+	
 	/***
 	 * return the glob pattern of files of this raw metric
 	 * @return
@@ -127,7 +152,9 @@ public class MetricRaw  extends BaseMetric {
 	@Override
 	public MetricValue getValue(IMetricScope s) {
 		MetricValue value = MetricValue.NONE;
-		if (threadData != null)
+		// the values are computed in background by computeValues(): don't read
+		// the thread-level data here, and don't keep the root value yet
+		if (threadData != null && isComputed())
 		{
 			try {
 				if (threads != null)
@@ -164,12 +191,56 @@ public class MetricRaw  extends BaseMetric {
 	}
 
 
+	@Override
+	public String getMetricTextValue(Scope scope) {
+		if (!isComputed())
+			return TEXT_NOT_COMPUTED;
+		return super.getMetricTextValue(scope);
+	}
+
+
+	/****
+	 * check if the values of the threads of this metric (and of its partner)
+	 * are computed. If not, {@link #getValue(IMetricScope)} returns no value.
+	 * 
+	 * @return true if the values are available
+	 */
+	public boolean isComputed()
+	{
+		if (threadData == null || threads == null)
+			return true;
+		return hasColumns(threads) && (partner == null || partner.hasColumns(threads));
+	}
+
+
+	/****
+	 * compute the values of the threads of this metric (and of its partner)
+	 * for all the scopes of an experiment.<br/>
+	 * This method reads all the thread-level values of the metric: it can take
+	 * long, and should be called by a background job, not by the UI thread.
+	 * 
+	 * @param experiment : the experiment of the scopes
+	 * @param progress : the progress of the computation
+	 * @throws IOException
+	 */
+	public void computeValues(BaseExperiment experiment, IProgressReport progress) throws IOException
+	{
+		if (threadData == null || threads == null)
+			return;
+		computeColumns(experiment, threads, progress);
+		if (partner != null)
+			partner.computeColumns(experiment, threads, progress);
+	}
+
+
 	@Override
 	public BaseMetric duplicate() {
 		MetricRaw dup = new MetricRaw(ID, displayName, db_glob, db_id, 
 				partner_index, metricType, num_metrics);
 		// TODO: hack to duplicate also the thread data
-		dup.threadData = threadData;
+		dup.threadData  = threadData;
+		dup.aggregation = aggregation;
+		dup.statistic 	= statistic;
 		return dup;
 	}
 	
@@ -185,12 +256,9 @@ public class MetricRaw  extends BaseMetric {
 		MetricValue value = MetricValue.NONE;
 		if (threads != null)
 		{
-			if (threads.size()>1)
-			{
-				value = getAverageValue(s, threads);
-			} else if (threads.size()==1)
+			if (threads.size()>0)
 			{
-				value = getSpecificValue(s, threads.get(0));
+				value = getAggregateValue(s, threads);
 			}
 			if (value == MetricValue.NONE && s instanceof RootScope 
 					&& metricType == MetricType.EXCLUSIVE) {
@@ -205,48 +273,39 @@ public class MetricRaw  extends BaseMetric {
 		return getValue(s);
 	}
 	/*****
-	 * compute the average value of a scope for certain threads.
+	 * get the aggregated value of a scope for certain threads.
+	 * The values of all the scopes are computed by {@link #computeValues(BaseExperiment, IProgressReport)},
+	 * until then the scope has no value.
 	 * The number of threads cannot be null.
 	 * @param s
 	 * @return
 	 * @throws IOException
 	 */
-	private MetricValue getAverageValue(IMetricScope s, List<Integer> threads) throws IOException
+	private MetricValue getAggregateValue(IMetricScope s, List<Integer> threads) throws IOException
 	{
-		double val_mean = 0.0;
-		final double divider  = 1.0d / threads.size();
-		double []values = threadData.getMetrics(((Scope)s).getCCTIndex(), getIndex(), num_metrics);
-		for(Integer thread : threads)
-		{
-			val_mean += (values[thread] * divider);
-		}
-		MetricValue value = setValue(val_mean); 
-		return value;
+		final Scope scope = (Scope) s;
+		final ThreadDataAggregation.Columns columns = aggregation.getColumnsIfExist(getIndex(), threads);
+		if (columns == null)
+			return MetricValue.NONE;
+		
+		return setValue(columns.getValue(statistic, scope.getCCTIndex()));
 	}
 	
-	/****
-	 * get the metric value of a give scope on a given thread
-	 * 
-	 * @param s : the scope
-	 * @param thread_id : the thread ID
-	 * @return a metric value
-	 * @throws IOException
-	 */
-	private MetricValue getSpecificValue(IMetricScope s, int thread_id) throws IOException
+	
+	private boolean hasColumns(List<Integer> threads)
 	{
-		checkValues(thread_id);
-		MetricValue mv = MetricValue.NONE;
-		Scope scope = (Scope)s;
-		if (thread_values != null) {
-			mv = setValue(thread_values[scope.getCCTIndex()-1]);
-		} else {
-			// there is no API implementation for reading the whold CCT metrics
-			// TODO: using the old get metric for the new database
-			double []values = threadData.getMetrics(scope.getCCTIndex(), getIndex(), num_metrics);
-			double value    = values[thread_id];
-			mv  = setValue(value);
-		}
-		return mv;
+		return aggregation == null || threads.isEmpty() 
+				|| aggregation.getColumnsIfExist(getIndex(), threads) != null;
+	}
+	
+	
+	private void computeColumns(BaseExperiment experiment, List<Integer> threads, IProgressReport progress) 
+			throws IOException
+	{
+		if (aggregation == null || threads.isEmpty())
+			return;
+		aggregation.getColumns(getIndex(), num_metrics, threads, 
+				experiment.getMinCCTID(), experiment.getMaxCCTID(), progress);
 	}
 	
 	
@@ -257,10 +316,5 @@ public class MetricRaw  extends BaseMetric {
 			mv = new MetricValue(value);
 		return mv;
 	}
-	
-	private void checkValues(int thread_id) throws IOException
-	{
-		if (thread_values == null)
-			thread_values = threadData.getScopeMetrics(thread_id, ID, num_metrics);
-	}
+
 }
@@ -0,0 +1,102 @@
+package edu.rice.cs.hpc.data.experiment.metric;
+
+import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+
+/*********************************************************************
+ *
+ * The implementation of {@link IMetricValueCollection} which stores
+ * the values in the experiment-wide {@link MetricValueStore} instead
+ * of an array of {@link MetricValue} objects per scope.
+ * <p>
+ * A {@link MetricValue} is created each time a value is requested.
+ * The caller has to call {@link #setValue(int, MetricValue)} to store
+ * a modified value.
+ * </p>
+ *********************************************************************/
+public class MetricValueCollectionCompact implements IMetricValueCollection
+{
+	final private MetricValueStore store;
+	final private int id;
+	final private int size;
+
+	/****
+	 * create a collection for a new scope
+	 *
+	 * @param store : the experiment's store
+	 * @param size : the number of metrics
+	 */
+	public MetricValueCollectionCompact(MetricValueStore store, int size)
+	{
+		this.store = store;
+		this.size  = size;
+		this.id	   = store.newId();
+	}
+
+	@Override
+	public MetricValue getValue(Scope scope, int index)
+	{
+		if (index < size) {
+			return store.getValue(index, id);
+		}
+		// index out of array bound: must be a derived metric
+		BaseExperimentWithMetrics experiment = (BaseExperimentWithMetrics) scope.getExperiment();
+		BaseMetric metric = experiment.getMetric(index);
+		if (metric instanceof DerivedMetric)
+		{
+			return ((DerivedMetric)metric).getValue(scope);
+		}
+		return MetricValue.NONE;
+	}
+
+	@Override
+	public float getAnnotation(int index) {
+		return store.getAnnotation(index, id);
+	}
+
+	@Override
+	public void setValue(int index, MetricValue value)
+	{
+		if (index < size)
+		{
+			store.setValue(index, id, value);
+		}
+	}
+
+	@Override
+	public void setAnnotation(int index, float annotation) {
+		if (index < size) {
+			store.setAnnotation(index, id, annotation);
+		}
+	}
+
+	@Override
+	public float getDerivedValue(int index, int generation) {
+		return store.getDerivedValue(index, id, generation);
+	}
+
+	@Override
+	public void setDerivedValue(int index, int generation, float value) {
+		store.setDerivedValue(index, id, generation, value);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void dispose() {
+		store.clear(id);
+	}
+
+	@Override
+	public boolean hasMetrics(Scope scope) {
+		for (int i=0; i<size; i++)
+		{
+			if (store.hasValue(i, id))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,334 @@
+package edu.rice.cs.hpc.data.experiment.metric;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*********************************************************************
+ *
+ * Experiment-wide storage of metric values in primitive arrays.<br/>
+ * Each scope which has metrics is given a dense id, and the values of
+ * a metric are stored in a column indexed by this id. A column is split
+ * into pages which are allocated only when one of their scopes has a value,
+ * so that a metric used by a few scopes doesn't cost a whole column.
+ * <p>
+ * For each entry, the store keeps the flags of {@link MetricValue}
+ * plus a presence flag, so that a {@link MetricValue} can be created
+ * on demand with exactly the same state as the one stored.
+ * </p>
+ * The store also caches the computed values of the derived metrics,
+ * tagged with the generation of their formula (see {@link DerivedMetric#getGeneration()}).
+ * <br/>
+ * This class is thread safe as long as a scope entry is not modified
+ * by two threads at the same time.
+ *
+ *********************************************************************/
+public class MetricValueStore
+{
+	final static private int PAGE_SHIFT = 12;
+	final static private int PAGE_SIZE  = 1 << PAGE_SHIFT;
+	final static private int PAGE_MASK  = PAGE_SIZE - 1;
+
+	/** number of bits of flags for each entry */
+	final static private int FLAG_BITS  	= 4;
+	final static private int ENTRIES_PER_WORD = Long.SIZE / FLAG_BITS;
+	final static private long FLAG_MASK 	= (1 << FLAG_BITS) - 1;
+
+	/** the entry has been set, even without value */
+	final static private byte IS_PRESENT 	= 4;
+
+	/** pages[metric][page] : a null page means no value */
+	private volatile Page [][]pages = new Page[0][];
+
+	final private AtomicInteger numIds = new AtomicInteger(0);
+
+	/****
+	 * allocate a new id for a scope
+	 * @return a new id
+	 */
+	public int newId()
+	{
+		return numIds.getAndIncrement();
+	}
+
+	/****
+	 * get the number of allocated ids
+	 * @return
+	 */
+	public int getNumIds()
+	{
+		return numIds.get();
+	}
+
+	/****
+	 * get the value of a metric for a given scope id.
+	 *
+	 * @param metric : the index of the metric
+	 * @param id : the id of the scope
+	 * @return a new instance of metric value, or {@link MetricValue#NONE} if the value doesn't exist
+	 */
+	public MetricValue getValue(int metric, int id)
+	{
+		final Page page = getPage(metric, id, false);
+		if (page != null) {
+			final int i 	= id & PAGE_MASK;
+			final int flags = page.getFlags(i);
+			if ((flags & IS_PRESENT) != 0) {
+				final MetricValue mv = new MetricValue();
+				mv.flags = (byte) (flags & ~IS_PRESENT);
+				mv.value = page.values[i];
+				final float []annotations = page.annotations;
+				if (annotations != null)
+					mv.annotation = annotations[i];
+				return mv;
+			}
+		}
+		return MetricValue.NONE;
+	}
+
+	/****
+	 * check if a scope has a value for a given metric
+	 *
+	 * @param metric
+	 * @param id
+	 * @return
+	 */
+	public boolean hasValue(int metric, int id)
+	{
+		final Page page = getPage(metric, id, false);
+		return page != null && (page.getFlags(id & PAGE_MASK) & IS_PRESENT) != 0;
+	}
+
+	/****
+	 * get the annotation of a metric for a given scope id.
+	 *
+	 * @param metric
+	 * @param id
+	 * @return the annotation, or 0 if there is no value
+	 */
+	public float getAnnotation(int metric, int id)
+	{
+		final Page page = getPage(metric, id, false);
+		if (page != null && page.annotations != null) {
+			return page.annotations[id & PAGE_MASK];
+		}
+		return 0;
+	}
+
+	/****
+	 * store a metric value for a given scope id.
+	 * The store doesn't keep a reference to the metric value.
+	 *
+	 * @param metric
+	 * @param id
+	 * @param mv : the value. If it is null or {@link MetricValue#NONE}, the entry is removed.
+	 */
+	public void setValue(int metric, int id, MetricValue mv)
+	{
+		final int i = id & PAGE_MASK;
+
+		if (mv == null || mv == MetricValue.NONE) {
+			final Page page = getPage(metric, id, false);
+			if (page != null)
+				page.setFlags(i, 0);
+			return;
+		}
+		final Page page = getPage(metric, id, true);
+		page.values[i] = mv.value;
+		if (mv.annotation != 0 || page.annotations != null)
+			page.getAnnotations()[i] = mv.annotation;
+
+		page.setFlags(i, mv.flags | IS_PRESENT);
+	}
+
+	/****
+	 * set the annotation of an existing metric value
+	 *
+	 * @param metric
+	 * @param id
+	 * @param annotation
+	 */
+	public void setAnnotation(int metric, int id, float annotation)
+	{
+		final Page page = getPage(metric, id, false);
+		if (page == null)
+			return;
+
+		final int i 	= id & PAGE_MASK;
+		final int flags = page.getFlags(i);
+		if ((flags & IS_PRESENT) != 0) {
+			page.getAnnotations()[i] = annotation;
+			page.setFlags(i, flags | MetricValue.ANNOTATION_IS_AVAILABLE);
+		}
+	}
+
+	/****
+	 * get the cached value of a derived metric for a given scope id.
+	 *
+	 * @param metric : the index of the derived metric
+	 * @param id : the id of the scope
+	 * @param generation : the current generation of the derived metric
+	 * @return the value, or NaN if the value has not been computed in this generation
+	 */
+	public float getDerivedValue(int metric, int id, int generation)
+	{
+		final Page page = getPage(metric, id, false);
+		if (page != null && page.generation == generation) {
+			final int i = id & PAGE_MASK;
+			if ((page.getFlags(i) & IS_PRESENT) != 0)
+				return page.values[i];
+		}
+		return Float.NaN;
+	}
+
+	/****
+	 * cache the value of a derived metric for a given scope id.<br/>
+	 * The pages of an older generation are replaced, and a value of an
+	 * older generation is ignored, so that a value computed with an old
+	 * formula is never returned for the new one.
+	 *
+	 * @param metric
+	 * @param id
+	 * @param generation : the generation of the derived metric when the value was computed
+	 * @param value
+	 */
+	public void setDerivedValue(int metric, int id, int generation, float value)
+	{
+		Page page = getPage(metric, id, false);
+		if (page == null || page.generation < generation)
+			page = createPage(metric, id >>> PAGE_SHIFT, generation);
+
+		if (page.generation == generation) {
+			final int i = id & PAGE_MASK;
+			page.values[i] = value;
+			page.setFlags(i, IS_PRESENT);
+		}
+	}
+
+	/****
+	 * remove all values of a scope id
+	 * @param id
+	 */
+	public void clear(int id)
+	{
+		final Page [][]dir = pages;
+		for (int metric=0; metric<dir.length; metric++) {
+			final Page page = getPage(metric, id, false);
+			if (page != null)
+				page.setFlags(id & PAGE_MASK, 0);
+		}
+	}
+
+	/****
+	 * free all the pages
+	 */
+	public synchronized void dispose()
+	{
+		pages = new Page[0][];
+	}
+
+	// --------------------------------------------------------------------
+	// Private methods
+	// --------------------------------------------------------------------
+
+	/****
+	 * get the page of an entry
+	 *
+	 * @param metric
+	 * @param id
+	 * @param create : create the page if it doesn't exist
+	 * @return the page, null if it doesn't exist and create is false
+	 */
+	private Page getPage(int metric, int id, boolean create)
+	{
+		final int p = id >>> PAGE_SHIFT;
+		final Page [][]dir = pages;
+		if (metric < dir.length) {
+			final Page []column = dir[metric];
+			if (column != null && p < column.length && column[p] != null)
+				return column[p];
+		}
+		if (!create)
+			return null;
+
+		return createPage(metric, p, 0);
+	}
+
+	/****
+	 * create a page if it doesn't exist or if it is older than a given generation
+	 *
+	 * @param metric
+	 * @param p : the index of the page
+	 * @param generation : the generation of the derived metric, 0 for the other metrics
+	 * @return the page
+	 */
+	private synchronized Page createPage(int metric, int p, int generation)
+	{
+		Page [][]dir = pages;
+		Page []column = (metric < dir.length ? dir[metric] : null);
+
+		if (column == null || p >= column.length) {
+			// copy on write: the readers never see a directory being modified
+			final int length = Math.max(p+1, column == null ? 0 : column.length * 2);
+			final Page []newColumn = new Page[length];
+			if (column != null)
+				System.arraycopy(column, 0, newColumn, 0, column.length);
+			column = newColumn;
+
+			final Page [][]newDir = new Page[Math.max(metric+1, dir.length)][];
+			System.arraycopy(dir, 0, newDir, 0, dir.length);
+			newDir[metric] = column;
+			pages = newDir;
+		}
+		if (column[p] == null || column[p].generation < generation)
+			column[p] = new Page(generation);
+
+		return column[p];
+	}
+
+
+	/*********************************************************************
+	 *
+	 * values of a metric for PAGE_SIZE consecutive scopes
+	 *
+	 *********************************************************************/
+	static private class Page
+	{
+		final float []values = new float[PAGE_SIZE];
+		final AtomicLongArray flags = new AtomicLongArray(PAGE_SIZE / ENTRIES_PER_WORD);
+
+		/** generation of the values of a derived metric, 0 for the other metrics */
+		final int generation;
+
+		/** most of the time, only a few metrics have annotations */
+		volatile float []annotations;
+
+		Page(int generation)
+		{
+			this.generation = generation;
+		}
+
+		int getFlags(int i)
+		{
+			final int shift = (i % ENTRIES_PER_WORD) * FLAG_BITS;
+			return (int) ((flags.get(i / ENTRIES_PER_WORD) >>> shift) & FLAG_MASK);
+		}
+
+		void setFlags(int i, int value)
+		{
+			final int word  = i / ENTRIES_PER_WORD;
+			final int shift = (i % ENTRIES_PER_WORD) * FLAG_BITS;
+			long old_value, new_value;
+			do {
+				old_value = flags.get(word);
+				new_value = (old_value & ~(FLAG_MASK << shift)) | (((long)value & FLAG_MASK) << shift);
+			} while (!flags.compareAndSet(word, old_value, new_value));
+		}
+
+		synchronized float[] getAnnotations()
+		{
+			if (annotations == null)
+				annotations = new float[PAGE_SIZE];
+			return annotations;
+		}
+	}
+}
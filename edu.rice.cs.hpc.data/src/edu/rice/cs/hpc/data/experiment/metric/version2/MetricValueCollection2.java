@@ -3,6 +3,7 @@ package edu.rice.cs.hpc.data.experiment.metric.version2;
 import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
 import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
 import edu.rice.cs.hpc.data.experiment.metric.DerivedMetric;
+import edu.rice.cs.hpc.data.experiment.metric.DerivedValues;
 import edu.rice.cs.hpc.data.experiment.metric.IMetricValueCollection;
 import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
 import edu.rice.cs.hpc.data.experiment.scope.Scope;
@@ -17,6 +18,9 @@ public class MetricValueCollection2 implements IMetricValueCollection
 {
 	final private MetricValue []values;
 
+	/** cached values of the derived metrics */
+	private DerivedValues derived;
+
 	public MetricValueCollection2(int size) {
 		values = new MetricValue[size];
 	}
@@ -68,6 +72,16 @@ public class MetricValueCollection2 implements IMetricValueCollection
 	}
 
 
+	@Override
+	public float getDerivedValue(int index, int generation) {
+		return DerivedValues.get(derived, index, generation);
+	}
+
+	@Override
+	public void setDerivedValue(int index, int generation, float value) {
+		derived = DerivedValues.set(derived, index, generation, value);
+	}
+
 	@Override
 	public int size() {
 		if (values != null)
@@ -6,6 +6,7 @@ import edu.rice.cs.hpc.data.db.DataSummary;
 import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
 import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
 import edu.rice.cs.hpc.data.experiment.metric.DerivedMetric;
+import edu.rice.cs.hpc.data.experiment.metric.DerivedValues;
 import edu.rice.cs.hpc.data.experiment.metric.IMetricValueCollection;
 import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
 import edu.rice.cs.hpc.data.experiment.scope.RootScope;
@@ -29,6 +30,9 @@ public class MetricValueCollection3 implements IMetricValueCollection
 {
 	final private RootScope root;
 	private MetricValue []values;
+
+	/** cached values of the derived metrics */
+	private DerivedValues derived;
 	
 	public MetricValueCollection3(RootScope root, Scope scope) throws IOException
 	{
@@ -108,10 +112,22 @@ public class MetricValueCollection3 implements IMetricValueCollection
 
 	@Override
 	public void setAnnotation(int index, float ann) {
-		MetricValue value = values[index];
-		MetricValue.setAnnotationValue(value, ann);
+		if (values != null && index < values.length) {
+			MetricValue value = values[index];
+			MetricValue.setAnnotationValue(value, ann);
+		}
+	}
+
+
+	@Override
+	public float getDerivedValue(int index, int generation) {
+		return DerivedValues.get(derived, index, generation);
 	}
 
+	@Override
+	public void setDerivedValue(int index, int generation, float value) {
+		derived = DerivedValues.set(derived, index, generation, value);
+	}
 
 	@Override
 	public int size() {
@@ -80,6 +80,26 @@ public String getName()
 }
 
 
+/*************************************************************************
+ *	Returns the name of the file of this alien scope.
+ ************************************************************************/
+
+public String getFileName()
+{
+	return this.fileName;
+}
+
+
+/*************************************************************************
+ *	Returns the name of the procedure of this alien scope.
+ ************************************************************************/
+
+public String getProcedureName()
+{
+	return this.procedureName;
+}
+
+
 /*************************************************************************
  *	Return a duplicate of this procedure scope, 
  *  minus the tree information .
@@ -7,6 +7,7 @@ import java.util.LinkedList;
 import edu.rice.cs.hpc.data.experiment.metric.AbstractCombineMetric;
 import edu.rice.cs.hpc.data.experiment.scope.filters.MetricValuePropagationFilter;
 import edu.rice.cs.hpc.data.experiment.scope.visitors.CallersViewScopeVisitor;
+import edu.rice.cs.hpc.data.util.LongHashMap;
 
 
 /****************************************************************************
@@ -25,6 +26,8 @@ public class CallSiteScopeCallerView extends CallSiteScope implements IMergedSco
 
 	static final private IncrementalCombineMetricUsingCopy combine_with_dupl = new IncrementalCombineMetricUsingCopy();
 	static final private CombineMetricUsingCopyNoCondition combine_without_cond = new CombineMetricUsingCopyNoCondition();
+	/** lock to build the children of the caller tree nodes, one node at a time */
+	static final private Object BUILD_LOCK = new Object();
 	
 	/**
 	 * 
@@ -99,9 +102,28 @@ public class CallSiteScopeCallerView extends CallSiteScope implements IMergedSco
 		return this.flag_scope_has_child;
 	}
 
+	/*****************
+	 * retrieve the lock of the caller trees.
+	 * <p>
+	 * The children of a caller tree node are built under this lock, possibly
+	 * by a background thread. Any other reader of the children of a caller
+	 * tree node has to hold it as well.
+	 * </p>
+	 * @return the lock
+	 */
+	static public Object getTreeLock() {
+		return BUILD_LOCK;
+	}
+
 	/*****************
 	 * retrieve the child scopes of this node. 
 	 * If a node has merged siblings, then we need to reconstruct the children of the merged scopes
+	 * <p>
+	 * The children can be prefetched by a background thread while the user 
+	 * expands another node. Building the children combines the metrics of
+	 * other nodes, and the combination of aggregate metrics has a shared
+	 * state, hence only one node of any caller tree is built at a time.
+	 * </p>
 	 * @param finalizeVisitor: visitor traversal for finalization phase
 	 * @param percentVisitor: visitor traversal to compute the percentage
 	 * @param inclusiveOnly: filter for inclusive metrics
@@ -112,6 +134,15 @@ public class CallSiteScopeCallerView extends CallSiteScope implements IMergedSco
 			MetricValuePropagationFilter inclusiveOnly, 
 			MetricValuePropagationFilter exclusiveOnly ) {
 
+		synchronized (BUILD_LOCK) {
+			return buildAllChildren(inclusiveOnly, exclusiveOnly);
+		}
+	}
+
+	private Object[] buildAllChildren(
+			MetricValuePropagationFilter inclusiveOnly, 
+			MetricValuePropagationFilter exclusiveOnly ) {
+
 		Object children[] = this.getChildren();
 
 		if (children != null && children.length>0) {
@@ -142,6 +173,11 @@ public class CallSiteScopeCallerView extends CallSiteScope implements IMergedSco
 		//----------------------------------------------------------------
 
 		if (this.listOfmerged != null) {
+			
+			// a hot procedure can be called from thousands of places: 
+			//	index the callers to merge them quickly
+			final LongHashMap<CallSiteScopeCallerView> callers = CallerScopeBuilder.createCallerIndex(this);
+			
 			for(Iterator<CallSiteScopeCallerView> iter = this.listOfmerged.iterator(); iter.hasNext(); ) {
 				
 				CallSiteScopeCallerView scope = iter.next();
@@ -168,7 +204,7 @@ public class CallSiteScopeCallerView extends CallSiteScope implements IMergedSco
 					// merge (if possible) the path of this new created merged scope
 					//-------------------------------------------------------------------------
 					CallersViewScopeVisitor.mergeCallerPath(IMergedScope.MergingStatus.INCREMENTAL, counter_to_assign,
-							this, listOfChain, combine_with_dupl, inclusiveOnly, exclusiveOnly);
+							this, callers, listOfChain, combine_with_dupl, inclusiveOnly, exclusiveOnly);
 
 				} catch (java.lang.ClassCastException e) {
 					
@@ -4,6 +4,7 @@ import java.util.LinkedList;
 
 import edu.rice.cs.hpc.data.experiment.metric.AbstractCombineMetric;
 import edu.rice.cs.hpc.data.experiment.scope.filters.MetricValuePropagationFilter;
+import edu.rice.cs.hpc.data.util.LongHashMap;
 
 public class CallerScopeBuilder {
 	
@@ -163,6 +164,71 @@ public class CallerScopeBuilder {
 	}
 
 	
+	/****
+	 * Merge the same path in the caller path (if exist), using an index of the callers
+	 * of the callee instead of looking for them one by one.<br/>
+	 * This is the same as {@link #mergeCallerPath(IMergedScope.MergingStatus, int, Scope, LinkedList, 
+	 * AbstractCombineMetric, MetricValuePropagationFilter, MetricValuePropagationFilter)}
+	 * but the cost doesn't depend on the number of callers, which matters for procedures
+	 * called from thousands of places.
+	 * 
+	 * @param callee
+	 * @param callers : index of the children of the callee (see {@link #createCallerIndex(Scope)}).
+	 * 	It is updated if a new path is added into the tree.
+	 * @param callerPathList
+	 * @param combine
+	 * @param inclusiveOnly
+	 * @param exclusiveOnly
+	 */
+	static public void mergeCallerPath(IMergedScope.MergingStatus status, int counter_to_assign, Scope callee, 
+			LongHashMap<CallSiteScopeCallerView> callers,
+			LinkedList<CallSiteScopeCallerView> callerPathList, AbstractCombineMetric combine,
+			MetricValuePropagationFilter inclusiveOnly, MetricValuePropagationFilter exclusiveOnly) 
+	{
+		if (callerPathList.size() == 0) return; // merging an empty path is trivial
+
+		CallSiteScopeCallerView first = callerPathList.removeFirst();
+		final int index = first.getProcedureScope().getFlatIndex();
+		
+		CallSiteScopeCallerView existingCaller = callers.get(index);
+		if (existingCaller != null) {
+			combine.combine(existingCaller, first, inclusiveOnly, exclusiveOnly);
+			existingCaller.merge(status, first, counter_to_assign);
+
+			// the rest of the path is short: no need to index the grand children
+			mergeCallerPath(status, counter_to_assign, existingCaller, callerPathList, combine, inclusiveOnly, exclusiveOnly);
+		} else {
+			addNewPathIntoTree(callee, first, callerPathList);
+			callers.put(index, first);
+		}
+	}
+
+	
+	/****
+	 * Create the index of the callers of a callee, based on the flat index of
+	 * the procedure of the callers.
+	 * 
+	 * @param callee
+	 * @return the index, to be used for {@link #mergeCallerPath(IMergedScope.MergingStatus, int, Scope, 
+	 * LongHashMap, LinkedList, AbstractCombineMetric, MetricValuePropagationFilter, MetricValuePropagationFilter)}
+	 */
+	static public LongHashMap<CallSiteScopeCallerView> createCallerIndex(Scope callee)
+	{
+		final int nCallers = callee.getSubscopeCount();
+		final LongHashMap<CallSiteScopeCallerView> callers = new LongHashMap<CallSiteScopeCallerView>(nCallers);
+		
+		for (int i = 0; i < nCallers; i++) {
+			CallSiteScopeCallerView caller = (CallSiteScopeCallerView) callee.getSubscope(i);
+			final int index = caller.getProcedureScope().getFlatIndex();
+			
+			// same as the linear search: the first caller wins
+			if (callers.get(index) == null)
+				callers.put(index, caller);
+		}
+		return callers;
+	}
+
+	
 	
 	/**********
 	 * add children 
@@ -22,7 +22,8 @@ import edu.rice.cs.hpc.data.db.DataSummary;
 import edu.rice.cs.hpc.data.experiment.BaseExperiment;
 import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
 import edu.rice.cs.hpc.data.experiment.metric.IMetricValueCollection;
-import edu.rice.cs.hpc.data.experiment.metric.version2.MetricValueCollection2;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValueCollectionCompact;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValueStore;
 import edu.rice.cs.hpc.data.experiment.metric.version3.MetricValueCollection3;
 
 import edu.rice.cs.hpc.data.experiment.scope.visitors.IScopeVisitor;
@@ -53,6 +54,9 @@ private String name;
 
 private DataSummary dataSummary;
 
+/** storage of the metric values of the scopes of this tree (database version 2) */
+private MetricValueStore metricStore;
+
 //////////////////////////////////////////////////////////////////////////
 //	INITIALIZATION														//
 //////////////////////////////////////////////////////////////////////////
@@ -93,20 +97,50 @@ public IMetricValueCollection getMetricValueCollection(Scope scope) throws IOExc
 	
 	if (version == 3 && rootScopeType == RootScopeType.CallingContextTree) 
 	{
-		if (dataSummary == null)
-		{
-			dataSummary = new DataSummary();
-			String filename = experiment.getDefaultDirectory().getAbsolutePath() + File.separatorChar
-					+ experiment.getDbFilename(BaseExperiment.Db_File_Type.DB_SUMMARY);
-			dataSummary.open(filename);
+		synchronized (this) {
+			if (dataSummary == null)
+			{
+				DataSummary data = new DataSummary();
+				String filename = experiment.getDefaultDirectory().getAbsolutePath() + File.separatorChar
+						+ experiment.getDbFilename(BaseExperiment.Db_File_Type.DB_SUMMARY);
+				data.open(filename);
+				dataSummary = data;
+			}
 		}
 		MetricValueCollection3 col = new MetricValueCollection3(this, scope);
 		return col;
 	} else {
-		return new MetricValueCollection2(metric_size);		
+		return new MetricValueCollectionCompact(getMetricValueStore(), metric_size);		
 	}
 }
 
+/*************************************************************************
+ * create a collection of metric values kept in memory, whatever the version
+ * of the database. Used to restore the values of a snapshot, which are
+ * the values after the post-processing of the experiment.
+ * 
+ * @param size : the number of metrics
+ * @return IMetricValueCollection
+ *************************************************************************/
+public IMetricValueCollection createMetricValueCollection(int size)
+{
+	return new MetricValueCollectionCompact(getMetricValueStore(), size);
+}
+
+/*************************************************************************
+ * get the storage of the metric values of this tree. 
+ * All the scopes of the tree share the same storage, which is freed
+ * together with the tree.
+ * 
+ * @return MetricValueStore
+ *************************************************************************/
+private synchronized MetricValueStore getMetricValueStore()
+{
+	if (metricStore == null)
+		metricStore = new MetricValueStore();
+	return metricStore;
+}
+
 public DataSummary getDataSummary()
 {
 	return dataSummary;
@@ -177,6 +211,17 @@ public void accept(IScopeVisitor visitor, ScopeVisitType vt) {
 	visitor.visit(this, vt);
 }
 
+@Override
+/*
+ * (non-Javadoc)
+ * @see edu.rice.cs.hpc.data.experiment.scope.Scope#dispose()
+ */
+public void dispose()
+{
+	super.dispose();
+	if (metricStore != null)
+		metricStore.dispose();
+	metricStore = null;
+}
 	
 }
-
@@ -563,6 +563,9 @@ public MetricValue getMetricValue(BaseMetric metric)
 				if(MetricValue.isAvailable(total))
 					MetricValue.setAnnotationValue(value, MetricValue.getValue(value)/MetricValue.getValue(total));
 			}
+			// the collection may return a copy of the value: keep the annotation
+			if (MetricValue.isAnnotationAvailable(value))
+				metrics.setAnnotation(index, MetricValue.getAnnotationValue(value));
 		} 
 	}
 
@@ -635,6 +638,8 @@ private void accumulateMetricValue(int index, double value)
 	} else {
 		// TODO Could do non-additive accumulations here?
 		MetricValue.setValue(m, MetricValue.getValue(m) + value);
+		// the collection may return a copy of the value
+		metrics.setValue(index, m);
 	}
 }
 
@@ -659,6 +664,15 @@ public void setMetricValues(IMetricValueCollection values) {
 	this.metrics = values;
 }
 
+/***************************************************************************
+ * check whether the storage of the metric values has been created,
+ * without creating it
+ * @return true if the scope has a metric collection
+ ***************************************************************************/
+public boolean hasMetricStorage() {
+	return this.metrics != null;
+}
+
 
 
 /**************************************************************************
@@ -2,6 +2,7 @@ package edu.rice.cs.hpc.data.experiment.scope.visitors;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Stack;
@@ -12,6 +13,7 @@ import edu.rice.cs.hpc.data.experiment.scope.*;
 import edu.rice.cs.hpc.data.experiment.scope.filters.ExclusiveOnlyMetricPropagationFilter;
 import edu.rice.cs.hpc.data.experiment.scope.filters.InclusiveOnlyMetricPropagationFilter;
 import edu.rice.cs.hpc.data.experiment.scope.filters.MetricValuePropagationFilter;
+import edu.rice.cs.hpc.data.util.LongHashMap;
 
 
 /*************************
@@ -39,6 +41,10 @@ public class CallersViewScopeVisitor extends CallerScopeBuilder implements IScop
 
 	final private Hashtable<String, Scope> calleeht = new Hashtable<String, Scope>();
 	
+	/** index of the callers of each callee, to merge the call paths without scanning the callers */
+	final private IdentityHashMap<Scope, LongHashMap<CallSiteScopeCallerView>> callerIndex = 
+			new IdentityHashMap<Scope, LongHashMap<CallSiteScopeCallerView>>();
+	
 	private RootScope callersViewRootScope;
 	
 	/****--------------------------------------------------------------------------------****
@@ -143,7 +149,12 @@ public class CallersViewScopeVisitor extends CallerScopeBuilder implements IScop
 		//-------------------------------------------------------
 		// ensure my call path is represented among my children.
 		//-------------------------------------------------------
-		mergeCallerPath(IMergedScope.MergingStatus.INIT, 0, callee, callPathList, 
+		LongHashMap<CallSiteScopeCallerView> callers = callerIndex.get(callee);
+		if (callers == null) {
+			callers = createCallerIndex(callee);
+			callerIndex.put(callee, callers);
+		}
+		mergeCallerPath(IMergedScope.MergingStatus.INIT, 0, callee, callers, callPathList, 
 				combinedMetrics, this.inclusiveOnly, this.exclusiveOnly);
 	}
 	
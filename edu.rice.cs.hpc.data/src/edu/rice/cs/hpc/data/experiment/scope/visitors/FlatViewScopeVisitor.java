@@ -1,8 +1,17 @@
 package edu.rice.cs.hpc.data.experiment.scope.visitors;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.rice.cs.hpc.data.experiment.Experiment;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
 import edu.rice.cs.hpc.data.experiment.scope.AlienScope;
 import edu.rice.cs.hpc.data.experiment.scope.CallSiteScope;
 import edu.rice.cs.hpc.data.experiment.scope.FileScope;
@@ -18,7 +27,9 @@ import edu.rice.cs.hpc.data.experiment.scope.StatementRangeScope;
 import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope.ProcedureType;
 import edu.rice.cs.hpc.data.experiment.scope.filters.ExclusiveOnlyMetricPropagationFilter;
 import edu.rice.cs.hpc.data.experiment.scope.filters.InclusiveOnlyMetricPropagationFilter;
+import edu.rice.cs.hpc.data.experiment.scope.filters.MetricValuePropagationFilter;
 import edu.rice.cs.hpc.data.experiment.source.SourceFile;
+import edu.rice.cs.hpc.data.util.LongHashMap;
 
 
 /*************************************************************************************************
@@ -26,23 +37,47 @@ import edu.rice.cs.hpc.data.experiment.source.SourceFile;
  * 
  * REMARK: THIS CODE IS NOT COMPATIBLE WITH OLD DATABASE !!!
  *  
- *
+ * The flat scopes are identified by the type of the CCT scope and a
+ * long key made of the flat index of the scope and, for call sites,
+ * the flat index of the called procedure. No string is created per
+ * visited scope.
+ * <p>
+ * If the visitor is created with more than one thread, the metrics
+ * are combined into the flat scopes concurrently: the traversal builds
+ * the tree and records the combinations, which are then executed by
+ * the threads, each thread owning a subset of the flat scopes.
+ * In this case, {@link #finish()} has to be called after the traversal.
+ * </p>
  *************************************************************************************************/
 
 public class FlatViewScopeVisitor implements IScopeVisitor 
 {
-	final static private char SEPARATOR_ID = ':';
+	/** number of recorded combinations before executing them */
+	final static private int MAX_COMBINATIONS = 1 << 16;
 	
 	private Hashtable<Integer, LoadModuleScope> htFlatLoadModuleScope;
-	private Hashtable<String, FileScope> htFlatFileScope;
-	private HashMap<String, FlatScopeInfo> htFlatScope;
-	private HashMap<String, Scope[]> htFlatCostAdded;
+	private LongHashMap<FileScope> htFlatFileScope;
+	
+	/** map of flat entries for each class of CCT scopes */
+	private HashMap<Class<?>, LongHashMap<FlatEntry>> htFlatEntries;
+
+	/** unique IDs of (file, line) of false procedures */
+	private LongHashMap<Integer> htFileIDs, htFalseProcedureIDs;
 	
 	private RootScope root_ft;
 	
 	private InclusiveOnlyMetricPropagationFilter inclusive_filter;
 	private ExclusiveOnlyMetricPropagationFilter exclusive_filter;
 	
+	// recorded combinations, only if the metrics are combined concurrently
+	final private int numThreads;
+	private ExecutorService executor;
+	private Scope []combineTargets, combineSources;
+	private boolean []combineInclusive;
+	/** the thread of each recorded combination, and the combinations sorted by thread */
+	private int []combineParts, combineOrder;
+	private int numCombinations;
+	
 	//final private boolean debug = false;
 	
 	/******************************************************************
@@ -51,15 +86,67 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * @param root: the root of the tree
 	 ******************************************************************/
 	public FlatViewScopeVisitor( Experiment exp, RootScope root) {
+		this(exp, root, 1);
+	}
+	
+	/******************************************************************
+	 * Constructor with concurrent combination of metrics.
+	 * The metrics are combined sequentially if the experiment has
+	 * derived or aggregate metrics, since their formula are not
+	 * thread safe.
+	 * 
+	 * @param exp: experiment
+	 * @param root: the root of the tree
+	 * @param numThreads: the number of threads to combine the metrics
+	 ******************************************************************/
+	public FlatViewScopeVisitor( Experiment exp, RootScope root, int numThreads) {
 		this.htFlatLoadModuleScope = new Hashtable<Integer, LoadModuleScope>();
-		this.htFlatFileScope = new Hashtable<String, FileScope>();
-		this.htFlatScope     = new HashMap<String, FlatScopeInfo>();
-		this.htFlatCostAdded = new HashMap<String, Scope[]>();
+		this.htFlatFileScope = new LongHashMap<FileScope>();
+		this.htFlatEntries   = new HashMap<Class<?>, LongHashMap<FlatEntry>>();
+		this.htFileIDs 		 = new LongHashMap<Integer>();
+		this.htFalseProcedureIDs = new LongHashMap<Integer>();
 		
 		this.root_ft = root;
 		
 		this.inclusive_filter = new InclusiveOnlyMetricPropagationFilter( exp );
 		this.exclusive_filter = new ExclusiveOnlyMetricPropagationFilter( exp );
+		
+		final int nMetrics = exp.getMetricCount();
+		boolean threadSafe = true;
+		for (int i=0; i<nMetrics; i++) {
+			threadSafe &= (exp.getMetric(i) instanceof Metric);
+		}
+		if (numThreads > 1 && nMetrics > 0 && threadSafe) {
+			this.numThreads 	  = numThreads;
+			this.executor 		  = Executors.newFixedThreadPool(numThreads);
+			this.combineTargets   = new Scope[MAX_COMBINATIONS];
+			this.combineSources   = new Scope[MAX_COMBINATIONS];
+			this.combineInclusive = new boolean[MAX_COMBINATIONS];
+			this.combineParts 	  = new int[MAX_COMBINATIONS];
+			this.combineOrder 	  = new int[MAX_COMBINATIONS];
+			
+			// the metric values of the root are used to compute the annotations
+			// of the flat scopes: initialize them before the threads start
+			root_ft.getMetricValue(0);
+		} else {
+			this.numThreads = 1;
+		}
+	}
+	
+	
+	/******************************************************************
+	 * Executes the remaining combinations of metrics, and releases the
+	 * threads. This method has to be called once the traversal is done.
+	 ******************************************************************/
+	public void finish() {
+		if (executor != null) {
+			try {
+				flushCombinations();
+			} finally {
+				executor.shutdown();
+				executor = null;
+			}
+		}
 	}
 	
 	
@@ -96,16 +183,13 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 ******************************************************************/
 	private void add( Scope scope, ScopeVisitType vt, boolean add_inclusive, boolean add_exclusive ) {
 		
-		String id = this.getID(scope); 
+		FlatEntry id = this.getID(scope); 
 
 		if (vt == ScopeVisitType.PreVisit ) {
 			//--------------------------------------------------------------------------
 			// Pre-visit
 			//--------------------------------------------------------------------------
-			Scope flat_info[] = this.htFlatCostAdded.get( id );
-			if (flat_info != null) {
-				this.htFlatCostAdded.remove(id);
-			}
+			id.costAdded = null;
 
 			FlatScopeInfo objFlat = this.getFlatCounterPart(scope, scope, id);
 			
@@ -131,7 +215,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 			//--------------------------------------------------------------------------
 			// Post visit
 			//--------------------------------------------------------------------------
-			Scope flat_info[] = this.htFlatCostAdded.get( id );
+			Scope flat_info[] = id.costAdded;
 			if (flat_info != null)
 				for (int i=0; i<flat_info.length; i++) {
 					if (flat_info[i] != null) {
@@ -151,12 +235,12 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * @param scopeCCT
 	 * @return
 	 ****************************************************************************/
-	private FlatScopeInfo getFlatScope( Scope cct_s, String cct_id ) {
+	private FlatScopeInfo getFlatScope( Scope cct_s ) {
 		//-----------------------------------------------------------------------------
 		// get the flat scope
 		//-----------------------------------------------------------------------------
-		String id = getID(cct_s);
-		FlatScopeInfo flat_info_s = this.htFlatScope.get( id );
+		FlatEntry id = getID(cct_s);
+		FlatScopeInfo flat_info_s = id.info;
 		
 		if (flat_info_s == null) {
 
@@ -195,7 +279,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 			//-----------------------------------------------------------------------------
 			// save the info into hashtable
 			//-----------------------------------------------------------------------------
-			this.htFlatScope.put( id, flat_info_s);
+			id.info = flat_info_s;
 
 			//-----------------------------------------------------------------------------
 			// for inline macro, we don't need to attach the file and load module
@@ -260,10 +344,9 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * 
 	 * @return
 	 *****************************************************************/
-	private String getUniqueFileID(SourceFile file, LoadModuleScope lm)
+	private long getUniqueFileID(SourceFile file, LoadModuleScope lm)
 	{
-		String separator = String.valueOf(SEPARATOR_ID);
-		return lm.getFlatIndex() + separator + file.getFileID();
+		return getKey(lm.getFlatIndex(), file.getFileID());
 	}
 	
 	
@@ -275,7 +358,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 *****************************************************************/
 	private FileScope createFlatFileScope(Scope cct_s, LoadModuleScope flat_lm) {
 		SourceFile src_file = cct_s.getSourceFile();	
-		String unique_file_id = getUniqueFileID(src_file, flat_lm);
+		long unique_file_id = getUniqueFileID(src_file, flat_lm);
 		FileScope flat_file = this.htFlatFileScope.get( unique_file_id );
 		
 		//-----------------------------------------------------------------------------
@@ -307,7 +390,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * @param lm_s
 	 * @return
 	 *****************************************************************/
-	private FileScope createFileScope(SourceFile src_file, LoadModuleScope lm_s, String unique_file_id) {
+	private FileScope createFileScope(SourceFile src_file, LoadModuleScope lm_s, long unique_file_id) {
 		int fileID = src_file.getFileID();
 		FileScope file_s =  new FileScope( this.root_ft, src_file, fileID );
 		//------------------------------------------------------------------------------
@@ -331,7 +414,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * 
 	 * @return FlatScopeInfo if the flat scope can be created
 	 *****************************************************************/
-	private FlatScopeInfo getFlatCounterPart( Scope cct_s, Scope cct_s_metrics, String id) {
+	private FlatScopeInfo getFlatCounterPart( Scope cct_s, Scope cct_s_metrics, FlatEntry id) {
 		// -----------------------------------------------------------------------------
 		// Get the flat scope of the parent 	
 		// -----------------------------------------------------------------------------
@@ -351,16 +434,14 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 					// parent is a call site
 					// ----------------------------------------------
 					ProcedureScope proc_cct_s = ((CallSiteScope)cct_parent_s).getProcedureScope(); 
-					String parent_id = getID(proc_cct_s);
 					
-					flat_enc_info = this.getFlatScope(proc_cct_s, parent_id);
+					flat_enc_info = this.getFlatScope(proc_cct_s);
 
 				} else {					
 					// ----------------------------------------------
 					// parent is a line scope or loop scope or procedure scope
 					// ----------------------------------------------
-					String parent_id = getID(cct_parent_s);
-					flat_enc_info = this.getFlatScope(cct_parent_s, parent_id);
+					flat_enc_info = this.getFlatScope(cct_parent_s);
 				}
 				if (flat_enc_info != null)
 					flat_enc_s = flat_enc_info.flat_s;
@@ -368,7 +449,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 			}
 		}
 
-		FlatScopeInfo objFlat = this.getFlatScope(cct_s, id);
+		FlatScopeInfo objFlat = this.getFlatScope(cct_s);
 
 		if (flat_enc_s != null) {
 			if (!isCyclicDependency(flat_enc_s, objFlat.flat_s)) {
@@ -394,43 +475,74 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	
 	/***********************************************************
 	 * Retrieve the ID given a scope
-	 * a flat ID is the name of the class class concatenated by the flat ID
+	 * a flat ID is the class of the scope combined with the flat ID
 	 * 	(This is to force to have different ID for different classes
 	 *   since hpcprof may generate the same ID for different type of scopes)
 	 * for call site, we need to add the flat ID of the called procedure
 	 *  (this is to ensure a flat's call site has different ID.
 	 *   however, it doesn't solve if the called procedures have the same ID)
 	 * @param scope
-	 * @return
+	 * @return the entry of the ID, created if it doesn't exist
 	 ***********************************************************/
-	private String getID( Scope scope ) {
-		final String id = String.valueOf(scope.getFlatIndex());
-		final String class_type = scope.getClass().getSimpleName();
-		StringBuffer hash_id = new StringBuffer(id);
-		if (class_type != null) {
-			hash_id.insert(0, class_type.substring(0, 2));
-		}
+	private FlatEntry getID( Scope scope ) {
+		final int id = scope.getFlatIndex();
+		int suffix = 0;
+		
 		if (scope instanceof CallSiteScope)
 		{
 			// forcing to include procedure ID to ensure uniqueness of call site
-			final int proc_id = ((CallSiteScope)scope).getProcedureScope().getFlatIndex();
-			hash_id.append(SEPARATOR_ID);
-			hash_id.append(proc_id);
+			suffix = ((CallSiteScope)scope).getProcedureScope().getFlatIndex();
 		} else if (scope instanceof ProcedureScope) 
 		{
 			ProcedureScope proc_scope = (ProcedureScope) scope;
 			if (proc_scope.isFalseProcedure()) {
-				int linenum = proc_scope.getFirstLineNumber();
-				String file_id = getUniqueFileID(proc_scope.getSourceFile(), proc_scope.getLoadModule());
-
-				hash_id.append(SEPARATOR_ID);
-				hash_id.append(file_id);
-				
-				hash_id.append(SEPARATOR_ID);
-				hash_id.append(linenum);
+				suffix = getFalseProcedureID(proc_scope);
 			}
 		}
-		return hash_id.toString();
+		
+		LongHashMap<FlatEntry> entries = htFlatEntries.get(scope.getClass());
+		if (entries == null) {
+			entries = new LongHashMap<FlatEntry>();
+			htFlatEntries.put(scope.getClass(), entries);
+		}
+		final long key = getKey(id, suffix);
+		FlatEntry entry = entries.get(key);
+		if (entry == null) {
+			entry = new FlatEntry();
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+	
+	
+	/***********************************************************
+	 * Retrieve a unique non-zero ID of the file and the line
+	 * number of a false procedure
+	 * @param proc_scope
+	 * @return
+	 ***********************************************************/
+	private int getFalseProcedureID( ProcedureScope proc_scope ) {
+		final long file_key = getUniqueFileID(proc_scope.getSourceFile(), proc_scope.getLoadModule());
+		Integer file_id = htFileIDs.get(file_key);
+		if (file_id == null) {
+			file_id = Integer.valueOf(htFileIDs.size());
+			htFileIDs.put(file_key, file_id);
+		}
+		final long key = getKey(file_id.intValue(), proc_scope.getFirstLineNumber());
+		Integer proc_id = htFalseProcedureIDs.get(key);
+		if (proc_id == null) {
+			proc_id = Integer.valueOf(htFalseProcedureIDs.size() + 1);
+			htFalseProcedureIDs.put(key, proc_id);
+		}
+		return proc_id.intValue();
+	}
+	
+	
+	/***********************************************************
+	 * pack two integers into a key
+	 ***********************************************************/
+	static private long getKey(int high, int low) {
+		return ((long)high << 32) | (low & 0xffffffffL);
 	}
 	
 	
@@ -570,7 +682,7 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 	 * @param flat_s
 	 * @param cct_s
 	 ***********************************************************/
-	private void addCostIfNecessary( String objCode, Scope flat_s, Scope cct_s, boolean add_inclusive, boolean add_exclusive ) {
+	private void addCostIfNecessary( FlatEntry objCode, Scope flat_s, Scope cct_s, boolean add_inclusive, boolean add_exclusive ) {
 		if (flat_s == null)
 			return;
 		
@@ -578,21 +690,21 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 			
 		if (isOutermostInstance(flat_s)) {
 			if (add_inclusive)
-				flat_s.combine(cct_s, inclusive_filter);
+				combine(flat_s, cct_s, inclusive_filter);
 		}
 		if (add_exclusive) {
 			if (flat_s instanceof CallSiteScope && cct_s instanceof CallSiteScope) {
 				CallSiteScope cs_scope = (CallSiteScope) cct_s;
-				flat_s.combine(cs_scope.getLineScope(), exclusive_filter);
+				combine(flat_s, cs_scope.getLineScope(), exclusive_filter);
 			} else {
-				flat_s.combine(cct_s, exclusive_filter);
+				combine(flat_s, cct_s, exclusive_filter);
 			}
 		}
 		//-----------------------------------------------------------------------
 		// store the flat scopes that have been updated  
 		//-----------------------------------------------------------------------
 		Scope arr_new_scopes[]; 
-		Scope scope_added[] = htFlatCostAdded.get( objCode );
+		Scope scope_added[] = objCode.costAdded;
 		if (scope_added != null) {
 			int nb_scopes = scope_added.length;
 			arr_new_scopes = new Scope[nb_scopes+1];
@@ -602,7 +714,106 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 			arr_new_scopes = new Scope[1];
 			arr_new_scopes[0] = flat_s;
 		}
-		htFlatCostAdded.put(objCode, arr_new_scopes);
+		objCode.costAdded = arr_new_scopes;
+	}
+
+	
+	/***********************************************************
+	 * combine the metrics of a cct scope into a flat scope, or
+	 * record the combination if it has to be done concurrently
+	 * 
+	 * @param flat_s
+	 * @param cct_s
+	 * @param filter : either the inclusive or the exclusive filter
+	 ***********************************************************/
+	private void combine( Scope flat_s, Scope cct_s, MetricValuePropagationFilter filter ) {
+		if (executor == null) {
+			flat_s.combine(cct_s, filter);
+			return;
+		}
+		// the cct scope can be read by several threads: make sure its values
+		// are initialized now
+		cct_s.getMetricValue(0);
+		
+		combineTargets[numCombinations]   = flat_s;
+		combineSources[numCombinations]   = cct_s;
+		combineInclusive[numCombinations] = (filter == inclusive_filter);
+		combineParts[numCombinations] 	  = (System.identityHashCode(flat_s) & Integer.MAX_VALUE) % numThreads;
+		numCombinations++;
+		
+		if (numCombinations == MAX_COMBINATIONS)
+			flushCombinations();
+	}
+	
+	
+	/***********************************************************
+	 * execute the recorded combinations.
+	 * A flat scope is always combined by the same thread, in the 
+	 * order of the traversal, hence the values are exactly the same
+	 * as the sequential combination.
+	 ***********************************************************/
+	private void flushCombinations() {
+		if (numCombinations == 0)
+			return;
+		
+		final int count = numCombinations;
+		
+		// group the combinations by thread (counting sort, which keeps
+		// the order of the traversal), so that a thread only visits its own
+		final int []start = new int[numThreads + 1];
+		for (int j=0; j<count; j++) {
+			start[combineParts[j] + 1]++;
+		}
+		for (int i=0; i<numThreads; i++) {
+			start[i+1] += start[i];
+		}
+		final int []position = new int[numThreads];
+		System.arraycopy(start, 0, position, 0, numThreads);
+		for (int j=0; j<count; j++) {
+			combineOrder[position[combineParts[j]]++] = j;
+		}
+		
+		final List<Future<Object>> results = new ArrayList<Future<Object>>(numThreads);
+		for (int i=0; i<numThreads; i++) {
+			final int first = start[i];
+			final int last  = start[i+1];
+			if (first == last)
+				continue;
+			
+			results.add(executor.submit(new Callable<Object>() {
+				public Object call() {
+					for (int k=first; k<last; k++) {
+						final int j = combineOrder[k];
+						combineTargets[j].combine(combineSources[j], 
+								combineInclusive[j] ? inclusive_filter : exclusive_filter);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Object> result: results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Flat view creation interrupted");
+			
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		
+		// release the scopes
+		for (int j=0; j<count; j++) {
+			combineTargets[j] = null;
+			combineSources[j] = null;
+		}
+		numCombinations = 0;
 	}
 
 	
@@ -618,4 +829,13 @@ public class FlatViewScopeVisitor implements IScopeVisitor
 		FileScope flat_file;
 		Scope flat_s;
 	}
+	
+	/*************************************************************************
+	 * Information of an ID: its flat scope, and the flat scopes which
+	 * have been updated by the cct scope with this ID
+	 *************************************************************************/
+	static private class FlatEntry {
+		FlatScopeInfo info;
+		Scope costAdded[];
+	}
 }
@@ -0,0 +1,194 @@
+package edu.rice.cs.hpc.data.experiment.scope.visitors;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.rice.cs.hpc.data.experiment.scope.CallSiteScope;
+import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.experiment.scope.ScopeVisitType;
+
+/*******************************************************************
+ *
+ * Depth-first traversal of a scope tree where independent subtrees
+ * are visited concurrently.
+ * <p>
+ * The tree is split into a top part, visited by the caller's thread,
+ * and subtrees rooted at call sites or procedures, each visited by a
+ * single thread. The visit of a subtree root itself (pre-visit and
+ * post-visit) belongs to the top part, so that the top part is visited
+ * in exactly the same order as {@link Scope#dfsVisitScopeTree(IScopeVisitor)}.
+ * </p>
+ * This is only correct for visitors which, when visiting a scope, only
+ * modify the scope itself, its parent, or its ancestors up to the nearest
+ * call site or procedure (like the metric accumulation visitors).
+ * The visitor is shared by all the threads, hence it shouldn't have any
+ * mutable state.
+ *
+ *******************************************************************/
+public class ParallelScopeTraversal
+{
+	/** number of subtrees per thread, to balance the load */
+	final static private int TASKS_PER_THREAD = 8;
+
+	/** maximum number of times we look deeper in the tree to find more subtrees */
+	final static private int MAX_EXPANSION = 8;
+
+	final private int numThreads;
+
+	/****
+	 * Create a traversal with the given number of threads.
+	 * @param numThreads : if it's 1 or less, the tree is visited sequentially.
+	 */
+	public ParallelScopeTraversal(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
+	/****
+	 * Visit the tree of a given root.
+	 *
+	 * @param root
+	 * @param visitor
+	 */
+	public void dfsVisitScopeTree(Scope root, final IScopeVisitor visitor)
+	{
+		final List<Scope> subtrees = numThreads > 1 ? split(root) : null;
+		if (subtrees == null || subtrees.size() < 2) {
+			root.dfsVisitScopeTree(visitor);
+			return;
+		}
+		final IdentityHashMap<Scope, Scope> subtreeRoots = new IdentityHashMap<Scope, Scope>();
+		for (Scope scope: subtrees) {
+			subtreeRoots.put(scope, scope);
+		}
+
+		// 1. pre-visit the top of the tree
+		visitTop(root, visitor, subtreeRoots, ScopeVisitType.PreVisit);
+
+		// 2. visit the subtrees concurrently
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final ArrayList<Future<Object>> results = new ArrayList<Future<Object>>(subtrees.size());
+			for (final Scope scope: subtrees) {
+				results.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						final int nKids = scope.getSubscopeCount();
+						for (int i=0; i<nKids; i++) {
+							Scope child = scope.getSubscope(i);
+							if (child != null)
+								child.dfsVisitScopeTree(visitor);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> result: results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Tree traversal interrupted");
+
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// 3. post-visit the top of the tree
+		visitTop(root, visitor, subtreeRoots, ScopeVisitType.PostVisit);
+	}
+
+	/****
+	 * visit the top part of the tree, including the roots of the subtrees
+	 *
+	 * @param scope
+	 * @param visitor
+	 * @param subtreeRoots
+	 * @param vt : the type of visit
+	 */
+	private void visitTop(Scope scope, IScopeVisitor visitor, IdentityHashMap<Scope, Scope> subtreeRoots,
+			ScopeVisitType vt)
+	{
+		if (vt == ScopeVisitType.PreVisit)
+			scope.accept(visitor, vt);
+
+		if (!subtreeRoots.containsKey(scope)) {
+			final int nKids = scope.getSubscopeCount();
+			for (int i=0; i<nKids; i++) {
+				Scope child = scope.getSubscope(i);
+				if (child != null)
+					visitTop(child, visitor, subtreeRoots, vt);
+			}
+		}
+		if (vt == ScopeVisitType.PostVisit)
+			scope.accept(visitor, vt);
+	}
+
+	/****
+	 * Find the roots of the subtrees to be visited concurrently.
+	 * We start with the top-most call sites and procedures, and look deeper
+	 * until there are enough subtrees to keep the threads busy.
+	 *
+	 * @param root
+	 * @return list of subtree roots, in the order of depth-first traversal
+	 */
+	private List<Scope> split(Scope root)
+	{
+		final int target = numThreads * TASKS_PER_THREAD;
+
+		List<Scope> subtrees = new ArrayList<Scope>();
+		addTopMostCalls(root, subtrees);
+
+		for (int level=0; level<MAX_EXPANSION && subtrees.size() < target; level++)
+		{
+			final List<Scope> next = new ArrayList<Scope>(subtrees.size() * 2);
+			boolean expanded = false;
+			for (Scope scope: subtrees) {
+				final int size = next.size();
+				addTopMostCalls(scope, next);
+				if (size == next.size())
+					// no call inside: keep the subtree as it is
+					next.add(scope);
+				else
+					expanded = true;
+			}
+			if (!expanded)
+				break;
+			subtrees = next;
+		}
+		return subtrees;
+	}
+
+	/****
+	 * add the top-most call sites and procedures under a scope (excluding the scope itself)
+	 * @param scope
+	 * @param list
+	 */
+	private void addTopMostCalls(Scope scope, List<Scope> list)
+	{
+		final int nKids = scope.getSubscopeCount();
+		for (int i=0; i<nKids; i++) {
+			final Scope child = scope.getSubscope(i);
+			if (child == null)
+				continue;
+			if (child instanceof CallSiteScope || child instanceof ProcedureScope)
+				list.add(child);
+			else
+				addTopMostCalls(child, list);
+		}
+	}
+}
@@ -71,8 +71,11 @@ public class PercentScopeVisitor implements IScopeVisitor {
 			if (m != MetricValue.NONE && root_value != MetricValue.NONE) {
 				double myValue = MetricValue.getValue(m);
 				double total = MetricValue.getValue(root_value);
-				if (Double.compare(total, 0)!=0) 
+				if (Double.compare(total, 0)!=0) {
 					MetricValue.setAnnotationValue(m, myValue/total);
+					// the scope may store a copy of the value
+					scope.setMetricValue(i, m);
+				}
 			}
 
 		}
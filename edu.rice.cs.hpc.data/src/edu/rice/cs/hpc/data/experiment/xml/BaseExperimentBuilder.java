@@ -83,6 +83,9 @@ public class BaseExperimentBuilder extends Builder {
 	private HashMap<Integer, LoadModuleScope> hashLoadModuleTable;
 	private HashMap <Integer, SourceFile> hashSourceFileTable;
 	private HashMap<Integer, Scope> hashCallSiteTable;
+	
+	/** unique instances of the names of procedures, files and load modules */
+	private HashMap<String, String> hashNameTable;
 
 	private int min_cctid = Integer.MAX_VALUE;
 	private int max_cctid = Integer.MIN_VALUE;
@@ -118,6 +121,7 @@ public class BaseExperimentBuilder extends Builder {
 		new HashMap<Integer, Scope>();
 		hashSourceFileTable = new HashMap<Integer, SourceFile>();
 		hashCallSiteTable = new HashMap<Integer, Scope>();
+		hashNameTable = new HashMap<String, String>();
 
 		// parse action data structures
 		this.scopeStack = new Stack<Scope>();
@@ -149,6 +153,28 @@ public class BaseExperimentBuilder extends Builder {
 	}	
 
 
+	/*************************************************************************
+	 * Returns the unique instance of a name.
+	 * The same procedure, file or load module name can be repeated many times
+	 * in the XML file, and the parser creates a new string for each of them.
+	 * 
+	 * @param name
+	 * @return the first string equal to the name, or null if the name is null
+	 *************************************************************************/
+	protected String internName(String name)
+	{
+		if (name == null)
+			return null;
+		
+		final String unique = hashNameTable.get(name);
+		if (unique != null)
+			return unique;
+		
+		hashNameTable.put(name, name);
+		return name;
+	}
+
+
 	/*************************************************************************
 	 *	Takes notice of the beginning of an element.
 	 * @throws OldXMLFormatException 
@@ -429,7 +455,7 @@ public class BaseExperimentBuilder extends Builder {
 			return;
 		
 		// We assume that the 1st attribute is always the ID and the 2nd attribute is the value
-		String sValue = values[1];
+		String sValue = internName(values[1]);
 		String sID = values[0];
 		try {
 			Integer objID = new Integer(sID);
@@ -458,7 +484,7 @@ public class BaseExperimentBuilder extends Builder {
 		try {
 			final Integer objFileID = Integer.parseInt(sID);
 			// just in case if there is a duplicate key in the dictionary, we need to make a test
-			final SourceFile sourceFile = this.getOrCreateSourceFile(values[1], objFileID.intValue());
+			final SourceFile sourceFile = this.getOrCreateSourceFile(internName(values[1]), objFileID.intValue());
 			
 			this.hashSourceFileTable.put(objFileID, sourceFile);
 			
@@ -478,7 +504,7 @@ public class BaseExperimentBuilder extends Builder {
 	private void begin_LM(String[] attributes, String[] values)
 	{
 		// LM n="load module name"
-		String name = getAttributeByName(NAME_ATTRIBUTE, attributes, values);
+		String name = internName(getAttributeByName(NAME_ATTRIBUTE, attributes, values));
 		String sIndex = getAttributeByName(ID_ATTRIBUTE, attributes, values);
 		
 		try {
@@ -506,7 +532,7 @@ public class BaseExperimentBuilder extends Builder {
 		try {
 			Integer objFileKey = Integer.parseInt(inode);
 			// make a new file scope object
-			SourceFile sourceFile  = this.getOrCreateSourceFile(getAttributeByName(NAME_ATTRIBUTE, attributes, values), 
+			SourceFile sourceFile  = this.getOrCreateSourceFile(internName(getAttributeByName(NAME_ATTRIBUTE, attributes, values)), 
 					objFileKey.intValue());
 
 			this.srcFileStack.push(sourceFile);
@@ -571,7 +597,7 @@ public class BaseExperimentBuilder extends Builder {
 						// 	we need to create it from here
 						if (this.srcFileStack.size()==1) {
 							// the first stack is null, so let start from number 1
-							srcFile = this.getOrCreateSourceFile(values[i], this.srcFileStack.size()+1);
+							srcFile = this.getOrCreateSourceFile(internName(values[i]), this.srcFileStack.size()+1);
 						}
 					}
 					
@@ -584,17 +610,17 @@ public class BaseExperimentBuilder extends Builder {
 						objLoadModule = this.hashLoadModuleTable.get(indexFile);
 						if (objLoadModule == null) {
 							// old database
-							objLoadModule = new LoadModuleScope(this.viewRootScope, values[i], null, indexFile.intValue());
+							objLoadModule = new LoadModuleScope(this.viewRootScope, internName(values[i]), null, indexFile.intValue());
 							this.hashLoadModuleTable.put(indexFile, objLoadModule);
 						}
 					} catch (java.lang.NumberFormatException e) {
 						// old database:
 						// this error means that the lm is not based on dictionary
-						objLoadModule = new LoadModuleScope(this.viewRootScope, values[i], null, values[i].hashCode());
+						objLoadModule = new LoadModuleScope(this.viewRootScope, internName(values[i]), null, values[i].hashCode());
 					}
 				} else if (attributes[i].equals("p") ) {
 					// obsolete format: p is the name of the procedure
-					procAttribute = new ProcedureAttribute(values[i], false);
+					procAttribute = new ProcedureAttribute(internName(values[i]), false);
 					
 				} else if(attributes[i].equals(NAME_ATTRIBUTE)) {
 					// new database format: n is the flat ID of the procedure
@@ -765,9 +791,9 @@ public class BaseExperimentBuilder extends Builder {
 			if (attributes[i].equals(ID_ATTRIBUTE)) {
 				sIndex = values[i];
 			} else if (attributes[i].equals(FILENAME_ATTRIBUTE)) {
-				filenm = values[i];
+				filenm = internName(values[i]);
 			} else if (attributes[i].equals(NAME_ATTRIBUTE)) {
-				procnm = values[i];
+				procnm = internName(values[i]);
 			} else if (attributes[i].equals(LINE_ATTRIBUTE)) {
 				sLine = values[i];
 			}
@@ -816,7 +842,7 @@ public class BaseExperimentBuilder extends Builder {
 			if (attributes[i].equals("i")) {
 				sID = values[i];
 			} else if (attributes[i].equals("n")) {
-				sData = values[i];
+				sData = internName(values[i]);
 			} else if (attributes[i].equals("f")) {
 				int val     = Integer.parseInt(values[i]);
 				isFalseProc = (val == 1);
@@ -1289,7 +1315,7 @@ public class BaseExperimentBuilder extends Builder {
 			}
 		} else {
 			// the database of procedure doesn't exist. This can be a flat view.
-			sProcName = sProcIndex;
+			sProcName = internName(sProcIndex);
 		}
 		attribute = new ProcedureAttribute(sProcName, false);
 		return attribute;
@@ -137,6 +137,9 @@ public abstract void begin();
 
 /*************************************************************************
  *	Takes notice of the beginning of an element.
+ *
+ *	The arrays of attributes and values are reused by the parser for
+ *	the next elements, hence they must not be kept by the builder.
  * @throws OldXMLFormatException 
  ************************************************************************/
 	
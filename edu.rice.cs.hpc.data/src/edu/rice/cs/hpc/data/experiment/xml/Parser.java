@@ -59,8 +59,8 @@ protected String inputName;
 /** A stream giving access to the input to parse. */
 protected InputStream inputStream;
 
-/** A reader which keeps track of the input line number. */
-protected LineNumberReader lineNumberReader;
+/** The buffered input given to the SAX parser, which decodes the bytes itself. */
+protected InputStream bufferedStream;
 
 /** The builder to use while parsing. */
 protected Builder builder;
@@ -71,6 +71,13 @@ protected Locator locator;
 
 
 
+/** The size of the input buffer: experiment.xml files are often hundreds of megabytes. */
+final static private int INPUT_BUFFER_SIZE = 1 << 16;
+
+/** Attribute arrays with more attributes than this are not reused. */
+final static private int MAX_REUSED_ATTRIBUTES = 16;
+
+
 /** The SAX parser package to use. */
 final String parserClass = "com.jclark.xml.sax.Driver";
 
@@ -99,8 +106,9 @@ public Parser(String inputName, InputStream inputStream, Builder builder)
 	this.builder = builder;
 	this.builder.setParser(this);
 
-	// input line number, for error messages
-	this.lineNumberReader = new LineNumberReader(new InputStreamReader(this.inputStream));
+	// let the SAX parser read the bytes directly: no intermediate reader to decode
+	// the characters and count the lines. The line number is given by the locator.
+	this.bufferedStream = new BufferedInputStream(this.inputStream, INPUT_BUFFER_SIZE);
 }
 
 
@@ -131,7 +139,7 @@ throws
 		XMLReader parser = new org.apache.xerces.parsers.SAXParser();
 		ContentHandler handler = new Handler();
 		parser.setContentHandler(handler);
-		parser.parse(new InputSource(this.lineNumberReader));
+		parser.parse(new InputSource(this.bufferedStream));
 	}
 	catch( SAXException e )
 	{
@@ -176,18 +184,15 @@ throws
 
 
 /*************************************************************************
- *	Returns the 1-based line number of the most recently read input line.
- *
- *	<p>
- *	We'd like this to be the line at which a syntax error was detected,
- *	but the lean parser we're using does not keep track of that. If it
- *	did this method should return <code>this.locator.getLineNumber()</code>.
- *
+ *	Returns the 1-based line number of the current parse position,
+ *	or -1 if the parser hasn't started yet.
  ************************************************************************/
 	
 public int getLineNumber()
 {
-	return this.lineNumberReader.getLineNumber();
+	if (this.locator == null)
+		return -1;
+	return this.locator.getLineNumber();
 }
 
 
@@ -210,6 +215,10 @@ public int getLineNumber()
 
 	public class Handler extends DefaultHandler
 	{
+	/** Arrays of attribute names and values, indexed by the number of attributes.
+	 *  The builders don't keep the arrays, so we can reuse them for each element. */
+	final private String[][] attributeNamesCache  = new String[MAX_REUSED_ATTRIBUTES + 1][];
+	final private String[][] attributeValuesCache = new String[MAX_REUSED_ATTRIBUTES + 1][];
 
 	/** Takes note of the current parsing position within the input. */
 	public void setDocumentLocator(Locator locator)
@@ -224,8 +233,21 @@ public int getLineNumber()
 		// Note: AttributeList.getType() is discarded here
 
 		final int count = attrs.getLength();
-		String[] attributeNames  = new String[count];
-		String[] attributeValues = new String[count];
+		final String[] attributeNames;
+		final String[] attributeValues;
+		if (count <= MAX_REUSED_ATTRIBUTES)
+		{
+			if (attributeNamesCache[count] == null)
+			{
+				attributeNamesCache[count]  = new String[count];
+				attributeValuesCache[count] = new String[count];
+			}
+			attributeNames  = attributeNamesCache[count];
+			attributeValues = attributeValuesCache[count];
+		} else {
+			attributeNames  = new String[count];
+			attributeValues = new String[count];
+		}
 		for( int k = 0;  k < count;  k++ )
 		{
 			attributeNames [k] = attrs.getLocalName (k); // johnmc - was getName, perhaps getLocalName?
@@ -0,0 +1,796 @@
+package edu.rice.cs.hpc.data.experiment.xml;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import edu.rice.cs.hpc.data.experiment.BaseExperiment;
+import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
+import edu.rice.cs.hpc.data.experiment.Experiment;
+import edu.rice.cs.hpc.data.experiment.ExperimentConfiguration;
+import edu.rice.cs.hpc.data.experiment.ExperimentWithoutMetrics;
+import edu.rice.cs.hpc.data.experiment.extdata.TraceAttribute;
+import edu.rice.cs.hpc.data.experiment.metric.AggregateMetric;
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric.AnnotationType;
+import edu.rice.cs.hpc.data.experiment.metric.FinalMetric;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
+import edu.rice.cs.hpc.data.experiment.metric.MetricRaw;
+import edu.rice.cs.hpc.data.experiment.metric.MetricType;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
+import edu.rice.cs.hpc.data.experiment.scope.AlienScope;
+import edu.rice.cs.hpc.data.experiment.scope.CallSiteScope;
+import edu.rice.cs.hpc.data.experiment.scope.CallSiteScopeType;
+import edu.rice.cs.hpc.data.experiment.scope.FileScope;
+import edu.rice.cs.hpc.data.experiment.scope.LineScope;
+import edu.rice.cs.hpc.data.experiment.scope.LoadModuleScope;
+import edu.rice.cs.hpc.data.experiment.scope.LoopScope;
+import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope;
+import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope.ProcedureType;
+import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScopeType;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.experiment.scope.StatementRangeScope;
+import edu.rice.cs.hpc.data.experiment.source.FileSystemSourceFile;
+import edu.rice.cs.hpc.data.experiment.source.SourceFile;
+import edu.rice.cs.hpc.data.util.IUserData;
+
+
+/*************************************************************************
+ *
+ * Parser of a binary snapshot of an experiment.<br/>
+ * A snapshot is written by {@link SnapshotRecorder} once the experiment
+ * has been parsed and finalized: it contains the scope tree, the source
+ * file and load module tables, the metric descriptors and the metric
+ * values after the post-processing. Restoring a snapshot gives the
+ * finalized experiment without parsing the XML file and without
+ * post-processing the experiment again.
+ * <p>
+ * A snapshot is only used if its header is valid: same format version, same
+ * XML file with the same size and modification time, and same kind of
+ * experiment (with or without metrics). The checksum of its content is
+ * checked while reading it: the experiment is modified only once the whole
+ * snapshot has been read and its checksum is correct. Otherwise
+ * {@link #parse()} throws an {@link InvalidSnapshotException} and the caller
+ * has to parse the XML file.
+ * </p>
+ * The procedure table keeps the aliases of the procedure names used by the
+ * snapshot: if the user has changed them since, the snapshot is out of date.
+ * <p>
+ * Format of a snapshot:
+ * <pre>
+ *  header     : magic, version, XML path, XML length, XML modification time, has metrics
+ *  procedures : count (name alias)*
+ *  experiment : version, database file names, configuration, min and max cct id, trace attributes
+ *  metrics    : count metric*  count raw-metric*     (only for experiments with metrics)
+ *  tree       : (scope number-of-children)*          (pre-order)
+ *  checksum   : CRC32 of all the previous bytes
+ * </pre>
+ * Every scope is followed by its cpid and, for experiments with metrics,
+ * its metric values.
+ * </p>
+ *************************************************************************/
+public class SnapshotParser
+{
+	final static long MAGIC 		 = 0x485043534e415053L;	// "HPCSNAPS"
+	final static int  FORMAT_VERSION = 2;
+
+	final static String SNAPSHOT_EXTENSION = ".snapshot";
+	final static String CCT_EXTENSION 	   = ".cct";
+	final static String CACHE_DIRECTORY    = ".hpctoolkit" + File.separator + "hpcviewer" + File.separator + "snapshot";
+
+	final static int BUFFER_SIZE = 1 << 16;
+
+	// encoding of strings, source files and load modules: null, a new item
+	// in the table, or an index to the table (added to REF_INDEX)
+	final static int REF_NULL  = 0;
+	final static int REF_NEW   = 1;
+	final static int REF_INDEX = 2;
+
+	// kinds of scopes
+	final static int SCOPE_NULL 	 		= 0;
+	final static int SCOPE_ROOT 	 		= 1;
+	final static int SCOPE_LOAD_MODULE 		= 2;
+	final static int SCOPE_FILE 	 		= 3;
+	final static int SCOPE_PROCEDURE 		= 4;
+	final static int SCOPE_CALL_SITE 		= 5;
+	final static int SCOPE_LINE 	 		= 6;
+	final static int SCOPE_STATEMENT_RANGE 	= 7;
+	final static int SCOPE_LOOP 	 		= 8;
+	final static int SCOPE_ALIEN 	 		= 9;
+
+	// kinds of metrics
+	final static int METRIC 		  = 1;
+	final static int METRIC_FINAL 	  = 2;
+	final static int METRIC_AGGREGATE = 3;
+
+	// flags of a metric value
+	final static int VALUE_AVAILABLE 	  = 1;
+	final static int ANNOTATION_AVAILABLE = 2;
+
+	// the types which are not enumerations are stored by their index
+	final static RootScopeType []ROOT_TYPES = {RootScopeType.Invisible, RootScopeType.CallingContextTree,
+		RootScopeType.CallerTree, RootScopeType.Flat};
+	final static MetricType []METRIC_TYPES = {MetricType.UNKNOWN, MetricType.EXCLUSIVE, MetricType.INCLUSIVE};
+	final static CallSiteScopeType []CALL_SITE_TYPES = {CallSiteScopeType.CALL_TO_PROCEDURE,
+		CallSiteScopeType.CALL_FROM_PROCEDURE};
+
+	final private File snapshot;
+	final private BaseExperiment experiment;
+	final private IUserData<String, String> userData;
+	final private boolean withMetrics;
+
+	final private ArrayList<String> stringTable 			= new ArrayList<String>();
+	final private ArrayList<SourceFile> sourceFileTable 	= new ArrayList<SourceFile>();
+	final private ArrayList<LoadModuleScope> loadModuleTable = new ArrayList<LoadModuleScope>();
+
+	private byte []stringBuffer = new byte[256];
+
+	private DataInputStream input;
+	private int metricCount;
+
+
+	/*************************************************************************
+	 * Creates a parser of a snapshot. The header of the snapshot has to be
+	 * checked with {@link #isValid(File, File, boolean)} before parsing it.
+	 *
+	 * @param snapshot : the snapshot file
+	 * @param experiment : the experiment to restore
+	 * @param userData : the aliases of the procedure names
+	 *************************************************************************/
+	public SnapshotParser(File snapshot, BaseExperiment experiment, IUserData<String, String> userData)
+	{
+		this.snapshot 	 = snapshot;
+		this.experiment  = experiment;
+		this.userData 	 = userData;
+		this.withMetrics = experiment instanceof BaseExperimentWithMetrics;
+	}
+
+
+	/*************************************************************************
+	 *	Restores the experiment from the snapshot.
+	 *	The experiment is modified only if the whole snapshot is correct.
+	 *
+	 *	@return true if the experiment has been restored, false if the snapshot
+	 *		is out of date because the aliases of the procedures have changed.
+	 *	@throws InvalidSnapshotException if the snapshot is corrupted. In this
+	 *		case the experiment has not been modified.
+	 ************************************************************************/
+	public boolean parse() throws InvalidSnapshotException
+	{
+		try {
+			final FileInputStream file = new FileInputStream(snapshot);
+			try {
+				final CRC32 crc = new CRC32();
+				final InputStream buffer = new BufferedInputStream(file, BUFFER_SIZE);
+				input = new DataInputStream(new CheckedInputStream(buffer, crc));
+
+				readHeader();
+				if (!readProcedureTable())
+					return false;
+
+				final String version = readString();
+				final BaseExperiment.Db_File_Type []dbTypes = BaseExperiment.Db_File_Type.values();
+				final String []dbFilenames = new String[dbTypes.length];
+				for (int i=0; i<dbTypes.length; i++) {
+					dbFilenames[i] = readString();
+				}
+				final ExperimentConfiguration configuration = readConfiguration();
+				final int minCCTID = input.readInt();
+				final int maxCCTID = input.readInt();
+				final TraceAttribute attribute = readTraceAttribute();
+
+				List<BaseMetric> metrics = null;
+				MetricRaw []metricRaw 	 = null;
+				if (withMetrics) {
+					metrics 	= readMetrics();
+					metricCount = metrics.size();
+					metricRaw 	= readMetricRaw();
+				}
+				final RootScope rootScope = readTree();
+
+				// the checksum itself is not part of the checksum
+				final long checksum = crc.getValue();
+				if (new DataInputStream(buffer).readLong() != checksum)
+					throw new InvalidSnapshotException("Incorrect checksum: " + snapshot, null);
+
+				//--------------------------------------------------------------
+				// the snapshot is correct: restore the experiment
+				//--------------------------------------------------------------
+				experiment.setVersion(version);
+				for (int i=0; i<dbTypes.length; i++) {
+					if (dbFilenames[i] != null)
+						experiment.setDBFilename(dbTypes[i], dbFilenames[i]);
+				}
+				experiment.setConfiguration(configuration);
+				experiment.setMinMaxCCTID(minCCTID, maxCCTID);
+
+				if (attribute != null)
+					((ExperimentWithoutMetrics)experiment).setTraceAttribute(attribute);
+				if (metrics != null)
+					((BaseExperimentWithMetrics)experiment).setMetrics(metrics);
+				if (metricRaw != null)
+					((Experiment)experiment).setMetricRaw(metricRaw);
+
+				experiment.setRootScope(rootScope);
+				return true;
+
+			} finally {
+				file.close();
+			}
+		} catch (InvalidSnapshotException e) {
+			throw e;
+		} catch (Exception e) {
+			// a corrupted snapshot can give any data
+			throw new InvalidSnapshotException("Invalid snapshot: " + snapshot, e);
+		}
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	SNAPSHOT FILES														//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	/*************************************************************************
+	 * Returns the snapshot file of an XML file.<br/>
+	 * The snapshot is stored next to the XML file if the directory is writable,
+	 * otherwise in the user's cache directory. An experiment with metrics and
+	 * an experiment without metrics have different snapshots.
+	 *
+	 * @param source : the XML file
+	 * @param withMetrics : whether the experiment has metrics or not
+	 * @return the snapshot file, which may not exist yet.
+	 *************************************************************************/
+	static public File getSnapshotFile(File source, boolean withMetrics)
+	{
+		final File directory = source.getAbsoluteFile().getParentFile();
+		final String name 	 = source.getName() + (withMetrics ? "" : CCT_EXTENSION) + SNAPSHOT_EXTENSION;
+
+		final File snapshot  = new File(directory, name);
+		if (snapshot.exists() || (directory != null && directory.canWrite()))
+			return snapshot;
+
+		// read-only database: use the cache directory of the user.
+		// The path of the source is stored in the header, so a hash collision
+		// gives an invalid snapshot, not a wrong one.
+		final File cache = new File(System.getProperty("user.home"), CACHE_DIRECTORY);
+		final String hash = Integer.toHexString(source.getAbsolutePath().hashCode());
+		return new File(cache, hash + "-" + name);
+	}
+
+
+	/*************************************************************************
+	 * Checks if a snapshot can be used instead of an XML file.<br/>
+	 * Only the header is read: the checksum of the content is checked while
+	 * reading the snapshot, so that the snapshot is read only once.
+	 *
+	 * @param snapshot : the snapshot file
+	 * @param source : the XML file
+	 * @param withMetrics : whether the experiment has metrics or not
+	 * @return true if the snapshot is up to date
+	 *************************************************************************/
+	static public boolean isValid(File snapshot, File source, boolean withMetrics)
+	{
+		if (!source.canRead() || !snapshot.canRead() || snapshot.lastModified() < source.lastModified())
+			return false;
+
+		if (snapshot.length() <= 8)
+			return false;
+
+		try {
+			final FileInputStream file = new FileInputStream(snapshot);
+			try {
+				final DataInputStream input = new DataInputStream(new BufferedInputStream(file));
+
+				return input.readLong() == MAGIC && input.readInt() == FORMAT_VERSION
+						&& input.readUTF().equals(source.getAbsolutePath())
+						&& input.readLong() == source.length()
+						&& input.readLong() == source.lastModified()
+						&& input.readBoolean() == withMetrics;
+
+			} finally {
+				file.close();
+			}
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			System.err.println("Warning: cannot read " + snapshot + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	ENCODING															//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	/*************************************************************************
+	 * Writes a non-negative integer with 7 bits per byte.
+	 *************************************************************************/
+	static void writeVarInt(OutputStream output, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0) {
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.write(value);
+	}
+
+
+	/*************************************************************************
+	 * Reads an integer written by {@link #writeVarInt(OutputStream, int)}
+	 *************************************************************************/
+	static int readVarInt(InputStream input) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = input.read();
+			if (b < 0)
+				throw new EOFException();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Invalid integer in the snapshot");
+	}
+
+
+	/*************************************************************************
+	 * Returns the index of an item in an array of types, or -1
+	 *************************************************************************/
+	static int indexOf(Object []types, Object type)
+	{
+		for (int i=0; i<types.length; i++) {
+			if (types[i] == type)
+				return i;
+		}
+		return -1;
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	PRIVATE METHODS														//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	private void readHeader() throws IOException
+	{
+		if (input.readLong() != MAGIC || input.readInt() != FORMAT_VERSION)
+			throw new IOException("Invalid snapshot: " + snapshot);
+
+		// source path, length and modification time are checked by isValid()
+		input.readUTF();
+		input.readLong();
+		input.readLong();
+
+		if (input.readBoolean() != withMetrics)
+			throw new IOException("Invalid kind of experiment: " + snapshot);
+	}
+
+
+	/****
+	 * check the aliases of the procedures used by the snapshot
+	 * @return true if the aliases haven't changed
+	 * @throws IOException
+	 */
+	private boolean readProcedureTable() throws IOException
+	{
+		final int count = readVarInt(input);
+		for (int i=0; i<count; i++) {
+			final String name  = readString();
+			final String alias = readString();
+			final String current = (userData == null ? null : userData.get(name));
+
+			if (alias == null ? current != null : !alias.equals(current))
+				return false;
+		}
+		return true;
+	}
+
+
+	private ExperimentConfiguration readConfiguration() throws IOException
+	{
+		final ExperimentConfiguration configuration = new ExperimentConfiguration();
+		for (int i=0; i<=ExperimentConfiguration.NAME_PLOT_DB; i++) {
+			configuration.setName(i, readString());
+		}
+		final int count = readVarInt(input);
+		if (count > 0) {
+			final List<File> paths = new ArrayList<File>(count);
+			for (int i=0; i<count; i++) {
+				paths.add(new File(readString()));
+			}
+			configuration.setSearchPaths(paths);
+		}
+		return configuration;
+	}
+
+
+	private TraceAttribute readTraceAttribute() throws IOException
+	{
+		if (!input.readBoolean())
+			return null;
+
+		final TraceAttribute attribute = new TraceAttribute();
+		attribute.dbGlob 		= readString();
+		attribute.dbTimeMin 	= input.readLong();
+		attribute.dbTimeMax 	= input.readLong();
+		attribute.dbHeaderSize  = input.readInt();
+		return attribute;
+	}
+
+
+	private List<BaseMetric> readMetrics() throws IOException
+	{
+		final int count = readVarInt(input);
+		final List<BaseMetric> metrics = new ArrayList<BaseMetric>(count);
+
+		for (int i=0; i<count; i++)
+		{
+			final int kind 			 = input.read();
+			final String shortName 	 = readString();
+			final String nativeName  = readString();
+			final String displayName = readString();
+			final boolean displayed  = input.readBoolean();
+			final String format 	 = readString();
+			final AnnotationType annotationType = AnnotationType.values()[readVarInt(input)];
+			final int index 		 = input.readInt();
+			final int partner 		 = input.readInt();
+			final MetricType type 	 = METRIC_TYPES[readVarInt(input)];
+			final String period 	 = String.valueOf(input.readDouble());
+
+			final BaseMetric metric;
+			switch (kind)
+			{
+			case METRIC:
+				metric = new Metric(shortName, nativeName, displayName, displayed, format, annotationType,
+						period, index, type, partner);
+				break;
+			case METRIC_FINAL:
+				metric = new FinalMetric(shortName, nativeName, displayName, displayed, format, annotationType,
+						period, index, type, partner);
+				break;
+			case METRIC_AGGREGATE:
+				final AggregateMetric aggregate = new AggregateMetric(shortName, displayName, displayed, format,
+						annotationType, index, partner, type);
+				aggregate.setSamplePeriod(period);
+
+				final String combine  = readString();
+				final String finalize = readString();
+				if (combine != null)
+					aggregate.setFormula(AggregateMetric.FORMULA_COMBINE, combine);
+				if (finalize != null)
+					aggregate.setFormula(AggregateMetric.FORMULA_FINALIZE, finalize);
+				aggregate.init((BaseExperimentWithMetrics) experiment);
+				metric = aggregate;
+				break;
+			default:
+				throw new IOException("Invalid metric in the snapshot: " + kind);
+			}
+			metrics.add(metric);
+		}
+		return metrics;
+	}
+
+
+	/****
+	 * read the metrics of the thread level database
+	 * @return the metrics, null if the experiment has none
+	 * @throws IOException
+	 */
+	private MetricRaw[] readMetricRaw() throws IOException
+	{
+		final int count = readVarInt(input);
+		if (count == 0)
+			return null;
+
+		final MetricRaw []metrics = new MetricRaw[count];
+		for (int i=0; i<count; i++)
+		{
+			final int id 		= input.readInt();
+			final String title 	= readString();
+			final String glob 	= readString();
+			final int dbId 		= input.readInt();
+			final int partner 	= input.readInt();
+			final MetricType type = METRIC_TYPES[readVarInt(input)];
+			final int size 		= input.readInt();
+
+			metrics[i] = new MetricRaw(id, title, glob, dbId, partner, type, size);
+		}
+		for (MetricRaw metric : metrics) {
+			if (metric.getPartner() >= 0)
+				metric.setMetricPartner(metrics[metric.getPartner()]);
+		}
+		return metrics;
+	}
+
+
+	/****
+	 * read the scope tree. The tree is stored in pre-order, each scope
+	 * followed by its number of children.
+	 * The tree can be very deep, so it is read without recursion.
+	 *
+	 * @return the root of the tree
+	 * @throws IOException
+	 */
+	private RootScope readTree() throws IOException
+	{
+		final Scope top = readScope(null, null);
+		if (!(top instanceof RootScope))
+			throw new IOException("Invalid root scope in the snapshot");
+
+		final Stack<Frame> stack = new Stack<Frame>();
+		int count = readVarInt(input);
+		if (count > 0)
+			stack.push(new Frame(top, (RootScope) top, count));
+
+		while (!stack.isEmpty())
+		{
+			final Frame frame = stack.peek();
+			final Scope scope = readScope(frame.root, frame.scope);
+			if (scope == null)
+				throw new IOException("Invalid scope in the snapshot");
+
+			frame.scope.addSubscope(scope);
+			scope.setParentScope(frame.scope);
+			if (--frame.remaining == 0)
+				stack.pop();
+
+			count = readVarInt(input);
+			if (count > 0) {
+				final RootScope root = (scope instanceof RootScope ? (RootScope) scope : frame.root);
+				stack.push(new Frame(scope, root, count));
+			}
+		}
+		return (RootScope) top;
+	}
+
+
+	/****
+	 * read a scope, without its children
+	 *
+	 * @param root : the root of the tree of the scope
+	 * @param parent : the parent of the scope
+	 * @return the scope, can be null
+	 * @throws IOException
+	 */
+	private Scope readScope(RootScope root, Scope parent) throws IOException
+	{
+		final Scope scope;
+		final int kind = input.read();
+		switch (kind)
+		{
+		case SCOPE_NULL:
+			return null;
+
+		case SCOPE_ROOT:
+			final String rootName = readString();
+			final RootScopeType rootType = ROOT_TYPES[readVarInt(input)];
+			final RootScope rootScope = new RootScope(experiment, rootName, rootType);
+			rootScope.setName(readString());
+			root  = rootScope;
+			scope = rootScope;
+			break;
+
+		case SCOPE_LOAD_MODULE:
+			final String moduleName = readString();
+			final SourceFile moduleFile = readSourceFile();
+			scope = new LoadModuleScope(root, moduleName, moduleFile, input.readInt());
+			break;
+
+		case SCOPE_FILE:
+			final SourceFile file = readSourceFile();
+			scope = new FileScope(root, file, input.readInt());
+			break;
+
+		case SCOPE_PROCEDURE:
+			scope = readProcedure(root);
+			break;
+
+		case SCOPE_CALL_SITE:
+			final int callCCT  = input.readInt();
+			final int callFlat = input.readInt();
+			final CallSiteScopeType callType = CALL_SITE_TYPES[readVarInt(input)];
+
+			// the line scope of a call site is not in the tree, but has the
+			// same parent as the call site
+			final LineScope lineScope = (LineScope) readScope(root, parent);
+			final ProcedureScope procScope = (ProcedureScope) readScope(root, null);
+			scope = new CallSiteScope(lineScope, procScope, callType, callCCT, callFlat);
+			if (lineScope != null)
+				lineScope.setParentScope(parent);
+			break;
+
+		case SCOPE_LINE:
+			final SourceFile lineFile = readSourceFile();
+			final int line 	   = input.readInt();
+			final int lineCCT  = input.readInt();
+			scope = new LineScope(root, lineFile, line, lineCCT, input.readInt());
+			break;
+
+		case SCOPE_STATEMENT_RANGE:
+		case SCOPE_LOOP:
+			final SourceFile rangeFile = readSourceFile();
+			final int first 	= input.readInt();
+			final int last 		= input.readInt();
+			final int rangeCCT 	= input.readInt();
+			final int rangeFlat = input.readInt();
+			if (kind == SCOPE_LOOP)
+				scope = new LoopScope(root, rangeFile, first, last, rangeCCT, rangeFlat);
+			else
+				scope = new StatementRangeScope(root, rangeFile, first, last, rangeCCT, rangeFlat);
+			break;
+
+		case SCOPE_ALIEN:
+			final SourceFile alienFile = readSourceFile();
+			final String fileName 	   = readString();
+			final String procName 	   = readString();
+			final int alienFirst 	   = input.readInt();
+			final int alienLast 	   = input.readInt();
+			scope = new AlienScope(root, alienFile, fileName, procName, alienFirst, alienLast, input.readInt());
+			break;
+
+		default:
+			throw new IOException("Invalid scope in the snapshot: " + kind);
+		}
+		scope.setCpid(input.readInt());
+		readMetricValues(scope, root);
+
+		return scope;
+	}
+
+
+	private ProcedureScope readProcedure(RootScope root) throws IOException
+	{
+		final LoadModuleScope loadModule = readLoadModule(root);
+		final SourceFile sourceFile 	 = readSourceFile();
+		final int first 	 = input.readInt();
+		final int last 		 = input.readInt();
+		final String name 	 = readString();
+		final boolean alien  = input.readBoolean();
+		final int cct 		 = input.readInt();
+		final int flat 		 = input.readInt();
+		final boolean falseProcedure = input.readBoolean();
+		final int type 		 = readVarInt(input);
+
+		// the name is the final name: the aliases have been checked
+		final ProcedureScope scope = new ProcedureScope(root, loadModule, sourceFile, first, last,
+				name, alien, cct, flat, null, falseProcedure);
+		if (type > 0)
+			scope.setProcedureType(ProcedureType.values()[type - 1]);
+
+		return scope;
+	}
+
+
+	/****
+	 * read the metric values of a scope, if the scope had its metric storage
+	 */
+	private void readMetricValues(Scope scope, RootScope root) throws IOException
+	{
+		if (!withMetrics || !input.readBoolean())
+			return;
+
+		scope.setMetricValues(root.createMetricValueCollection(metricCount));
+
+		// the list of values ends with 0
+		int index;
+		while ((index = readVarInt(input)) != 0)
+		{
+			final int flags = input.read();
+			final MetricValue value = new MetricValue();
+			if ((flags & VALUE_AVAILABLE) != 0)
+				MetricValue.setValue(value, input.readFloat());
+			if ((flags & ANNOTATION_AVAILABLE) != 0)
+				MetricValue.setAnnotationValue(value, input.readFloat());
+
+			scope.setMetricValue(index - 1, value);
+		}
+	}
+
+
+	private SourceFile readSourceFile() throws IOException
+	{
+		final int code = readVarInt(input);
+		if (code >= REF_INDEX)
+			return sourceFileTable.get(code - REF_INDEX);
+		if (code == REF_NULL)
+			return null;
+
+		final int id = input.readInt();
+		final File filename = new File(readString());
+		final SourceFile sourceFile = new FileSystemSourceFile(experiment, filename, id);
+		sourceFile.setIsText(input.readBoolean());
+
+		sourceFileTable.add(sourceFile);
+		return sourceFile;
+	}
+
+
+	private LoadModuleScope readLoadModule(RootScope root) throws IOException
+	{
+		final int code = readVarInt(input);
+		if (code >= REF_INDEX)
+			return loadModuleTable.get(code - REF_INDEX);
+		if (code == REF_NULL)
+			return null;
+
+		final String name 			= readString();
+		final SourceFile sourceFile = readSourceFile();
+		final LoadModuleScope loadModule = new LoadModuleScope(root, name, sourceFile, input.readInt());
+
+		loadModuleTable.add(loadModule);
+		return loadModule;
+	}
+
+
+	private String readString() throws IOException
+	{
+		final int code = readVarInt(input);
+		if (code >= REF_INDEX)
+			return stringTable.get(code - REF_INDEX);
+		if (code == REF_NULL)
+			return null;
+
+		final int length = readVarInt(input);
+		if (length > stringBuffer.length)
+			stringBuffer = new byte[Math.max(length, stringBuffer.length * 2)];
+		input.readFully(stringBuffer, 0, length);
+
+		final String s = new String(stringBuffer, 0, length, "UTF-8");
+		stringTable.add(s);
+
+		return s;
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	CLASSES																//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	/*************************************************************************
+	 * A scope whose children are being read
+	 *************************************************************************/
+	static private class Frame
+	{
+		final Scope scope;
+		final RootScope root;
+		int remaining;
+
+		Frame(Scope scope, RootScope root, int remaining)
+		{
+			this.scope 	   = scope;
+			this.root 	   = root;
+			this.remaining = remaining;
+		}
+	}
+
+
+	/*************************************************************************
+	 * Exception thrown when the content of a snapshot is corrupted
+	 *************************************************************************/
+	static public class InvalidSnapshotException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public InvalidSnapshotException(String message, Throwable cause)
+		{
+			super(message);
+			if (cause != null)
+				initCause(cause);
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package edu.rice.cs.hpc.data.experiment.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import edu.rice.cs.hpc.data.experiment.BaseExperiment;
+import edu.rice.cs.hpc.data.experiment.BaseExperimentWithMetrics;
+import edu.rice.cs.hpc.data.experiment.Experiment;
+import edu.rice.cs.hpc.data.experiment.ExperimentConfiguration;
+import edu.rice.cs.hpc.data.experiment.ExperimentWithoutMetrics;
+import edu.rice.cs.hpc.data.experiment.extdata.TraceAttribute;
+import edu.rice.cs.hpc.data.experiment.metric.AggregateMetric;
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
+import edu.rice.cs.hpc.data.experiment.metric.FinalMetric;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
+import edu.rice.cs.hpc.data.experiment.metric.MetricRaw;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
+import edu.rice.cs.hpc.data.experiment.metric.format.IMetricValueFormat;
+import edu.rice.cs.hpc.data.experiment.metric.format.MetricValuePredefinedFormat;
+import edu.rice.cs.hpc.data.experiment.scope.AlienScope;
+import edu.rice.cs.hpc.data.experiment.scope.CallSiteScope;
+import edu.rice.cs.hpc.data.experiment.scope.FileScope;
+import edu.rice.cs.hpc.data.experiment.scope.LineScope;
+import edu.rice.cs.hpc.data.experiment.scope.LoadModuleScope;
+import edu.rice.cs.hpc.data.experiment.scope.LoopScope;
+import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.experiment.scope.StatementRangeScope;
+import edu.rice.cs.hpc.data.experiment.source.FileSystemSourceFile;
+import edu.rice.cs.hpc.data.experiment.source.SourceFile;
+import edu.rice.cs.hpc.data.util.IUserData;
+
+
+/*************************************************************************
+ *
+ * Writer of the snapshot of a finalized experiment (see {@link SnapshotParser}).
+ * <p>
+ * The snapshot is written into a temporary file which replaces the
+ * snapshot file only if the whole experiment has been written successfully.
+ * A failure to write the snapshot is not an error: the experiment will
+ * just be parsed again next time.
+ * </p>
+ *************************************************************************/
+public class SnapshotRecorder
+{
+	final private File source;
+	final private File snapshot;
+	final private File tmpFile;
+
+	/** index of the strings, source files and load modules already written */
+	final private HashMap<String, Integer> stringTable = new HashMap<String, Integer>();
+	final private Map<SourceFile, Integer> sourceFileTable = new IdentityHashMap<SourceFile, Integer>();
+	final private Map<LoadModuleScope, Integer> loadModuleTable = new IdentityHashMap<LoadModuleScope, Integer>();
+
+	private DataOutputStream output;
+	private int metricCount;
+
+
+	/*************************************************************************
+	 * Creates a recorder
+	 *
+	 * @param source : the XML file of the experiment
+	 * @param snapshot : the snapshot file to create
+	 *************************************************************************/
+	public SnapshotRecorder(File source, File snapshot)
+	{
+		this.source   = source;
+		this.snapshot = snapshot;
+		this.tmpFile  = new File(snapshot.getPath() + ".tmp");
+	}
+
+
+	/*************************************************************************
+	 * Writes the snapshot of a finalized experiment
+	 *
+	 * @param experiment : the experiment, parsed and post-processed
+	 * @param procedureTable : the aliases of the procedure names used
+	 * 		to parse the experiment
+	 * @return true if the snapshot has been created
+	 *************************************************************************/
+	public boolean write(BaseExperiment experiment, ProcedureTable procedureTable)
+	{
+		final boolean withMetrics = experiment instanceof BaseExperimentWithMetrics;
+		try {
+			final File directory = snapshot.getParentFile();
+			if (directory != null && !directory.exists())
+				directory.mkdirs();
+
+			final FileOutputStream file = new FileOutputStream(tmpFile);
+			try {
+				final CRC32 crc = new CRC32();
+				output = new DataOutputStream(new BufferedOutputStream(
+						new CheckedOutputStream(file, crc), SnapshotParser.BUFFER_SIZE));
+
+				output.writeLong(SnapshotParser.MAGIC);
+				output.writeInt(SnapshotParser.FORMAT_VERSION);
+				output.writeUTF(source.getAbsolutePath());
+				output.writeLong(source.length());
+				output.writeLong(source.lastModified());
+				output.writeBoolean(withMetrics);
+
+				writeProcedureTable(procedureTable);
+
+				writeString(experiment.getVersion());
+				for (BaseExperiment.Db_File_Type type : BaseExperiment.Db_File_Type.values()) {
+					writeString(experiment.getDbFilename(type));
+				}
+				writeConfiguration(experiment.getConfiguration());
+				output.writeInt(experiment.getMinCCTID());
+				output.writeInt(experiment.getMaxCCTID());
+				writeTraceAttribute(experiment instanceof ExperimentWithoutMetrics ?
+						((ExperimentWithoutMetrics)experiment).getTraceAttribute() : null);
+
+				if (withMetrics) {
+					final BaseMetric []metrics = ((BaseExperimentWithMetrics)experiment).getMetrics();
+					metricCount = metrics.length;
+					writeMetrics(metrics);
+					writeMetricRaw(experiment instanceof Experiment ?
+							((Experiment)experiment).getMetricRaw() : null);
+				}
+				writeTree((RootScope) experiment.getRootScope(), withMetrics);
+				output.flush();
+
+				// the checksum is written after all the checked bytes
+				new DataOutputStream(file).writeLong(crc.getValue());
+
+			} finally {
+				file.close();
+			}
+			if (snapshot.exists())
+				snapshot.delete();
+			if (!tmpFile.renameTo(snapshot))
+				throw new IOException("cannot rename " + tmpFile);
+
+			return true;
+
+		} catch (IOException e) {
+			System.err.println("Warning: cannot create " + snapshot + ": " + e.getMessage());
+			return false;
+
+		} finally {
+			output = null;
+			if (tmpFile.exists())
+				tmpFile.delete();
+		}
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	PRIVATE METHODS														//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	private void writeProcedureTable(ProcedureTable procedureTable) throws IOException
+	{
+		final Map<String, String> aliases = procedureTable.aliases;
+		SnapshotParser.writeVarInt(output, aliases.size());
+		for (Map.Entry<String, String> entry : aliases.entrySet()) {
+			writeString(entry.getKey());
+			writeString(entry.getValue());
+		}
+	}
+
+
+	private void writeConfiguration(ExperimentConfiguration configuration) throws IOException
+	{
+		for (int i=0; i<=ExperimentConfiguration.NAME_PLOT_DB; i++) {
+			writeString(configuration.getName(i));
+		}
+		final int count = configuration.getSearchPathCount();
+		SnapshotParser.writeVarInt(output, count);
+		for (int i=0; i<count; i++) {
+			writeString(configuration.getSearchPath(i).getPath());
+		}
+	}
+
+
+	private void writeTraceAttribute(TraceAttribute attribute) throws IOException
+	{
+		output.writeBoolean(attribute != null);
+		if (attribute == null)
+			return;
+
+		writeString(attribute.dbGlob);
+		output.writeLong(attribute.dbTimeMin);
+		output.writeLong(attribute.dbTimeMax);
+		output.writeInt(attribute.dbHeaderSize);
+	}
+
+
+	private void writeMetrics(BaseMetric []metrics) throws IOException
+	{
+		SnapshotParser.writeVarInt(output, metrics.length);
+		for (BaseMetric metric : metrics)
+		{
+			// the derived metrics are added by the user after opening the experiment
+			final int kind;
+			if (metric.getClass() == Metric.class)
+				kind = SnapshotParser.METRIC;
+			else if (metric.getClass() == FinalMetric.class)
+				kind = SnapshotParser.METRIC_FINAL;
+			else if (metric.getClass() == AggregateMetric.class)
+				kind = SnapshotParser.METRIC_AGGREGATE;
+			else
+				throw new IOException("unsupported metric " + metric.getClass().getSimpleName());
+
+			final IMetricValueFormat format = metric.getDisplayFormat();
+
+			output.write(kind);
+			writeString(metric.getShortName());
+			writeString(metric.getNativeName());
+			writeString(metric.getDisplayName());
+			output.writeBoolean(metric.getDisplayed());
+			writeString(format instanceof MetricValuePredefinedFormat ?
+					((MetricValuePredefinedFormat)format).getFormat() : null);
+			SnapshotParser.writeVarInt(output, metric.getAnnotationType().ordinal());
+			output.writeInt(metric.getIndex());
+			output.writeInt(metric.getPartner());
+			writeType(SnapshotParser.METRIC_TYPES, metric.getMetricType());
+			output.writeDouble(metric.getSamplePeriod());
+
+			if (kind == SnapshotParser.METRIC_AGGREGATE) {
+				final AggregateMetric aggregate = (AggregateMetric) metric;
+				writeString(aggregate.getFormula(AggregateMetric.FORMULA_COMBINE));
+				writeString(aggregate.getFormula(AggregateMetric.FORMULA_FINALIZE));
+			}
+		}
+	}
+
+
+	private void writeMetricRaw(BaseMetric []metrics) throws IOException
+	{
+		final int count = (metrics == null ? 0 : metrics.length);
+		SnapshotParser.writeVarInt(output, count);
+		for (int i=0; i<count; i++)
+		{
+			final MetricRaw metric = (MetricRaw) metrics[i];
+			output.writeInt(metric.getID());
+			writeString(metric.getDisplayName());
+			writeString(metric.getGlob());
+			output.writeInt(metric.getRawID());
+			output.writeInt(metric.getPartner());
+			writeType(SnapshotParser.METRIC_TYPES, metric.getMetricType());
+			output.writeInt(metric.getSize());
+		}
+	}
+
+
+	/****
+	 * write the scope tree in pre-order, each scope followed by its number
+	 * of children. The tree can be very deep, so it is written without recursion.
+	 */
+	private void writeTree(RootScope root, boolean withMetrics) throws IOException
+	{
+		final Stack<Scope> stack = new Stack<Scope>();
+		stack.push(root);
+
+		while (!stack.isEmpty())
+		{
+			final Scope scope = stack.pop();
+			writeScope(scope, withMetrics);
+
+			final int count = scope.getSubscopeCount();
+			SnapshotParser.writeVarInt(output, count);
+			for (int i=count-1; i>=0; i--) {
+				stack.push(scope.getSubscope(i));
+			}
+		}
+	}
+
+
+	/****
+	 * write a scope, without its children
+	 */
+	private void writeScope(Scope scope, boolean withMetrics) throws IOException
+	{
+		if (scope == null) {
+			output.write(SnapshotParser.SCOPE_NULL);
+			return;
+		}
+
+		final Class<?> type = scope.getClass();
+		if (type == RootScope.class)
+		{
+			final RootScope root = (RootScope) scope;
+			output.write(SnapshotParser.SCOPE_ROOT);
+			writeString(root.getRootName());
+			writeType(SnapshotParser.ROOT_TYPES, root.getType());
+			writeString(root.getName());
+		}
+		else if (type == LoadModuleScope.class)
+		{
+			final LoadModuleScope module = (LoadModuleScope) scope;
+			output.write(SnapshotParser.SCOPE_LOAD_MODULE);
+			writeString(module.getModuleName());
+			writeSourceFile(module.getSourceFile());
+			output.writeInt(module.getFlatIndex());
+		}
+		else if (type == FileScope.class)
+		{
+			output.write(SnapshotParser.SCOPE_FILE);
+			writeSourceFile(scope.getSourceFile());
+			output.writeInt(scope.getFlatIndex());
+		}
+		else if (type == ProcedureScope.class)
+		{
+			final ProcedureScope proc = (ProcedureScope) scope;
+			output.write(SnapshotParser.SCOPE_PROCEDURE);
+			writeLoadModule(proc.getLoadModule());
+			writeSourceFile(proc.getSourceFile());
+			output.writeInt(proc.getFirstLineNumber());
+			output.writeInt(proc.getLastLineNumber());
+			writeString(proc.getName());
+			output.writeBoolean(proc.isAlien());
+			output.writeInt(proc.getCCTIndex());
+			output.writeInt(proc.getFlatIndex());
+			output.writeBoolean(proc.isFalseProcedure());
+			SnapshotParser.writeVarInt(output, proc.getProcedureType() == null ? 0 :
+				proc.getProcedureType().ordinal() + 1);
+		}
+		else if (type == CallSiteScope.class)
+		{
+			final CallSiteScope callsite = (CallSiteScope) scope;
+			output.write(SnapshotParser.SCOPE_CALL_SITE);
+			output.writeInt(callsite.getCCTIndex());
+			output.writeInt(callsite.getFlatIndex());
+			writeType(SnapshotParser.CALL_SITE_TYPES, callsite.getType());
+			writeScope(callsite.getLineScope(), withMetrics);
+			writeScope(callsite.getProcedureScope(), withMetrics);
+		}
+		else if (type == LineScope.class)
+		{
+			output.write(SnapshotParser.SCOPE_LINE);
+			writeSourceFile(scope.getSourceFile());
+			output.writeInt(scope.getFirstLineNumber());
+			output.writeInt(scope.getCCTIndex());
+			output.writeInt(scope.getFlatIndex());
+		}
+		else if (type == StatementRangeScope.class || type == LoopScope.class)
+		{
+			output.write(type == LoopScope.class ? SnapshotParser.SCOPE_LOOP : SnapshotParser.SCOPE_STATEMENT_RANGE);
+			writeSourceFile(scope.getSourceFile());
+			output.writeInt(scope.getFirstLineNumber());
+			output.writeInt(scope.getLastLineNumber());
+			output.writeInt(scope.getCCTIndex());
+			output.writeInt(scope.getFlatIndex());
+		}
+		else if (type == AlienScope.class)
+		{
+			final AlienScope alien = (AlienScope) scope;
+			output.write(SnapshotParser.SCOPE_ALIEN);
+			writeSourceFile(alien.getSourceFile());
+			writeString(alien.getFileName());
+			writeString(alien.getProcedureName());
+			output.writeInt(alien.getFirstLineNumber());
+			output.writeInt(alien.getLastLineNumber());
+			output.writeInt(alien.getCCTIndex());
+		}
+		else
+		{
+			throw new IOException("unsupported scope " + type.getSimpleName());
+		}
+		output.writeInt(scope.getCpid());
+		if (withMetrics)
+			writeMetricValues(scope);
+	}
+
+
+	/****
+	 * write the metric values of a scope, only if the scope has its own storage:
+	 * the values of the other scopes are computed on demand
+	 */
+	private void writeMetricValues(Scope scope) throws IOException
+	{
+		final boolean hasStorage = scope.hasMetricStorage();
+		output.writeBoolean(hasStorage);
+		if (!hasStorage)
+			return;
+
+		for (int i=0; i<metricCount; i++)
+		{
+			final MetricValue value = scope.getMetricValue(i);
+			final boolean available  = MetricValue.isAvailable(value);
+			final boolean annotation = MetricValue.isAnnotationAvailable(value);
+			if (!available && !annotation)
+				continue;
+
+			SnapshotParser.writeVarInt(output, i + 1);
+			output.write((available ? SnapshotParser.VALUE_AVAILABLE : 0) |
+					(annotation ? SnapshotParser.ANNOTATION_AVAILABLE : 0));
+			if (available)
+				output.writeFloat(value.getValue());
+			if (annotation)
+				output.writeFloat(MetricValue.getAnnotationValue(value));
+		}
+		SnapshotParser.writeVarInt(output, 0);
+	}
+
+
+	private void writeSourceFile(SourceFile sourceFile) throws IOException
+	{
+		if (sourceFile == null) {
+			SnapshotParser.writeVarInt(output, SnapshotParser.REF_NULL);
+			return;
+		}
+		final Integer index = sourceFileTable.get(sourceFile);
+		if (index != null) {
+			SnapshotParser.writeVarInt(output, index + SnapshotParser.REF_INDEX);
+			return;
+		}
+		if (!(sourceFile instanceof FileSystemSourceFile))
+			throw new IOException("unsupported source file " + sourceFile.getClass().getSimpleName());
+
+		SnapshotParser.writeVarInt(output, SnapshotParser.REF_NEW);
+		output.writeInt(sourceFile.getFileID());
+		writeString(sourceFile.getFilename().getPath());
+		output.writeBoolean(sourceFile.isText());
+
+		sourceFileTable.put(sourceFile, sourceFileTable.size());
+	}
+
+
+	private void writeLoadModule(LoadModuleScope loadModule) throws IOException
+	{
+		if (loadModule == null) {
+			SnapshotParser.writeVarInt(output, SnapshotParser.REF_NULL);
+			return;
+		}
+		final Integer index = loadModuleTable.get(loadModule);
+		if (index != null) {
+			SnapshotParser.writeVarInt(output, index + SnapshotParser.REF_INDEX);
+			return;
+		}
+		SnapshotParser.writeVarInt(output, SnapshotParser.REF_NEW);
+		writeString(loadModule.getModuleName());
+		writeSourceFile(loadModule.getSourceFile());
+		output.writeInt(loadModule.getFlatIndex());
+
+		loadModuleTable.put(loadModule, loadModuleTable.size());
+	}
+
+
+	private void writeType(Object []types, Object type) throws IOException
+	{
+		final int index = SnapshotParser.indexOf(types, type);
+		if (index < 0)
+			throw new IOException("unsupported type " + type);
+
+		SnapshotParser.writeVarInt(output, index);
+	}
+
+
+	private void writeString(String s) throws IOException
+	{
+		if (s == null) {
+			SnapshotParser.writeVarInt(output, SnapshotParser.REF_NULL);
+			return;
+		}
+		final Integer index = stringTable.get(s);
+		if (index != null) {
+			SnapshotParser.writeVarInt(output, index + SnapshotParser.REF_INDEX);
+			return;
+		}
+		final byte []bytes = s.getBytes("UTF-8");
+		SnapshotParser.writeVarInt(output, SnapshotParser.REF_NEW);
+		SnapshotParser.writeVarInt(output, bytes.length);
+		output.write(bytes);
+
+		stringTable.put(s, stringTable.size());
+	}
+
+
+	//////////////////////////////////////////////////////////////////////////
+	//	CLASSES																//
+	//////////////////////////////////////////////////////////////////////////
+
+
+	/*************************************************************************
+	 * Aliases of the procedure names used to parse an experiment.<br/>
+	 * The table records every alias asked by the parser, including the
+	 * procedures without alias, so that a snapshot can check that the
+	 * aliases haven't changed since the snapshot was written.
+	 *************************************************************************/
+	static public class ProcedureTable implements IUserData<String, String>
+	{
+		final private IUserData<String, String> userData;
+		final private HashMap<String, String> aliases = new HashMap<String, String>();
+
+		public ProcedureTable(IUserData<String, String> userData)
+		{
+			this.userData = userData;
+		}
+
+		@Override
+		public String get(String key)
+		{
+			final String alias = (userData == null ? null : userData.get(key));
+			aliases.put(key, alias);
+			return alias;
+		}
+
+		@Override
+		public void put(String key, String val)
+		{
+			if (userData != null)
+				userData.put(key, val);
+		}
+	}
+}
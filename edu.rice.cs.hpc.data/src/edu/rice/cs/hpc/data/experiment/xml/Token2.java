@@ -108,6 +108,33 @@ public class Token2 {
     }
 
     public static TokenXML map(String element) {
+    	// the elements of the tree (and the metric values) are by far the most
+    	// frequent ones: check them first without computing the hash of the name
+    	final int length = element.length();
+    	if (length == 1) {
+    		switch (element.charAt(0)) {
+    		case 'M': return TokenXML.T_M;
+    		case 'S': return TokenXML.T_S;
+    		case 'C': return TokenXML.T_C;
+    		case 'L': return TokenXML.T_L;
+    		case 'A': return TokenXML.T_A;
+    		case 'F': return TokenXML.T_F;
+    		case 'P': return TokenXML.T_P;
+    		default:  return TokenXML.T_INVALID_ELEMENT_NAME;
+    		}
+    	} else if (length == 2) {
+    		final char c0 = element.charAt(0);
+    		final char c1 = element.charAt(1);
+    		if (c0 == 'P') {
+    			if (c1 == 'F') return TokenXML.T_PF;
+    			if (c1 == 'r') return TokenXML.T_PR;
+    		} else if (c0 == 'L' && c1 == 'M') {
+    			return TokenXML.T_LM;
+    		} else if (c0 == 'N' && c1 == 'V') {
+    			return TokenXML.T_NAME_VALUE;
+    		}
+    		return TokenXML.T_INVALID_ELEMENT_NAME;
+    	}
     	TokenXML objToken = tokenMap.get(element);
 
         if(objToken == null) {
@@ -1,6 +1,8 @@
 package edu.rice.cs.hpc.data.util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -122,6 +124,95 @@ public class LargeByteBuffer
 		}
 	}
 	
+	/****
+	 * Read doubles at a regular interval (for instance the values of a metric
+	 * in a file of records). The page of the values is computed only once
+	 * per page instead of once per value.
+	 * 
+	 * @param position : the position of the first double
+	 * @param stride : the distance in bytes between two consecutive doubles (at least 8)
+	 * @param values : the output
+	 * @param offset : the index in the output of the first double
+	 * @param count : the number of doubles to read
+	 * @throws IOException
+	 */
+	public void getDoubles(long position, long stride, double []values, int offset, int count) 
+			throws IOException
+	{
+		int i = 0;
+		while (i < count)
+		{
+			final int page  = (int) (position / pageSize);
+			final long base = page * pageSize;
+			int loc 		= (int) (position - base);
+			
+			// number of doubles which are entirely in this page
+			final long last = getCurrentSize(page) - Constants.SIZEOF_LONG;
+			final int n 	= (int) Math.min(count - i, loc > last ? 0 : (last - loc) / stride + 1);
+			if (n == 0) {
+				// a double across two pages
+				values[offset + i] = getDouble(position);
+				i++;
+				position += stride;
+				continue;
+			}
+			final MappedByteBuffer buffer = getBuffer(page);
+			if (stride == Constants.SIZEOF_LONG) {
+				// contiguous doubles: bulk copy
+				final ByteBuffer view = buffer.duplicate();
+				view.position(loc);
+				final DoubleBuffer doubles = view.asDoubleBuffer();
+				doubles.get(values, offset + i, n);
+			} else {
+				for (int j=0; j<n; j++) {
+					values[offset + i + j] = buffer.getDouble(loc);
+					loc += stride;
+				}
+			}
+			i += n;
+			position += n * stride;
+		}
+	}
+	
+	/****
+	 * Read the doubles at the same displacement from a list of positions
+	 * (for instance the value of a metric in the data of each thread).
+	 * The positions are supposed to be sorted, so that the page is computed 
+	 * only when the next value is in another page.
+	 * 
+	 * @param positions : the list of base positions
+	 * @param displacement : the displacement of the double from the base position
+	 * @param values : the output, values[i] is the double of positions[i]
+	 * @param from : the index of the first position to read
+	 * @param to : the index of the last position to read (exclusive)
+	 * @throws IOException
+	 */
+	public void getDoubles(long []positions, long displacement, double []values, int from, int to)
+			throws IOException
+	{
+		MappedByteBuffer buffer = null;
+		long base = 0, last = -1;
+		
+		for (int i=from; i<to; i++)
+		{
+			final long position = positions[i] + displacement;
+			if (position < base || position > last)
+			{
+				final int page = (int) (position / pageSize);
+				base   = page * pageSize;
+				last   = base + getCurrentSize(page) - Constants.SIZEOF_LONG;
+				buffer = getBuffer(page);
+				
+				if (position > last) {
+					// a double across two pages
+					values[i] = getDouble(position);
+					continue;
+				}
+			}
+			values[i] = buffer.getDouble((int) (position - base));
+		}
+	}
+	
 	public char getChar(long position) throws IOException
 	{
 		int page = (int) (position / pageSize);
@@ -0,0 +1,192 @@
+package edu.rice.cs.hpc.data.util;
+
+/*************************************************************************
+ *
+ * Hash map with primitive long keys, using open addressing with
+ * linear probing.<br/>
+ * Unlike {@link java.util.HashMap}, the keys are neither boxed nor
+ * stored in entry objects, which makes a big difference for maps with
+ * millions of keys.
+ * <p>
+ * Null values are not allowed. This class is not thread safe.
+ * </p>
+ *************************************************************************/
+public class LongHashMap<V>
+{
+	final static private int MIN_CAPACITY = 16;
+
+	private long   []keys;
+	private Object []values;	// a null value means an empty slot
+	private int size;
+	private int mask;
+
+
+	public LongHashMap()
+	{
+		this(MIN_CAPACITY);
+	}
+
+	/****
+	 * Create a map
+	 * @param expectedSize : the expected number of keys
+	 */
+	public LongHashMap(int expectedSize)
+	{
+		allocate(getCapacity(expectedSize));
+	}
+
+
+	/****
+	 * get the value of a key
+	 * @param key
+	 * @return the value, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		for (int i = index(key); ; i = (i + 1) & mask) {
+			final Object value = values[i];
+			if (value == null)
+				return null;
+			if (keys[i] == key)
+				return (V) value;
+		}
+	}
+
+	/****
+	 * store the value of a key
+	 * @param key
+	 * @param value : cannot be null
+	 * @return the previous value, null if the key didn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		if (value == null)
+			throw new NullPointerException("null value for key " + key);
+
+		int i = index(key);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				final V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i]   = key;
+		values[i] = value;
+		size++;
+
+		// keep the load factor below 1/2 to keep the probes short
+		if (size * 2 > values.length)
+			rehash(values.length * 2);
+
+		return null;
+	}
+
+	/****
+	 * remove a key
+	 * @param key
+	 * @return the value of the key, null if the key didn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		int i = index(key);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				final V old = (V) values[i];
+				delete(i);
+				return old;
+			}
+		}
+		return null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public void clear()
+	{
+		allocate(MIN_CAPACITY);
+	}
+
+
+	// --------------------------------------------------------------------
+	// Private methods
+	// --------------------------------------------------------------------
+
+	/****
+	 * remove the entry of a slot, and move back the next entries of the
+	 * same cluster which would not be found anymore.
+	 * @param hole
+	 */
+	private void delete(int hole)
+	{
+		values[hole] = null;
+		size--;
+
+		for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			final int home = index(keys[i]);
+
+			// move the entry if its home slot is not in (hole, i] (circularly)
+			final boolean move = (hole <= i) ? (home <= hole || home > i) : (home <= hole && home > i);
+			if (move) {
+				keys[hole]   = keys[i];
+				values[hole] = values[i];
+				values[i] 	 = null;
+				hole = i;
+			}
+		}
+	}
+
+	private int index(long key)
+	{
+		// mix the bits: keys are often small consecutive numbers in both halves
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 32);
+		return (int) h & mask;
+	}
+
+	private void allocate(int capacity)
+	{
+		keys   = new long[capacity];
+		values = new Object[capacity];
+		mask   = capacity - 1;
+		size   = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		final long   []oldKeys   = keys;
+		final Object []oldValues = values;
+
+		allocate(capacity);
+		for (int i=0; i<oldValues.length; i++) {
+			final Object value = oldValues[i];
+			if (value != null) {
+				int j = index(oldKeys[i]);
+				while (values[j] != null)
+					j = (j + 1) & mask;
+				keys[j]   = oldKeys[i];
+				values[j] = value;
+				size++;
+			}
+		}
+	}
+
+	static private int getCapacity(int expectedSize)
+	{
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		return capacity;
+	}
+}
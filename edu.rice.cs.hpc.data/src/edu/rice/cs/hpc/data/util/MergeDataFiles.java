@@ -1,13 +1,18 @@
 package edu.rice.cs.hpc.data.util;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 
@@ -29,7 +34,8 @@ import java.io.RandomAccessFile;
  */
 public class MergeDataFiles {
 	
-	private static final int PAGE_SIZE_GUESS = 4096;
+	/** copying is mostly I/O bound: more threads won't help */
+	private static final int MAX_COPY_THREADS = 8;
 	
 	private static final int PROC_POS = 5;
 	private static final int THREAD_POS = 4;
@@ -37,7 +43,8 @@ public class MergeDataFiles {
 	public enum MergeDataAttribute {SUCCESS_MERGED, SUCCESS_ALREADY_CREATED, FAIL_NO_DATA};
 	
 	/***
-	 * create a single file from multiple data files
+	 * create a single file from multiple data files. 
+	 * The files are copied concurrently (see {@link #merge(File, String, String, IProgressReport, int)})
 	 * 
 	 * @param directory
 	 * @param globInputFile: glob pattern
@@ -49,6 +56,34 @@ public class MergeDataFiles {
 	static public MergeDataAttribute merge(File directory, String globInputFile, String outputFile, IProgressReport progress)
 			throws IOException, FileNotFoundException {
 		
+		final int num_threads = Math.min(MAX_COPY_THREADS, Runtime.getRuntime().availableProcessors());
+		return merge(directory, globInputFile, outputFile, progress, num_threads);
+	}
+	
+	/***
+	 * create a single file from multiple data files.
+	 * <p>
+	 * The offset of each file is computed up front, so that the output can be
+	 * 	allocated at once and each file can be copied directly to its position
+	 * 	by different threads. The end marker is written only when all the 
+	 * 	files have been copied.
+	 * </p>
+	 * The progress is reported from the caller's thread.
+	 * 
+	 * @param directory
+	 * @param globInputFile: glob pattern
+	 * @param outputFile: output filename
+	 * @param progress : progress report, called by the caller's thread
+	 * @param num_threads : number of threads to copy the files. 
+	 * 			If it's 1 or less, the files are copied sequentially by the caller's thread.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	static public MergeDataAttribute merge(File directory, String globInputFile, String outputFile, 
+			IProgressReport progress, int num_threads)
+			throws IOException, FileNotFoundException {
+		
 		final int last_dot = globInputFile.lastIndexOf('.');
 		final String suffix = globInputFile.substring(last_dot);
 
@@ -68,38 +103,20 @@ public class MergeDataFiles {
 		if (file_metric == null || file_metric.length<1)
 			return MergeDataAttribute.FAIL_NO_DATA;
 		
-		FileOutputStream fos = new FileOutputStream(outputFile);
-		DataOutputStream dos = new DataOutputStream(fos);
-		
-		//-----------------------------------------------------
-		// 1. write the header:
-		//  int type (0: unknown, 1: mpi, 2: openmp, 3: hybrid, ...
-		//	int num_files
-		//-----------------------------------------------------
-
-		int type = 0;
-		dos.writeInt(type);
-		
-		progress.begin("Merging data files ...", file_metric.length);
-		
 		// on linux, we have to sort the files
 		java.util.Arrays.sort(file_metric);
 		
-		dos.writeInt(file_metric.length);
-		
-		final long num_metric_header = 2 * Constants.SIZEOF_INT; // type of app (4 bytes) + num procs (4 bytes) 
-		final long num_metric_index  = file_metric.length * (Constants.SIZEOF_LONG + 2 * Constants.SIZEOF_INT );
-		long offset = num_metric_header + num_metric_index;
-
-		int name_format = 0;  // FIXME hack:some hpcprof revisions have different format name !!
-				
 		//-----------------------------------------------------
-		// 2. Record the process ID, thread ID and the offset 
+		// 1. Compute the process ID, thread ID and the offset of each file 
 		//   It will also detect if the application is mp, mt, or hybrid
 		//	 no accelator is supported
-		//  for all files:
-		//		int proc-id, int thread-id, long offset
 		//-----------------------------------------------------
+		
+		final ArrayList<File> files = new ArrayList<File>(file_metric.length);
+		final ArrayList<int[]> ids  = new ArrayList<int[]>(file_metric.length);
+		int type = 0;
+		int name_format = 0;  // FIXME hack:some hpcprof revisions have different format name !!
+
 		for(int i = 0; i < file_metric.length; ++i)
 		{
 			//get the core number and thread number
@@ -121,52 +138,90 @@ public class MergeDataFiles {
 				name_format = 1; 
 				proc = Integer.parseInt(tokens[name_format + num_tokens-PROC_POS]);
 			}
-			dos.writeInt(proc);
 			if (proc != 0)
 				type |= Constants.MULTI_PROCESSES;
 			
 			final int thread = Integer.parseInt(tokens[name_format + num_tokens-THREAD_POS]);
-			dos.writeInt(thread);
 			if (thread != 0)
 				type |= Constants.MULTI_THREADING;
 			
-
-			dos.writeLong(offset);
-			offset += file_metric[i].length();
-
+			files.add(file_metric[i]);
+			ids.add(new int[] {proc, thread});
 		}
+		final int num_files = files.size();
 		
 		//-----------------------------------------------------
-		// 3. Copy all data from the multiple files into one file
+		// 2. write the header and the index:
+		//  int type (0: unknown, 1: mpi, 2: openmp, 3: hybrid, ...
+		//	int num_files
+		//  for all files:
+		//		int proc-id, int thread-id, long offset
 		//-----------------------------------------------------
-		for(int i = 0; i < file_metric.length; ++i) {
-			DataInputStream dis = new DataInputStream(new FileInputStream(file_metric[i]));
-			byte[] data = new byte[PAGE_SIZE_GUESS];
-			
-			int numRead = dis.read(data);
-			while(numRead > 0) {
-				dos.write(data, 0, numRead);
-				numRead = dis.read(data);
-			}
-			dis.close();
+
+		final long num_metric_header = 2 * Constants.SIZEOF_INT; // type of app (4 bytes) + num procs (4 bytes) 
+		final long num_metric_index  = num_files * (Constants.SIZEOF_LONG + 2 * Constants.SIZEOF_INT );
+		
+		final ByteBuffer header = ByteBuffer.allocate((int) (num_metric_header + num_metric_index));
+		header.putInt(type);
+		header.putInt(num_files);
+
+		final long []offsets = new long[num_files];
+		long offset = num_metric_header + num_metric_index;
+		
+		for(int i = 0; i < num_files; ++i)
+		{
+			final int []id = ids.get(i);
+			header.putInt(id[0]);
+			header.putInt(id[1]);
+			header.putLong(offset);
 			
-			progress.advance();
-		}		
-		insertMarker(dos);
+			offsets[i] = offset;
+			offset += files.get(i).length();
+		}
+		header.flip();
 		
-		dos.close();
+		final RandomAccessFile raf = new RandomAccessFile(fout, "rw");
+		final FileChannel out = raf.getChannel();
+		boolean success = false;
 		
-		//-----------------------------------------------------
-		// 4. FIXME: write the type of the application
-		//  	the type of the application is computed in step 2
-		//		Ideally, this step has to be in the beginning !
-		//-----------------------------------------------------
-		RandomAccessFile f = new RandomAccessFile(outputFile, "rw");
-		f.writeInt(type);
-		f.close();
+		try {
+			// allocate the whole file at once, including the end marker
+			raf.setLength(offset + Constants.SIZEOF_LONG);
+			writeFully(out, header, 0);
+			
+			//-----------------------------------------------------
+			// 3. Copy all data from the multiple files into one file
+			//-----------------------------------------------------
+			progress.begin("Merging data files ...", num_files);
+
+			if (num_threads <= 1 || num_files <= 1) {
+				for(int i = 0; i < num_files; ++i) {
+					copy(files.get(i), out, offsets[i]);
+					progress.advance();
+				}
+			} else {
+				copyConcurrently(files, out, offsets, num_threads, progress);
+			}
+			
+			// the marker is written last: a file without marker is considered corrupted
+			final ByteBuffer marker = ByteBuffer.allocate(Constants.SIZEOF_LONG);
+			marker.putLong(MARKER_END_MERGED_FILE);
+			marker.flip();
+			writeFully(out, marker, offset);
+			
+			success = true;
+			
+		} finally {
+			raf.close();
+			if (!success) {
+				// don't leave a partial file, otherwise the next attempt will fail 
+				fout.delete();
+				progress.end();
+			}
+		}
 		
 		//-----------------------------------------------------
-		// 5. remove old files
+		// 4. remove old files
 		//-----------------------------------------------------
 		removeFiles(file_metric);
 		
@@ -176,6 +231,92 @@ public class MergeDataFiles {
 
 	}
 	
+	/***
+	 * copy the files to their offsets with a pool of threads.
+	 * The progress is advanced by the caller's thread each time a file has been copied.
+	 * 
+	 * @param files
+	 * @param out
+	 * @param offsets
+	 * @param num_threads
+	 * @param progress
+	 * @throws IOException
+	 */
+	static private void copyConcurrently(final ArrayList<File> files, final FileChannel out, final long []offsets, 
+			int num_threads, IProgressReport progress) throws IOException
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(num_threads, files.size()));
+		final ExecutorCompletionService<Integer> service = new ExecutorCompletionService<Integer>(executor);
+		
+		try {
+			for (int i = 0; i < files.size(); ++i) {
+				final int index = i;
+				service.submit(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						copy(files.get(index), out, offsets[index]);
+						return index;
+					}
+				});
+			}
+			for (int i = 0; i < files.size(); ++i) {
+				service.take().get();
+				progress.advance();
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Merging data files interrupted");
+			
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(String.valueOf(cause));
+			
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/***
+	 * copy the content of a file into a channel at a given position
+	 * without changing the position of the channel. Thread safe.
+	 * 
+	 * @param file
+	 * @param out
+	 * @param position
+	 * @throws IOException
+	 */
+	static private void copy(File file, FileChannel out, long position) throws IOException
+	{
+		final FileInputStream fis = new FileInputStream(file);
+		try {
+			final FileChannel in = fis.getChannel();
+			final long size = in.size();
+			long copied = 0;
+			while (copied < size) {
+				final long count = out.transferFrom(in, position + copied, size - copied);
+				if (count <= 0)
+					throw new IOException("Unable to copy " + file.getAbsolutePath());
+				copied += count;
+			}
+		} finally {
+			fis.close();
+		}
+	}
+	
+	/***
+	 * write a buffer at a given position of a channel
+	 * @param out
+	 * @param buffer
+	 * @param position
+	 * @throws IOException
+	 */
+	static private void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			position += out.write(buffer, position);
+		}
+	}
+	
 	// pat2 7/24/13: The marker used to be:
 	//static private long MARKER_END_MERGED_FILE = 0xDEADF00D;
 	// but Java sign-extends the int to a long and it becomes
@@ -185,17 +326,6 @@ public class MergeDataFiles {
 	/** Magic marker for the end of the file **/
 	static private long MARKER_END_MERGED_FILE = 0xFFFFFFFFDEADF00DL;
 	
-	/***
-	 * insert a marker at the end of the file
-	 * @param dos: output stream. It has to be the end of the file
-	 * @throws IOException
-	 */
-	static private void insertMarker(DataOutputStream dos) throws IOException
-	{
-		dos.writeLong(MARKER_END_MERGED_FILE);
-	}
-	
-	
 	/***
 	 * Check if a file is a good merged file
 	 * @param filename
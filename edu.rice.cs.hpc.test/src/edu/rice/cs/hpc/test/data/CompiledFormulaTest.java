@@ -0,0 +1,238 @@
+package edu.rice.cs.hpc.test.data;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.graphbuilder.math.Expression;
+import com.graphbuilder.math.ExpressionTree;
+import com.graphbuilder.math.FuncMap;
+
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
+import edu.rice.cs.hpc.data.experiment.metric.CompiledFormula;
+import edu.rice.cs.hpc.data.experiment.Experiment;
+import edu.rice.cs.hpc.data.experiment.metric.DerivedMetric;
+import edu.rice.cs.hpc.data.experiment.metric.DerivedValues;
+import edu.rice.cs.hpc.data.experiment.metric.IMetricManager;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
+import edu.rice.cs.hpc.data.experiment.metric.MetricType;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
+import edu.rice.cs.hpc.data.experiment.metric.MetricVarMap;
+import edu.rice.cs.hpc.data.experiment.scope.IMetricScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScopeType;
+
+/*************************************
+ *
+ * Unit test for CompiledFormula class:
+ * a compiled formula has to give the same results as
+ * the interpreted expression with a MetricVarMap
+ *
+ *************************************/
+public class CompiledFormulaTest
+{
+	static final private int NUM_METRICS = 3;
+	static final private String []FORMULAS = {
+		"$0",
+		"-$1",
+		"$0 + $1 * $2",
+		"($0 - $1) / $2",
+		"$0 / ($1 - $1)",
+		"2 ^ $2 - 3.5",
+		"-max($0, $1, $2) + sqrt($0)",
+		"max($0 * 2, -$1) / (1 + $2 ^ 2)",
+		"@0 + $1",
+	};
+
+	private MetricManager metricManager;
+	private FuncMap funcMap;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		metricManager = new MetricManager();
+		for (int i=0; i<NUM_METRICS; i++) {
+			metricManager.add(new Metric(String.valueOf(i), "m" + i, "metric " + i, true, null,
+					BaseMetric.AnnotationType.NONE, "1", i, MetricType.INCLUSIVE, -1));
+		}
+		funcMap = new FuncMap();
+		funcMap.loadDefaultFunctions();
+		random  = new Random(1234);
+	}
+
+	@Test
+	public void testEval() {
+		for (String formula : FORMULAS) {
+			final Expression expression = ExpressionTree.parse(formula);
+			final CompiledFormula compiled = CompiledFormula.compile(expression, null, metricManager, funcMap);
+			assertNotNull(formula, compiled);
+
+			final MetricVarMap varMap = new MetricVarMap();
+			varMap.setMetricManager(metricManager);
+
+			for (int i=0; i<100; i++) {
+				final Scope scope = createScope();
+				varMap.setScope(scope);
+
+				final double expected = expression.eval(varMap, funcMap);
+				assertEquals(formula, expected, compiled.eval(scope, null), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testEvalScopes() {
+		final Expression expression = ExpressionTree.parse(FORMULAS[7]);
+		final CompiledFormula compiled = CompiledFormula.compile(expression, null, metricManager, funcMap);
+
+		final Scope []scopes = new Scope[50];
+		for (int i=0; i<scopes.length; i++)
+			scopes[i] = createScope();
+
+		final double []results = new double[scopes.length];
+		compiled.eval(scopes, null, results);
+
+		for (int i=0; i<scopes.length; i++)
+			assertEquals(compiled.eval(scopes[i], null), results[i], 0.0);
+	}
+
+	@Test
+	public void testCompile() {
+		// unknown metric or variable: the expression has to be interpreted
+		assertNull(CompiledFormula.compile(ExpressionTree.parse("$0 + $9"), null, metricManager, funcMap));
+		assertNull(CompiledFormula.compile(ExpressionTree.parse("$0 + x"), null, metricManager, funcMap));
+
+		// only raw metrics: the formula is thread safe
+		final CompiledFormula compiled = CompiledFormula.compile(ExpressionTree.parse(FORMULAS[2]),
+				null, metricManager, funcMap);
+		assertTrue(compiled.isThreadSafe());
+	}
+
+	@Test
+	public void testGeneration() {
+		final Experiment experiment = new Experiment();
+		experiment.setMetrics(Arrays.asList(metricManager.getMetrics()));
+		final RootScope root = new RootScope(experiment, "root", RootScopeType.CallingContextTree);
+		final DerivedMetric a = createDerivedMetric(root, "$0 + 1", NUM_METRICS);
+		final DerivedMetric b = createDerivedMetric(root, "$" + NUM_METRICS + " * 2", NUM_METRICS + 1);
+		final DerivedMetric c = createDerivedMetric(root, "$1 - $2", NUM_METRICS + 2);
+
+		final int genA = a.getGeneration();
+		final int genB = b.getGeneration();
+		final int genC = c.getGeneration();
+		assertTrue(genA > 0);
+
+		// a new formula makes obsolete its own values and the values of the metrics using it
+		a.setExpression("$0 + 2");
+		assertTrue(a.getGeneration() > genA);
+		assertTrue(b.getGeneration() > genB);
+		assertEquals(genC, c.getGeneration());
+
+		c.setExpression("$1 + $2");
+		assertTrue(c.getGeneration() > genC);
+		assertEquals(a.getGeneration(), b.getGeneration());
+	}
+
+	@Test
+	public void testDerivedValues() {
+		DerivedValues cache = DerivedValues.set(null, 0, 5, 1.5f);
+		cache = DerivedValues.set(cache, 2, 7, 2.5f);
+		assertEquals(1.5f, DerivedValues.get(cache, 0, 5), 0.0f);
+		assertEquals(2.5f, DerivedValues.get(cache, 2, 7), 0.0f);
+		assertTrue(Float.isNaN(DerivedValues.get(cache, 1, 5)));
+
+		// a new generation of a metric doesn't drop the values of the other metrics
+		cache = DerivedValues.set(cache, 2, 8, 3.5f);
+		assertTrue(Float.isNaN(DerivedValues.get(cache, 2, 7)));
+		assertEquals(3.5f, DerivedValues.get(cache, 2, 8), 0.0f);
+		assertEquals(1.5f, DerivedValues.get(cache, 0, 5), 0.0f);
+
+		// a value of an older generation is ignored
+		cache = DerivedValues.set(cache, 2, 7, 4.5f);
+		assertEquals(3.5f, DerivedValues.get(cache, 2, 8), 0.0f);
+	}
+
+	private DerivedMetric createDerivedMetric(RootScope root, String formula, int index) {
+		final DerivedMetric metric = new DerivedMetric(root, metricManager, formula, "d" + index,
+				String.valueOf(index), index, BaseMetric.AnnotationType.NONE, MetricType.INCLUSIVE);
+		metricManager.add(metric);
+		return metric;
+	}
+
+	/****
+	 * create a scope with random values. Some metrics have no value.
+	 */
+	private Scope createScope() {
+		final Scope scope = new Scope();
+		for (int i=0; i<NUM_METRICS; i++) {
+			if (random.nextInt(4) > 0)
+				scope.setMetricValue(i, new MetricValue(random.nextInt(1000) / 8.0));
+		}
+		return scope;
+	}
+
+
+	/*************************************
+	 * scope with metric values only
+	 *************************************/
+	static private class Scope implements IMetricScope
+	{
+		final private Map<Integer, MetricValue> values = new HashMap<Integer, MetricValue>();
+
+		public MetricValue getMetricValue(int index) {
+			final MetricValue value = values.get(index);
+			return value == null ? MetricValue.NONE : value;
+		}
+
+		public MetricValue getMetricValue(BaseMetric metric) {
+			return getMetricValue(metric.getIndex());
+		}
+
+		public void setMetricValue(int index, MetricValue value) {
+			values.put(index, value);
+		}
+
+		public MetricValue getRootMetricValue(BaseMetric metric) {
+			return MetricValue.NONE;
+		}
+	}
+
+
+	/*************************************
+	 * metric manager of the formulas
+	 *************************************/
+	static private class MetricManager implements IMetricManager
+	{
+		final private Map<String, BaseMetric> metrics = new HashMap<String, BaseMetric>();
+
+		void add(BaseMetric metric) {
+			metrics.put(metric.getShortName(), metric);
+		}
+
+		public BaseMetric getMetric(String ID) {
+			return metrics.get(ID);
+		}
+
+		public BaseMetric getMetric(int index) {
+			return metrics.get(String.valueOf(index));
+		}
+
+		public int getMetricCount() {
+			return metrics.size();
+		}
+
+		public BaseMetric[] getMetrics() {
+			return metrics.values().toArray(new BaseMetric[metrics.size()]);
+		}
+
+		public void addDerivedMetric(DerivedMetric objMetric) {
+			metrics.put(objMetric.getShortName(), objMetric);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package edu.rice.cs.hpc.test.data;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.rice.cs.hpc.data.util.LongHashMap;
+
+/*************************************
+ *
+ * Unit test for LongHashMap class
+ *
+ *************************************/
+public class LongHashMapTest
+{
+	private LongHashMap<Long> map;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		map    = new LongHashMap<Long>();
+		random = new Random(1234);
+	}
+
+	@Test
+	public void testPutGet() {
+		assertTrue(map.isEmpty());
+		assertNull(map.put(1, 10L));
+		assertEquals(Long.valueOf(10), map.put(1, 11L));
+		assertEquals(Long.valueOf(11), map.get(1));
+		assertNull(map.get(2));
+		assertEquals(1, map.size());
+
+		// negative keys and keys which differ only in their high bits
+		map.put(-1, -1L);
+		map.put(1L << 32, 32L);
+		assertEquals(Long.valueOf(-1), map.get(-1));
+		assertEquals(Long.valueOf(32), map.get(1L << 32));
+		assertEquals(Long.valueOf(11), map.get(1));
+		assertEquals(3, map.size());
+	}
+
+	@Test
+	public void testRemove() {
+		for (long key=0; key<100; key++)
+			map.put(key, key);
+
+		assertEquals(Long.valueOf(50), map.remove(50));
+		assertNull(map.remove(50));
+		assertNull(map.get(50));
+		assertEquals(99, map.size());
+
+		// the other keys of the cluster of the removed one are still found
+		for (long key=0; key<100; key++) {
+			if (key != 50)
+				assertEquals(Long.valueOf(key), map.get(key));
+		}
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+
+		// few distinct keys: the clusters are long, and many removes have to
+		// move the next entries of their cluster
+		for (int i=0; i<100000; i++) {
+			final long key = random.nextInt(256);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				final Long value = Long.valueOf(i);
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+			assertEquals(expected.size(), map.size());
+
+			if (i % 100 == 0) {
+				for (long k=0; k<256; k++)
+					assertEquals(expected.get(k), map.get(k));
+			}
+		}
+
+		// removing all the keys empties the map
+		for (long key=0; key<256; key++)
+			assertEquals(expected.remove(key), map.remove(key));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testClear() {
+		for (long key=0; key<1000; key++)
+			map.put(key, key);
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(10));
+		map.put(10, 10L);
+		assertEquals(Long.valueOf(10), map.get(10));
+	}
+}
@@ -0,0 +1,178 @@
+package edu.rice.cs.hpc.test.gui;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.rice.cs.hpc.data.experiment.Experiment;
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
+import edu.rice.cs.hpc.data.experiment.metric.MetricType;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
+import edu.rice.cs.hpc.data.experiment.scope.ProcedureScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.data.experiment.scope.RootScopeType;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.viewer.scope.ColumnViewerSorter;
+import edu.rice.cs.hpc.viewer.scope.ScopeSortService;
+
+/*************************************
+ *
+ * Unit test for ScopeSortService class:
+ * the service has to give the same order as the
+ * stable sort of the viewer with the column sorter
+ *
+ *************************************/
+public class ScopeSortServiceTest
+{
+	final static private int NUM_SCOPES = 500;
+
+	private Shell shell;
+	private TreeViewer viewer;
+	private ColumnViewerSorter nameSorter;
+	private ColumnViewerSorter metricSorter;
+	private ScopeSortService service;
+	private Scope []scopes;
+
+	@Before
+	public void setUp() throws Exception {
+		Display display = Display.getCurrent();
+		shell  = new Shell(display);
+		viewer = new TreeViewer(shell, SWT.VIRTUAL);
+
+		final Metric metric = new Metric("0", "time", "time", true, null,
+				BaseMetric.AnnotationType.NONE, "1", 0, MetricType.INCLUSIVE, -1);
+		final List<BaseMetric> metrics = new ArrayList<BaseMetric>(1);
+		metrics.add(metric);
+		final Experiment experiment = new Experiment();
+		experiment.setMetrics(metrics);
+
+		nameSorter   = new ColumnViewerSorter(viewer, new TreeColumn(viewer.getTree(), SWT.LEFT), null, 0);
+		metricSorter = new ColumnViewerSorter(viewer, new TreeColumn(viewer.getTree(), SWT.RIGHT), metric, 1);
+		service 	 = new ScopeSortService();
+
+		// few different names and values: many scopes are equal for the comparator,
+		// and some scopes have no value
+		final RootScope root = new RootScope(experiment, "root", RootScopeType.CallingContextTree);
+		final Random random  = new Random(1234);
+		scopes = new Scope[NUM_SCOPES];
+		for (int i=0; i<NUM_SCOPES; i++) {
+			scopes[i] = new ProcedureScope(root, null, 0, 0, "proc" + random.nextInt(10),
+					false, i+2, i+2, null, false);
+			root.addSubscope(scopes[i]);
+			scopes[i].setParentScope(root);
+			if (random.nextInt(8) > 0)
+				scopes[i].setMetricValue(0, new MetricValue(random.nextInt(5)));
+		}
+		viewer.setContentProvider(new ITreeContentProvider() {
+			public Object[] getElements(Object inputElement) {
+				return scopes;
+			}
+			public Object[] getChildren(Object parentElement) {
+				return new Object[0];
+			}
+			public Object getParent(Object element) {
+				return null;
+			}
+			public boolean hasChildren(Object element) {
+				return false;
+			}
+			public void dispose() {}
+			public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {}
+		});
+		viewer.setInput(root);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		shell.dispose();
+	}
+
+	@Test
+	public void testSortMetric() {
+		checkSort(metricSorter, ColumnViewerSorter.ASC);
+		checkSort(metricSorter, ColumnViewerSorter.DESC);
+	}
+
+	@Test
+	public void testSortName() {
+		checkSort(nameSorter, ColumnViewerSorter.ASC);
+		checkSort(nameSorter, ColumnViewerSorter.DESC);
+	}
+
+	@Test
+	public void testSortTop() {
+		final int []ks = {1, 10, NUM_SCOPES, NUM_SCOPES + 1};
+		for (int k : ks) {
+			final Object []expected = getExpectedOrder(metricSorter, ColumnViewerSorter.DESC);
+			final Object []top = service.sortTop(metricSorter, ColumnViewerSorter.DESC, scopes.clone(), k);
+			assertArrayEquals(Arrays.copyOf(expected, Math.min(k, NUM_SCOPES)), top);
+		}
+	}
+
+	@Test
+	public void testCache() {
+		final Object []before = getExpectedOrder(metricSorter, ColumnViewerSorter.ASC);
+		checkSort(metricSorter, ColumnViewerSorter.ASC);
+
+		// the sorted scopes are cached: the new values are ignored until the cache is cleared
+		for (Scope scope : scopes)
+			scope.setMetricValue(0, new MetricValue(scope.getCCTIndex() % 3));
+
+		final Object []cached = scopes.clone();
+		assertTrue(service.sort(metricSorter, ColumnViewerSorter.ASC, cached));
+		assertArrayEquals(before, cached);
+
+		service.clear();
+		checkSort(metricSorter, ColumnViewerSorter.ASC);
+	}
+
+	@Test
+	public void testNotScopes() {
+		final Object []elements = {"b", "a"};
+		assertFalse(service.sort(metricSorter, ColumnViewerSorter.ASC, elements));
+		assertNull(service.sortTop(metricSorter, ColumnViewerSorter.ASC, elements, 1));
+	}
+
+	private void checkSort(ColumnViewerSorter sorter, int direction) {
+		final Object []expected = getExpectedOrder(sorter, direction);
+		final Object []actual   = scopes.clone();
+		assertTrue(service.sort(sorter, direction, actual));
+		assertArrayEquals(expected, actual);
+
+		// the second sort comes from the cache
+		final Object []again = scopes.clone();
+		assertTrue(service.sort(sorter, direction, again));
+		assertArrayEquals(expected, again);
+	}
+
+	/****
+	 * the order of the viewer: a stable sort with the comparator of the column
+	 */
+	private Object[] getExpectedOrder(final ColumnViewerSorter sorter, int direction) {
+		sorter.setSorter(sorter, direction);
+
+		final Object []expected = scopes.clone();
+		Arrays.sort(expected, new Comparator<Object>() {
+			public int compare(Object o1, Object o2) {
+				return sorter.compare(viewer, o1, o2);
+			}
+		});
+		return expected;
+	}
+}
@@ -0,0 +1,111 @@
+package edu.rice.cs.hpc.test.traceviewer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.rice.cs.hpc.traceviewer.data.db.SampleBuffer;
+
+/*************************************
+ *
+ * Unit test for SampleBuffer class
+ *
+ *************************************/
+public class SampleBufferTest
+{
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		random = new Random(1234);
+	}
+
+	@Test
+	public void testRemoveDuplicateTimes() {
+		// the two last samples are kept even with the same time
+		checkRemoveDuplicateTimes(new long[] {1, 2, 2, 3, 4, 4});
+		checkRemoveDuplicateTimes(new long[] {1, 1, 1, 1});
+		checkRemoveDuplicateTimes(new long[] {5, 5, 5, 6, 7, 7, 7});
+		checkRemoveDuplicateTimes(new long[] {1, 2});
+		checkRemoveDuplicateTimes(new long[] {3});
+		checkRemoveDuplicateTimes(new long[] {});
+
+		for (int i=0; i<1000; i++) {
+			long []times = new long[random.nextInt(20)];
+			long time    = 0;
+			for (int j=0; j<times.length; j++) {
+				time += random.nextInt(3);
+				times[j] = time;
+			}
+			checkRemoveDuplicateTimes(times);
+		}
+	}
+
+	@Test
+	public void testRelease() {
+		SampleBuffer.Pool pool = new SampleBuffer.Pool();
+		SampleBuffer buffer = pool.get(4);
+		buffer.add(10, 1);
+		buffer.add(20, 2);
+
+		assertTrue(buffer.retain());
+		buffer.release();
+		assertEquals(2, buffer.size());
+		assertEquals(20, buffer.getTime(1));
+
+		// the last owner releases the buffer: it cannot be read nor retained anymore
+		buffer.release();
+		assertEquals(0, buffer.size());
+		assertFalse(buffer.retain());
+		try {
+			buffer.getTime(0);
+			fail("a released buffer can be read");
+		} catch (NullPointerException e) {
+		}
+
+		// the arrays are reused by a new buffer
+		SampleBuffer other = pool.get(4);
+		other.add(30, 3);
+		assertEquals(1, other.size());
+		assertEquals(30, other.getTime(0));
+		assertEquals(3, other.getCpid(0));
+	}
+
+	private void checkRemoveDuplicateTimes(long []times) {
+		SampleBuffer buffer = new SampleBuffer(times.length);
+		List<long[]> expected = new ArrayList<long[]>();
+		for (int i=0; i<times.length; i++) {
+			buffer.add(times[i], i);
+			expected.add(new long[] {times[i], i});
+		}
+		buffer.removeDuplicateTimes();
+		removeDuplicateTimes(expected);
+
+		assertEquals(expected.size(), buffer.size());
+		for (int i=0; i<expected.size(); i++) {
+			assertEquals(expected.get(i)[0], buffer.getTime(i));
+			assertEquals(expected.get(i)[1], buffer.getCpid(i));
+		}
+	}
+
+	/****
+	 * the list-based implementation of TraceDataByRank, before the samples
+	 * were stored in a SampleBuffer
+	 */
+	private void removeDuplicateTimes(List<long[]> list) {
+		int len = list.size();
+		for(int i = 0; i < len-2; i++)
+		{
+			while(i < len-1 && list.get(i)[0] == list.get(i+1)[0])
+			{
+				list.remove(i+1);
+				len--;
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package edu.rice.cs.hpc.test.traceviewer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.rice.cs.hpc.traceviewer.data.db.BaseDataVisualization;
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
+import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
+
+/*************************************
+ *
+ * Unit test for SummaryHistogram class:
+ * the histograms have to give the same counts as the
+ * pixels of the detail image, one pixel per line
+ *
+ *************************************/
+public class SummaryHistogramTest
+{
+	final static private int WHITE = 0xffffff;
+
+	// procedure 0 is the null function. procedures 1 and 5 share the same color
+	final static private int []RGBS = {WHITE, 0x102030, 0x405060, 0x0000ff, 0x405061, 0x102030, 0x00ff00};
+
+	private ColorTable colorTable;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		colorTable = new FixedColorTable(RGBS);
+		random 	   = new Random(1234);
+	}
+
+	@Test
+	public void testSmallView() {
+		final TimelineDataSet []lines = new TimelineDataSet[3];
+		lines[0] = createLine(0, new int[][] { {0, 2, 1}, {2, 5, 2}, {5, 8, 1} });
+		lines[1] = createLine(1, new int[][] { {1, 3, 5}, {3, 3, 3}, {4, 10, 6} });
+		lines[2] = null;
+
+		final SummaryHistogram histogram = SummaryHistogram.compute(lines, 8, colorTable, null, 1);
+		assertEquals(8, histogram.getWidth());
+		assertEquals(3, histogram.getNumLines());
+		assertEquals(24, histogram.getTotalPixels());
+		checkHistogram(lines, 8, histogram);
+
+		// column 1: procedures 1 and 5 share their color, the null function is white
+		assertEquals(3, histogram.getNumProcedures(1));
+		assertEquals(1, histogram.getProcedureId(1, 0));
+		assertEquals(5, histogram.getProcedureId(1, 1));
+		assertEquals(0, histogram.getProcedureId(1, 2));
+		assertEquals(1, histogram.getCount(1, 2));
+
+		// line 2 has no data, line 1 starts at pixel 1 and has an empty data at pixel 3
+		assertEquals(8 + 2, histogram.getTotal(0));
+		assertEquals(5, histogram.getTotal(1));
+		assertEquals(0, histogram.getTotal(3));
+	}
+
+	@Test
+	public void testRandomView() {
+		final int width = 1000;
+		final TimelineDataSet []lines = createLines(200, width);
+
+		final SummaryHistogram histogram = SummaryHistogram.compute(lines, width, colorTable, null, 1);
+		checkHistogram(lines, width, histogram);
+
+		// several threads give the same histograms, and the executor can be reused
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int n=0; n<2; n++) {
+				final SummaryHistogram parallel = SummaryHistogram.compute(lines, width, colorTable, executor, 4);
+				for (int x=0; x<width; x++) {
+					assertEquals(histogram.getNumProcedures(x), parallel.getNumProcedures(x));
+					for (int i=0; i<histogram.getNumProcedures(x); i++) {
+						assertEquals(histogram.getProcedureId(x, i), parallel.getProcedureId(x, i));
+						assertEquals(histogram.getCount(x, i), parallel.getCount(x, i));
+					}
+				}
+			}
+			assertFalse(executor.isShutdown());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testEmptyView() {
+		final SummaryHistogram histogram = SummaryHistogram.compute(new TimelineDataSet[0], 10, colorTable, null, 2);
+		assertEquals(10, histogram.getWidth());
+		assertEquals(0, histogram.getNumProcedures(0));
+		assertEquals(0, histogram.getTotalPixels());
+	}
+
+	/****
+	 * compare the histograms with the pixel count of the old summary view:
+	 * the counts of each color of a column of the detail image, sorted by color
+	 */
+	private void checkHistogram(TimelineDataSet []lines, int width, SummaryHistogram histogram) {
+		final int [][]pixels = paint(lines, width);
+		final int []totals   = new int[RGBS.length];
+
+		for (int x=0; x<width; x++) {
+			final TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+			for (int y=0; y<lines.length; y++) {
+				final Integer count = expected.get(pixels[y][x]);
+				expected.put(pixels[y][x], count == null ? 1 : count + 1);
+			}
+
+			// the procedures are sorted by color: the procedures of the same color are adjacent
+			final List<int[]> actual = new ArrayList<int[]>();
+			int sum = 0;
+			for (int i=0; i<histogram.getNumProcedures(x); i++) {
+				final int procId = histogram.getProcedureId(x, i);
+				final int count  = histogram.getCount(x, i);
+				final int rgb 	 = RGBS[procId];
+				if (actual.isEmpty() || actual.get(actual.size()-1)[0] != rgb)
+					actual.add(new int[] {rgb, count});
+				else
+					actual.get(actual.size()-1)[1] += count;
+
+				totals[procId] += count;
+				sum += count;
+			}
+			assertEquals(lines.length, sum);
+
+			assertEquals(expected.size(), actual.size());
+			int i = 0;
+			for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+				assertArrayEquals(new int[] {entry.getKey(), entry.getValue()}, actual.get(i++));
+			}
+		}
+		for (int procId=0; procId<RGBS.length; procId++)
+			assertEquals(totals[procId], histogram.getTotal(procId));
+	}
+
+	/****
+	 * paint the lines as the detail view: a white background, and the data
+	 * of a line painted in order
+	 */
+	private int[][] paint(TimelineDataSet []lines, int width) {
+		final int [][]pixels = new int[lines.length][width];
+		for (int y=0; y<lines.length; y++) {
+			Arrays.fill(pixels[y], WHITE);
+			if (lines[y] == null)
+				continue;
+			for (BaseDataVisualization data : lines[y].getList()) {
+				for (int x=Math.max(0, data.x_start); x<Math.min(width, data.x_end); x++)
+					pixels[y][x] = RGBS[data.procId];
+			}
+		}
+		return pixels;
+	}
+
+	/****
+	 * create random lines. Some lines are empty or have no data,
+	 * some parts of the lines have no data, and the last data can be
+	 * after the end of the view.
+	 */
+	private TimelineDataSet[] createLines(int numLines, int width) {
+		final TimelineDataSet []lines = new TimelineDataSet[numLines];
+		for (int y=0; y<numLines; y++) {
+			if (random.nextInt(20) == 0)
+				continue;
+			lines[y] = new TimelineDataSet(y, 16, 1);
+			int x = random.nextInt(4);
+			while (x < width + 5 && random.nextInt(200) > 0) {
+				final int length = random.nextInt(9);
+				lines[y].add(new BaseDataVisualization(x, x + length, 0, null, 1 + random.nextInt(RGBS.length - 1)));
+				x += length;
+				if (random.nextInt(4) == 0)
+					x += random.nextInt(3);
+			}
+		}
+		return lines;
+	}
+
+	/****
+	 * create a line from {x_start, x_end, procId} data
+	 */
+	private TimelineDataSet createLine(int linenum, int [][]data) {
+		final TimelineDataSet line = new TimelineDataSet(linenum, data.length, 1);
+		for (int []d : data)
+			line.add(new BaseDataVisualization(d[0], d[1], 0, null, d[2]));
+		return line;
+	}
+
+
+	/*************************************
+	 * color table without display, with fixed colors
+	 *************************************/
+	static private class FixedColorTable extends ColorTable
+	{
+		final private int []rgbs;
+
+		FixedColorTable(int []rgbs) {
+			super(null);
+			this.rgbs = rgbs;
+		}
+
+		@Override
+		public int getRGB(int procId) {
+			return rgbs[procId];
+		}
+
+		@Override
+		public int getNumProcedures() {
+			return rgbs.length;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package edu.rice.cs.hpc.test.viewer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.rice.cs.hpc.viewer.metric.DataPlot;
+import edu.rice.cs.hpc.viewer.metric.DataPlotEntry;
+
+/*************************************
+ *
+ * Unit test for DataPlot class:
+ * lookups of the plot index, sorted or not,
+ * with or without duplicate keys
+ *
+ *************************************/
+public class DataPlotTest
+{
+	final static private int HEADER_SIZE 	 = 256;
+	final static private int MESSAGE_SIZE 	 = 32;
+	final static private int MAGIC 			 = 0x06870630;
+	final static private int INDEX_PLOT_SIZE = 4 + 4 + 8 + 8;
+	final static private int PLOT_ENTRY_SIZE = 4 + 4;
+
+	private File file;
+	private DataPlot data;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("plot", ".db");
+		data = new DataPlot();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		data.dispose();
+		file.delete();
+	}
+
+	@Test
+	public void testSortedIndex() throws IOException {
+		// {cct, metric, number of entries}
+		final int [][]index = { {1, 0, 2}, {1, 1, 1}, {2, 0, 3}, {5, 1, 1} };
+		open(index);
+
+		for (int [] entry : index)
+			checkEntry(entry[0], entry[1], entry[2], index);
+
+		assertNull(data.getPlotEntry(1, 2));
+		assertNull(data.getPlotEntry(3, 0));
+	}
+
+	@Test
+	public void testUnsortedIndex() throws IOException {
+		final int [][]index = { {5, 1, 1}, {2, 0, 3}, {1, 1, 1}, {1, 0, 2}, {0, 1, 2} };
+		open(index);
+
+		for (int [] entry : index)
+			checkEntry(entry[0], entry[1], entry[2], index);
+
+		assertNull(data.getPlotEntry(1, 2));
+		assertNull(data.getPlotEntry(6, 0));
+	}
+
+	@Test
+	public void testDuplicateKeys() throws IOException {
+		// the last entry of a duplicate key wins, whatever the order of the keys
+		final int [][]index = { {2, 0, 1}, {1, 0, 2}, {2, 0, 3}, {1, 1, 1}, {2, 0, 4}, {1, 0, 5} };
+		open(index);
+
+		checkEntry(2, 0, 4, index);
+		checkEntry(1, 0, 5, index);
+		checkEntry(1, 1, 1, index);
+		assertNull(data.getPlotEntry(0, 0));
+		assertNull(data.getPlotEntry(3, 0));
+	}
+
+	@Test
+	public void testNegativeMetric() throws IOException {
+		// a key with a negative metric comes after the others of the same cct
+		final int [][]index = { {1, -1, 2}, {1, 0, 1}, {1, -1, 3}, {0, 0, 1} };
+		open(index);
+
+		checkEntry(1, -1, 3, index);
+		checkEntry(1, 0, 1, index);
+		checkEntry(0, 0, 1, index);
+	}
+
+	/****
+	 * check the plot entries of a given cct and metric: the entries of the i-th index
+	 * have the thread ids i*100 + j and the values j / 2
+	 */
+	private void checkEntry(int cct, int metric, int count, int [][]index) throws IOException {
+		final DataPlotEntry []entry = data.getPlotEntry(cct, metric);
+		assertNotNull(entry);
+		assertEquals(count, entry.length);
+
+		int position = -1;
+		for (int i=0; i<index.length; i++) {
+			if (index[i][0] == cct && index[i][1] == metric && index[i][2] == count)
+				position = i;
+		}
+		for (int j=0; j<count; j++) {
+			assertEquals(position * 100 + j, entry[j].tid);
+			assertEquals(j / 2.0f, entry[j].metval, 0.0f);
+		}
+	}
+
+	/****
+	 * write a plot.db file with the given index, and open it
+	 */
+	private void open(int [][]index) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			// common header
+			out.write(new byte[MESSAGE_SIZE]);
+			out.writeLong(MAGIC);
+			out.writeLong(3);	// version
+			out.writeLong(3);	// type
+			out.writeLong(0);	// format
+			out.writeLong(10);	// number of cct
+			out.writeLong(2);	// number of metrics
+			out.writeLong(1000);	// number of threads
+			out.write(new byte[HEADER_SIZE - MESSAGE_SIZE - 7 * 8]);
+
+			// plot header
+			int num_entries = 0;
+			for (int []entry : index)
+				num_entries += entry[2];
+
+			final long index_start = 2 * HEADER_SIZE;
+			final long plot_start  = index_start + index.length * INDEX_PLOT_SIZE;
+			out.writeLong(index_start);
+			out.writeLong(index.length * INDEX_PLOT_SIZE);
+			out.writeLong(plot_start);
+			out.writeLong(num_entries * PLOT_ENTRY_SIZE);
+			out.writeInt(4);
+			out.writeInt(4);
+			out.writeInt(8);
+			out.writeInt(8);
+			out.writeInt(4);
+			out.writeInt(4);
+			out.write(new byte[HEADER_SIZE - 4 * 8 - 6 * 4]);
+
+			// index
+			long offset = plot_start;
+			for (int []entry : index) {
+				out.writeInt(entry[0]);
+				out.writeInt(entry[1]);
+				out.writeLong(offset);
+				out.writeLong(entry[2]);
+				offset += entry[2] * PLOT_ENTRY_SIZE;
+			}
+
+			// plot entries
+			for (int i=0; i<index.length; i++) {
+				for (int j=0; j<index[i][2]; j++) {
+					out.writeInt(i * 100 + j);
+					out.writeFloat(j / 2.0f);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		data.open(file.getAbsolutePath());
+	}
+}
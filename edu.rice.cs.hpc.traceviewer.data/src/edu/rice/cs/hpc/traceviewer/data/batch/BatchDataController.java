@@ -0,0 +1,76 @@
+package edu.rice.cs.hpc.traceviewer.data.batch;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import edu.rice.cs.hpc.data.experiment.InvalExperimentException;
+import edu.rice.cs.hpc.data.util.IProgressReport;
+import edu.rice.cs.hpc.traceviewer.data.controller.AbstractLocalDataController;
+import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
+import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
+
+/*******************************************************************
+ *
+ * Data controller of a local database without window nor display.
+ * <p>
+ * Unlike the controller of the viewer, the timelines are created
+ * and read by the caller's threads, and the summary of the trace
+ * (if it has been built by the viewer) is used but not built.
+ * </p>
+ *******************************************************************/
+public class BatchDataController extends AbstractLocalDataController
+{
+	/************************
+	 * Open a local database
+	 *
+	 * @param databaseDirectory : database directory
+	 *
+	 * @throws InvalExperimentException if the database has no trace
+	 * @throws Exception
+	 */
+	public BatchDataController(String databaseDirectory)
+			throws InvalExperimentException, Exception
+	{
+		super(new File(databaseDirectory));
+
+		open(createFileDB(exp.getMajorVersion()), new IProgressReport() {
+			public void begin(String title, int num_tasks) {}
+			public void advance() {}
+			public void end() {}
+		});
+	}
+
+	/***********************************************************************
+	 * Gets the next available trace to be filled
+	 **********************************************************************/
+	@Override
+	public ProcessTimeline getNextTrace(AtomicInteger currentLine, int totalLines,
+			ImageTraceAttributes attributes, boolean changedBounds, IProgressMonitor monitor)
+	{
+		final int currentLineNum = currentLine.getAndIncrement();
+		if (currentLineNum >= totalLines)
+			return null;
+
+		if (!changedBounds)
+			return ptlService.getProcessTimeline(currentLineNum);
+
+		final ProcessTimeline timeline = new ProcessTimeline(currentLineNum, getScopeMap(), dataTrace,
+				lineToPaint(currentLineNum, attributes),
+				attributes.numPixelsH, attributes.getTimeInterval(),
+				minBegTime + attributes.getTimeBegin(),
+				ptlService.getSampleBuffer(attributes.numPixelsH));
+
+		if (!ptlService.setProcessTimeline(currentLineNum, timeline)) {
+			monitor.setCanceled(true);
+			return null;
+		}
+		return timeline;
+	}
+
+	@Override
+	public void fillTracesWithData(boolean changedBounds, int numThreadsToLaunch) {
+		// the data is read on demand by the rendering threads
+	}
+}
@@ -0,0 +1,472 @@
+package edu.rice.cs.hpc.traceviewer.data.batch;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+
+import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
+import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
+import edu.rice.cs.hpc.traceviewer.data.db.Position;
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
+import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
+import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
+
+/*******************************************************************
+ *
+ * Renderer of the trace views without window nor display.<br/>
+ * The detail view, the depth view and the summary view are painted
+ * on rasters with the same rules as the viewer: the lines are
+ * collected by a pool of threads, each line being read and painted
+ * by the same thread.
+ * <p>
+ * The class can be used from the command line (see {@link #main(String[])})
+ * to render the views of a database into PNG files, for instance to
+ * check the traces of nightly jobs or to measure the throughput of
+ * the trace rendering.
+ * </p>
+ *******************************************************************/
+public class BatchRenderer
+{
+	/** the minimum height of a line to paint the white separator lines (as the viewer) */
+	final static private int MIN_HEIGHT_FOR_SEPARATOR_LINES = 15;
+
+	final private SpaceTimeDataController controller;
+	final private int numThreads;
+
+	/** the threads to collect the lines and to compute the summary */
+	final private ExecutorService executor;
+
+	private int numInvalidSamples;
+
+	/****
+	 * Create a renderer
+	 *
+	 * @param controller : the opened database. Its attributes define the window to render.
+	 * @param numThreads : the number of threads to collect the data
+	 */
+	public BatchRenderer(SpaceTimeDataController controller, int numThreads)
+	{
+		this.controller = controller;
+		this.numThreads = Math.max(numThreads, 1);
+		this.executor 	= Executors.newFixedThreadPool(this.numThreads);
+	}
+
+	/****
+	 * terminate the threads of the renderer. To be called at the end.
+	 */
+	public void dispose()
+	{
+		executor.shutdownNow();
+	}
+
+	/****
+	 * Render the detail view. The timelines are kept for the depth view.
+	 *
+	 * @param raster : the raster of the detail view. Its size is the size of the view.
+	 * @return the statistics of the procedures of the view, used by the summary view
+	 * @throws IOException
+	 */
+	public SummaryHistogram renderDetail(final TraceRaster raster)
+			throws IOException
+	{
+		final ImageTraceAttributes attributes = controller.getAttributes();
+		attributes.numPixelsH = raster.getWidth();
+		attributes.numPixelsV = raster.getHeight();
+
+		final int numLines = getNumberOfLines();
+		final double scaleY = Math.max((double)attributes.numPixelsV / attributes.getProcessInterval(), 1);
+		final double pixelLength = attributes.getTimeInterval() / (double)attributes.numPixelsH;
+		final long timeBegin = attributes.getTimeBegin();
+		final int depth = attributes.getDepth();
+		final IProgressMonitor monitor = new NullProgressMonitor();
+
+		controller.getProcessTimelineService().setProcessTimeline(new ProcessTimeline[numLines]);
+		final AtomicInteger currentLine = new AtomicInteger(0);
+		final TimelineDataSet []lines = new TimelineDataSet[numLines];
+
+		execute(new Callable<Integer>() {
+			public Integer call() throws IOException {
+				int numInvalid = 0;
+				ProcessTimeline trace;
+				while ((trace = controller.getNextTrace(currentLine, numLines, attributes, true, monitor)) != null)
+				{
+					if (trace.isEmpty())
+						trace.readInData();
+					trace.shiftTimeBy(controller.getMinBegTime());
+					if (trace.size() < 2)
+						continue;
+
+					final RasterDataPreparation data = new RasterDataPreparation(controller.getColorTable(),
+							trace, timeBegin, depth, pixelLength, controller.isEnableMidpoint(), false);
+					numInvalid += data.collect();
+
+					final int line = trace.line();
+					data.paint(raster, (int) Math.round(scaleY * line), getLineHeight(scaleY, line));
+					lines[line] = data.getList();
+				}
+				return numInvalid;
+			}
+		});
+		return SummaryHistogram.compute(lines, attributes.numPixelsH, controller.getColorTable(),
+				executor, numThreads);
+	}
+
+	/****
+	 * Render the depth view of the selected process.
+	 * The detail view has to be rendered before.
+	 *
+	 * @param raster : the raster of the depth view
+	 * @throws IOException
+	 */
+	public void renderDepth(final TraceRaster raster) throws IOException
+	{
+		final ImageTraceAttributes attributes = controller.getAttributes();
+		attributes.numPixelsDepthV = raster.getHeight();
+
+		final int maxDepth = controller.getMaxDepth();
+		if (maxDepth <= 0 || controller.getCurrentDepthTrace() == null)
+			return;
+
+		final double scaleY = attributes.numPixelsDepthV / (double)maxDepth;
+		final double pixelLength = attributes.getTimeInterval() / (double)attributes.numPixelsH;
+		final long timeBegin = attributes.getTimeBegin();
+		final IProgressMonitor monitor = new NullProgressMonitor();
+		final AtomicInteger currentLine = new AtomicInteger(0);
+
+		execute(new Callable<Integer>() {
+			public Integer call() {
+				int numInvalid = 0;
+				ProcessTimeline trace;
+				while ((trace = controller.getNextDepthTrace(currentLine, attributes, monitor)) != null)
+				{
+					if (trace.size() < 2)
+						continue;
+
+					final int line = trace.line();
+					final RasterDataPreparation data = new RasterDataPreparation(controller.getColorTable(),
+							trace, timeBegin, line, pixelLength, controller.isEnableMidpoint(), true);
+					numInvalid += data.collect();
+					data.paint(raster, (int) Math.round(scaleY * line), getLineHeight(scaleY, line));
+				}
+				return numInvalid;
+			}
+		});
+	}
+
+	/****
+	 * Render the summary view: for each column, the proportion of each
+	 * procedure is painted from the bottom to the top, in the order of
+	 * their colors (as the viewer).
+	 *
+	 * @param histogram : the statistics of the detail view
+	 * @param colorTable
+	 * @param height : the height of the summary view
+	 * @return the raster of the summary view
+	 */
+	static public TraceRaster renderSummary(SummaryHistogram histogram, ColorTable colorTable, int height)
+	{
+		final int width = histogram.getWidth();
+		final TraceRaster raster = new TraceRaster(width, height);
+		final int numLines = histogram.getNumLines();
+		if (numLines == 0)
+			return raster;
+
+		final float yScale = (float)height / (float)numLines;
+
+		for (int x = 0; x < width; x++)
+		{
+			final int numProcs = histogram.getNumProcedures(x);
+			int yOffset = height;
+			int h = 0;
+			for (int i = 0; i < numProcs; i++)
+			{
+				final int rgb = colorTable.getRGB(histogram.getProcedureId(x, i));
+				final int colorHeight = (int) Math.ceil(histogram.getCount(x, i) * yScale);
+
+				// the last color fills the column to the top to avoid the
+				// empty spaces left by the round-up of the heights
+				if (i < numProcs - 1)
+					raster.fillRectangle(x, yOffset - colorHeight, 1, colorHeight, rgb);
+				else
+					raster.fillRectangle(x, 0, 1, height - h, rgb);
+
+				yOffset -= colorHeight;
+				h += colorHeight;
+			}
+		}
+		return raster;
+	}
+
+	/****
+	 * get the number of invalid samples of the last rendering
+	 * @return
+	 */
+	public int getNumInvalidSamples()
+	{
+		return numInvalidSamples;
+	}
+
+	/****
+	 * get the number of lines of the detail view
+	 * @return
+	 */
+	public int getNumberOfLines()
+	{
+		final ImageTraceAttributes attributes = controller.getAttributes();
+		return Math.min(attributes.numPixelsV, attributes.getProcessInterval());
+	}
+
+	/****
+	 * save a raster into a PNG file
+	 *
+	 * @param raster
+	 * @param filename
+	 */
+	static public void save(TraceRaster raster, String filename)
+	{
+		final ImageData imageData = raster.getImageData();
+		if (imageData == null)
+			return;
+
+		final ImageLoader loader = new ImageLoader();
+		loader.data = new ImageData[] {imageData};
+		loader.save(filename, SWT.IMAGE_PNG);
+	}
+
+	/****
+	 * get the height of a line with the same rule as the viewer:
+	 * tall lines are separated by a white line, small lines overlap
+	 */
+	static private int getLineHeight(double scaleY, int line)
+	{
+		final int h1 = (int) Math.round(scaleY * line);
+		final int h2 = (int) Math.round(scaleY * (line+1));
+		if (scaleY > MIN_HEIGHT_FOR_SEPARATOR_LINES)
+			return h2 - h1 - 1;
+		return h2 - h1 + 1;
+	}
+
+	/****
+	 * run a job with the pool of threads, and wait until all threads finish
+	 *
+	 * @param job : the job of a thread, returning the number of invalid samples
+	 * @throws IOException
+	 */
+	private void execute(Callable<Integer> job) throws IOException
+	{
+		final List<Future<Integer>> results = new ArrayList<Future<Integer>>(numThreads);
+		try {
+			for (int i=0; i<numThreads; i++)
+				results.add(executor.submit(job));
+
+			numInvalidSamples = 0;
+			for (Future<Integer> result : results)
+				numInvalidSamples += result.get();
+			results.clear();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Rendering interrupted");
+
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+
+		} finally {
+			// in case of error, the other threads are stopped
+			for (Future<Integer> result : results)
+				result.cancel(true);
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------
+	// command line
+	//------------------------------------------------------------------------------------------------
+
+	static private void usage()
+	{
+		System.err.println("Usage: BatchRenderer [options] <database directory>");
+		System.err.println("Options:");
+		System.err.println("  --output=<prefix>         prefix of the images (default: trace)");
+		System.err.println("                            <prefix>-detail.png, <prefix>-depth.png and <prefix>-summary.png");
+		System.err.println("  --time=<begin>:<end>      time window, relative to the beginning of the trace");
+		System.err.println("  --process=<begin>:<end>   process window (the end is excluded)");
+		System.err.println("  --depth=<depth>           call path depth of the detail view (default: 0)");
+		System.err.println("  --select=<process>        process of the depth view (default: the first process)");
+		System.err.println("  --size=<width>x<height>   size of the detail view (default: 1024x768)");
+		System.err.println("  --depth-height=<height>   height of the depth view (default: 256)");
+		System.err.println("  --summary-height=<height> height of the summary view (default: 128)");
+		System.err.println("  --threads=<num>           number of threads (default: number of processors)");
+		System.err.println("  --midpoint                paint the samples with the midpoint policy");
+		System.err.println("  --statistics              export the statistics of the summary view into <prefix>-summary.csv");
+	}
+
+	/****
+	 * Render the views of a database into PNG files
+	 *
+	 * @param args : see {@link #usage()}
+	 */
+	static public void main(String []args)
+	{
+		String database = null;
+		String output = "trace";
+		long []time = null;
+		long []process = null;
+		int depth = 0;
+		int selected = -1;
+		int width = 1024, height = 768;
+		int depthHeight = 256, summaryHeight = 128;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		boolean midpoint = false;
+		boolean statistics = false;
+
+		try {
+			for (String arg : args) {
+				if (arg.startsWith("--output="))
+					output = getValue(arg);
+				else if (arg.startsWith("--time="))
+					time = getRange(arg, ":");
+				else if (arg.startsWith("--process="))
+					process = getRange(arg, ":");
+				else if (arg.startsWith("--depth="))
+					depth = Integer.parseInt(getValue(arg));
+				else if (arg.startsWith("--select="))
+					selected = Integer.parseInt(getValue(arg));
+				else if (arg.startsWith("--size=")) {
+					final long []size = getRange(arg, "x");
+					width  = (int) size[0];
+					height = (int) size[1];
+				}
+				else if (arg.startsWith("--depth-height="))
+					depthHeight = Integer.parseInt(getValue(arg));
+				else if (arg.startsWith("--summary-height="))
+					summaryHeight = Integer.parseInt(getValue(arg));
+				else if (arg.startsWith("--threads="))
+					numThreads = Integer.parseInt(getValue(arg));
+				else if (arg.equals("--midpoint"))
+					midpoint = true;
+				else if (arg.equals("--statistics"))
+					statistics = true;
+				else if (!arg.startsWith("-") && database == null)
+					database = arg;
+				else
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(1);
+		}
+		if (database == null || width <= 0 || height <= 0 || depthHeight <= 0 || summaryHeight <= 0) {
+			usage();
+			System.exit(1);
+		}
+
+		SpaceTimeDataController controller = null;
+		BatchRenderer renderer = null;
+		boolean success = false;
+		try {
+			controller = new BatchDataController(database);
+			controller.setEnableMidpoint(midpoint);
+
+			final ImageTraceAttributes attributes = controller.getAttributes();
+			final int numRanks = controller.getTotalTraceCount();
+			if (time == null)
+				time = new long[] {0, controller.getTimeWidth()};
+			if (process == null)
+				process = new long[] {0, numRanks};
+
+			attributes.setTime(time[0], time[1]);
+			attributes.setProcess((int)process[0], (int)process[1]);
+			attributes.assertTimeBounds(controller.getTimeWidth());
+			attributes.assertProcessBounds(numRanks);
+			attributes.setDepth(depth);
+			if (selected < attributes.getProcessBegin() || selected >= attributes.getProcessEnd())
+				selected = attributes.getProcessBegin();
+			attributes.setPosition(new Position(attributes.getTimeBegin(), selected));
+
+			renderer = new BatchRenderer(controller, numThreads);
+
+			final TraceRaster detail = new TraceRaster(width, height);
+
+			long start = System.nanoTime();
+			final SummaryHistogram histogram = renderer.renderDetail(detail);
+			long elapsed = System.nanoTime() - start;
+			System.out.println("Detail view: " + histogram.getNumLines() + " lines in " + (elapsed / 1000000) +
+					" ms (" + Math.round(histogram.getNumLines() * 1e9 / Math.max(elapsed, 1)) + " lines/s)");
+			if (renderer.getNumInvalidSamples() > 0)
+				System.err.println("Warning: " + renderer.getNumInvalidSamples() + " sample(s) have invalid call-path ID.");
+
+			final TraceRaster depthRaster = new TraceRaster(width, depthHeight);
+			start = System.nanoTime();
+			renderer.renderDepth(depthRaster);
+			elapsed = System.nanoTime() - start;
+			System.out.println("Depth view of process " + selected + ": " + (elapsed / 1000000) + " ms");
+
+			start = System.nanoTime();
+			final TraceRaster summary = renderSummary(histogram, controller.getColorTable(), summaryHeight);
+			elapsed = System.nanoTime() - start;
+			System.out.println("Summary view: " + (elapsed / 1000000) + " ms");
+
+			save(detail, output + "-detail.png");
+			save(depthRaster, output + "-depth.png");
+			save(summary, output + "-summary.png");
+
+			if (statistics) {
+				final PrintWriter writer = new PrintWriter(new FileWriter(output + "-summary.csv"));
+				try {
+					histogram.export(writer, controller.getColorTable(),
+							attributes.getTimeBegin(), attributes.getTimeEnd());
+				} finally {
+					writer.close();
+				}
+			}
+			success = true;
+
+		} catch (Exception e) {
+			System.err.println("Error: unable to render " + database + ": " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			if (renderer != null)
+				renderer.dispose();
+			if (controller != null)
+				controller.dispose();
+		}
+		// the pool threads are terminated, but the exit code tells the caller if it failed
+		System.exit(success ? 0 : 1);
+	}
+
+	static private String getValue(String arg)
+	{
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+
+	static private long[] getRange(String arg, String separator)
+	{
+		final String []values = getValue(arg).split(separator);
+		if (values.length != 2)
+			throw new IllegalArgumentException("Invalid range: " + arg);
+		return new long[] {Long.parseLong(values[0].trim()), Long.parseLong(values[1].trim())};
+	}
+}
@@ -0,0 +1,92 @@
+package edu.rice.cs.hpc.traceviewer.data.batch;
+
+import org.eclipse.swt.graphics.Color;
+
+import edu.rice.cs.hpc.traceviewer.data.db.BaseDataVisualization;
+import edu.rice.cs.hpc.traceviewer.data.db.DataPreparation;
+import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
+import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
+
+/*********************************************
+ *
+ * Class to prepare the data of a line to be painted on rasters,
+ * without SWT colors: the segments of the line are painted with
+ * the RGB value of their procedure.
+ *
+ *********************************************/
+public class RasterDataPreparation extends DataPreparation
+{
+	final private boolean depthView;
+	final private TimelineDataSet dataset;
+
+	/****
+	 * Constructor to prepare data
+	 *
+	 * @param colorTable
+	 * @param ptl
+	 * @param begTime
+	 * @param depth : the depth to display
+	 * @param pixelLength
+	 * @param usingMidpoint
+	 * @param depthView : true if the line is a line of the depth view. In this
+	 * 	case, only the samples deeper than the depth are kept.
+	 */
+	public RasterDataPreparation(ColorTable colorTable, ProcessTimeline ptl,
+			long begTime, int depth, double pixelLength,
+			boolean usingMidpoint, boolean depthView)
+	{
+		super(colorTable, ptl, begTime, depth, 1, pixelLength, usingMidpoint);
+		this.depthView = depthView;
+
+		dataset = new TimelineDataSet(ptl.line(), ptl.size(), 1);
+	}
+
+	@Override
+	protected void finishLine(int currSampleMidpoint, int succSampleMidpoint,
+			int currDepth, int procId, int sampleCount)
+	{
+		// the depth view only shows the samples deeper than the line
+		if (depthView && currDepth <= depth)
+			return;
+
+		// without display, the color of the procedure is null: only its id is used
+		dataset.add(new BaseDataVisualization(currSampleMidpoint, succSampleMidpoint,
+				currDepth, colorTable.getColor(procId), procId));
+	}
+
+	@Override
+	public void finishLine(int currSampleMidpoint, int succSampleMidpoint,
+			int currDepth, Color color, int sampleCount)
+	{
+		// not called: the segments are stored with their procedure id
+	}
+
+	/***
+	 * get the segments of the line, with the procedure id of their color
+	 *
+	 * @return the data of the line
+	 */
+	@Override
+	public TimelineDataSet getList() {
+		return dataset;
+	}
+
+	/****
+	 * paint the segments of the line on a raster. Once collected,
+	 * a line can be painted on several rasters.
+	 *
+	 * @param raster
+	 * @param y : the vertical position of the line
+	 * @param height : the height of the line
+	 */
+	public void paint(TraceRaster raster, int y, int height)
+	{
+		for (BaseDataVisualization data : dataset.getList()) {
+			final int width = data.x_end - data.x_start;
+			if (width > 0)
+				raster.fillRectangle(data.x_start, y, width, height, colorTable.getRGB(data.procId));
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package edu.rice.cs.hpc.traceviewer.data.controller;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.ui.IWorkbenchWindow;
+
+import edu.rice.cs.hpc.data.experiment.BaseExperiment;
+import edu.rice.cs.hpc.data.experiment.InvalExperimentException;
+import edu.rice.cs.hpc.data.experiment.extdata.FileDB2;
+import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
+import edu.rice.cs.hpc.data.experiment.extdata.IFilteredData;
+import edu.rice.cs.hpc.data.experiment.extdata.TraceAttribute;
+import edu.rice.cs.hpc.data.util.Constants;
+import edu.rice.cs.hpc.data.util.IProgressReport;
+import edu.rice.cs.hpc.data.util.MergeDataFiles;
+import edu.rice.cs.hpc.traceviewer.data.db.TraceDataByRank;
+import edu.rice.cs.hpc.traceviewer.data.db.TracePyramid;
+import edu.rice.cs.hpc.traceviewer.data.db.TraceTimeIndex;
+import edu.rice.cs.hpc.traceviewer.data.version2.BaseData;
+import edu.rice.cs.hpc.traceviewer.data.version2.FilteredBaseData;
+import edu.rice.cs.hpc.traceviewer.data.version3.FileDB3;
+
+/*******************************************************************
+ *
+ * Data controller of a database on a local disk, with or without
+ * window.
+ * <p>
+ * This class opens the trace file of the database (merging the trace
+ * files of the old format if needed), and sets up the time index and
+ * the summary of the trace. A derived class has to call
+ * {@link #open(IFileDB, IProgressReport)} in its constructor.
+ * </p>
+ *******************************************************************/
+public abstract class AbstractLocalDataController extends SpaceTimeDataController
+{
+	final static private int MIN_TRACE_SIZE = TraceDataByRank.HeaderSzMin + TraceDataByRank.RecordSzMin * 2;
+	final static public int RECORD_SIZE    = Constants.SIZEOF_LONG + Constants.SIZEOF_INT;
+
+	private IFileDB fileDB;
+	private String traceFilePath;
+	private TraceTimeIndex timeIndex;
+	private TracePyramid pyramid;
+
+	/***
+	 * Constructor to read the experiment file of a local database
+	 *
+	 * @param window : the current window
+	 * @param expFile : experiment file or database directory
+	 */
+	protected AbstractLocalDataController(IWorkbenchWindow window, File expFile)
+			throws InvalExperimentException, Exception
+	{
+		super(window, expFile);
+	}
+
+	/***
+	 * Constructor to read the experiment file of a local database
+	 * without any window nor display
+	 *
+	 * @param expFile : experiment file or database directory
+	 */
+	protected AbstractLocalDataController(File expFile)
+			throws InvalExperimentException, Exception
+	{
+		super(expFile);
+	}
+
+	/*********************
+	 * create the file access of the trace data of a given version
+	 *
+	 * @param version : the major version of the database
+	 * @return the file access, not opened yet
+	 * @throws InvalExperimentException if the version is not supported
+	 *********************/
+	static public IFileDB createFileDB(int version) throws InvalExperimentException
+	{
+		switch (version)
+		{
+		case 1:
+		case 2:
+			return new FileDB2();
+		case 3:
+			return new FileDB3();
+		default:
+			throw new InvalExperimentException("Trace data version is not unknown: " + version);
+		}
+	}
+
+	/*********************
+	 * open the trace data, and set up its time index and summary.
+	 * The time index and the summary are not built: see {@link #startBuilders()}.
+	 *
+	 * @param fileDB : the file access matching the version of the database
+	 * @param report : progress of the merge of the trace files
+	 * @throws InvalExperimentException if the database has no trace data
+	 * @throws IOException
+	 *********************/
+	protected void open(IFileDB fileDB, IProgressReport report)
+			throws InvalExperimentException, IOException
+	{
+		final TraceAttribute trAttribute = exp.getTraceAttribute();
+		final int version = exp.getMajorVersion();
+		if (version == 1 || version == 2)
+		{	// original format
+			traceFilePath = getTraceFile(exp.getDefaultDirectory().getAbsolutePath(), report);
+			fileDB.open(traceFilePath, trAttribute.dbHeaderSize, RECORD_SIZE);
+
+		} else if (version == 3)
+		{
+			// new format
+			traceFilePath = exp.getDefaultDirectory() + File.separator + exp.getDbFilename(BaseExperiment.Db_File_Type.DB_TRACE);
+			((FileDB3)fileDB).open(exp.getDefaultDirectory().getAbsolutePath());
+		} else
+		{
+			throw new InvalExperimentException("Trace data version is not unknown: " + version);
+		}
+		this.fileDB = fileDB;
+		final BaseData baseData = new BaseData(fileDB);
+
+		timeIndex = new TraceTimeIndex(fileDB, traceFilePath, RECORD_SIZE);
+		baseData.setTimeIndex(timeIndex);
+
+		// until a rank is summarized, its data is read from the trace file
+		pyramid = new TracePyramid(fileDB, traceFilePath, RECORD_SIZE, minBegTime, maxEndTime);
+		baseData.setPyramid(pyramid);
+
+		dataTrace = baseData;
+	}
+
+	/*********************
+	 * build the time index and the summary of the trace in the background
+	 *********************/
+	protected void startBuilders()
+	{
+		timeIndex.startBuilder();
+		pyramid.startBuilder();
+	}
+
+	/*********************
+	 * get the absolute path of the trace file (experiment.mt).
+	 * If the file doesn't exist, it is possible it is not merged yet
+	 *  (in this case we'll merge them automatically)
+	 *
+	 * @param directory
+	 * @param report
+	 * @return the absolute path of the trace file
+	 * @throws IOException
+	 * @throws InvalExperimentException if the database has no trace file
+	 *********************/
+	static private String getTraceFile(String directory, IProgressReport report)
+			throws IOException, InvalExperimentException
+	{
+		final String outputFile = directory + File.separatorChar + "experiment.mt";
+
+		final MergeDataFiles.MergeDataAttribute att = MergeDataFiles.merge(new File(directory),
+				"*.hpctrace", outputFile, report);
+
+		if (att != MergeDataFiles.MergeDataAttribute.FAIL_NO_DATA) {
+			final File fileTrace = new File(outputFile);
+			if (fileTrace.length() > MIN_TRACE_SIZE) {
+				return fileTrace.getAbsolutePath();
+			}
+			throw new InvalExperimentException("Trace file " + fileTrace.getName()
+					+ " is too small: " + fileTrace.length() + " bytes");
+		}
+		throw new InvalExperimentException("Trace file(s) does not exist or fail to open " + outputFile);
+	}
+
+	@Override
+	public IFilteredData createFilteredBaseData() {
+		try {
+			FilteredBaseData filteredData = new FilteredBaseData(fileDB,
+					exp.getTraceAttribute().dbHeaderSize, TraceAttribute.DEFAULT_RECORD_SIZE);
+			filteredData.setTimeIndex(timeIndex);
+			filteredData.setPyramid(pyramid);
+			return filteredData;
+		}
+		catch (Exception e){
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public String getTraceFileAbsolutePath(){
+		return traceFilePath;
+	}
+
+	@Override
+	public void beginPaint() {
+		// the builders read the same trace file as the paint
+		if (pyramid != null)
+			pyramid.pauseBuilder();
+		if (timeIndex != null)
+			timeIndex.pauseBuilder();
+	}
+
+	@Override
+	public void endPaint() {
+		if (pyramid != null)
+			pyramid.resumeBuilder();
+		if (timeIndex != null)
+			timeIndex.resumeBuilder();
+	}
+
+	@Override
+	public void closeDB() {
+		// the prefetch thread may still be reading the trace file
+		stopPrefetch();
+
+		if (pyramid != null) {
+			// stop the background builder before closing the trace file
+			pyramid.dispose();
+		}
+		if (timeIndex != null) {
+			// keep the index for the next session
+			timeIndex.save();
+			timeIndex.dispose();
+		}
+		if (dataTrace != null)
+			dataTrace.dispose();
+	}
+
+	@Override
+	public void dispose() {
+		closeDB();
+		super.dispose();
+	}
+
+	@Override
+	public String getName() {
+		return exp.getDefaultDirectory().getPath();
+	}
+}
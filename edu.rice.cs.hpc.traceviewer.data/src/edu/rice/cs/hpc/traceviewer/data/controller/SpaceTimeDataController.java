@@ -3,7 +3,13 @@ package edu.rice.cs.hpc.traceviewer.data.controller;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.swt.widgets.Display;
@@ -22,10 +28,12 @@ import edu.rice.cs.hpc.data.experiment.scope.RootScope;
 import edu.rice.cs.hpc.data.experiment.scope.RootScopeType;
 
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
+import edu.rice.cs.hpc.traceviewer.data.db.SampleBuffer;
 import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
 import edu.rice.cs.hpc.traceviewer.data.graph.CallPath;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimelineService;
+import edu.rice.cs.hpc.traceviewer.data.version2.AbstractBaseData;
 
 
 /*******************************************************************************************
@@ -70,6 +78,20 @@ public abstract class SpaceTimeDataController
 	protected ColorTable colorTable;
 	private boolean enableMidpoint;
 	
+	/** reuse the samples of the previous window on a pan or a zoom in */
+	private boolean enableIncrementalRead = true;
+	
+	/** read the data of the likely next windows once a window is painted */
+	private boolean enablePrefetch = true;
+	/** background thread of the prefetch, created on demand */
+	private ExecutorService prefetchExecutor;
+	/** incremented to cancel the current prefetch */
+	final private AtomicInteger prefetchGeneration = new AtomicInteger(0);
+	/** the samples read by the prefetch are thrown away: reuse their arrays */
+	final private SampleBuffer.Pool prefetchPool = new SampleBuffer.Pool();
+	/** true once the prefetch is stopped: the trace file may be closed */
+	private boolean prefetchStopped = false;
+	
 	protected IBaseData dataTrace = null;
 	final protected ExperimentWithoutMetrics exp;
 	
@@ -100,6 +122,23 @@ public abstract class SpaceTimeDataController
 		init(_window);
 	}
 	
+	/***
+	 * Constructor to create a data based on File without any window nor display,
+	 * for instance to render the views in batch mode. 
+	 * The colors are only available as RGB values (see {@link ColorTable#getRGB(int)}).
+	 * 
+	 * @param expFile : experiment file (XML format)
+	 */
+	public SpaceTimeDataController(File expFile) 
+			throws InvalExperimentException, Exception 
+	{			
+		exp = new ExperimentWithoutMetrics();
+		// no dialog box to show the error: the caller has to report it
+		exp.open(expFile, new ProcedureAliasMap());
+		
+		init(null);
+	}
+	
 	/*****
 	 * Constructor to create a data based on input stream, which is convenient for remote database
 	 * 
@@ -133,38 +172,30 @@ public abstract class SpaceTimeDataController
 	/******
 	 * Initialize the object
 	 * 
-	 * @param _window
+	 * @param _window : the window, or null if there is no display
 	 * @throws Exception 
 	 ******/
 	private void init(final IWorkbenchWindow window) 
 			throws InvalExperimentException 
 	{	
-		final Display display = Display.getDefault();
-		display.syncExec(new Runnable() {
-
-			@Override
-			public void run() {
-				// tree traversal to get the list of cpid, procedures and max depth
-				TraceDataVisitor visitor = new TraceDataVisitor();
-				RootScope root = exp.getRootScope(RootScopeType.CallingContextTree);
-				root.dfsVisitScopeTree(visitor);
-
-				maxDepth   = visitor.getMaxDepth();
-				scopeMap   = visitor.getMap();
-				colorTable = (ColorTable) visitor.getProcedureTable();
-				
-				// initialize colors
-				colorTable.setColorTable();
-				
-				// attributes initialization
-				attributes 	 = new ImageTraceAttributes();
-				//lineNum 	 = new AtomicInteger(0);
-				//depthLineNum = new AtomicInteger(0);
-
-				ISourceProviderService sourceProviderService = (ISourceProviderService) window.getService(ISourceProviderService.class);
-				ptlService = (ProcessTimelineService) sourceProviderService.getSourceProvider(ProcessTimelineService.PROCESS_TIMELINE_PROVIDER); 
-			}			
-		});
+		if (window == null) {
+			// batch mode: no display to create the colors, and no workbench
+			// to provide the timelines
+			initData(new ColorTable(null));
+			ptlService = new ProcessTimelineService();
+		} else {
+			final Display display = Display.getDefault();
+			display.syncExec(new Runnable() {
+
+				@Override
+				public void run() {
+					initData(new ColorTable());
+
+					ISourceProviderService sourceProviderService = (ISourceProviderService) window.getService(ISourceProviderService.class);
+					ptlService = (ProcessTimelineService) sourceProviderService.getSourceProvider(ProcessTimelineService.PROCESS_TIMELINE_PROVIDER); 
+				}			
+			});
+		}
 		final TraceAttribute trAttribute = exp.getTraceAttribute();
 		
 		if (trAttribute == null) {
@@ -175,6 +206,30 @@ public abstract class SpaceTimeDataController
 
 	}
 
+	/******
+	 * traverse the tree to get the list of cpid, procedures and max depth
+	 * 
+	 * @param table : the color table to fill
+	 ******/
+	private void initData(ColorTable table)
+	{
+		TraceDataVisitor visitor = new TraceDataVisitor(table);
+		RootScope root = exp.getRootScope(RootScopeType.CallingContextTree);
+		root.dfsVisitScopeTree(visitor);
+
+		maxDepth   = visitor.getMaxDepth();
+		scopeMap   = visitor.getMap();
+		colorTable = (ColorTable) visitor.getProcedureTable();
+		
+		// initialize colors
+		colorTable.setColorTable();
+		
+		// attributes initialization
+		attributes 	 = new ImageTraceAttributes();
+		//lineNum 	 = new AtomicInteger(0);
+		//depthLineNum = new AtomicInteger(0);
+	}
+
 	public int getMaxDepth() 
 	{
 		return maxDepth;
@@ -262,6 +317,17 @@ public abstract class SpaceTimeDataController
 	protected HashMap<Integer, CallPath> getScopeMap() {
 		return scopeMap;
 	}
+	
+	/** Returns the index of the file to which the line-th line corresponds. */
+	protected int lineToPaint(int line, ImageTraceAttributes attributes) {
+
+		int numTimelinesToPaint = attributes.getProcessInterval();
+		if (numTimelinesToPaint > attributes.numPixelsV)
+			return attributes.getProcessBegin() + (line * numTimelinesToPaint)
+					/ (attributes.numPixelsV);
+		else
+			return attributes.getProcessBegin() + line;
+	}
 
 	/******************************************************************************
 	 * getter/setter trace attributes
@@ -304,7 +370,12 @@ public abstract class SpaceTimeDataController
 		return colorTable;
 	}
 
+	public ProcessTimelineService getProcessTimelineService() {
+		return ptlService;
+	}
+
 	public void dispose() {
+		stopPrefetch();
 		colorTable.dispose();
 	}
 
@@ -316,6 +387,224 @@ public abstract class SpaceTimeDataController
 		return enableMidpoint;
 	}
 
+	public void setEnableIncrementalRead(boolean enable) {
+		this.enableIncrementalRead = enable;
+	}
+
+	public boolean isEnableIncrementalRead() {
+		return enableIncrementalRead;
+	}
+
+	public void setEnablePrefetch(boolean enable) {
+		this.enablePrefetch = enable;
+		if (!enable)
+			cancelPrefetch();
+	}
+
+	public boolean isEnablePrefetch() {
+		return enablePrefetch;
+	}
+	
+	/*************************************************************************
+	 * Notify that a view starts reading the trace data to paint.
+	 * A derived class can pause its background work on the trace file until
+	 * {@link #endPaint()} is called. The calls can be nested.
+	 *************************************************************************/
+	public void beginPaint() {
+	}
+	
+	/*************************************************************************
+	 * Notify that a view has finished painting (see {@link #beginPaint()})
+	 *************************************************************************/
+	public void endPaint() {
+	}
+	
+	
+	////////////////////////////////////////////////////////////////////////////////
+	// Prefetch
+	////////////////////////////////////////////////////////////////////////////////
+	
+	/*************************************************************************
+	 * Read in background the data of the windows the user is likely to display
+	 * next: pan left and right by one screen, zoom out one level (the same scale 
+	 * as the zoom out buttons), and the neighbouring process ranges.<br/>
+	 * The samples are thrown away: reading them warms the page cache of the
+	 * operating system, the time index and the summary of the trace file, so that 
+	 * the next paint doesn't wait for the (possibly slow) file system.
+	 * <p>
+	 * This method has to be called once a window is painted. The prefetch of
+	 * the previous window, if any, is canceled. Only local databases are prefetched.
+	 * </p>
+	 * @param painted : the attributes of the painted window
+	 *************************************************************************/
+	public void prefetch(ImageTraceAttributes painted)
+	{
+		if (!enablePrefetch || !(dataTrace instanceof AbstractBaseData))
+			return;
+		
+		final int generation = prefetchGeneration.incrementAndGet();
+		final IBaseData data = dataTrace;
+		final List<ImageTraceAttributes> windows = getPrefetchWindows(painted.duplicate());
+		
+		synchronized (prefetchGeneration) {
+			if (prefetchStopped)
+				return;
+			if (prefetchExecutor == null)
+				prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						final Thread thread = new Thread(r, "Trace prefetch");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+			
+			prefetchExecutor.execute(new Runnable() {
+				public void run() {
+					try {
+						for (ImageTraceAttributes window : windows) {
+							if (!prefetchWindow(window, data, generation))
+								return;
+						}
+					} catch (IOException e) {
+						// not fatal: the data will be read again when painted
+						System.err.println("Warning: unable to prefetch the trace data: " + e.getMessage());
+					}
+				}
+			});
+		}
+	}
+	
+	/*************************************************************************
+	 * Cancel the current prefetch, if any. This method has to be called before
+	 * painting a new window, so that the prefetch doesn't compete with the paint.
+	 *************************************************************************/
+	public void cancelPrefetch()
+	{
+		prefetchGeneration.incrementAndGet();
+	}
+	
+	/*************************************************************************
+	 * Cancel the prefetch and wait for the prefetch thread to stop. No prefetch
+	 * can start afterwards.
+	 * A derived class has to call this method before closing the trace file.
+	 *************************************************************************/
+	protected void stopPrefetch()
+	{
+		cancelPrefetch();
+		
+		final ExecutorService executor;
+		synchronized (prefetchGeneration) {
+			prefetchStopped  = true;
+			executor 		 = prefetchExecutor;
+			prefetchExecutor = null;
+		}
+		if (executor == null)
+			return;
+		
+		executor.shutdown();
+		
+		// a prefetch is canceled after reading the current line, which can take long 
+		// on a slow file system. The thread must have stopped before the file is closed
+		// and the pool is cleared.
+		boolean terminated  = false;
+		boolean interrupted = false;
+		while (!terminated) {
+			try {
+				terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		
+		prefetchPool.clear();
+	}
+	
+	/***
+	 * compute the windows to prefetch, the most likely first
+	 * 
+	 * @param current : the window currently displayed
+	 * @return the list of windows
+	 */
+	private List<ImageTraceAttributes> getPrefetchWindows(ImageTraceAttributes current)
+	{
+		final List<ImageTraceAttributes> windows = new ArrayList<ImageTraceAttributes>(5);
+		final long timeWidth = getTimeWidth();
+		final int numRanks   = dataTrace.getNumberOfRanks();
+		
+		final long t1 = current.getTimeBegin();
+		final long t2 = current.getTimeEnd();
+		final long dt = t2 - t1;
+		final int p1  = current.getProcessBegin();
+		final int p2  = current.getProcessEnd();
+		final int dp  = p2 - p1;
+		
+		if (dt <= 0 || dp <= 0 || current.numPixelsH <= 0 || current.numPixelsV <= 0)
+			return windows;
+		
+		// pan right and left by one screen
+		if (t2 < timeWidth)
+			addWindow(windows, current, t2, Math.min(t2 + dt, timeWidth), p1, p2);
+		if (t1 > 0)
+			addWindow(windows, current, Math.max(t1 - dt, 0), t1, p1, p2);
+		
+		// zoom out one level: same scale as the time zoom out of the detail view
+		final long mid  = (t1 + t2) / 2;
+		final long half = (long) (dt * 0.625);
+		if (t1 > 0 || t2 < timeWidth)
+			addWindow(windows, current, Math.max(0, mid - half), Math.min(timeWidth, mid + half), p1, p2);
+		
+		// the neighbouring process ranges
+		if (p2 < numRanks)
+			addWindow(windows, current, t1, t2, p2, Math.min(p2 + dp, numRanks));
+		if (p1 > 0)
+			addWindow(windows, current, t1, t2, Math.max(p1 - dp, 0), p1);
+		
+		return windows;
+	}
+	
+	static private void addWindow(List<ImageTraceAttributes> windows, ImageTraceAttributes current,
+			long t1, long t2, int p1, int p2)
+	{
+		final ImageTraceAttributes window = current.duplicate();
+		window.setTime(t1, t2);
+		window.setProcess(p1, p2);
+		windows.add(window);
+	}
+	
+	/***
+	 * read the lines of a window the same way as the paint of the detail view
+	 * 
+	 * @param window
+	 * @param data : the trace data when the prefetch was requested
+	 * @param generation : the prefetch stops once this generation is outdated
+	 * @return false if the prefetch has been canceled
+	 * @throws IOException
+	 */
+	private boolean prefetchWindow(ImageTraceAttributes window, IBaseData data, int generation) 
+			throws IOException
+	{
+		final int numLines = Math.min(window.numPixelsV, window.getProcessInterval());
+		
+		for (int line = 0; line < numLines; line++)
+		{
+			if (prefetchGeneration.get() != generation)
+				return false;
+			
+			final ProcessTimeline timeline = new ProcessTimeline(line, scopeMap, data, 
+					lineToPaint(line, window), window.numPixelsH, window.getTimeInterval(), 
+					minBegTime + window.getTimeBegin(), prefetchPool.get(window.numPixelsH));
+			try {
+				timeline.readInData();
+			} finally {
+				timeline.dispose();
+			}
+		}
+		return true;
+	}
+
 	/*public void resetCounter() {
 		lineNum.set(0);
 	}
@@ -31,12 +31,20 @@ import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
 public class TraceDataVisitor implements IScopeVisitor 
 {
 	final private HashMap<Integer, CallPath> map;
-	final private IProcedureTable colorTable;
+	final private ColorTable colorTable;
 	private int maxDepth = 0;
 
 	public TraceDataVisitor() {
+		this(new ColorTable());
+	}
+
+	/****
+	 * Create a visitor which collects the procedures into a given color table
+	 * @param colorTable
+	 */
+	public TraceDataVisitor(ColorTable colorTable) {
 		map = new HashMap<Integer, CallPath>();
-		colorTable = new ColorTable();
+		this.colorTable = colorTable;
 	}
 
 	//----------------------------------------------------
@@ -74,7 +82,7 @@ public class TraceDataVisitor implements IScopeVisitor
 					cur = cur.getParentScope();
 				}
 				while(cur != null && !(cur instanceof RootScope));
-				this.map.put(cpid, new CallPath(scope, depth));
+				this.map.put(cpid, new CallPath(scope, depth, getProcedureIds(scope, depth)));
 				maxDepth = Math.max(maxDepth, depth);
 			}
 		}
@@ -114,4 +122,35 @@ public class TraceDataVisitor implements IScopeVisitor
 	{
 		colorTable.addProcedure(scope.getName());
 	}
+	
+	/****
+	 * compute the procedure id of each depth of a call path, so that
+	 * 	the painting doesn't need to walk the path for every sample.
+	 * The ids are the same as the scopes returned by {@link CallPath#getScopeAt(int)}
+	 * 
+	 * @param leaf : the leaf scope of the call path
+	 * @param depth : the depth of the leaf
+	 * @return array of procedure ids indexed by depth
+	 */
+	private int[] getProcedureIds(Scope leaf, int depth)
+	{
+		if (depth == 0)
+			// no procedure in this path: paint it as outside timeline
+			return new int[] {colorTable.getProcedureId(CallPath.NULL_FUNCTION)};
+		
+		final int []ids = new int[depth];
+		Scope cur = leaf;
+		while(depth > 0)
+		{
+			if ((cur instanceof CallSiteScope) || (cur instanceof ProcedureScope))
+			{
+				depth--;
+				// the ancestors have been visited before, but we don't rely on it
+				colorTable.addProcedure(cur.getName());
+				ids[depth] = colorTable.getProcedureId(cur.getName());
+			}
+			cur = cur.getParentScope();
+		}
+		return ids;
+	}
 }
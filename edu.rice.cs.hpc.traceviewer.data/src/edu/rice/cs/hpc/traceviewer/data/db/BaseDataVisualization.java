@@ -13,13 +13,21 @@ public class BaseDataVisualization {
 	final public int x_end;
 	final public Color color;
 	final public int depth;
+	/** procedure id of the color (see ColorTable), -1 if unknown */
+	final public int procId;
 
 	public BaseDataVisualization(int x_start, int x_end, int depth, Color color) {
 		
+		this(x_start, x_end, depth, color, -1);
+	}
+
+	public BaseDataVisualization(int x_start, int x_end, int depth, Color color, int procId) {
+		
 		this.x_start = x_start;
 		this.x_end = x_end;
 		this.color = color;
 		this.depth = depth;
+		this.procId = procId;
 	}
 	
 	/*
@@ -28,6 +36,6 @@ public class BaseDataVisualization {
 	 */
 	public String toString() {
 		
-		return "[" + x_start + ", " + x_end + "] c: " + color +", d: " + depth;
+		return "[" + x_start + ", " + x_end + "] c: " + color +", d: " + depth + ", p: " + procId;
 	}
 }
@@ -57,15 +57,14 @@ public abstract class DataPreparation
 	{
 		if (depth < 0) // eclipse Linux bug: it's possible to force the depth to be negative by typing a character on the table 
 			return 0;
-		
+
 		int succSampleMidpoint = (int) Math.max(0, (ptl.getTime(0)-begTime)/pixelLength);
 
 		CallPath cp = ptl.getCallPath(0, depth);
 		if (cp==null)
 			return 0;
 		
-		String succFunction = cp.getScopeAt(depth).getName(); 
-		Color succColor = colorTable.getColor(succFunction);
+		int succProcId = cp.getProcedureIdAt(depth);
 		int last_ptl_index = ptl.size() - 1;
 		int num_invalid_cp = 0;
 
@@ -86,15 +85,15 @@ public abstract class DataPreparation
 			int indexSucc = index;
 			int end = index;
 
-			final Color currColor = succColor;
+			final int currProcId = succProcId;
+			final int currRGB 	 = colorTable.getRGB(currProcId);
 			
 			while (still_the_same && (++indexSucc <= last_ptl_index))
 			{
 				cp = ptl.getCallPath(indexSucc, depth);
 				if(cp != null)
 				{
-					succFunction = cp.getScopeAt(depth).getName(); 
-					succColor = colorTable.getColor(succFunction);
+					succProcId = cp.getProcedureIdAt(depth);
 					
 					// the color will be the same if and only if the two regions have the save function name
 					// regardless they are from different max depth and different call path.
@@ -104,7 +103,7 @@ public abstract class DataPreparation
 					//						   has the same depth. In depth view, we don't want to mix with
 					//							different depths
 					
-					still_the_same = (succColor.equals(currColor)) && currDepth == cp.getMaxDepth();
+					still_the_same = (colorTable.getRGB(succProcId) == currRGB) && currDepth == cp.getMaxDepth();
 					if (still_the_same)
 						end = indexSucc;
 				} else {
@@ -139,7 +138,7 @@ public abstract class DataPreparation
 				succSampleMidpoint = (int) Math.max(0, ((ptl.getTime(end)-begTime)/pixelLength)); 
 			}
 			
-			finishLine(currSampleMidpoint, succSampleMidpoint, currDepth, currColor, end - index + 1);
+			finishLine(currSampleMidpoint, succSampleMidpoint, currDepth, currProcId, end - index + 1);
 			index = end;
 		}
 		return num_invalid_cp;
@@ -153,6 +152,35 @@ public abstract class DataPreparation
 
 	public abstract TimelineDataSet getList();
 
+	/***
+	 * Map the pixels of the line to their samples, to find the sample under
+	 * the mouse without searching the samples 
+	 * (see {@link ProcessTimeline#buildPixelMap(long, double, boolean, int)}).
+	 * 
+	 * @param numPixels : the width of the view
+	 */
+	protected void buildPixelMap(int numPixels)
+	{
+		ptl.buildPixelMap(begTime, pixelLength, usingMidpoint, numPixels);
+	}
+
+	/***
+	 * Finalize the painting given its range, depth and the procedure id of the color.
+	 * By default, the procedure id is converted into a color for 
+	 * {@link #finishLine(int, int, int, Color, int)}. A derived class which doesn't
+	 * need SWT colors (like in batch mode) can use the RGB value of the procedure instead.
+	 * 
+	 * @param currSampleMidpoint : current sample
+	 * @param succSampleMidpoint : next sample
+	 * @param currDepth : current depth
+	 * @param procId : the procedure id (see {@link ColorTable#getRGB(int)})
+	 * @param sampleCount : the number of "samples"
+	 */
+	protected void finishLine(int currSampleMidpoint, int succSampleMidpoint, int currDepth, int procId, int sampleCount)
+	{
+		finishLine(currSampleMidpoint, succSampleMidpoint, currDepth, colorTable.getColor(procId), sampleCount);
+	}
+
 	/***
 	 * Abstract method to finalize the painting given its range, depth and the function name
 	 * 
@@ -7,9 +7,12 @@ public interface ITraceDataCollector
 	public boolean isEmpty();
 	public int findClosestSample(long time, boolean usingMidpoint);
 	public void readInData(int rank, long timeStart, long timeRange, double pixelLength) throws IOException;
+	public boolean readInData(int rank, long timeStart, long timeRange, double pixelLength, 
+			ITraceDataCollector previous) throws IOException;
 	public long getTime(int sample);
 	public int getCpid(int sample);
 	public int size();
 	public void shiftTimeBy(long lowestStartingTime);
 	public void duplicate(ITraceDataCollector traceData);
+	public void dispose();
 }
@@ -0,0 +1,218 @@
+package edu.rice.cs.hpc.traceviewer.data.db;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*******************************************************************************
+ *
+ * Columnar storage of the samples of a process timeline: one array for the
+ * time stamps and one for the call path IDs, instead of an object per sample.
+ * <p>
+ * A buffer can be shared by several timelines (see {@link #retain()}). Once
+ * the last owner releases the buffer, its arrays are given back to the pool
+ * (if any) to be reused by the next timelines, and the buffer cannot be
+ * retained anymore.
+ * </p>
+ *******************************************************************************/
+public class SampleBuffer
+{
+	final static private int MIN_CAPACITY = 16;
+
+	private long []times;
+	private int  []cpids;
+	private int size;
+
+	final private int initialCapacity;
+	final private Pool pool;
+	final private AtomicInteger refs = new AtomicInteger(1);
+
+	/****
+	 * Create a new buffer. The arrays are allocated lazily.
+	 *
+	 * @param capacity : the expected number of samples
+	 */
+	public SampleBuffer(int capacity)
+	{
+		this(null, null, null, capacity);
+	}
+
+	private SampleBuffer(Pool pool, long []times, int []cpids, int capacity)
+	{
+		this.pool  = pool;
+		this.times = times;
+		this.cpids = cpids;
+		this.initialCapacity = Math.max(capacity, MIN_CAPACITY);
+	}
+
+	/***
+	 * add a sample at the end of the buffer
+	 *
+	 * @param time
+	 * @param cpid
+	 */
+	public void add(long time, int cpid)
+	{
+		ensureCapacity(size + 1);
+		times[size] = time;
+		cpids[size] = cpid;
+		size++;
+	}
+
+	public long getTime(int index)
+	{
+		return times[index];
+	}
+
+	public int getCpid(int index)
+	{
+		return cpids[index];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/***
+	 * Shifts all the times to the left by a given time
+	 * @param time
+	 */
+	public void shiftTimeBy(long time)
+	{
+		for (int i=0; i<size; i++) {
+			times[i] -= time;
+		}
+	}
+
+	/****
+	 * Removes samples which have the same time as their predecessor.
+	 * For compatibility with the previous list-based implementation, the 
+	 * two last samples are not compared unless they belong to a longer run 
+	 * of samples with the same time.
+	 */
+	public void removeDuplicateTimes()
+	{
+		int last = 0;	// the last kept sample
+		int next = 1;	// the next sample to check
+		
+		while (next < size-1) 
+		{
+			while (next < size && times[next] == times[last])
+				next++;
+			
+			if (next < size) {
+				last++;
+				times[last] = times[next];
+				cpids[last] = cpids[next];
+				next++;
+			}
+		}
+		// copy the remaining samples
+		for (; next < size; next++) {
+			last++;
+			times[last] = times[next];
+			cpids[last] = cpids[next];
+		}
+		if (size > 0)
+			size = last + 1;
+	}
+
+	/****
+	 * Share this buffer with another owner.
+	 *
+	 * @return true if the buffer is still alive, false if it has been released
+	 * 	by all its owners (the content may then be reused by another buffer).
+	 */
+	public boolean retain()
+	{
+		int count;
+		do {
+			count = refs.get();
+			if (count <= 0)
+				return false;
+		} while (!refs.compareAndSet(count, count + 1));
+
+		return true;
+	}
+
+	/****
+	 * Release this buffer from an owner. If there is no more owner, the
+	 * arrays will be given back to the pool, and reading the samples of
+	 * this buffer fails instead of returning the samples of another buffer.
+	 */
+	public void release()
+	{
+		if (refs.decrementAndGet() == 0) {
+			if (pool != null && times != null)
+				pool.put(times, cpids);
+			times = null;
+			cpids = null;
+			size  = 0;
+		}
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (times == null) {
+			final int length = Math.max(capacity, initialCapacity);
+			times = new long[length];
+			cpids = new int[length];
+
+		} else if (capacity > times.length) {
+			final int length = Math.max(capacity, times.length * 2);
+			long []newTimes = new long[length];
+			int  []newCpids = new int[length];
+			System.arraycopy(times, 0, newTimes, 0, size);
+			System.arraycopy(cpids, 0, newCpids, 0, size);
+			times = newTimes;
+			cpids = newCpids;
+		}
+	}
+
+
+	/*******************************************************************************
+	 *
+	 * Pool of arrays to be reused across repaints
+	 *
+	 *******************************************************************************/
+	static public class Pool
+	{
+		/** we don't want to keep the arrays of a huge window forever */
+		final static private int MAX_POOL_SIZE = 8192;
+
+		final private ArrayList<long[]> listTimes = new ArrayList<long[]>();
+		final private ArrayList<int[]>  listCpids = new ArrayList<int[]>();
+
+		/****
+		 * get a new buffer, using arrays from the pool if available
+		 *
+		 * @param capacity : the expected number of samples
+		 * @return a new buffer
+		 */
+		public synchronized SampleBuffer get(int capacity)
+		{
+			final int last = listTimes.size() - 1;
+			if (last >= 0) {
+				return new SampleBuffer(this, listTimes.remove(last), listCpids.remove(last), capacity);
+			}
+			return new SampleBuffer(this, null, null, capacity);
+		}
+
+		synchronized void put(long []times, int []cpids)
+		{
+			if (listTimes.size() < MAX_POOL_SIZE) {
+				listTimes.add(times);
+				listCpids.add(cpids);
+			}
+		}
+
+		/***
+		 * remove all arrays from the pool
+		 */
+		public synchronized void clear()
+		{
+			listTimes.clear();
+			listCpids.clear();
+		}
+	}
+}
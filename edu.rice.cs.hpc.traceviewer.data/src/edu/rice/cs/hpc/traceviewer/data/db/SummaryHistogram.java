@@ -0,0 +1,278 @@
+package edu.rice.cs.hpc.traceviewer.data.db;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
+
+/*****************************************************************
+ *
+ * Statistics of the summary view: for each time bucket (one pixel
+ * column of the detail view), the number of lines showing each
+ * procedure.<br/>
+ * The histograms are computed from the data of the lines, not from
+ * the pixels of the detail image: a column only needs an array of
+ * counters indexed by procedure id, and the columns are independent,
+ * hence they are computed by the threads of the caller's executor.
+ * <p>
+ * The procedures of a column are sorted by color, the order of the
+ * bands in the summary view. A part of a line without any data counts
+ * as the null function (the white color).
+ * </p>
+ *****************************************************************/
+public class SummaryHistogram
+{
+	/** minimum number of columns per chunk of work */
+	final static private int MIN_CHUNK_SIZE = 64;
+
+	final private int numLines;
+	final private int [][]procIds;
+	final private int [][]counts;
+	final private int []totals;
+
+	private SummaryHistogram(int numLines, int [][]procIds, int [][]counts, int numProcs)
+	{
+		this.numLines = numLines;
+		this.procIds  = procIds;
+		this.counts   = counts;
+
+		totals = new int[numProcs];
+		for (int x=0; x<procIds.length; x++) {
+			for (int i=0; i<procIds[x].length; i++) {
+				totals[procIds[x][i]] += counts[x][i];
+			}
+		}
+	}
+
+	/****
+	 * compute the histograms of a view
+	 *
+	 * @param lines : the data of the lines, indexed by line number.
+	 * 		An element can be null if the line has no data.
+	 * @param width : the number of columns (time buckets)
+	 * @param colorTable : to sort the procedures by color
+	 * @param executor : the threads to compute the columns. If null, the columns
+	 * 		are computed by the current thread. The current thread shouldn't be
+	 * 		one of the threads of the executor.
+	 * @param numThreads : the number of threads of the executor
+	 *
+	 * @return the histograms
+	 */
+	static public SummaryHistogram compute(final TimelineDataSet []lines, int width,
+			final ColorTable colorTable, ExecutorService executor, int numThreads)
+	{
+		final int numProcs  = Math.max(colorTable.getNumProcedures(), 1);
+		final int [][]procIds = new int[width][];
+		final int [][]counts  = new int[width][];
+
+		// split the columns into a few chunks per thread to balance the work
+		final int chunkSize = Math.max(MIN_CHUNK_SIZE, (width + 4*numThreads - 1) / Math.max(4*numThreads, 1));
+		final List<int[]> chunks = new ArrayList<int[]>();
+		for (int x=0; x<width; x+=chunkSize) {
+			chunks.add(new int[] {x, Math.min(x + chunkSize, width)});
+		}
+
+		if (executor == null || numThreads <= 1 || chunks.size() < 2) {
+			for (int []chunk : chunks) {
+				computeColumns(lines, chunk[0], chunk[1], numProcs, colorTable, procIds, counts);
+			}
+		} else {
+			final CompletionService<Object> ecs = new ExecutorCompletionService<Object>(executor);
+			final List<Future<Object>> futures = new ArrayList<Future<Object>>(chunks.size());
+			try {
+				for (final int []chunk : chunks) {
+					futures.add(ecs.submit(new Callable<Object>() {
+						public Object call() {
+							computeColumns(lines, chunk[0], chunk[1], numProcs, colorTable, procIds, counts);
+							return null;
+						}
+					}));
+				}
+				for (int i=0; i<chunks.size(); i++) {
+					ecs.take().get();
+				}
+				futures.clear();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Computation of the summary interrupted");
+
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+
+			} finally {
+				// the executor is shared: only the remaining chunks are canceled
+				for (Future<Object> future : futures)
+					future.cancel(true);
+			}
+		}
+		return new SummaryHistogram(lines.length, procIds, counts, numProcs);
+	}
+
+	/****
+	 * compute the histograms of the columns [x_begin, x_end).
+	 * The segments of a line are sorted, so we keep the current segment of
+	 * each line while moving to the next column.
+	 */
+	static private void computeColumns(TimelineDataSet []lines, int x_begin, int x_end,
+			int numProcs, ColorTable colorTable, int [][]procIds, int [][]counts)
+	{
+		final int []histogram = new int[numProcs];
+		final int []used      = new int[numProcs];
+		final int []cursor    = new int[lines.length];
+
+		for (int x=x_begin; x<x_end; x++)
+		{
+			int numUsed = 0;
+			for (int line=0; line<lines.length; line++)
+			{
+				int procId = 0;
+				if (lines[line] != null)
+				{
+					final List<BaseDataVisualization> list = lines[line].getList();
+					int c = cursor[line];
+					while (c < list.size() && list.get(c).x_end <= x)
+						c++;
+					cursor[line] = c;
+
+					if (c < list.size()) {
+						final BaseDataVisualization data = list.get(c);
+						if (data.x_start <= x && data.procId > 0 && data.procId < numProcs)
+							procId = data.procId;
+					}
+				}
+				if (histogram[procId]++ == 0)
+					used[numUsed++] = procId;
+			}
+
+			// sort the procedures by color (insertion sort: a column has few procedures)
+			for (int i=1; i<numUsed; i++) {
+				final int id  = used[i];
+				final int key = colorTable.getRGB(id);
+				int j = i - 1;
+				while (j >= 0 && compare(colorTable.getRGB(used[j]), used[j], key, id) > 0) {
+					used[j+1] = used[j];
+					j--;
+				}
+				used[j+1] = id;
+			}
+
+			final int []ids    = new int[numUsed];
+			final int []column = new int[numUsed];
+			for (int i=0; i<numUsed; i++) {
+				ids[i]    = used[i];
+				column[i] = histogram[used[i]];
+				histogram[used[i]] = 0;
+			}
+			procIds[x] = ids;
+			counts[x]  = column;
+		}
+	}
+
+	static private int compare(int rgb1, int id1, int rgb2, int id2)
+	{
+		if (rgb1 != rgb2)
+			return rgb1 < rgb2 ? -1 : 1;
+		return id1 - id2;
+	}
+
+	/****
+	 * @return the number of columns (time buckets)
+	 */
+	public int getWidth()
+	{
+		return procIds.length;
+	}
+
+	/****
+	 * @return the number of lines of the view
+	 */
+	public int getNumLines()
+	{
+		return numLines;
+	}
+
+	/****
+	 * @param x : the column
+	 * @return the number of procedures in a column
+	 */
+	public int getNumProcedures(int x)
+	{
+		return procIds[x].length;
+	}
+
+	/****
+	 * @param x : the column
+	 * @param i : the index of the procedure in the column, sorted by color
+	 * @return the procedure id (see {@link ColorTable#getProcedureName(int)})
+	 */
+	public int getProcedureId(int x, int i)
+	{
+		return procIds[x][i];
+	}
+
+	/****
+	 * @param x : the column
+	 * @param i : the index of the procedure in the column, sorted by color
+	 * @return the number of lines showing the procedure in the column
+	 */
+	public int getCount(int x, int i)
+	{
+		return counts[x][i];
+	}
+
+	/****
+	 * @param procId
+	 * @return the number of pixels (one per line and column) of a procedure in the view
+	 */
+	public int getTotal(int procId)
+	{
+		return procId < totals.length ? totals[procId] : 0;
+	}
+
+	/****
+	 * @return the number of pixels (one per line and column) of the view
+	 */
+	public long getTotalPixels()
+	{
+		return (long) numLines * procIds.length;
+	}
+
+	/****
+	 * export the statistics in CSV format: one row per bucket and procedure,
+	 * with the share of the lines of the bucket showing the procedure.
+	 *
+	 * @param out
+	 * @param colorTable : to get the name of the procedures
+	 * @param timeBegin : the time of the first bucket
+	 * @param timeEnd : the end time of the last bucket
+	 */
+	public void export(PrintWriter out, ColorTable colorTable, long timeBegin, long timeEnd)
+	{
+		final int width = procIds.length;
+		final double bucketLength = width > 0 ? (double)(timeEnd - timeBegin) / width : 0;
+
+		out.println("bucket,time_begin,time_end,procedure,share");
+		for (int x=0; x<width; x++) {
+			final long begin = timeBegin + (long) (x * bucketLength);
+			final long end   = timeBegin + (long) ((x + 1) * bucketLength);
+			for (int i=0; i<procIds[x].length; i++) {
+				final String name = colorTable.getProcedureName(procIds[x][i]).replace("\"", "\"\"");
+				out.println(x + "," + begin + "," + end + ",\"" + name + "\"," +
+						((double) counts[x][i] / numLines));
+			}
+		}
+		out.flush();
+	}
+}
@@ -1,8 +1,6 @@
 package edu.rice.cs.hpc.traceviewer.data.db;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Vector;
 
 import edu.rice.cs.hpc.data.util.Constants;
 import edu.rice.cs.hpc.traceviewer.data.util.Debugger;
@@ -30,7 +28,16 @@ public class TraceDataByRank implements ITraceDataCollector
 	private int numPixelH;
 	int rank;
 	
-	protected Vector<DataRecord> listcpid;
+	protected SampleBuffer samples;
+	
+	// the time window of the samples, needed to reuse them for the next window
+	private int    loadedFileRank = -1;
+	private long   loadedStart, loadedEnd;
+	private double loadedPixelLength;
+	/** true if the samples contain all the records of the window */
+	private boolean complete;
+	/** the time shift of the samples since they were read */
+	private long timeShift;
 	
 	/***
 	 * Create a new instance of trace data for a given rank of process or thread 
@@ -40,6 +47,21 @@ public class TraceDataByRank implements ITraceDataCollector
 	 * @param _numPixelH
 	 */
 	public TraceDataByRank(AbstractBaseData _data, int _rank, int _numPixelH)
+	{
+		this(_data, _rank, _numPixelH, new SampleBuffer(_numPixelH));
+	}
+	
+	/***
+	 * Create a new instance of trace data for a given rank of process or thread
+	 * with a given (possibly pooled) buffer to store the samples.
+	 * Used only for local
+	 * 
+	 * @param _data
+	 * @param _rank
+	 * @param _numPixelH
+	 * @param buffer : an empty buffer
+	 */
+	public TraceDataByRank(AbstractBaseData _data, int _rank, int _numPixelH, SampleBuffer buffer)
 	{
 		//:'( This is a safe cast because this constructor is only
 		//called in local mode but it's so ugly....
@@ -47,15 +69,18 @@ public class TraceDataByRank implements ITraceDataCollector
 		rank = _rank;
 		numPixelH = _numPixelH;
 
-		listcpid = new Vector<DataRecord>(numPixelH);
+		samples = buffer;
 	}
 	
 	public boolean isEmpty() {
-		return listcpid == null || listcpid.size()==0;
+		return samples == null || samples.size()==0;
 	}
 	
 	public TraceDataByRank(DataRecord[] data) {
-		listcpid = new Vector<DataRecord>(Arrays.asList(data));
+		samples = new SampleBuffer(data.length);
+		for (DataRecord record: data) {
+			samples.add(record.timestamp, record.cpId);
+		}
 	}
 	
 	/***
@@ -68,6 +93,129 @@ public class TraceDataByRank implements ITraceDataCollector
 	 */
 	public void readInData(int rank, long timeStart, long timeRange, double pixelLength) throws IOException
 	{
+		complete = readRange(samples, rank, timeStart, timeRange, pixelLength, numPixelH);
+		setLoadedWindow(rank, timeStart, timeRange, pixelLength);
+		
+		postProcess();
+	}
+	
+	
+	/***
+	 * reading data of a new window, reusing the samples of the same rank in a previous
+	 * window: only the time ranges which are not covered by the previous window are read
+	 * from the file.<br/>
+	 * The samples can be reused if either:
+	 * <ul>
+	 * <li>the window has been panned: same pixel length, and the windows overlap</li>
+	 * <li>the window has been zoomed in and the previous samples contain all the records</li>
+	 * </ul>
+	 * 
+	 * @param rank
+	 * @param timeStart
+	 * @param timeRange
+	 * @param pixelLength
+	 * @param previous : the data of the previous window. Can be null.
+	 * 
+	 * @return true if the data has been read, false if the previous samples cannot be used.
+	 * 	In this case, the caller has to read the whole window with {@link #readInData(int, long, long, double)}
+	 * @throws IOException
+	 */
+	public boolean readInData(int rank, long timeStart, long timeRange, double pixelLength, 
+			ITraceDataCollector previous) throws IOException
+	{
+		if (!(previous instanceof TraceDataByRank) || !isEmpty() || data == null)
+			return false;
+		
+		final TraceDataByRank other = (TraceDataByRank) previous;
+		if (other.data != data || other.loadedFileRank < 0 || other.loadedFileRank != data.getFileRank(rank))
+			return false;
+		
+		final long timeEnd = timeStart + timeRange;
+		final boolean panned = (other.loadedPixelLength == pixelLength && 
+				timeStart < other.loadedEnd && timeEnd > other.loadedStart);
+		final boolean zoomedIn = (other.complete && 
+				timeStart >= other.loadedStart && timeEnd <= other.loadedEnd);
+		
+		if (!(panned || zoomedIn))
+			return false;
+		
+		// the previous samples may be disposed by another thread at any time
+		final SampleBuffer oldSamples = other.samples;
+		if (!oldSamples.retain())
+			return false;
+		
+		try {
+			final long overlapStart = Math.max(timeStart, other.loadedStart);
+			final long overlapEnd   = Math.min(timeEnd,   other.loadedEnd);
+			boolean isComplete 		= other.complete;
+			
+			// the newly exposed range on the left
+			if (timeStart < overlapStart) {
+				isComplete &= readRange(samples, rank, timeStart, overlapStart - timeStart, pixelLength, 
+						getNumPixels(overlapStart - timeStart, pixelLength));
+			}
+			
+			// the previous samples of the overlap, including the sample in effect at the
+			// beginning of the overlap, and the sample after the end if there is nothing to read
+			final long shift = other.timeShift;
+			int from = findFirstSample(oldSamples, shift, overlapStart);
+			if (from > 0)
+				from--;
+			int to = findFirstSample(oldSamples, shift, overlapEnd + 1);
+			if (to < oldSamples.size() && timeEnd <= overlapEnd)
+				to++;
+			
+			for (int i=from; i<to; i++) {
+				addSampleAfterLast(samples, oldSamples.getTime(i) + shift, oldSamples.getCpid(i));
+			}
+			
+			// the newly exposed range on the right
+			if (timeEnd > overlapEnd) {
+				final SampleBuffer edge = new SampleBuffer(getNumPixels(timeEnd - overlapEnd, pixelLength));
+				isComplete &= readRange(edge, rank, overlapEnd, timeEnd - overlapEnd, pixelLength, 
+						getNumPixels(timeEnd - overlapEnd, pixelLength));
+				
+				for (int i=0; i<edge.size(); i++) {
+					addSampleAfterLast(samples, edge.getTime(i), edge.getCpid(i));
+				}
+			}
+			complete = isComplete;
+			
+		} finally {
+			oldSamples.release();
+		}
+		setLoadedWindow(rank, timeStart, timeRange, pixelLength);
+		postProcess();
+		
+		return true;
+	}
+	
+	
+	/***
+	 * reading the samples of a time range from file, and add them to a buffer
+	 * 
+	 * @param buffer : the buffer to store the samples
+	 * @param rank
+	 * @param timeStart
+	 * @param timeRange
+	 * @param pixelLength
+	 * @param numPixels : the number of pixels of the range
+	 * 
+	 * @return true if all the records of the range have been read
+	 * @throws IOException
+	 */
+	private boolean readRange(SampleBuffer buffer, int rank, long timeStart, long timeRange, 
+			double pixelLength, int numPixels) throws IOException
+	{
+		// --------------------------------------------------------------------------------------------------
+		// if a pixel covers at least a bucket of the summary, we don't need to read the trace file
+		// --------------------------------------------------------------------------------------------------
+		final TracePyramid pyramid = data.getPyramid();
+		if (pyramid != null && 
+				pyramid.fill(data.getFileRank(rank), timeStart, timeRange, pixelLength, buffer)) 
+		{
+			return false;
+		}
 			
 		long minloc = data.getMinLoc(rank);
 		long maxloc = data.getMaxLoc(rank);
@@ -84,15 +232,24 @@ public class TraceDataByRank implements ITraceDataCollector
 		// get the number of records data to display
 		final long numRec = 1+this.getNumberOfRecords(startLoc, endLoc);
 		
+		// --------------------------------------------------------------------------------------------------
+		// get the first data if necessary: the leftmost time is still bigger than the lower limit
+		//	similarly, we add to the list 
+		// --------------------------------------------------------------------------------------------------
+		if ( startLoc > minloc ) {
+			this.addSample(buffer, startLoc - data.getRecordSize());
+		}
+		
 		// --------------------------------------------------------------------------------------------------
 		// if the data-to-display is fit in the display zone, we don't need to use recursive binary search
 		//	we just simply display everything from the file
 		// --------------------------------------------------------------------------------------------------
-		if (numRec<=numPixelH) {
+		final boolean allRecords = (numRec<=numPixels);
+		if (allRecords) {
 			
 			// display all the records
 			for(long i=startLoc;i<=endLoc; ) {
-				listcpid.add(getData(i));
+				addSample(buffer, i);
 				// one record of data contains of an integer (cpid) and a long (time)
 				i =  i + data.getRecordSize();
 			}
@@ -102,7 +259,7 @@ public class TraceDataByRank implements ITraceDataCollector
 			// the data is too big: try to fit the "big" data into the display
 			
 			//fills in the rest of the data for this process timeline
-			this.sampleTimeLine(startLoc, endLoc, 0, numPixelH, 0, pixelLength, timeStart);
+			this.sampleTimeLine(buffer, startLoc, endLoc, 0, numPixels, pixelLength, timeStart);
 			
 		}
 		
@@ -111,35 +268,25 @@ public class TraceDataByRank implements ITraceDataCollector
 		// 	I think we can add the rightmost data into the list of samples
 		// --------------------------------------------------------------------------------------------------
 		if (endLoc < maxloc) {
-			final DataRecord dataLast = this.getData(endLoc);
-			this.addSample(listcpid.size(), dataLast);
+			this.addSample(buffer, endLoc);
 		}
-		
-		// --------------------------------------------------------------------------------------------------
-		// get the first data if necessary: the leftmost time is still bigger than the lower limit
-		//	similarly, we add to the list 
-		// --------------------------------------------------------------------------------------------------
-		if ( startLoc > minloc ) {
-			final DataRecord dataFirst = this.getData(startLoc - data.getRecordSize());
-			this.addSample(0, dataFirst);
-		}
-		postProcess();
+		return allRecords;
 	}
 	
 	
 	/**Gets the time that corresponds to the index sample in times.*/
 	public long getTime(int sample)
 	{
-		if(sample<0 || listcpid == null || listcpid.size() == 0)
+		if(sample<0 || samples == null || samples.size() == 0)
 			return 0;
 
-		final int last_index = listcpid.size() - 1;
+		final int last_index = samples.size() - 1;
 		if(sample>last_index) {
 			// laks 2015.05.19 : I think we should throw exception here 
 			// 					 instead of forcing ourself to give a result
-			return listcpid.get(last_index-1).timestamp;
+			return samples.getTime(last_index-1);
 		}
-		return listcpid.get(sample).timestamp;
+		return samples.getTime(sample);
 	}
 	
 	/**Gets the cpid that corresponds to the index sample in timeLine.
@@ -147,8 +294,8 @@ public class TraceDataByRank implements ITraceDataCollector
 	 * */
 	public int getCpid(int sample)
 	{
-		if (sample < listcpid.size())
-			return listcpid.get(sample).cpId;
+		if (sample < samples.size())
+			return samples.getCpid(sample);
 		return -1;
 	}
 	
@@ -156,19 +303,15 @@ public class TraceDataByRank implements ITraceDataCollector
 	// Nathan: could you please derive your own class to add additional feature ?
 	/*public int getMetricId(int sample)
 	{
-		return 0;//listcpid.get(sample).metricId;
+		return 0;//samples.get(sample).metricId;
 	}*/
 
 	
 	/**Shifts all the times in the ProcessTimeline to the left by lowestStartingTime.*/
 	public void shiftTimeBy(long lowestStartingTime)
 	{
-		for(int i = 0; i<listcpid.size(); i++)
-		{
-			DataRecord timecpid = listcpid.get(i);
-			timecpid.timestamp = timecpid.timestamp - lowestStartingTime;
-			listcpid.set(i,timecpid);
-		}
+		samples.shiftTimeBy(lowestStartingTime);
+		timeShift += lowestStartingTime;
 	}
 
 	
@@ -176,7 +319,7 @@ public class TraceDataByRank implements ITraceDataCollector
 	/**Returns the number of elements in this ProcessTimeline.*/
 	public int size()
 	{
-		return listcpid.size();
+		return samples.size();
 	}
 
 	
@@ -187,14 +330,14 @@ public class TraceDataByRank implements ITraceDataCollector
 	 * */
 	public int findClosestSample(long time, boolean usingMidpoint)
 	{
-		if (listcpid.size()==0)
+		if (samples.size()==0)
 			return 0;
 
 		int low = 0;
-		int high = listcpid.size() - 1;
+		int high = samples.size() - 1;
 		
-		long timeMin = listcpid.get(low).timestamp;
-		long timeMax = listcpid.get(high).timestamp;
+		long timeMin = samples.getTime(low);
+		long timeMax = samples.getTime(high);
 		
 		// do not search the sample if the time is out of range
 		if (time<timeMin  || time>timeMax) 
@@ -204,7 +347,7 @@ public class TraceDataByRank implements ITraceDataCollector
 		
 		while( low != mid )
 		{
-			final long time_current = (usingMidpoint ? getTimeMidPoint(mid,mid+1) : listcpid.get(mid).timestamp);
+			final long time_current = (usingMidpoint ? getTimeMidPoint(mid,mid+1) : samples.getTime(mid));
 			
 			if (time > time_current)
 				low = mid;
@@ -234,12 +377,28 @@ public class TraceDataByRank implements ITraceDataCollector
 	 */
 	public void duplicate(ITraceDataCollector traceData)
 	{
-		this.listcpid = ((TraceDataByRank)traceData).listcpid;
+		final SampleBuffer buffer = ((TraceDataByRank)traceData).samples;
+		
+		// the other object may have been disposed and its buffer reused.
+		// In this case we just have an empty data
+		final SampleBuffer newSamples = buffer.retain() ? buffer : new SampleBuffer(0);
+		samples.release();
+		samples = newSamples;
+		
+		// the samples of the other object cannot be reused: we don't know its window anymore
+		loadedFileRank = -1;
 	}
 	
+	/***
+	 * release the samples. The object cannot be used anymore
+	 */
+	public void dispose()
+	{
+		samples.release();
+	}
 	
 	private long getTimeMidPoint(int left, int right) {
-		return (listcpid.get(left).timestamp + listcpid.get(right).timestamp) / 2;
+		return (samples.getTime(left) + samples.getTime(right)) / 2;
 	}
 	
 	/*******************************************************************************************
@@ -247,19 +406,18 @@ public class TraceDataByRank implements ITraceDataCollector
 	 * Takes in two pixel locations as endpoints and finds the timestamp that owns the pixel
 	 * in between these two. It then recursively calls itself twice - once with the beginning 
 	 * location and the newfound location as endpoints and once with the newfound location 
-	 * and the end location as endpoints. Effectively updates times and timeLine by calculating 
-	 * the index in which to insert the next data. This way, it keeps times and timeLine sorted.
+	 * and the end location as endpoints. The samples of the left part are appended before 
+	 * the newfound one, and the samples of the right part after it. This way, it keeps times 
+	 * and timeLine sorted without inserting in the middle of the buffer.
 	 * @author Reed Landrum and Michael Franco
 	 * @param minLoc The beginning location in the file to bound the search.
 	 * @param maxLoc The end location in the file to bound the search.
 	 * @param startPixel The beginning pixel in the image that corresponds to minLoc.
 	 * @param endPixel The end pixel in the image that corresponds to maxLoc.
-	 * @param minIndex An index used for calculating the index in which the data is to be inserted.
-	 * @return Returns the index that shows the size of the recursive subtree that has been read.
-	 * Used for calculating the index in which the data is to be inserted.
+	 * @return Returns the number of samples that have been read.
 	 * @throws IOException 
 	 ******************************************************************************************/
-	private int sampleTimeLine(long minLoc, long maxLoc, int startPixel, int endPixel, int minIndex, 
+	private int sampleTimeLine(SampleBuffer buffer, long minLoc, long maxLoc, int startPixel, int endPixel, 
 			double pixelLength, long startingTime) throws IOException
 	{
 		int midPixel = (startPixel+endPixel)/2;
@@ -268,12 +426,11 @@ public class TraceDataByRank implements ITraceDataCollector
 		
 		long loc = findTimeInInterval((long)(midPixel*pixelLength)+startingTime, minLoc, maxLoc);
 		
-		final DataRecord nextData = this.getData(loc);
+		int addedLeft = sampleTimeLine(buffer, minLoc, loc, startPixel, midPixel, pixelLength, startingTime);
 		
-		addSample(minIndex, nextData);
+		addSample(buffer, loc);
 		
-		int addedLeft = sampleTimeLine(minLoc, loc, startPixel, midPixel, minIndex, pixelLength, startingTime);
-		int addedRight = sampleTimeLine(loc, maxLoc, midPixel, endPixel, minIndex+addedLeft+1, pixelLength, startingTime);
+		int addedRight = sampleTimeLine(buffer, loc, maxLoc, midPixel, endPixel, pixelLength, startingTime);
 		
 		return (addedLeft+addedRight+1);
 	}
@@ -290,6 +447,19 @@ public class TraceDataByRank implements ITraceDataCollector
 	{
 		if (left_boundary_offset == right_boundary_offset) return left_boundary_offset;
 
+		// use the time index (if the rank is indexed) to narrow the interval to one stride
+		final TraceTimeIndex timeIndex = data.getTimeIndex();
+		if (timeIndex != null && 
+				right_boundary_offset - left_boundary_offset > (long)TraceTimeIndex.STRIDE * data.getRecordSize())
+		{
+			final long []bounds = {left_boundary_offset, right_boundary_offset};
+			timeIndex.narrow(data.getFileRank(rank), time, bounds);
+			left_boundary_offset  = bounds[0];
+			right_boundary_offset = bounds[1];
+			
+			if (left_boundary_offset == right_boundary_offset) return left_boundary_offset;
+		}
+
 		long left_index = getRelativeLocation(left_boundary_offset);
 		long right_index = getRelativeLocation(right_boundary_offset);
 		
@@ -352,27 +522,50 @@ public class TraceDataByRank implements ITraceDataCollector
 	}
 	
 	
-	/**Adds a sample to times and timeLine.*/
-	private void addSample( int index, DataRecord datacpid)
-	{		
-		if (index == listcpid.size())
-		{
-			this.listcpid.add(datacpid);
-		}
-		else
-		{
-			this.listcpid.add(index, datacpid);
-		}
-	}
-
-	
-	private DataRecord getData(long location) throws IOException
+	/**Adds the sample of a given location in the file at the end of a buffer.*/
+	private void addSample(SampleBuffer buffer, long location) throws IOException
 	{
 		final long time = data.getLong(location);
 		final int cpId = data.getInt(location + Constants.SIZEOF_LONG);
-		int metricId = edu.rice.cs.hpc.traceviewer.data.util.Constants.dataIdxNULL;
 		
-		return new DataRecord(time, cpId, metricId);
+		buffer.add(time, cpId);
+	}
+	
+	/**Adds a sample at the end of a buffer if it is after the last sample, to keep the buffer sorted.*/
+	static private void addSampleAfterLast(SampleBuffer buffer, long time, int cpId)
+	{
+		final int size = buffer.size();
+		if (size == 0 || buffer.getTime(size-1) < time)
+			buffer.add(time, cpId);
+	}
+	
+	/**Returns the index of the first sample whose (unshifted) time is at least a given time.*/
+	static private int findFirstSample(SampleBuffer buffer, long shift, long time)
+	{
+		int low  = 0;
+		int high = buffer.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (buffer.getTime(mid) + shift < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	static private int getNumPixels(long timeRange, double pixelLength)
+	{
+		return Math.max(1, (int) Math.ceil(timeRange / pixelLength));
+	}
+	
+	private void setLoadedWindow(int rank, long timeStart, long timeRange, double pixelLength)
+	{
+		loadedFileRank 	  = data.getFileRank(rank);
+		loadedStart 	  = timeStart;
+		loadedEnd 		  = timeStart + timeRange;
+		loadedPixelLength = pixelLength;
+		timeShift 		  = 0;
 	}
 	
 	private long getNumberOfRecords(long start, long end)
@@ -387,14 +580,6 @@ public class TraceDataByRank implements ITraceDataCollector
 	 ********************************************************************************************/
 	private void postProcess()
 	{
-		int len = listcpid.size();
-		for(int i = 0; i < len-2; i++)
-		{
-			while(i < len-1 && listcpid.get(i).timestamp==(listcpid.get(i+1).timestamp))
-			{
-				listcpid.remove(i+1);
-				len--;
-			}
-		}
+		samples.removeDuplicateTimes();
 	}
 }
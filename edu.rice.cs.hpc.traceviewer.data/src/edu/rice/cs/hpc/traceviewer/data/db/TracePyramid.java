@@ -0,0 +1,638 @@
+package edu.rice.cs.hpc.traceviewer.data.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
+import edu.rice.cs.hpc.data.util.Constants;
+
+/*******************************************************************************
+ *
+ * Multi-resolution summary of a trace file for zoomed-out rendering.<br/>
+ * The whole time range of the database is divided into {@link #NUM_BUCKETS}
+ * buckets, and for each rank we store the dominant call path (the one which
+ * covers the most time) of each bucket. Coarser levels are derived from the
+ * finest one by halving the number of buckets at each level.
+ * <p>
+ * The finest level is stored in a sidecar file next to the trace file, and is
+ * built by a low priority background thread (see {@link #startBuilder()}).
+ * Once a rank has been built, a timeline whose pixel is larger than a bucket
+ * can be served from the summary without touching the trace file.
+ * The builder is paused while a view is painted (see {@link #pauseBuilder()})
+ * so that it doesn't compete with the painting threads to read the trace file.
+ * </p>
+ * File format of the sidecar:
+ * <pre>
+ *  int  magic, int version, int num_buckets, int num_ranks
+ *  long min time, long max time
+ *  long trace file length, long trace file modification time
+ *  byte flags [num_ranks] (padded to 8 bytes): 1 if the rank has been built
+ *  num_ranks x int cpid [num_buckets]
+ * </pre>
+ *
+ *******************************************************************************/
+public class TracePyramid
+{
+	/** the number of buckets of the finest level */
+	final static public int NUM_BUCKETS = 4096;
+	/** the number of buckets of the coarsest level */
+	final static private int MIN_BUCKETS = 64;
+
+	final static public String PYRAMID_EXTENSION = ".pyr";
+
+	final static private int MAGIC   = 0x54505952; // "TPYR"
+	final static private int VERSION = 1;
+	final static private int HEADER_SIZE = 4 * Constants.SIZEOF_INT + 4 * Constants.SIZEOF_LONG;
+	final static private int RANK_SIZE   = NUM_BUCKETS * Constants.SIZEOF_INT;
+	/** the number of levels, from the finest to the coarsest one */
+	final static private int NUM_LEVELS  = Integer.numberOfTrailingZeros(NUM_BUCKETS / MIN_BUCKETS) + 1;
+	/** the maximum number of ranks whose levels are kept in memory */
+	final static private int MAX_CACHED_RANKS = 1024;
+
+	/** cpid of a bucket which has no sample */
+	final static private int NO_DATA = -1;
+
+	final private IFileDB fileDB;
+	final private int recordSize;
+	final private long timeMin, timeMax;
+	final private double bucketSize;
+
+	final private File traceFile;
+	final private File pyramidFile;
+
+	private RandomAccessFile file;
+	private volatile FileChannel channel;
+	/** the readers and the builder use the channel under the read lock, closing it needs the write lock */
+	final private ReadWriteLock channelLock = new ReentrantReadWriteLock();
+	private boolean writable;
+	private int numRanks;
+	private long dataStart;
+
+	/** flag per rank whether the rank has been built or not */
+	private boolean []built;
+
+	private Thread builder;
+	private volatile boolean stopped = false;
+
+	/** the number of views being painted. The builder waits until it's zero */
+	private int numPaused = 0;
+	final private Object pauseLock = new Object();
+
+	/** the decoded levels of the last used ranks, indexed by level */
+	final private Map<Integer, int[][]> cache = new LinkedHashMap<Integer, int[][]>(
+			MAX_CACHED_RANKS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, int[][]> eldest) {
+			return size() > MAX_CACHED_RANKS;
+		}
+	};
+
+	/** buffer to read the finest level of a rank, one per painting thread */
+	final private ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(RANK_SIZE);
+		}
+	};
+
+	/****
+	 * Create or open the summary of a trace file.
+	 *
+	 * @param fileDB : the opened trace file
+	 * @param traceFilename : the absolute path of the trace file
+	 * @param recordSize : the size of a trace record
+	 * @param timeMin : the minimum time of the database
+	 * @param timeMax : the maximum time of the database
+	 */
+	public TracePyramid(IFileDB fileDB, String traceFilename, int recordSize, long timeMin, long timeMax)
+	{
+		this.fileDB 	= fileDB;
+		this.recordSize = recordSize;
+		this.timeMin	= timeMin;
+		this.timeMax 	= timeMax;
+		this.bucketSize = (double)(timeMax - timeMin) / NUM_BUCKETS;
+
+		this.traceFile 	 = new File(traceFilename);
+		this.pyramidFile = new File(traceFilename + PYRAMID_EXTENSION);
+		this.numRanks 	 = fileDB.getNumberOfRanks();
+
+		try {
+			openFile();
+		} catch (IOException e) {
+			// the summary is only an optimization: we can fall back to the trace file
+			System.err.println("Warning: unable to open " + pyramidFile + ": " + e.getMessage());
+			closeFile();
+		}
+	}
+
+
+	/****
+	 * Start building the summary of ranks which haven't been built yet
+	 * in a low priority background thread.
+	 */
+	public void startBuilder()
+	{
+		if (channel == null || !writable || builder != null)
+			return;
+
+		builder = new Thread("Trace summary builder") {
+			public void run() {
+				try {
+					for (int rank=0; rank<numRanks && !stopped; rank++) {
+						if (!isBuilt(rank))
+							build(rank);
+					}
+				} catch (IOException e) {
+					System.err.println("Warning: unable to build " + pyramidFile + ": " + e.getMessage());
+				}
+			}
+		};
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+
+
+	/*********************************************************************
+	 * Fill the list of samples of a rank from the summary if the pixel is
+	 * at least as large as the bucket of the finest level.
+	 * The samples include one bucket before the start time and one bucket after
+	 * the end time (if they exist) in the same way as reading the trace file.
+	 *
+	 * @param rank : the rank in the trace file (not the filtered rank)
+	 * @param timeStart : the start time
+	 * @param timeRange : the time range
+	 * @param pixelLength : the time length of a pixel
+	 * @param samples : the buffer of samples to be filled
+	 *
+	 * @return true if the samples have been filled, false if the summary
+	 * 	cannot be used. In this case, the buffer is not modified.
+	 *
+	 * @throws IOException
+	 *********************************************************************/
+	public boolean fill(int rank, long timeStart, long timeRange, double pixelLength,
+			SampleBuffer samples) throws IOException
+	{
+		final int level = getLevel(pixelLength);
+		if (level < 0 || !isBuilt(rank))
+			return false;
+
+		final int []cpids = getLevel(rank, level);
+		if (cpids == null)
+			return false;
+
+		final double levelSize = bucketSize * (1 << level);
+
+		final int first = Math.max(0, (int) Math.floor((timeStart - timeMin) / levelSize));
+		final int last  = Math.min(cpids.length - 1,
+				(int) Math.ceil((timeStart + timeRange - timeMin) / levelSize));
+
+		for (int i=first; i<=last; i++) {
+			if (cpids[i] != NO_DATA) {
+				final long time = timeMin + (long) (i * levelSize);
+				samples.add(time, cpids[i]);
+			}
+		}
+		return true;
+	}
+
+	/****
+	 * Pause the background builder until {@link #resumeBuilder()} is called.
+	 * The calls can be nested, for instance when several views are painted
+	 * at the same time.
+	 */
+	public void pauseBuilder()
+	{
+		synchronized (pauseLock) {
+			numPaused++;
+		}
+	}
+
+	/****
+	 * Resume the background builder paused by {@link #pauseBuilder()}
+	 */
+	public void resumeBuilder()
+	{
+		synchronized (pauseLock) {
+			if (numPaused > 0)
+				numPaused--;
+			pauseLock.notifyAll();
+		}
+	}
+
+	/****
+	 * Disposing resources. The background builder will be stopped.
+	 * The caller needs to call this method before disposing the trace file.
+	 */
+	public void dispose()
+	{
+		synchronized (pauseLock) {
+			stopped = true;
+			pauseLock.notifyAll();
+		}
+		if (builder != null) {
+			try {
+				builder.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			builder = null;
+		}
+		closeFile();
+	}
+
+	// --------------------------------------------------------------------
+	// Private methods
+	// --------------------------------------------------------------------
+
+	/****
+	 * get the coarsest level whose bucket is not larger than the pixel
+	 *
+	 * @param pixelLength
+	 * @return the level, or negative if no level is usable
+	 */
+	private int getLevel(double pixelLength)
+	{
+		if (channel == null || bucketSize <= 0 || pixelLength < bucketSize)
+			return -1;
+
+		int level = 0;
+		while ( (NUM_BUCKETS >> (level+1)) >= MIN_BUCKETS &&
+				bucketSize * (1 << (level+1)) <= pixelLength )
+		{
+			level++;
+		}
+		return level;
+	}
+
+	/***
+	 * get a level of a rank. The levels are decoded once and kept in the cache
+	 * as long as the rank is used.
+	 *
+	 * @param rank
+	 * @param level
+	 * @return the dominant cpid of each bucket, null if the file has been closed
+	 * @throws IOException
+	 */
+	private int[] getLevel(int rank, int level) throws IOException
+	{
+		final Integer key = Integer.valueOf(rank);
+		int [][]levels;
+		synchronized (cache) {
+			levels = cache.get(key);
+		}
+		if (levels == null)
+		{
+			final int []finest = read(rank);
+			if (finest == null)
+				return null;
+
+			levels = new int[NUM_LEVELS][];
+			levels[0] = finest;
+			synchronized (cache) {
+				// another thread may have read the same rank at the same time
+				final int [][]existing = cache.get(key);
+				if (existing != null)
+					levels = existing;
+				else
+					cache.put(key, levels);
+			}
+		}
+		synchronized (levels) {
+			if (levels[level] == null)
+				levels[level] = getLevel(levels[0], level);
+			return levels[level];
+		}
+	}
+
+	/***
+	 * compute a coarser level from the finest level. The cpid of a bucket is the
+	 * most frequent dominant cpid of the finer buckets.
+	 *
+	 * @param finest
+	 * @param level
+	 * @return
+	 */
+	static private int[] getLevel(int []finest, int level)
+	{
+		final int width  = 1 << level;
+		final int []cpids = new int[finest.length >> level];
+		final Accumulator acc = new Accumulator();
+
+		for (int i=0; i<cpids.length; i++) {
+			acc.reset();
+			for (int j=i*width; j<(i+1)*width; j++) {
+				if (finest[j] != NO_DATA)
+					acc.add(finest[j], 1);
+			}
+			cpids[i] = acc.getDominant();
+		}
+		return cpids;
+	}
+
+	/****
+	 * build the finest level of a rank by reading all its records, and store it to the file.
+	 *
+	 * @param rank
+	 * @throws IOException
+	 */
+	private void build(int rank) throws IOException
+	{
+		final int []cpids = new int[NUM_BUCKETS];
+		for (int i=0; i<NUM_BUCKETS; i++)
+			cpids[i] = NO_DATA;
+
+		final long minloc = fileDB.getMinLoc(rank);
+		final long maxloc = fileDB.getMaxLoc(rank);
+
+		if (maxloc >= minloc)
+		{
+			final Accumulator acc = new Accumulator();
+			int current_bucket = -1;
+
+			long time = fileDB.getLong(minloc);
+			int cpid  = fileDB.getInt(minloc + Constants.SIZEOF_LONG);
+
+			for (long loc = minloc; loc <= maxloc && !stopped; loc += recordSize)
+			{
+				waitWhilePaused();
+
+				// the time spent by a record is until the next record
+				final boolean is_last  = loc + recordSize > maxloc;
+				final long next_time = is_last ? time : fileDB.getLong(loc + recordSize);
+				final int next_cpid  = is_last ? cpid : fileDB.getInt(loc + recordSize + Constants.SIZEOF_LONG);
+
+				final int first_bucket = getBucket(time);
+				final int last_bucket  = getBucket(next_time);
+
+				for (int bucket = first_bucket; bucket <= last_bucket; bucket++)
+				{
+					if (bucket != current_bucket) {
+						if (current_bucket >= 0)
+							cpids[current_bucket] = acc.getDominant();
+						acc.reset();
+						current_bucket = bucket;
+					}
+					final long start = Math.max(time, timeMin + (long) (bucket * bucketSize));
+					final long end   = Math.min(next_time, timeMin + (long) ((bucket+1) * bucketSize));
+
+					// a point sample (like the last one) still counts
+					acc.add(cpid, Math.max(1, end - start));
+				}
+				time = next_time;
+				cpid = next_cpid;
+			}
+			if (stopped)
+				return;
+
+			if (current_bucket >= 0)
+				cpids[current_bucket] = acc.getDominant();
+		}
+		write(rank, cpids);
+	}
+
+	/****
+	 * wait until no view is being painted, or the builder is stopped
+	 */
+	private void waitWhilePaused()
+	{
+		synchronized (pauseLock) {
+			while (numPaused > 0 && !stopped) {
+				try {
+					pauseLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stopped = true;
+				}
+			}
+		}
+	}
+
+	private int getBucket(long time)
+	{
+		final int bucket = (int) ((time - timeMin) / bucketSize);
+		return Math.max(0, Math.min(NUM_BUCKETS - 1, bucket));
+	}
+
+	private synchronized boolean isBuilt(int rank)
+	{
+		return built != null && built[rank];
+	}
+
+	/***
+	 * read the finest level of a rank from the file
+	 * 
+	 * @param rank
+	 * @return the dominant cpid of each bucket, null if the file has been closed
+	 * @throws IOException
+	 */
+	private int[] read(int rank) throws IOException
+	{
+		final ByteBuffer buffer = readBuffer.get();
+		buffer.clear();
+
+		channelLock.readLock().lock();
+		try {
+			final FileChannel input = channel;
+			if (input == null)
+				return null;
+
+			final long position = dataStart + (long)rank * RANK_SIZE;
+			while (buffer.hasRemaining()) {
+				if (input.read(buffer, position + buffer.position()) < 0)
+					throw new IOException("Unexpected end of file: " + pyramidFile);
+			}
+		} finally {
+			channelLock.readLock().unlock();
+		}
+		buffer.flip();
+
+		int []cpids = new int[NUM_BUCKETS];
+		buffer.asIntBuffer().get(cpids);
+		return cpids;
+	}
+
+	private void write(int rank, int []cpids) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(RANK_SIZE);
+		IntBuffer intBuffer = buffer.asIntBuffer();
+		intBuffer.put(cpids);
+
+		channelLock.readLock().lock();
+		try {
+			final FileChannel output = channel;
+			if (output == null)
+				return;
+
+			final long position = dataStart + (long)rank * RANK_SIZE;
+			while (buffer.hasRemaining()) {
+				output.write(buffer, position + buffer.position());
+			}
+			// set the flag once the data has been written
+			output.write(ByteBuffer.wrap(new byte[] {1}), HEADER_SIZE + rank);
+		} finally {
+			channelLock.readLock().unlock();
+		}
+
+		synchronized (this) {
+			if (built != null)
+				built[rank] = true;
+		}
+	}
+
+	/****
+	 * open the sidecar file. If the file doesn't exist or it's out of date,
+	 * a new one will be created if the directory is writable.
+	 *
+	 * @throws IOException
+	 */
+	private void openFile() throws IOException
+	{
+		final int flagSize = (numRanks + 7) & ~7;
+		dataStart = HEADER_SIZE + flagSize;
+
+		if (pyramidFile.canRead()) {
+			writable = pyramidFile.canWrite();
+			file = new RandomAccessFile(pyramidFile, writable ? "rw" : "r");
+
+			if (isHeaderCorrect()) {
+				channel = file.getChannel();
+				built = new boolean[numRanks];
+
+				ByteBuffer flags = ByteBuffer.allocate(numRanks);
+				while (flags.hasRemaining()) {
+					if (channel.read(flags, HEADER_SIZE + flags.position()) < 0)
+						throw new IOException("Unexpected end of file: " + pyramidFile);
+				}
+				for (int i=0; i<numRanks; i++) {
+					built[i] = flags.get(i) != 0;
+				}
+				return;
+			}
+			closeFile();
+
+			if (!writable || !pyramidFile.delete())
+				return;
+		}
+		final File directory = pyramidFile.getAbsoluteFile().getParentFile();
+		if (directory == null || !directory.canWrite())
+			return;
+
+		// create a new empty summary
+		writable = true;
+		file = new RandomAccessFile(pyramidFile, "rw");
+		file.writeInt(MAGIC);
+		file.writeInt(VERSION);
+		file.writeInt(NUM_BUCKETS);
+		file.writeInt(numRanks);
+		file.writeLong(timeMin);
+		file.writeLong(timeMax);
+		file.writeLong(traceFile.length());
+		file.writeLong(traceFile.lastModified());
+		file.write(new byte[flagSize]);
+
+		channel = file.getChannel();
+		built   = new boolean[numRanks];
+	}
+
+	private boolean isHeaderCorrect() throws IOException
+	{
+		if (file.length() < dataStart)
+			return false;
+
+		return  file.readInt()  == MAGIC 		&&
+				file.readInt()  == VERSION 		&&
+				file.readInt()  == NUM_BUCKETS 	&&
+				file.readInt()  == numRanks 	&&
+				file.readLong() == timeMin 		&&
+				file.readLong() == timeMax		&&
+				file.readLong() == traceFile.length() &&
+				file.readLong() == traceFile.lastModified();
+	}
+
+	private void closeFile()
+	{
+		// wait until the readers finish before closing the channel
+		channelLock.writeLock().lock();
+		try {
+			channel = null;
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			file = null;
+		} finally {
+			channelLock.writeLock().unlock();
+		}
+		synchronized (this) {
+			built = null;
+		}
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+
+	/*******************************************************************
+	 *
+	 * Accumulate the weight of each cpid in a bucket to find the dominant one.
+	 * The number of distinct cpids in a bucket is usually small, so a linear
+	 * search is good enough.
+	 *
+	 *******************************************************************/
+	static private class Accumulator
+	{
+		private int  []cpids   = new int[16];
+		private long []weights = new long[16];
+		private int size = 0;
+
+		void reset() {
+			size = 0;
+		}
+
+		void add(int cpid, long weight) {
+			for (int i=0; i<size; i++) {
+				if (cpids[i] == cpid) {
+					weights[i] += weight;
+					return;
+				}
+			}
+			if (size == cpids.length) {
+				int  []newCpids   = new int[size * 2];
+				long []newWeights = new long[size * 2];
+				System.arraycopy(cpids, 0, newCpids, 0, size);
+				System.arraycopy(weights, 0, newWeights, 0, size);
+				cpids 	= newCpids;
+				weights = newWeights;
+			}
+			cpids[size]   = cpid;
+			weights[size] = weight;
+			size++;
+		}
+
+		int getDominant() {
+			int dominant = NO_DATA;
+			long max = -1;
+			for (int i=0; i<size; i++) {
+				if (weights[i] > max) {
+					max = weights[i];
+					dominant = cpids[i];
+				}
+			}
+			return dominant;
+		}
+	}
+}
@@ -0,0 +1,425 @@
+package edu.rice.cs.hpc.traceviewer.data.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
+import edu.rice.cs.hpc.data.util.Constants;
+import edu.rice.cs.hpc.data.util.LargeByteBuffer;
+
+/*******************************************************************************
+ *
+ * Sparse time index of a trace file (experiment.mt or trace.db).<br/>
+ * For each rank, the index keeps the time stamp of every {@link #STRIDE}-th
+ * record, so that a time lookup only needs to search inside one stride
+ * instead of the whole rank.
+ * <p>
+ * The index of a rank is built by a low priority background thread (see
+ * {@link #startBuilder()}), never during a lookup: until a rank is indexed,
+ * {@link #narrow(int, long, long[])} leaves the interval unchanged and the
+ * caller searches the whole interval as before. The builder is paused while
+ * a view is painted (see {@link #pauseBuilder()}).
+ * All the built ranks are stored in a sidecar file next to the trace file
+ * (see {@link #save()}) so that the next session doesn't need to rebuild them.
+ * The sidecar file is ignored if the trace file has been modified since.
+ * </p>
+ * File format of the sidecar:
+ * <pre>
+ *  int  magic, int version, int stride, int num_ranks
+ *  long trace file length, long trace file modification time
+ *  num_ranks x { long position, long num_entries }
+ *  list of time stamps (long)
+ * </pre>
+ *
+ *******************************************************************************/
+public class TraceTimeIndex
+{
+	/** number of records between two index entries */
+	final static public int STRIDE = 4096;
+
+	final static public String INDEX_EXTENSION = ".idx";
+
+	final static private int MAGIC   = 0x54494458; // "TIDX"
+	final static private int VERSION = 1;
+	final static private int HEADER_SIZE = 4 * Constants.SIZEOF_INT + 2 * Constants.SIZEOF_LONG;
+	// all fields are 8-byte aligned so that a long never crosses a page of the mapped buffer
+	final static private int ENTRY_SIZE  = Constants.SIZEOF_LONG + Constants.SIZEOF_LONG;
+
+	final private IFileDB fileDB;
+	final private int recordSize;
+	final private File traceFile;
+	final private File indexFile;
+
+	/** in-memory index per rank. A null entry means the rank hasn't been indexed yet */
+	final private AtomicReferenceArray<long[]> times;
+
+	/** the sidecar file from the previous session, null if it doesn't exist or out of date */
+	private RandomAccessFile indexInput;
+	private LargeByteBuffer indexBuffer;
+
+	private volatile boolean dirty = false;
+
+	private Thread builder;
+	private volatile boolean stopped = false;
+
+	/** the number of views being painted. The builder waits until it's zero */
+	private int numPaused = 0;
+	final private Object pauseLock = new Object();
+
+	/****
+	 * Create an index of a trace file. If there is a valid index file from
+	 * the previous session, it will be used.
+	 *
+	 * @param fileDB : the opened trace file
+	 * @param traceFilename : the absolute path of the trace file
+	 * @param recordSize : the size of a trace record
+	 */
+	public TraceTimeIndex(IFileDB fileDB, String traceFilename, int recordSize)
+	{
+		this.fileDB 	= fileDB;
+		this.recordSize = recordSize;
+		this.traceFile  = new File(traceFilename);
+		this.indexFile  = new File(traceFilename + INDEX_EXTENSION);
+		this.times		= new AtomicReferenceArray<long[]>(fileDB.getNumberOfRanks());
+
+		try {
+			openIndexFile();
+		} catch (IOException e) {
+			// the index file is only an optimization: we can rebuild it
+			System.err.println("Warning: unable to read " + indexFile + ": " + e.getMessage());
+			closeIndexFile();
+		}
+	}
+
+
+	/****
+	 * Start indexing the ranks which are not in the sidecar file
+	 * in a low priority background thread.
+	 */
+	public synchronized void startBuilder()
+	{
+		if (builder != null || stopped)
+			return;
+
+		builder = new Thread("Trace time index builder") {
+			public void run() {
+				try {
+					for (int rank=0; rank<times.length() && !stopped; rank++) {
+						if (getTimesIfExist(rank) == null) {
+							final long []rank_times = build(rank);
+							if (rank_times != null) {
+								times.set(rank, rank_times);
+								dirty = true;
+							}
+						}
+					}
+				} catch (IOException e) {
+					System.err.println("Warning: unable to build " + indexFile + ": " + e.getMessage());
+				}
+			}
+		};
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+
+
+	/****
+	 * Pause the background builder until {@link #resumeBuilder()} is called.
+	 * The calls can be nested.
+	 */
+	public void pauseBuilder()
+	{
+		synchronized (pauseLock) {
+			numPaused++;
+		}
+	}
+
+	/****
+	 * Resume the background builder paused by {@link #pauseBuilder()}
+	 */
+	public void resumeBuilder()
+	{
+		synchronized (pauseLock) {
+			if (numPaused > 0)
+				numPaused--;
+			pauseLock.notifyAll();
+		}
+	}
+
+
+	/*********************************************************************
+	 * Narrow down an interval to search a time in a rank.
+	 * The new interval is always within the given interval.
+	 * If the rank hasn't been indexed yet, the interval is not modified.
+	 *
+	 * @param rank : the rank in the trace file (not the filtered rank)
+	 * @param time : the time to search
+	 * @param bounds : [left location, right location] of the interval.
+	 * 			The array will be modified with the new interval.
+	 *
+	 * @throws IOException
+	 *********************************************************************/
+	public void narrow(int rank, long time, long []bounds) throws IOException
+	{
+		final long []rank_times = getTimesIfExist(rank);
+		if (rank_times == null || rank_times.length == 0)
+			return;
+
+		// binary search for the last entry whose time is less or equal than the requested time
+		int low = 0, high = rank_times.length - 1;
+		int entry = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (rank_times[mid] <= time) {
+				entry = mid;
+				low   = mid + 1;
+			} else {
+				high  = mid - 1;
+			}
+		}
+		final long minloc = fileDB.getMinLoc(rank);
+		final long strideSize = (long)STRIDE * recordSize;
+
+		long left  = bounds[0];
+		long right = bounds[1];
+
+		if (entry >= 0)
+			left = Math.max(left, minloc + entry * strideSize);
+		if (entry + 1 < rank_times.length)
+			right = Math.min(right, minloc + (entry + 1) * strideSize);
+
+		// the requested time is outside the given interval
+		if (left > bounds[1])
+			left = bounds[1];
+		if (right < left)
+			right = left;
+
+		bounds[0] = left;
+		bounds[1] = right;
+	}
+
+	/***
+	 * Store the index into the sidecar file if there are new indexed ranks.
+	 * The background builder is stopped first: the ranks which are not
+	 * indexed yet will be built in the next session.
+	 * The caller needs to call this method before disposing the trace file.
+	 */
+	public void save()
+	{
+		stopBuilder();
+		if (!dirty)
+			return;
+
+		final File tmpFile = new File(indexFile.getAbsolutePath() + ".tmp");
+		try {
+			final int num_ranks = times.length();
+			long [][]entries    = new long[num_ranks][];
+			for (int i=0; i<num_ranks; i++) {
+				entries[i] = getTimesIfExist(i);
+			}
+			DataOutputStream dos = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(STRIDE);
+			dos.writeInt(num_ranks);
+			dos.writeLong(traceFile.length());
+			dos.writeLong(traceFile.lastModified());
+
+			long position = HEADER_SIZE + (long)num_ranks * ENTRY_SIZE;
+			for (int i=0; i<num_ranks; i++) {
+				final int count = (entries[i] == null ? 0 : entries[i].length);
+				dos.writeLong(position);
+				dos.writeLong(count);
+				position += (long)count * Constants.SIZEOF_LONG;
+			}
+			for (long []entry: entries) {
+				if (entry != null) {
+					for (long t: entry) {
+						dos.writeLong(t);
+					}
+				}
+			}
+			dos.close();
+
+			closeIndexFile();
+			if ( (!indexFile.exists() || indexFile.delete()) && tmpFile.renameTo(indexFile) )
+				dirty = false;
+
+		} catch (IOException e) {
+			// the directory is probably read-only. It isn't fatal
+			System.err.println("Warning: unable to write " + indexFile + ": " + e.getMessage());
+			tmpFile.delete();
+		}
+	}
+
+	/***
+	 * Disposing resources. The background builder will be stopped.
+	 * The caller needs to call this method before disposing the trace file.
+	 */
+	public void dispose()
+	{
+		stopBuilder();
+		closeIndexFile();
+	}
+
+	// --------------------------------------------------------------------
+	// Private methods
+	// --------------------------------------------------------------------
+
+	/****
+	 * stop the background builder and wait until it finishes reading the trace file
+	 */
+	private void stopBuilder()
+	{
+		final Thread thread;
+		synchronized (this) {
+			stopped = true;
+			thread  = builder;
+			builder = null;
+		}
+		synchronized (pauseLock) {
+			pauseLock.notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private long[] getTimesIfExist(int rank) throws IOException
+	{
+		long []rank_times = times.get(rank);
+		if (rank_times == null)
+		{
+			rank_times = read(rank);
+			if (rank_times != null)
+				times.set(rank, rank_times);
+		}
+		return rank_times;
+	}
+
+	/***
+	 * build the index of a rank by reading the time of every STRIDE records
+	 *
+	 * @param rank
+	 * @return the index, or null if the builder has been stopped
+	 * @throws IOException
+	 */
+	private long[] build(int rank) throws IOException
+	{
+		final long minloc = fileDB.getMinLoc(rank);
+		final long maxloc = fileDB.getMaxLoc(rank);
+		if (maxloc < minloc)
+			return new long[0];
+
+		final long num_records = (maxloc - minloc) / recordSize + 1;
+		final int count = (int) ((num_records + STRIDE - 1) / STRIDE);
+		final long strideSize = (long)STRIDE * recordSize;
+
+		long []rank_times = new long[count];
+		for (int i=0; i<count; i++) {
+			waitWhilePaused();
+			if (stopped)
+				return null;
+			rank_times[i] = fileDB.getLong(minloc + i * strideSize);
+		}
+		return rank_times;
+	}
+
+	/****
+	 * wait until no view is being painted, or the builder is stopped
+	 */
+	private void waitWhilePaused()
+	{
+		synchronized (pauseLock) {
+			while (numPaused > 0 && !stopped) {
+				try {
+					pauseLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stopped = true;
+				}
+			}
+		}
+	}
+
+	/***
+	 * read the index of a rank from the sidecar file
+	 *
+	 * @param rank
+	 * @return the index, or null if the rank is not in the file
+	 * @throws IOException
+	 */
+	private synchronized long[] read(int rank) throws IOException
+	{
+		if (indexBuffer == null)
+			return null;
+
+		final long entry = HEADER_SIZE + (long)rank * ENTRY_SIZE;
+		final long position = indexBuffer.getLong(entry);
+		final int count 	= (int) indexBuffer.getLong(entry + Constants.SIZEOF_LONG);
+		if (count <= 0)
+			return null;
+
+		long []rank_times = new long[count];
+		for (int i=0; i<count; i++) {
+			rank_times[i] = indexBuffer.getLong(position + (long)i * Constants.SIZEOF_LONG);
+		}
+		return rank_times;
+	}
+
+	private void openIndexFile() throws IOException
+	{
+		if (!indexFile.canRead())
+			return;
+
+		indexInput  = new RandomAccessFile(indexFile, "r");
+		if (indexInput.length() < HEADER_SIZE) {
+			closeIndexFile();
+			return;
+		}
+		final int magic 	= indexInput.readInt();
+		final int version 	= indexInput.readInt();
+		final int stride 	= indexInput.readInt();
+		final int num_ranks = indexInput.readInt();
+		final long length 	= indexInput.readLong();
+		final long modified = indexInput.readLong();
+
+		if (magic != MAGIC || version != VERSION || stride != STRIDE || num_ranks != times.length()
+				|| length != traceFile.length() || modified != traceFile.lastModified())
+		{
+			// out of date index file
+			closeIndexFile();
+			return;
+		}
+		indexBuffer = new LargeByteBuffer(indexInput.getChannel(), Constants.SIZEOF_LONG, Constants.SIZEOF_LONG);
+	}
+
+	private synchronized void closeIndexFile()
+	{
+		if (indexBuffer != null) {
+			// this will close the channel too
+			indexBuffer.dispose();
+			indexBuffer = null;
+		}
+		if (indexInput != null) {
+			try {
+				indexInput.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			indexInput = null;
+		}
+	}
+}
@@ -15,6 +15,9 @@ public class CallPath
 	/**the depth of leafScope (where current cpid is)*/
 	private int maxDepth;
 	
+	/**procedure ids (see ColorTable) of the scopes along the path, indexed by depth*/
+	private int []procIds;
+	
 	/**A null function*/
 	public static final String NULL_FUNCTION = "-Outside Timeline-";
 	
@@ -29,6 +32,18 @@ public class CallPath
 		this(_leafScope, _maxDepth, null, _maxDepth);
 	}
 	
+	/**
+	 * Creates a call path with the precomputed procedure ids
+	 * @param _leafScope
+	 * @param _maxDepth
+	 * @param _procIds : procedure id of {@link #getScopeAt(int)} for each depth
+	 */
+	public CallPath(Scope _leafScope, int _maxDepth, int []_procIds)
+	{
+		this(_leafScope, _maxDepth);
+		procIds = _procIds;
+	}
+	
 	/**returns the scope at the given depth that's along the path between the root scope and the leafScope*/
 	public Scope getScopeAt(int depth)
 	{
@@ -52,6 +67,20 @@ public class CallPath
 	}
 	
 	
+	/*************************************
+	 * returns the procedure id of the scope at the given depth, 
+	 * without walking the path.<br/>
+	 * Warning: the depth has to be positive, and the ids have to be
+	 * 	provided in the constructor.
+	 * 
+	 * @param depth
+	 * @return the procedure id, to be used with ColorTable
+	 *************************************/
+	public int getProcedureIdAt(int depth)
+	{
+		return procIds[Math.min(depth, procIds.length-1)];
+	}
+	
 	/*************************************
 	 * retrieve the list of function names of this call path
 	 * 
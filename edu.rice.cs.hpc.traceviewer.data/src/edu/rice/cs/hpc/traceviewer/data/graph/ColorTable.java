@@ -28,28 +28,49 @@ public class ColorTable implements IProcedureTable
 	// data members
 	HashMap<String, ColorImagePair> colorMatcher;
 	
-	/**All of the function names stored in this colorTable.*/
+	/**All of the function names stored in this colorTable.
+	 * The index of a name is its procedure id*/
 	ArrayList<String> procNames;
 	
-	/**The display this ColorTable uses to generate the random colors.*/
+	/**map from a function name to its procedure id*/
+	HashMap<String, Integer> procIds;
+	
+	/**colors indexed by procedure id, to avoid hashing the name in the painting loop*/
+	private Color []colors;
+	
+	/**colors in 0xRRGGBB format indexed by procedure id. Available without display*/
+	private int []rgbs;
+	
+	/**The display this ColorTable uses to generate the random colors.
+	 * Null if the table is used without display: only the RGB values are available*/
 	Display display;
 	
 	private ProcedureClassMap classMap;
 	
-	/**Creates a new ColorTable with Display _display.*/
+	/**Creates a new ColorTable with the display of the active shell.*/
 	public ColorTable()
+	{
+		this(Util.getActiveShell().getDisplay());
+	}
+	
+	/**Creates a new ColorTable with Display _display.
+	 * If the display is null (like in batch mode), no color nor image is created, 
+	 * and the colors are only available with {@link #getRGB(int)}*/
+	public ColorTable(Display display)
 	{
 		procNames = new ArrayList<String>();
+		procIds   = new HashMap<String, Integer>();
 		// Initializes the CSS that represents time values outside of the
 		// time-line.
-		procNames.add(CallPath.NULL_FUNCTION);
+		addProcedure(CallPath.NULL_FUNCTION);
 		
-		display = Util.getActiveShell().getDisplay();
+		this.display = display;
 		
 		// create our own white color so we can dispose later, instead of disposing
 		//	Eclipse's white color
-		final RGB rgb_white = display.getSystemColor(SWT.COLOR_WHITE).getRGB();
-		IMAGE_WHITE = new ColorImagePair( new Color(display, rgb_white));
+		final RGB rgb_white = (display == null ? new RGB(255, 255, 255) : 
+			display.getSystemColor(SWT.COLOR_WHITE).getRGB());
+		IMAGE_WHITE = new ColorImagePair(rgb_white);
 	}
 	
 	/**
@@ -72,6 +93,60 @@ public class ColorTable implements IProcedureTable
 		return colorMatcher.get(name).getColor();
 	}
 	
+	/**
+	 * Returns the color of a procedure id (see {@link #getProcedureId(String)}).
+	 * This is the fast version of {@link #getColor(String)} for the painting loop.
+	 * @param procId
+	 * @return
+	 */
+	public Color getColor(int procId)
+	{
+		return colors[procId];
+	}
+	
+	/**
+	 * Returns the color of a procedure id in 0xRRGGBB format. 
+	 * Two procedures have the same color if and only if they have the same RGB value.
+	 * @param procId
+	 * @return
+	 */
+	public int getRGB(int procId)
+	{
+		return rgbs[procId];
+	}
+	
+	/**
+	 * Returns the procedure id of a function name. The id is stable
+	 * 	as long as the experiment is opened, even if the colors are changed.
+	 * @param name
+	 * @return the id, or -1 if the name is not in the table
+	 */
+	public int getProcedureId(String name)
+	{
+		final Integer id = procIds.get(name);
+		return (id == null ? -1 : id.intValue());
+	}
+	
+	/**
+	 * Returns the function name of a procedure id
+	 * @param procId
+	 * @return
+	 */
+	public String getProcedureName(int procId)
+	{
+		return procNames.get(procId);
+	}
+	
+	/**
+	 * Returns the number of procedures having a color. The procedure ids
+	 * 	are between 0 and this number (excluded)
+	 * @return
+	 */
+	public int getNumProcedures()
+	{
+		return rgbs.length;
+	}
+	
 	/**
 	 * returns the image that corresponds to the name's class
 	 * @param name
@@ -100,8 +175,14 @@ public class ColorTable implements IProcedureTable
 			oldValue.dispose();
 		}
 		// create new value
-		final ColorImagePair newValue = new ColorImagePair(new Color(display,rgb));
+		final ColorImagePair newValue = new ColorImagePair(rgb);
 		colorMatcher.put(name, newValue);
+		
+		final int id = getProcedureId(name);
+		if (id >= 0) {
+			colors[id] = newValue.getColor();
+			rgbs[id]   = newValue.getRGB();
+		}
 	}
 	
 	/*********************************************************************
@@ -133,14 +214,20 @@ public class ColorTable implements IProcedureTable
 					if (!colorMatcher.containsKey(procName)) {
 						
 						RGB rgb = getProcedureColor( procName, cmin, cmax, r );
-						Color c = new Color(display, rgb);
-						colorMatcher.put(procName, new ColorImagePair(c));
+						colorMatcher.put(procName, new ColorImagePair(rgb));
 					}
 				} else {
 					colorMatcher.put(procName, IMAGE_WHITE);
 				}
 			}
 		}
+		colors = new Color[procNames.size()];
+		rgbs   = new int[procNames.size()];
+		for (int l=0; l<colors.length; l++) {
+			final ColorImagePair pair = colorMatcher.get(procNames.get(l));
+			colors[l] = pair.getColor();
+			rgbs[l]   = pair.getRGB();
+		}
 	}
 	
 	/************************************************************************
@@ -151,8 +238,10 @@ public class ColorTable implements IProcedureTable
 	 ************************************************************************/
 	public void addProcedure(String name)
 	{
-		if(!procNames.contains(name))
+		if(!procIds.containsKey(name)) {
+			procIds.put(name, procNames.size());
 			procNames.add(name);
+		}
 	}
 	
 	
@@ -203,15 +292,19 @@ public class ColorTable implements IProcedureTable
 	private class ColorImagePair {
 		private Color color;
 		private Image image;
+		final private int rgb;
 		
 		/****
-		 * create a color-image pair
-		 * @param color c
+		 * create a color-image pair. Without display, only the RGB value is stored
+		 * @param rgb
 		 */
-		ColorImagePair(Color c) {
-			// create an empty image filled with color c
-			image = ColorTable.createImage(display, c.getRGB());
-			color = c;
+		ColorImagePair(RGB rgb) {
+			if (display != null) {
+				// create an empty image filled with color c
+				color = new Color(display, rgb);
+				image = ColorTable.createImage(display, rgb);
+			}
+			this.rgb = (rgb.red << 16) | (rgb.green << 8) | rgb.blue;
 		}
 		
 		/***
@@ -230,9 +323,19 @@ public class ColorTable implements IProcedureTable
 			return this.image;
 		}
 		
+		/***
+		 * get the color in 0xRRGGBB format
+		 * @return
+		 */
+		public int getRGB() {
+			return this.rgb;
+		}
+		
 		public void dispose() {
-			this.color.dispose();
-			this.image.dispose();
+			if (color != null)
+				this.color.dispose();
+			if (image != null)
+				this.image.dispose();
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package edu.rice.cs.hpc.traceviewer.data.graph;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+/*****************************************************************
+ *
+ * Off-screen raster of a view: an array of RGB pixels painted
+ * without any graphic context.<br/>
+ * Unlike painting with a GC, filling the raster doesn't need to
+ * access the window system (on Linux, every GTK call takes the
+ * same lock): several threads can paint different lines at the
+ * same time. Once all lines are painted, the raster is converted
+ * into one image.
+ *
+ *****************************************************************/
+public class TraceRaster
+{
+	final static private int WHITE = 0xFFFFFF;
+
+	final private int width;
+	final private int height;
+	final private int []pixels;
+
+	/****
+	 * Create a white raster
+	 *
+	 * @param width
+	 * @param height
+	 */
+	public TraceRaster(int width, int height)
+	{
+		this.width  = Math.max(width, 0);
+		this.height = Math.max(height, 0);
+		pixels = new int[this.width * this.height];
+		Arrays.fill(pixels, WHITE);
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/****
+	 * get the color of a pixel
+	 *
+	 * @param x
+	 * @param y
+	 * @return the color in 0xRRGGBB format
+	 */
+	public int getPixel(int x, int y)
+	{
+		return pixels[y * width + x];
+	}
+
+	/****
+	 * fill a rectangle with a color. The rectangle is clipped to the raster.
+	 * Threads painting distinct rectangles don't need to be synchronized.
+	 *
+	 * @param x
+	 * @param y
+	 * @param w : width of the rectangle
+	 * @param h : height of the rectangle
+	 * @param rgb : the color in 0xRRGGBB format
+	 */
+	public void fillRectangle(int x, int y, int w, int h, int rgb)
+	{
+		final int x1 = Math.max(x, 0);
+		final int x2 = Math.min(x + w, width);
+		final int y1 = Math.max(y, 0);
+		final int y2 = Math.min(y + h, height);
+
+		if (x1 >= x2)
+			return;
+
+		for (int row=y1; row<y2; row++) {
+			final int offset = row * width;
+			Arrays.fill(pixels, offset + x1, offset + x2, rgb);
+		}
+	}
+
+	/****
+	 * convert the raster into an image data, to create one image
+	 *
+	 * @return image data of the raster, or null if the raster is empty
+	 */
+	public ImageData getImageData()
+	{
+		if (width == 0 || height == 0)
+			return null;
+
+		final ImageData data = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+		for (int row=0; row<height; row++) {
+			data.setPixels(0, row, width, pixels, row * width);
+		}
+		return data;
+	}
+
+	/****
+	 * get the RGB value of a color.
+	 * A color only stores its components: this doesn't access the window system.
+	 *
+	 * @param color
+	 * @return the color in 0xRRGGBB format
+	 */
+	static public int getRGB(Color color)
+	{
+		return (color.getRed() << 16) | (color.getGreen() << 8) | color.getBlue();
+	}
+}
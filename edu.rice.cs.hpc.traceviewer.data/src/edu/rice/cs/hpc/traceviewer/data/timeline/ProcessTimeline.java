@@ -7,6 +7,7 @@ import org.eclipse.core.runtime.Assert;
 
 import edu.rice.cs.hpc.data.experiment.extdata.IBaseData;
 import edu.rice.cs.hpc.traceviewer.data.db.ITraceDataCollector;
+import edu.rice.cs.hpc.traceviewer.data.db.SampleBuffer;
 import edu.rice.cs.hpc.traceviewer.data.db.TraceDataByRank;
 import edu.rice.cs.hpc.traceviewer.data.db.DataRecord;
 import edu.rice.cs.hpc.traceviewer.data.graph.CallPath;
@@ -31,6 +32,9 @@ public class ProcessTimeline {
 	private double pixelLength;
 
 	final ITraceDataCollector data;
+	
+	/** The sample of each pixel of the line, built when the line is collected. Null if not built. */
+	private volatile PixelSampleMap pixelMap;
 
 	/*************************************************************************
 	 * Reads in the call-stack trace data from the binary traceFile in the form:
@@ -44,6 +48,18 @@ public class ProcessTimeline {
 	public ProcessTimeline(int _lineNum, HashMap<Integer, CallPath> _scopeMap, IBaseData dataTrace, 
 			int processNumber, int _numPixelH, long _timeRange, long _startingTime)
 	{
+		this(_lineNum, _scopeMap, dataTrace, processNumber, _numPixelH, _timeRange, _startingTime, 
+				new SampleBuffer(_numPixelH));
+	}
+
+	/** Creates a new ProcessTimeline with the given parameters and a buffer to store the samples.
+	 * @param _numPixelH The number of Horizontal pixels
+	 * @param _timeRange The difference between the start time and the end time
+	 * @param buffer An empty buffer, usually from {@link ProcessTimelineService#getSampleBuffer(int)}
+	 */
+	public ProcessTimeline(int _lineNum, HashMap<Integer, CallPath> _scopeMap, IBaseData dataTrace, 
+			int processNumber, int _numPixelH, long _timeRange, long _startingTime, SampleBuffer buffer)
+	{
 
 		lineNum 			= _lineNum;
 		scopeMap 			= _scopeMap;
@@ -56,7 +72,7 @@ public class ProcessTimeline {
 		
 		//TODO: Beautify
 		if (dataTrace instanceof AbstractBaseData)
-			data = new TraceDataByRank((AbstractBaseData) dataTrace, processNumber, _numPixelH);
+			data = new TraceDataByRank((AbstractBaseData) dataTrace, processNumber, _numPixelH, buffer);
 		else
 			data = new TraceDataByRank(new DataRecord[0]);
 	}
@@ -95,6 +111,25 @@ public class ProcessTimeline {
 				pixelLength);
 	}
 
+	/**
+	 * Fills the ProcessTimeline with the data of a previous timeline of the same 
+	 * process, and reads from the file only the time ranges which were not displayed
+	 * by the previous timeline (for instance after a pan).
+	 * 
+	 * @param previous : the timeline of the previous window
+	 * @return true if the data has been filled, false if the previous timeline cannot
+	 * 	be reused. In this case, the data has to be read with {@link #readInData()}
+	 * @throws IOException 
+	 */
+	public boolean readInData(ProcessTimeline previous) throws IOException {
+
+		if (previous == null || previous.processNumber != processNumber)
+			return false;
+		
+		return data.readInData(processNumber, startingTime, timeRange,
+				pixelLength, previous.data);
+	}
+
 	/** Gets the time that corresponds to the index sample in times. */
 	public long getTime(int sample) {
 		return data.getTime(sample);
@@ -123,6 +158,7 @@ public class ProcessTimeline {
  */
 	public void copyDataFrom(ProcessTimeline another) {
 		data.duplicate(another.data);
+		pixelMap = null;
 	}
 
 	/** Returns the number of elements in this ProcessTimeline. */
@@ -154,14 +190,154 @@ public class ProcessTimeline {
 	 * */
 	public int findMidpointBefore(long time, boolean usingMidpoint)
 	{
+		final PixelSampleMap map = pixelMap;
+		if (map != null && map.usingMidpoint == usingMidpoint) {
+			final int sample = map.findSample(time);
+			if (sample != PixelSampleMap.NOT_MAPPED)
+				return sample;
+		}
 		return data.findClosestSample(time, usingMidpoint);
 	}
+	
+	/**
+	 * Builds the map of the sample of each pixel of the line, to find the sample 
+	 * of a time (see {@link #findMidpointBefore(long, boolean)}) without searching 
+	 * the samples. The map is built once for a given view: calling this method 
+	 * again with the same parameters does nothing.
+	 * 
+	 * @param begTime : the time of the first pixel
+	 * @param pixelLength : the time length of a pixel
+	 * @param usingMidpoint : the policy used to find the samples
+	 * @param numPixels : the width of the view. The pixels beyond are not mapped.
+	 */
+	public void buildPixelMap(long begTime, double pixelLength, boolean usingMidpoint, int numPixels)
+	{
+		final PixelSampleMap map = pixelMap;
+		if (map != null && map.begTime == begTime && map.pixelLength == pixelLength
+				&& map.usingMidpoint == usingMidpoint && map.numPixels == numPixels)
+			return;
+		
+		pixelMap = new PixelSampleMap(begTime, pixelLength, usingMidpoint, numPixels);
+	}
 
 	
 	public boolean isEmpty()
 	{
 		return data.isEmpty();
 	}
+	
+	/***
+	 * release the data of this timeline. The timeline cannot be used anymore.
+	 */
+	public void dispose()
+	{
+		pixelMap = null;
+		data.dispose();
+	}
+	
+	
+	/*************************************************************************
+	 * 
+	 * Map of the sample displayed at the beginning of each pixel of the line.
+	 * <p>
+	 * The sample of a time is the one found by the binary search of
+	 * {@link ITraceDataCollector#findClosestSample(long, boolean)}: the map 
+	 * gives the sample of the pixel of the time, then the next samples in the 
+	 * same pixel (if any) are checked. Since the samples are read with about 
+	 * one sample per pixel, finding a sample is then a constant time operation.
+	 * </p>
+	 * The map is immutable: it can be built by a thread and read by another one.
+	 *************************************************************************/
+	private class PixelSampleMap
+	{
+		final static int NOT_MAPPED = -2;
+		
+		final long begTime;
+		final double pixelLength;
+		final boolean usingMidpoint;
+		final int numPixels;
+		
+		/** for each pixel, the last sample whose boundary is before the pixel */
+		final private int []samples;
+		
+		PixelSampleMap(long begTime, double pixelLength, boolean usingMidpoint, int numPixels)
+		{
+			this.begTime 		= begTime;
+			this.pixelLength 	= pixelLength;
+			this.usingMidpoint 	= usingMidpoint;
+			this.numPixels		= numPixels;
+			
+			// the last sample is the first one after the view, and can be very far:
+			// only the pixels of the view are mapped
+			final int size = data.size();
+			final long numMapped = size < 2 || pixelLength <= 0 ? 0 :
+				(long) ((data.getTime(size-1) - begTime) / pixelLength) + 1;
+			
+			samples = new int[(int) Math.max(0, Math.min(numMapped, numPixels))];
+			
+			int low = 0;
+			for (int x=0; x<samples.length; x++) {
+				// a time lower or equal to the times of the pixel: the next samples
+				// are checked when looking for a sample
+				final long time = (long) (begTime + x * pixelLength) - 1;
+				low = advance(low, time);
+				samples[x] = low;
+			}
+		}
+		
+		/***
+		 * find the sample of a time, with the same result as the binary search
+		 * 
+		 * @param time
+		 * @return the sample, -1 if the time is out of the range of the samples,
+		 * 	or NOT_MAPPED if the time is not in the map
+		 */
+		int findSample(long time)
+		{
+			final int size = data.size();
+			if (size < 2)
+				return NOT_MAPPED;
+			
+			if (time < data.getTime(0) || time > data.getTime(size-1))
+				return -1;
+
+			if (time < begTime)
+				return NOT_MAPPED;
+			
+			final long x = (long) ((time - begTime) / pixelLength);
+			if (x >= samples.length)
+				return NOT_MAPPED;
+			
+			final int low = advance(samples[(int) x], time);
+			
+			if (usingMidpoint && time >= getBoundary(low))
+				return low + 1;
+			return low;
+		}
+		
+		/***
+		 * move to the last sample (excluding the last one) whose boundary is 
+		 * strictly lower than the time
+		 */
+		private int advance(int low, long time)
+		{
+			final int last = data.size() - 2;
+			while (low < last && time > getBoundary(low + 1))
+				low++;
+			return low;
+		}
+		
+		/***
+		 * the boundary of a sample: its time, or the midpoint with the next 
+		 * sample for the midpoint policy
+		 */
+		private long getBoundary(int sample)
+		{
+			if (usingMidpoint)
+				return (data.getTime(sample) + data.getTime(sample + 1)) / 2;
+			return data.getTime(sample);
+		}
+	}
 	// These are potentially useful for debugging, but otherwise serve no use.
 //	@Override
 //	public String toString() {
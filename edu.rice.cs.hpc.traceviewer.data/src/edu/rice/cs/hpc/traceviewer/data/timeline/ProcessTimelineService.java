@@ -5,16 +5,26 @@ import java.util.Map;
 
 import org.eclipse.ui.AbstractSourceProvider;
 
+import edu.rice.cs.hpc.traceviewer.data.db.SampleBuffer;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
 
 public class ProcessTimelineService extends AbstractSourceProvider {
 
 	final static public String PROCESS_TIMELINE_PROVIDER = "edu.rice.cs.hpc.traceviewer.services.ProcessTimelineService.data";
 	private ProcessTimeline []traces;
+	
+	/** the timelines of the previous paint, to be recycled by the next paint */
+	private ProcessTimeline []retiredTraces;
+	
+	/** the timelines of the previous paint which can still be reused, indexed by process number */
+	private HashMap<Integer, ProcessTimeline> reusableTraces;
+	final private SampleBuffer.Pool pool = new SampleBuffer.Pool();
 
 
 	@Override
-	public void dispose() {	}
+	public void dispose() {
+		pool.clear();
+	}
 
 	@Override
 	public Map getCurrentState() {
@@ -29,10 +39,76 @@ public class ProcessTimelineService extends AbstractSourceProvider {
 		return new String[] {PROCESS_TIMELINE_PROVIDER};
 	}
 
-	public void setProcessTimeline(ProcessTimeline[] traces) {
+	/****
+	 * set a new list of timelines. The samples of the old timelines will be 
+	 * recycled once the new timelines ask for a buffer (see {@link #getSampleBuffer(int)})
+	 * 
+	 * @param traces
+	 */
+	public synchronized void setProcessTimeline(ProcessTimeline[] traces) {
+		if (this.traces != null && this.traces != traces) {
+			// the timelines of the paint before which haven't been reused
+			if (reusableTraces != null) {
+				for (ProcessTimeline trace: reusableTraces.values()) {
+					trace.dispose();
+				}
+				reusableTraces = null;
+			}
+			retiredTraces = this.traces;
+		}
 		this.traces = traces;
 	}
 	
+	/****
+	 * take the timeline of a given process from the previous paint, to reuse its samples.
+	 * Once a timeline has been taken, the timelines of the previous paint are not recycled 
+	 * by {@link #getSampleBuffer(int)} anymore: each taken timeline has to be disposed by 
+	 * the caller, and the others are disposed when the next list of timelines is set.
+	 * 
+	 * @param processNumber
+	 * @return the timeline of the process, null if it doesn't exist or has already been taken
+	 */
+	public synchronized ProcessTimeline takeRetiredTimeline(int processNumber) {
+		if (retiredTraces != null) {
+			reusableTraces = new HashMap<Integer, ProcessTimeline>(retiredTraces.length);
+			for (ProcessTimeline trace: retiredTraces) {
+				if (trace != null) {
+					final ProcessTimeline other = reusableTraces.put(trace.getProcessNum(), trace);
+					if (other != null)
+						other.dispose();
+				}
+			}
+			retiredTraces = null;
+		}
+		if (reusableTraces == null)
+			return null;
+		
+		return reusableTraces.remove(processNumber);
+	}
+	
+	/****
+	 * get a buffer to store the samples of a new timeline.
+	 * This method has to be called by the thread collecting the data. At this time,
+	 * the painting of the previous timelines has finished and their samples can be reused.
+	 * 
+	 * @param capacity : the expected number of samples
+	 * @return an empty buffer
+	 */
+	public SampleBuffer getSampleBuffer(int capacity) {
+		final ProcessTimeline []oldTraces;
+		synchronized (this) {
+			oldTraces = retiredTraces;
+			retiredTraces = null;
+		}
+		if (oldTraces != null) {
+			for (ProcessTimeline trace: oldTraces) {
+				if (trace != null)
+					trace.dispose();
+			}
+		}
+		return pool.get(capacity);
+	}
+	
 	
 	public boolean setProcessTimeline(int index, ProcessTimeline trace) {
 		boolean result = (traces != null && traces.length > index);
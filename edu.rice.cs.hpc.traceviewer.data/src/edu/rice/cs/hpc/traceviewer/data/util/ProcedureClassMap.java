@@ -50,11 +50,12 @@ public class ProcedureClassMap extends AliasMap<String,ProcedureClassData> {
 	 */
 	public void initDefault() {
 
-		final Color COLOR_GRAY;
+		// without display (batch mode), we use the RGB value of SWT.COLOR_GRAY
+		final RGB COLOR_GRAY;
 		if (display != null) {
-			COLOR_GRAY = display.getSystemColor(SWT.COLOR_GRAY);
+			COLOR_GRAY = display.getSystemColor(SWT.COLOR_GRAY).getRGB();
 		} else {
-			COLOR_GRAY = null;
+			COLOR_GRAY = new RGB(0xC0, 0xC0, 0xC0);
 		}
 
 		this.put("GPU_IDLE", CLASS_IDLE, COLOR_GRAY);
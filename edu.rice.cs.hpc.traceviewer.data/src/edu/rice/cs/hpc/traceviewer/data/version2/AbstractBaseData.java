@@ -5,6 +5,8 @@ import java.io.IOException;
 import edu.rice.cs.hpc.data.experiment.extdata.IBaseData;
 import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
 import edu.rice.cs.hpc.data.util.Constants;
+import edu.rice.cs.hpc.traceviewer.data.db.TracePyramid;
+import edu.rice.cs.hpc.traceviewer.data.db.TraceTimeIndex;
 
 /*********************************************************
  * 
@@ -15,11 +17,62 @@ import edu.rice.cs.hpc.data.util.Constants;
 public abstract class AbstractBaseData implements IBaseData 
 {
 	final protected IFileDB baseDataFile;
+	
+	private TraceTimeIndex timeIndex;
+	private TracePyramid pyramid;
 
 	public AbstractBaseData(IFileDB baseDataFile){
 		this.baseDataFile = baseDataFile;
 	}
 	
+	/****
+	 * set the time index of the trace file. 
+	 * The index is optional: if it isn't set, the caller has to search the time
+	 * in the whole rank.
+	 * 
+	 * @param timeIndex
+	 */
+	public void setTimeIndex(TraceTimeIndex timeIndex) {
+		this.timeIndex = timeIndex;
+	}
+	
+	/****
+	 * get the time index of the trace file
+	 * @return the index, null if the index isn't set
+	 */
+	public TraceTimeIndex getTimeIndex() {
+		return timeIndex;
+	}
+	
+	/****
+	 * set the multi-resolution summary of the trace file.
+	 * The summary is optional: if it isn't set, all samples are read from the trace file.
+	 * 
+	 * @param pyramid
+	 */
+	public void setPyramid(TracePyramid pyramid) {
+		this.pyramid = pyramid;
+	}
+	
+	/****
+	 * get the multi-resolution summary of the trace file
+	 * @return the summary, null if the summary isn't set
+	 */
+	public TracePyramid getPyramid() {
+		return pyramid;
+	}
+	
+	/****
+	 * get the rank in the trace file of a given rank.
+	 * The default is the same rank. A filtered data has to override this.
+	 * 
+	 * @param rank
+	 * @return the rank in the file
+	 */
+	public int getFileRank(int rank) {
+		return rank;
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see edu.rice.cs.hpc.data.experiment.extdata.IBaseData#getLong(long)
@@ -136,6 +136,15 @@ public class FilteredBaseData extends AbstractBaseData implements IFilteredData
 		return maxloc;*/
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see edu.rice.cs.hpc.traceviewer.data.version2.AbstractBaseData#getFileRank(int)
+	 */
+	@Override
+	public int getFileRank(int rank) {
+		return indexes[rank];
+	}
+
 	@Override
 	public boolean isGoodFilter() {
 		return getNumberOfRanks() > 0;
@@ -6,13 +6,12 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import edu.rice.cs.hpc.data.experiment.InvalExperimentException;
-import edu.rice.cs.hpc.data.experiment.extdata.FileDB2;
 import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
 import edu.rice.cs.hpc.data.util.Util;
+import edu.rice.cs.hpc.traceviewer.data.controller.AbstractLocalDataController;
 import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.AbstractDBOpener;
 import edu.rice.cs.hpc.traceviewer.data.db.DatabaseAccessInfo;
-import edu.rice.cs.hpc.traceviewer.data.version3.FileDB3;
 
 /*******************************************************************
  * 
@@ -74,19 +73,7 @@ public class LocalDBOpener extends AbstractDBOpener
 		// if (database.dataTraces != null)
 		// database.dataTraces.dispose();
 
-		IFileDB fileDB;
-		switch (version)
-		{
-		case 1:
-		case 2:
-			fileDB = new FileDB2();
-			break;
-		case 3:
-			fileDB = new FileDB3();
-			break;
-		default:
-			throw new InvalExperimentException("Trace data version is not unknown: " + version);
-		}
+		IFileDB fileDB = AbstractLocalDataController.createFileDB(version);
 		//fileDB.open(directory, 0, 0);
 		
 		// prepare the xml experiment and all extended data
@@ -7,20 +7,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.ui.IWorkbenchWindow;
 
-import edu.rice.cs.hpc.data.experiment.BaseExperiment;
 import edu.rice.cs.hpc.data.experiment.InvalExperimentException;
 import edu.rice.cs.hpc.data.experiment.extdata.IFileDB;
-import edu.rice.cs.hpc.data.experiment.extdata.IFilteredData;
-import edu.rice.cs.hpc.data.experiment.extdata.TraceAttribute;
-import edu.rice.cs.hpc.data.util.Constants;
-import edu.rice.cs.hpc.data.util.MergeDataFiles;
-import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
+import edu.rice.cs.hpc.traceviewer.data.controller.AbstractLocalDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
-import edu.rice.cs.hpc.traceviewer.data.db.TraceDataByRank;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
-import edu.rice.cs.hpc.traceviewer.data.version2.BaseData;
-import edu.rice.cs.hpc.traceviewer.data.version2.FilteredBaseData;
-import edu.rice.cs.hpc.traceviewer.data.version3.FileDB3;
 import edu.rice.cs.hpc.traceviewer.util.TraceProgressReport;
 
 /**
@@ -29,13 +20,8 @@ import edu.rice.cs.hpc.traceviewer.util.TraceProgressReport;
  * @author Philip Taffet
  * 
  */
-public class SpaceTimeDataControllerLocal extends SpaceTimeDataController 
+public class SpaceTimeDataControllerLocal extends AbstractLocalDataController 
 {	
-	final static private int MIN_TRACE_SIZE = TraceDataByRank.HeaderSzMin + TraceDataByRank.RecordSzMin * 2;
-	final static public int RECORD_SIZE    = Constants.SIZEOF_LONG + Constants.SIZEOF_INT;
-	private String traceFilePath;
-	final private IFileDB fileDB;
-
 	/************************
 	 * Constructor to setup local database
 	 * 
@@ -51,66 +37,13 @@ public class SpaceTimeDataControllerLocal extends SpaceTimeDataController
 	{
 		super(_window, new File(databaseDirectory));
 		
-		final TraceAttribute trAttribute = exp.getTraceAttribute();		
-		final int version = exp.getMajorVersion();
-		if (version == 1 || version == 2)
-		{	// original format
-			traceFilePath = getTraceFile(exp.getDefaultDirectory().getAbsolutePath(), statusMgr);
-			fileDB.open(traceFilePath, trAttribute.dbHeaderSize, RECORD_SIZE);
-			
-		} else if (version == 3) 
-		{
-			// new format
-			traceFilePath = exp.getDefaultDirectory() + File.separator + exp.getDbFilename(BaseExperiment.Db_File_Type.DB_TRACE);
-			((FileDB3)fileDB).open(databaseDirectory);
-		}
-		this.fileDB = fileDB;
-		dataTrace 	= new BaseData(fileDB);
+		open(fileDB, new TraceProgressReport(statusMgr));
+		
+		// the summary is built in the background. Until a rank is built,
+		// its data is read from the trace file
+		startBuilders();
 	}
 
-	/*********************
-	 * get the absolute path of the trace file (experiment.mt).
-	 * If the file doesn't exist, it is possible it is not merged yet 
-	 *  (in this case we'll merge them automatically)
-	 * 
-	 * @param directory
-	 * @param statusMgr
-	 * @return
-	 *********************/
-	static private String getTraceFile(String directory, final IProgressMonitor statusMgr)
-	{
-		try {
-			final TraceProgressReport traceReport = new TraceProgressReport(
-					statusMgr);
-			final String outputFile = directory
-					+ File.separatorChar + "experiment.mt";
-			
-			File dirFile = new File(directory);
-			final MergeDataFiles.MergeDataAttribute att = MergeDataFiles
-					.merge(dirFile, "*.hpctrace", outputFile,
-							traceReport);
-			
-			if (att != MergeDataFiles.MergeDataAttribute.FAIL_NO_DATA) {
-				File fileTrace = new File(outputFile);
-				if (fileTrace.length() > MIN_TRACE_SIZE) {
-					return fileTrace.getAbsolutePath();
-				}
-				
-				System.err.println("Warning! Trace file "
-						+ fileTrace.getName()
-						+ " is too small: "
-						+ fileTrace.length() + "bytes .");
-			}
-			System.err
-					.println("Error: trace file(s) does not exist or fail to open "
-							+ outputFile);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return null;
-	}
-	
 	/***********************************************************************
 	 * Gets the next available trace to be filled/painted
 	 * 
@@ -134,10 +67,30 @@ public class SpaceTimeDataControllerLocal extends SpaceTimeDataController
 				ptlService.setProcessTimeline(new ProcessTimeline[totalLines]);
 			
 			if (changedBounds) {
-				ProcessTimeline currentTimeline = new ProcessTimeline(currentLineNum, getScopeMap(),
-						dataTrace, lineToPaint(currentLineNum, attributes),
-						attributes.numPixelsH, attributes.getTimeInterval(), 
-						minBegTime + attributes.getTimeBegin());
+				final int processNumber = lineToPaint(currentLineNum, attributes);
+				
+				// the timeline of the same process in the previous paint has to be taken 
+				// before asking for a buffer: otherwise it may be recycled
+				final ProcessTimeline previous = isEnableIncrementalRead() ? 
+						ptlService.takeRetiredTimeline(processNumber) : null;
+				
+				ProcessTimeline currentTimeline = createTimeline(currentLineNum, processNumber, attributes);
+				
+				if (previous != null) {
+					// on a pan or a zoom in, only the newly exposed time ranges are read.
+					// If the previous samples cannot be used, the timeline stays empty
+					// and is read as usual by the timeline thread
+					try {
+						currentTimeline.readInData(previous);
+					} catch (IOException e) {
+						e.printStackTrace();
+						// the timeline may be partially filled: start again from scratch
+						currentTimeline.dispose();
+						currentTimeline = createTimeline(currentLineNum, processNumber, attributes);
+					} finally {
+						previous.dispose();
+					}
+				}
 				
 				if (ptlService.setProcessTimeline(currentLineNum, currentTimeline)) {
 					timeline = currentTimeline;
@@ -153,44 +106,13 @@ public class SpaceTimeDataControllerLocal extends SpaceTimeDataController
 	}
 
 	
-	/** Returns the index of the file to which the line-th line corresponds. */
-
-	private int lineToPaint(int line, ImageTraceAttributes attributes) {
-
-		int numTimelinesToPaint = attributes.getProcessInterval();
-		if (numTimelinesToPaint > attributes.numPixelsV)
-			return attributes.getProcessBegin() + (line * numTimelinesToPaint)
-					/ (attributes.numPixelsV);
-		else
-			return attributes.getProcessBegin() + line;
-	}
-	
-
-	@Override
-	public IFilteredData createFilteredBaseData() {
-		try{
-			return new FilteredBaseData(fileDB, 
-					exp.getTraceAttribute().dbHeaderSize, TraceAttribute.DEFAULT_RECORD_SIZE);
-		}
-		catch (Exception e){
-			e.printStackTrace();
-			return null;
-		}
-	}
-	
-	public String getTraceFileAbsolutePath(){
-		return traceFilePath;
-	}
-
-	@Override
-	public void closeDB() {
-		dataTrace.dispose();
-	}
-	
-	@Override
-	public void dispose() {
-		closeDB();
-		super.dispose();
+	/** Creates an empty timeline of a line */
+	private ProcessTimeline createTimeline(int line, int processNumber, ImageTraceAttributes attributes) {
+		
+		return new ProcessTimeline(line, getScopeMap(), dataTrace, processNumber,
+				attributes.numPixelsH, attributes.getTimeInterval(), 
+				minBegTime + attributes.getTimeBegin(), 
+				ptlService.getSampleBuffer(attributes.numPixelsH));
 	}
 
 
@@ -198,10 +120,4 @@ public class SpaceTimeDataControllerLocal extends SpaceTimeDataController
 		//No need to do anything. The data for local is gotten from the file
 		//on demand on a per-timeline basis.
 	}
-
-
-	@Override
-	public String getName() {
-		return exp.getDefaultDirectory().getPath();
-	}
 }
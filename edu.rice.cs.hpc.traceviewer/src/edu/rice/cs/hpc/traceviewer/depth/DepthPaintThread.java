@@ -12,6 +12,7 @@ import org.eclipse.swt.widgets.Display;
 import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.BaseDataVisualization;
 import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
 import edu.rice.cs.hpc.traceviewer.painter.BasePaintThread;
 import edu.rice.cs.hpc.traceviewer.painter.ImagePosition;
 
@@ -20,16 +21,38 @@ public class DepthPaintThread extends BasePaintThread {
 
 	private Image image;
 	private GC gc;
+	
+	final private TraceRaster raster;
+	final private float yscale;
 
 	public DepthPaintThread(SpaceTimeDataController stData, Queue<TimelineDataSet> list, int linesToPaint, 
 			AtomicInteger numDataCollected, AtomicInteger paintDone, Device device, 
 			int width, IProgressMonitor monitor) {
 
+		this(stData, list, linesToPaint, numDataCollected, paintDone, device, width, null, 0, monitor);
+	}
+
+	/****
+	 * constructor of a thread painting on a raster instead of images.
+	 * The thread returns an empty list of images.
+	 * 
+	 * @param raster : the raster of the depth view
+	 * @param yscale : the number of pixels per depth
+	 */
+	public DepthPaintThread(SpaceTimeDataController stData, Queue<TimelineDataSet> list, int linesToPaint, 
+			AtomicInteger numDataCollected, AtomicInteger paintDone, Device device, 
+			int width, TraceRaster raster, float yscale, IProgressMonitor monitor) {
+
 		super(stData, list, linesToPaint, numDataCollected, paintDone, device, width, monitor);
+		this.raster = raster;
+		this.yscale = yscale;
 	}
 
 	@Override
 	protected void initPaint(/*Device device,*/ int width, int height) {
+		if (raster != null)
+			return;
+		
 		final Display device = Display.getDefault();
 		image = new Image(device, width, height);
 		gc    = new GC(image);
@@ -39,13 +62,20 @@ public class DepthPaintThread extends BasePaintThread {
 	protected void paint(int position, BaseDataVisualization data, int height) {
 		// display only if the current thread line number is within the depth
 		// note that the line number starts from zero while depth starts from 1 (I think)
-		if (position < data.depth)
-			paint(gc, data.x_start, data.x_end, height, data.color);
+		if (position < data.depth) {
+			if (raster != null)
+				paint(raster, data.x_start, data.x_end, Math.round(position * yscale), height, data.color);
+			else
+				paint(gc, data.x_start, data.x_end, height, data.color);
+		}
 	}
 
 	@Override
 	protected ImagePosition finalizePaint(int linenum) {
 
+		if (raster != null)
+			return null;
+
 		gc.dispose();
 		return new ImagePosition(linenum, image);
 	}
@@ -7,11 +7,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.swt.graphics.Device;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
 import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
 import edu.rice.cs.hpc.traceviewer.painter.BasePaintThread;
 import edu.rice.cs.hpc.traceviewer.painter.BaseViewPaint;
 import edu.rice.cs.hpc.traceviewer.painter.ISpaceTimeCanvas;
@@ -29,6 +33,9 @@ public class DepthViewPaint extends BaseViewPaint {
 	private final GC masterGC;
 	private final AtomicInteger timelineDone, numDataCollected;
 	private float numPixels;
+	
+	/** the lines are painted concurrently on the raster, then drawn at once */
+	private TraceRaster raster;
 
 	public DepthViewPaint(IWorkbenchWindow window, final GC masterGC, SpaceTimeDataController data,
 			ImageTraceAttributes attributes, boolean changeBound, ISpaceTimeCanvas canvas, 
@@ -54,6 +61,8 @@ public class DepthViewPaint extends BaseViewPaint {
 			// TODO warning: data races for accessing the current process timeline 
 			if ( controller.getCurrentDepthTrace() != null) {
 				numPixels = attributes.numPixelsDepthV/(float)controller.getMaxDepth();
+				if (changedBounds)
+					raster = new TraceRaster(attributes.numPixelsH, attributes.numPixelsDepthV);
 				return changedBounds;
 			}
 		}
@@ -86,7 +95,12 @@ public class DepthViewPaint extends BaseViewPaint {
 
 		return new DepthPaintThread(controller, queue, linesToPaint, 
 				numDataCollected, timelineDone, 
-				device, width, monitor);
+				device, width, raster, numPixels, monitor);
+	}
+
+	@Override
+	protected boolean isThreadSafePainting() {
+		return raster != null;
 	}
 
 	@Override
@@ -107,7 +121,18 @@ public class DepthViewPaint extends BaseViewPaint {
 
 	@Override
 	protected void endPainting(boolean isCanceled) {
-		if (masterGC != null && !masterGC.isDisposed())
+		if (masterGC != null && !masterGC.isDisposed()) {
+			if (raster != null && !isCanceled) {
+				// all the lines are painted: create the image at once
+				final ImageData imageData = raster.getImageData();
+				if (imageData != null) {
+					final Image image = new Image(Display.getDefault(), imageData);
+					masterGC.drawImage(image, 0, 0);
+					image.dispose();
+				}
+			}
 			masterGC.dispose();
+		}
+		raster = null;
 	}
 }
@@ -10,6 +10,7 @@ import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
 public class DetailDataPreparation extends DataPreparation {
 
 	private TimelineDataSet dataset;
+	final private int numPixelsH;
 	
 	/*****
 	 * Constructor for preparing data to paint on the space-time canvas
@@ -21,14 +22,34 @@ public class DetailDataPreparation extends DataPreparation {
 	 * @param _height
 	 * @param _pixelLength
 	 * @param _usingMidpoint
+	 * @param _numPixelsH : the width of the view
 	 */
 	public DetailDataPreparation(ColorTable _colorTable, ProcessTimeline _ptl,
 			long _begTime, int _depth, int _height, double _pixelLength,
-			boolean _usingMidpoint) 
+			boolean _usingMidpoint, int _numPixelsH) 
 	{
 		super(_colorTable, _ptl, _begTime, _depth, _height, _pixelLength,
 				_usingMidpoint);
 		dataset = new TimelineDataSet( ptl.line(),_ptl.size(), height);
+		numPixelsH = _numPixelsH;
+	}
+
+	@Override
+	public int collect() {
+		// the timeline is kept by the detail view to find the sample under the mouse
+		buildPixelMap(numPixelsH);
+		return super.collect();
+	}
+
+	@Override
+	protected void finishLine(int currSampleMidpoint, int succSampleMidpoint,
+			int currDepth, int procId, int sampleCount) {
+
+		// keep the procedure id: the summary view counts the procedures, not the colors
+		final DetailDataVisualization data = new DetailDataVisualization(currSampleMidpoint, 
+				succSampleMidpoint, currDepth, colorTable.getColor(procId), procId, sampleCount);
+		
+		dataset.add(data);
 	}
 
 	@Override
@@ -11,7 +11,12 @@ public class DetailDataVisualization
 	
 	public DetailDataVisualization(int x_start, int x_end, int depth, Color color, int sample_counts) 
 	{
-		super(x_start, x_end, depth, color);
+		this(x_start, x_end, depth, color, -1, sample_counts);
+	}
+	
+	public DetailDataVisualization(int x_start, int x_end, int depth, Color color, int procId, int sample_counts) 
+	{
+		super(x_start, x_end, depth, color, procId);
 		this.sample_counts = sample_counts;
 	}
 	
@@ -15,6 +15,7 @@ import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.BaseDataVisualization;
 import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
 import edu.rice.cs.hpc.traceviewer.data.util.Constants;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
 import edu.rice.cs.hpc.traceviewer.painter.BasePaintThread;
 import edu.rice.cs.hpc.traceviewer.painter.ImagePosition;
 
@@ -34,9 +35,13 @@ public class DetailPaintThread
 	final private Point maxTextSize;
 
 	private Image lineFinal;
-	private Image lineOriginal;
 	private GC gcFinal;
-	private GC gcOriginal;
+	
+	final private TraceRaster raster;
+	final private double yscale;
+	
+	/** the data of the lines, kept to compute the summary of the view */
+	final private TimelineDataSet []lines;
 	
 	/****
 	 * constructor of the class, requiring a queue of list of data (per line) to be
@@ -51,15 +56,38 @@ public class DetailPaintThread
 	 * @param width : the width of the view
 	 * @param maxTextSize : the maximum size of a letter for a given device
 	 * @param debugMode : flag whether we need to show text information
+	 * @param lines : the array where the data of each line is stored, indexed by line number
+	 */
+	public DetailPaintThread( SpaceTimeDataController stData, Queue<TimelineDataSet> list, int numLines,
+			AtomicInteger numDataCollected, AtomicInteger paintDone, Device device, int width, 
+			Point maxTextSize, boolean debugMode, TimelineDataSet []lines,
+			IProgressMonitor monitor) {
+		
+		this(stData, list, numLines, numDataCollected, paintDone, device, width, 
+				maxTextSize, debugMode, lines, null, 0, monitor);
+	}
+	
+	/****
+	 * constructor of a thread painting on rasters instead of images.
+	 * The lines are painted directly at their position, hence the thread
+	 * returns an empty list of images. The text information needs a GC,
+	 * so it isn't painted on a raster.
+	 * 
+	 * @param raster : the raster of the detail view
+	 * @param yscale : the number of pixels per line in the detail view
 	 */
 	public DetailPaintThread( SpaceTimeDataController stData, Queue<TimelineDataSet> list, int numLines,
 			AtomicInteger numDataCollected, AtomicInteger paintDone, Device device, int width, 
-			Point maxTextSize, boolean debugMode,
+			Point maxTextSize, boolean debugMode, TimelineDataSet []lines,
+			TraceRaster raster, double yscale,
 			IProgressMonitor monitor) {
 		
 		super(stData, list, numLines, numDataCollected, paintDone, device, width, monitor);
-		this.maxTextSize = maxTextSize;
-		this.debugMode = debugMode;
+		this.maxTextSize 	= maxTextSize;
+		this.debugMode 		= debugMode;
+		this.lines			= lines;
+		this.raster 		= raster;
+		this.yscale 		= yscale;
 	}
 	
 	private void paintText(GC gc, int odInitPixel, int odFinalPixel, int box_height, 
@@ -99,22 +127,30 @@ public class DetailPaintThread
 
 	@Override
 	protected void initPaint(/*Device device, */int width, int height) {
+		if (raster != null)
+			return;
+		
 		Display device = Display.getDefault();
 		lineFinal = new Image(device, width, height);
-		lineOriginal = new Image(device, width, 1);
-		
 		gcFinal = new GC(lineFinal);
-		gcOriginal = new GC(lineOriginal);		
+	}
+
+	@Override
+	protected void collectData(TimelineDataSet dataSet) {
+		// each line is painted by only one thread
+		final int linenum = dataSet.getLineNumber();
+		if (linenum >= 0 && linenum < lines.length)
+			lines[linenum] = dataSet;
 	}
 
 	@Override
 	protected void paint(int position, BaseDataVisualization data, int height) {
 
-		// paint for the original image without text
-		// this image will be needed for summary view to compute
-		//	the number of colors-pixels
-		paint(gcOriginal, data.x_start, data.x_end, 1, data.color);
-		
+		if (raster != null) {
+			paint(raster, data.x_start, data.x_end, (int) Math.round(position * yscale), 
+					height, data.color);
+			return;
+		}
 		// paint the real image for detail view
 		paint(gcFinal, data.x_start, data.x_end, height, data.color);
 		
@@ -127,10 +163,12 @@ public class DetailPaintThread
 	@Override
 	protected ImagePosition finalizePaint(int linenum) {
 
-		gcOriginal.dispose();
+		if (raster != null)
+			return null;
+		
 		gcFinal.dispose();
 		
-		final ImagePosition imgPos = new DetailImagePosition(linenum, lineFinal, lineOriginal);
+		final ImagePosition imgPos = new ImagePosition(linenum, lineFinal);
 
 		return imgPos;
 	}
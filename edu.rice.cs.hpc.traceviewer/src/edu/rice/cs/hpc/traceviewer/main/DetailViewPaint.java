@@ -10,7 +10,10 @@ import org.eclipse.core.commands.State;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.swt.graphics.Device;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.commands.ICommandService;
 import org.eclipse.ui.handlers.RegistryToggleState;
@@ -19,13 +22,16 @@ import org.eclipse.ui.services.ISourceProviderService;
 import edu.rice.cs.hpc.traceviewer.actions.OptionRecordsDisplay;
 import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
 import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimelineService;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
 import edu.rice.cs.hpc.traceviewer.painter.BasePaintThread;
 import edu.rice.cs.hpc.traceviewer.painter.BaseViewPaint;
 import edu.rice.cs.hpc.traceviewer.painter.ISpaceTimeCanvas;
 import edu.rice.cs.hpc.traceviewer.painter.ImagePosition;
 import edu.rice.cs.hpc.traceviewer.timeline.BaseTimelineThread;
+import edu.rice.cs.hpc.traceviewer.util.Utility;
 
 /******************************************************
  * 
@@ -42,21 +48,28 @@ public class DetailViewPaint extends BaseViewPaint {
 	final private Point maxTextSize;
 
 	private final GC masterGC;
-	private final GC origGC;
 	
 	final private ProcessTimelineService ptlService;
 	final private boolean debug;
 	final private AtomicInteger currentLine, numDataCollected;
 	final private int numLines;
 	
-	public DetailViewPaint(final GC masterGC, final GC origGC, SpaceTimeDataController data,
+	/** raster of the detail view. Null in debug mode */
+	final private TraceRaster raster;
+	final private ISpaceTimeCanvas canvas;
+	
+	/** the data of each line, to compute the summary once all lines are painted */
+	final private TimelineDataSet []lines;
+	private SummaryHistogram histogram = null;
+	
+	public DetailViewPaint(final GC masterGC, SpaceTimeDataController data,
 			ImageTraceAttributes attributes, int numLines, boolean changeBound,
 			IWorkbenchWindow window, ISpaceTimeCanvas canvas, ExecutorService threadExecutor) 
 	{
 		super("Main trace view", data, attributes, changeBound, window, canvas, threadExecutor);
 		this.masterGC = masterGC;
-		this.origGC   = origGC;
 		this.numLines = numLines;
+		this.canvas   = canvas;
 
 		ISourceProviderService sourceProviderService = (ISourceProviderService) window.getService(
 				ISourceProviderService.class);
@@ -80,6 +93,15 @@ public class DetailViewPaint extends BaseViewPaint {
 		
 		currentLine = new AtomicInteger(0);
 		numDataCollected = new AtomicInteger(0);
+		lines = new TimelineDataSet[numLines];
+		
+		// the text information needs a GC for each line: in debug mode
+		// we keep painting the lines on images
+		if (debug) {
+			raster = null;
+		} else {
+			raster = new TraceRaster(attributes.numPixelsH, attributes.numPixelsV);
+		}
 	}
 
 	@Override
@@ -111,30 +133,74 @@ public class DetailViewPaint extends BaseViewPaint {
 			Queue<TimelineDataSet> queue, int numLines, 
 			Device device, int width, IProgressMonitor monitor) {
 
+		if (raster != null) {
+			return new DetailPaintThread( controller, queue, numLines, 
+					numDataCollected, currentLine, 
+					device, width, maxTextSize, debug, lines,
+					raster, Math.max(canvas.getScalePixelsPerRank(), 1),
+					monitor);
+		}
 		return new DetailPaintThread( controller, queue, numLines, 
 				numDataCollected, currentLine, 
-				device, width, maxTextSize, debug, monitor);
+				device, width, maxTextSize, debug, lines, monitor);
+	}
+
+	@Override
+	protected boolean isThreadSafePainting() {
+		return raster != null;
 	}
 
 	@Override
 	protected void drawPainting(ISpaceTimeCanvas canvas,
 			ImagePosition imagePosition) {
 		
-		DetailImagePosition imgDetailLine = (DetailImagePosition)imagePosition;
 		double yscale = Math.max(canvas.getScalePixelsPerRank(), 1);
 
-		int yposition = (int) Math.round(imgDetailLine.position * yscale);
+		int yposition = (int) Math.round(imagePosition.position * yscale);
 		// put the image onto the canvas
-		masterGC.drawImage(imgDetailLine.image, 0, yposition);
-		origGC.drawImage(imgDetailLine.imageOriginal, 0, imgDetailLine.position);
+		masterGC.drawImage(imagePosition.image, 0, yposition);
 		
-		imgDetailLine.image.dispose();
-		imgDetailLine.imageOriginal.dispose();
+		imagePosition.image.dispose();
 	}
 
 	@Override
 	protected void endPainting(boolean isCanceled) {
-		// TODO Auto-generated method stub
+		if (isCanceled)
+			return;
+		
+		// all the lines are painted: create the image at once
+		if (raster != null)
+			drawRaster(masterGC, raster);
+		
+		// the statistics of the summary view are computed here, outside the UI thread,
+		// by the threads which painted the lines
+		histogram = SummaryHistogram.compute(lines, attributes.numPixelsH, 
+				controller.getColorTable(), threadExecutor, Utility.getNumThreads(0));
+	}
+	
+	/****
+	 * get the statistics of the procedures of the view, computed once 
+	 * all the lines are painted
+	 * 
+	 * @return the histogram, or null if the painting is not done or has been canceled
+	 */
+	public SummaryHistogram getHistogram() {
+		return histogram;
+	}
+	
+	/****
+	 * convert a raster into an image, and draw it at the origin of a gc
+	 * 
+	 * @param gc
+	 * @param raster
+	 */
+	static private void drawRaster(GC gc, TraceRaster raster) {
+		final ImageData imageData = raster.getImageData();
+		if (imageData == null || gc.isDisposed())
+			return;
 		
+		final Image image = new Image(Display.getDefault(), imageData);
+		gc.drawImage(image, 0, 0);
+		image.dispose();
 	}
 }
@@ -21,7 +21,6 @@ import org.eclipse.swt.events.KeyListener;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
-import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Composite;
@@ -45,6 +44,7 @@ import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.Frame;
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
 import edu.rice.cs.hpc.traceviewer.data.db.Position;
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimeline;
 import edu.rice.cs.hpc.traceviewer.data.timeline.ProcessTimelineService;
 import edu.rice.cs.hpc.traceviewer.util.MessageLabelManager;
@@ -920,6 +920,8 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 		
 		attributes.numPixelsH = view.width;
 		attributes.numPixelsV = view.height;
+		
+		final ImageTraceAttributes paintedAttributes = attributes.duplicate();
 				
 		final Image imageFinal = new Image(getDisplay(), view.width, view.height);
 		final GC bufferGC = new GC(imageFinal);
@@ -927,18 +929,11 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 		bufferGC.fillRectangle(0,0,view.width,view.height);
 		
 		// -----------------------------------------------------------------------
-		// imageOrig is the original image without "attributes" such as depth
-		// this imageOrig will be used by SummaryView to count the number of colors
-		// the size of the "original" image should be equivalent to the minimum of 
-		//	the number of ranks or the number of pixels
+		// the number of lines is the minimum of the number of ranks or the number
+		//	of pixels. The summary view counts the procedures of these lines
 		// -----------------------------------------------------------------------
 		
 		final int numLines = Math.min(view.height, attributes.getProcessInterval() );
-		final Image imageOrig = new Image(getDisplay(), view.width, numLines);
-		
-		final GC origGC = new GC(imageOrig);
-		origGC.setBackground(Constants.COLOR_WHITE);
-		origGC.fillRectangle(0,0,view.width, numLines);
 
 		// -----------------------------------------------------------------------
 		// main method to paint to the canvas
@@ -947,6 +942,11 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 
 		final boolean changedBounds = (refreshData? refreshData : !attributes.sameTrace(oldAttributes) );
 		
+		// the data of the new window is needed now: stop reading the predicted ones.
+		// A repaint of the same window (e.g. a new depth) doesn't read the data
+		if (changedBounds)
+			stData.cancelPrefetch();
+		
 		oldAttributes.copy(attributes);
 		if (changedBounds) {
 			ProcessTimeline []traces = new ProcessTimeline[ numLines ];
@@ -958,7 +958,7 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 		 *	on the SpaceTimeCanvas using the SpaceTimeSamplePainter given. Also paints
 		 *	the sample's max depth before becoming overDepth on samples that have gone over depth.
 		 *************************************************************************/
-		DetailViewPaint detailPaint = new DetailViewPaint(bufferGC, origGC, stData, 
+		final DetailViewPaint detailPaint = new DetailViewPaint(bufferGC, stData, 
 					attributes, numLines, changedBounds, window, this, threadExecutor); 
 
 		//detailPaint.setUser(true);
@@ -977,7 +977,12 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 			public void done(IJobChangeEvent event) {
 				if (event.getResult() == Status.OK_STATUS)
 				{
-					donePainting(imageOrig, imageFinal, changedBounds);
+					donePainting(detailPaint.getHistogram(), imageFinal, changedBounds);
+					
+					// while the user looks at the new window, read the likely next ones.
+					// The same window has the same predicted windows: keep the current prefetch
+					if (changedBounds)
+						stData.prefetch(paintedAttributes);
 				} else
 				{
 					// we don't need this "new image" since the paint fails
@@ -986,8 +991,6 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 				}
 				// free resources 
 				bufferGC.dispose();
-				origGC.dispose();
-				imageOrig.dispose();
 			}
 			
 			@Override
@@ -1011,7 +1014,7 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 		});
 	}
 
-	private void donePainting(Image imageOrig, Image imageFinal, boolean refreshData)
+	private void donePainting(SummaryHistogram histogram, Image imageFinal, boolean refreshData)
 	{		
 		initBuffer();
 		setBuffer( imageFinal );
@@ -1033,7 +1036,7 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 		// notify to all other views that a new image has been created,
 		//	and it needs to refresh the view
 		// -----------------------------------------------------------------------
-		notifyChangeBuffer(imageOrig.getImageData());
+		notifyChangeBuffer(histogram);
 		
 		updateButtonStates();
 	}
@@ -1098,16 +1101,16 @@ public class SpaceTimeDetailCanvas extends AbstractTimeCanvas
 	 * Notify other views (especially summary view) that we have changed the buffer.
 	 * The other views need to refresh the display if needed.
 	 * 
-	 * @param imageData
+	 * @param histogram : the statistics of the procedures of the view
 	 ***********************************************************************************/
-	private void notifyChangeBuffer(ImageData imageData)
+	private void notifyChangeBuffer(SummaryHistogram histogram)
 	{
 		// -----------------------------------------------------------------------
 		// notify to SummaryView that a new image has been created,
 		//	and it needs to refresh the view
 		// -----------------------------------------------------------------------
 
-		BufferRefreshOperation brOp = new BufferRefreshOperation("refresh", imageData);
+		BufferRefreshOperation brOp = new BufferRefreshOperation("refresh", histogram);
 		try {
 			TraceOperation.getOperationHistory().execute(brOp, null, null);
 		} catch (ExecutionException e) {
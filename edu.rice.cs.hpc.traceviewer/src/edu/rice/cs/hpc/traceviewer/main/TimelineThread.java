@@ -79,7 +79,8 @@ public class TimelineThread
 			double pixelLength, boolean midPoint) {
 
 		return new DetailDataPreparation(colorTable, timeline, 
-				timeBegin, stData.getAttributes().getDepth(), height, pixelLength, midPoint);
+				timeBegin, stData.getAttributes().getDepth(), height, pixelLength, midPoint, 
+				attributes.numPixelsH);
 	}
 
 }
\ No newline at end of file
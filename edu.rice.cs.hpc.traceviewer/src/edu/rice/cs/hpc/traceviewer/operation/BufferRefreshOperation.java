@@ -7,18 +7,19 @@ import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.swt.graphics.ImageData;
+
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
 
 public class BufferRefreshOperation extends AbstractOperation {
 
-	/**image data that describes current image in detail canvas*/
-	final private ImageData detailData;
+	/**statistics of the procedures displayed in detail canvas*/
+	final private SummaryHistogram histogram;
 	static final public IUndoContext context = new BufferOperationContext();
 
-	public BufferRefreshOperation(String label, ImageData detailData) {
+	public BufferRefreshOperation(String label, SummaryHistogram histogram) {
 		super(label);
 		addContext(context);
-		this.detailData = detailData;
+		this.histogram = histogram;
 	}
 
 	@Override
@@ -39,7 +40,10 @@ public class BufferRefreshOperation extends AbstractOperation {
 		return Status.OK_STATUS;
 	}
 
-	public ImageData getImageData() {
-		return detailData;
+	/***
+	 * @return the statistics of the detail canvas, null if the painting was canceled
+	 */
+	public SummaryHistogram getHistogram() {
+		return histogram;
 	}
 }
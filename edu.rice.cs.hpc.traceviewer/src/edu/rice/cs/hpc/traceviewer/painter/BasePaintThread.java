@@ -15,6 +15,7 @@ import org.eclipse.swt.graphics.Device;
 import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.BaseDataVisualization;
 import edu.rice.cs.hpc.traceviewer.data.db.TimelineDataSet;
+import edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster;
 import edu.rice.cs.hpc.traceviewer.painter.ImagePosition;
 
 
@@ -100,6 +101,8 @@ public abstract class BasePaintThread implements Callable<List<ImagePosition>> {
 				currentPaint.incrementAndGet();
 				continue;
 			}
+			collectData(setDataToPaint);
+			
 			final int height = setDataToPaint.getHeight();
 			final int position = setDataToPaint.getLineNumber();
 			
@@ -125,7 +128,9 @@ public abstract class BasePaintThread implements Callable<List<ImagePosition>> {
 			// ------------------------------------------------------------------
 			final ImagePosition imgPos = finalizePaint(position);
 			
-			listOfImages.add(imgPos);
+			// a thread painting on a raster has no image to return
+			if (imgPos != null)
+				listOfImages.add(imgPos);
 			currentPaint.incrementAndGet();
 			//System.out.println("    bpt "+cp+" / " + numberOfTotalLines + "  col data: " + numDataCollected);
 		}
@@ -133,6 +138,15 @@ public abstract class BasePaintThread implements Callable<List<ImagePosition>> {
 		return listOfImages;
 	}
 	
+	/*****
+	 * Notification of the data of a line before it is painted.
+	 * The derived class can keep the data, for instance to compute statistics
+	 * of the view. By default, do nothing.
+	 * 
+	 * @param dataSet : the data of the line
+	 */
+	protected void collectData(TimelineDataSet dataSet) {}
+	
 	/*****
 	 * Abstract method to initialize the paint. 
 	 * The derived class can use this method to create images and GC before painting it
@@ -156,7 +170,7 @@ public abstract class BasePaintThread implements Callable<List<ImagePosition>> {
 	 * Finalizing the image. 
 	 * 
 	 * @param linenum : the position of the line number of the image
-	 * @return
+	 * @return the image and its position, or null if the line is painted on a raster
 	 */
 	abstract protected ImagePosition finalizePaint(int linenum);
 		
@@ -178,4 +192,25 @@ public abstract class BasePaintThread implements Callable<List<ImagePosition>> {
 		gc.setBackground(color);
 		gc.fillRectangle(p_start, 0, width, height);
 	}
+	
+	/***
+	 * basic method to paint on a raster.
+	 * Unlike painting on a gc, this method can be called by several threads
+	 * at the same time, as long as they paint different lines.
+	 * 
+	 * @param raster
+	 * @param p_start
+	 * @param p_end
+	 * @param y : the vertical position of the line in the raster
+	 * @param height
+	 * @param color
+	 */
+	protected void paint(TraceRaster raster, int p_start, int p_end, int y, int height, Color color) {
+		
+		int width = p_end - p_start;
+		if (width <= 0)
+			return;
+		
+		raster.fillRectangle(p_start, y, width, height, TraceRaster.getRGB(color));
+	}
 }
@@ -43,7 +43,7 @@ public abstract class BaseViewPaint extends Job
 	
 	protected SpaceTimeDataController controller;
 
-	final private ExecutorService threadExecutor;
+	final protected ExecutorService threadExecutor;
 	final private ISpaceTimeCanvas canvas;
 	
 	final protected ImageTraceAttributes attributes;
@@ -86,9 +86,14 @@ public abstract class BaseViewPaint extends Job
 		IStatus status = Status.OK_STATUS;
 		
 		//BusyIndicator.showWhile(getDisplay(), getThread());
-		if (!paint( monitor))
-		{
-			status = Status.CANCEL_STATUS;
+		controller.beginPaint();
+		try {
+			if (!paint( monitor))
+			{
+				status = Status.CANCEL_STATUS;
+			}
+		} finally {
+			controller.endPaint();
 		}
 		
 		return status;
@@ -189,7 +194,7 @@ public abstract class BaseViewPaint extends Job
 		Debugger.printDebug(1, canvas.toString() + " BVP --- lp: " + linesToPaint + ", qs: " + queue.size());
 		Debugger.printTimestampDebug("Rendering mostly finished. (" + canvas.toString()+")");
 		
-		if (OSValidator.isUnix()) 
+		if (OSValidator.isUnix() && !isThreadSafePainting()) 
 		{
 			// -------------------------------------------------------------------
 			// sequential painting for Unix/Linux platform
@@ -357,6 +362,18 @@ public abstract class BaseViewPaint extends Job
 		}
 	}
 	
+	/****
+	 * Check if the paint threads can run concurrently on all platforms.
+	 * This is the case when the threads paint on a {@link edu.rice.cs.hpc.traceviewer.data.graph.TraceRaster} 
+	 * instead of creating images, since they don't call gtk.
+	 * 
+	 * @return true if the paint threads don't access the window system
+	 */
+	protected boolean isThreadSafePainting()
+	{
+		return false;
+	}
+	
 	//------------------------------------------------------------------------------------------------
 	// abstract methods 
 	//------------------------------------------------------------------------------------------------
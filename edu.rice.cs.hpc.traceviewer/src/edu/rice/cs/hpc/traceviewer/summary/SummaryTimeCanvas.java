@@ -1,8 +1,6 @@
 package edu.rice.cs.hpc.traceviewer.summary;
 
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.HashMap;
 
 import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.commands.operations.IOperationHistoryListener;
@@ -12,7 +10,6 @@ import org.eclipse.jface.window.DefaultToolTip;
 import org.eclipse.jface.window.ToolTip;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.PaintEvent;
-import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
@@ -32,6 +29,8 @@ import edu.rice.cs.hpc.traceviewer.data.controller.SpaceTimeDataController;
 import edu.rice.cs.hpc.traceviewer.data.db.Frame;
 import edu.rice.cs.hpc.traceviewer.data.db.ImageTraceAttributes;
 import edu.rice.cs.hpc.traceviewer.data.db.Position;
+import edu.rice.cs.hpc.traceviewer.data.db.SummaryHistogram;
+import edu.rice.cs.hpc.traceviewer.data.graph.ColorTable;
 import edu.rice.cs.hpc.traceviewer.data.util.Constants;
 import edu.rice.cs.hpc.traceviewer.data.util.Debugger;
 
@@ -44,9 +43,10 @@ public class SummaryTimeCanvas extends AbstractTimeCanvas
 implements IOperationHistoryListener
 {	
 	private SpaceTimeDataController dataTraces = null;
-	private TreeMap<Integer, Integer> mapStatistics;
-	private int totPixels;
-	private ImageData detailData;
+	/** number of pixels per color (in 0xRRGGBB format) */
+	private HashMap<Integer, Integer> mapStatistics;
+	private long totPixels;
+	private SummaryHistogram histogram;
 	private boolean needToRedraw = false;
 	private ToolTip tooltip;
 	
@@ -93,7 +93,7 @@ implements IOperationHistoryListener
 		if (getBuffer() == null){
 			// ------------------------------------------------------------------------
 			// ------------------------------------------------------------------------
-			rebuffer(detailData);
+			rebuffer(histogram);
 			return;
 		}
 		
@@ -108,7 +108,7 @@ implements IOperationHistoryListener
 		
 		if (!(r1.height == r2.height && r1.width == r2.width))
 		{
-			rebuffer(detailData);
+			rebuffer(histogram);
 			return;
 		}
 	}
@@ -119,12 +119,12 @@ implements IOperationHistoryListener
 	/*****
 	 * rebuffers the data in the summary time canvas and then asks receiver to paint it again
 	 *****/
-	private void rebuffer(ImageData detailData)
+	private void rebuffer(SummaryHistogram histogram)
 	{
-		// store the original image data for further usage such as when the painting is needed.
-		this.detailData = detailData;
+		// store the statistics for further usage such as when the painting is needed.
+		this.histogram = histogram;
 		
-		if (detailData == null || !isVisible())
+		if (histogram == null || dataTraces == null || !isVisible())
 			return;
 
 		// ------------------------------------------------------------------------------------------
@@ -134,7 +134,7 @@ implements IOperationHistoryListener
 		final int viewWidth = getBounds().width;
 		final int viewHeight = getBounds().height;
 
-		if (viewWidth == 0 || viewHeight == 0)
+		if (viewWidth == 0 || viewHeight == 0 || histogram.getWidth() == 0 || histogram.getNumLines() == 0)
 			return;
 
 		final Image imageBuffer = new Image(getDisplay(), viewWidth, viewHeight);
@@ -144,36 +144,20 @@ implements IOperationHistoryListener
 		buffer.setBackground(Constants.COLOR_WHITE);
 		buffer.fillRectangle(0, 0, viewWidth, viewHeight);
 		
-		float yScale = (float)viewHeight / (float)detailData.height;
-		float xScale = ((float)viewWidth / (float)detailData.width);
+		// the colors of the procedures are the ones of the color table: no need to create them
+		final ColorTable colorTable = dataTraces.getColorTable();
+		
+		float yScale = (float)viewHeight / (float)histogram.getNumLines();
+		float xScale = ((float)viewWidth / (float)histogram.getWidth());
 		int xOffset = 0;
 
-		mapStatistics = new TreeMap<Integer, Integer>();
-		
 		//---------------------------------------------------------------------------
-		// needs to be optimized:
-		// for every pixel along the width, check the pixel, group them based on color,
-		//   count the amount of each group, and draw the pixel
+		// for every column, draw the procedures sorted by color, each with a 
+		//	length proportional to its number of lines
 		//---------------------------------------------------------------------------
-		for (int x = 0; x < detailData.width; ++x)
+		for (int x = 0; x < histogram.getWidth(); ++x)
 		{
-			//---------------------------------------------------------------------------
-			// use tree map to sort the key of color map
-			// without sort, it can be confusing
-			//---------------------------------------------------------------------------
-			TreeMap<Integer, Integer> sortedColorMap = new TreeMap<Integer, Integer>();
-
-			for (int y = 0; y < detailData.height; ++y)
-			{
-				int pixelValue = detailData.getPixel(x,y);
-				
-				Integer count  = sortedColorMap.get(pixelValue);
-				if (count != null)
-					sortedColorMap.put( pixelValue , count+1 );
-				else
-					sortedColorMap.put( pixelValue , 1);
-			}
-			Set<Integer> set = sortedColorMap.keySet();
+			final int numProcs = histogram.getNumProcedures(x);
 			int yOffset = viewHeight;
 			
 			int h = 0;
@@ -181,57 +165,71 @@ implements IOperationHistoryListener
 			// draw the line of a specific color with a specific length from bottom to the top
 			// note: the coordinates 0,0 starts from the top-left corner !
 			//---------------------------------------------------------------------------
-			for (Iterator<Integer> it = set.iterator(); it.hasNext(); ) 
+			for (int i = 0; i < numProcs; i++) 
 			{
-				final Integer pixel = it.next();
-				final RGB rgb = detailData.palette.getRGB(pixel);
-
-				final Color c = new Color(getDisplay(), rgb);
-				final Integer numCounts = sortedColorMap.get(pixel);
-				final int height = (int) Math.ceil(numCounts * yScale);
+				final int height = (int) Math.ceil(histogram.getCount(x, i) * yScale);
 
-				buffer.setBackground(c);
+				buffer.setBackground(colorTable.getColor(histogram.getProcedureId(x, i)));
 				
 				// if this is the last color, we should draw from the current position to the end
 				// this may not be the best solution, but the round-up in height variable may give
 				// empty spaces if the number of colors are not a height's divisor.
 				
-				if (it.hasNext())
+				if (i < numProcs - 1)
 					buffer.fillRectangle(xOffset, yOffset-height, (int) Math.max(1, xScale), height);
 				else {
 					buffer.fillRectangle(xOffset, 0, (int) Math.max(1, xScale), viewHeight-h);
 				}
 				yOffset -= height;
-				c.dispose();
-				
-				// accumulate the statistics of this pixel
-				Integer val = mapStatistics.get(pixel);
-				Integer acc = (val==null?  numCounts : val + numCounts);
-				mapStatistics.put(pixel, acc);
-				
 				h += height;
 			}
 			xOffset = Math.round(xOffset + xScale);
 		}
-		totPixels = detailData.width * detailData.height;
-
 		buffer.dispose();
 		
+		// ------------------------------------------------------------------------------------------
+		// the tooltip shows the percentage of a color: accumulate the statistics 
+		//	of the procedures having the same color
+		// ------------------------------------------------------------------------------------------
+		mapStatistics = new HashMap<Integer, Integer>();
+		for (int procId = 0; procId < colorTable.getNumProcedures(); procId++)
+		{
+			final int count = histogram.getTotal(procId);
+			if (count == 0)
+				continue;
+			
+			final Integer rgb = colorTable.getRGB(procId);
+			final Integer val = mapStatistics.get(rgb);
+			mapStatistics.put(rgb, val == null ? count : val + count);
+		}
+		totPixels = histogram.getTotalPixels();
+
 		tooltip.activate();
 
 		redraw();
 	}
 	
+	/****
+	 * get the statistics of the summary view: the number of lines of each 
+	 * procedure per time bucket
+	 * 
+	 * @return the statistics, null if the detail view is not painted yet
+	 */
+	public SummaryHistogram getHistogram()
+	{
+		return histogram;
+	}
+	
 	/****
 	 * main method to decide whether we want to create a new buffer or just to
 	 * redraw the canvas
 	 * 
-	 * @param _detailData : new data
+	 * @param histogram : new data
 	 */
-	private void refresh(ImageData detailData)
+	private void refresh(SummaryHistogram histogram)
 	{
 		super.init();		
-		rebuffer(detailData);
+		rebuffer(histogram);
 	}
 	
 	/********
@@ -299,11 +297,12 @@ implements IOperationHistoryListener
 					return null;
 				
 				int pixel = imgData.getPixel(event.x, event.y);
+				RGB rgb = imgData.palette.getRGB(pixel);
 				
 				// ------------------------------------------------
-				// get the number of counts of this pixel
+				// get the number of counts of this color
 				// ------------------------------------------------
-				Integer stat = mapStatistics.get(pixel);
+				Integer stat = mapStatistics.get((rgb.red << 16) | (rgb.green << 8) | rgb.blue);
 				
 				if (stat != null) {
 					// ------------------------------------------------
@@ -345,7 +344,7 @@ implements IOperationHistoryListener
 					@Override
 					public void run() {
 						BufferRefreshOperation operation = (BufferRefreshOperation) event.getOperation();
-						refresh(operation.getImageData());
+						refresh(operation.getHistogram());
 					}
 				});
 			}
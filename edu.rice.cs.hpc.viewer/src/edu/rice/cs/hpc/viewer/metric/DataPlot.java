@@ -8,7 +8,9 @@ import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 import edu.rice.cs.hpc.data.db.DataCommon;
@@ -23,6 +25,12 @@ import edu.rice.cs.hpc.data.util.Constants;
 public class DataPlot extends DataCommon 
 {
 	final private static int PLOT_ENTRY_SIZE = Constants.SIZEOF_INT + Constants.SIZEOF_INT;
+	final private static int INDEX_PLOT_SIZE = Constants.SIZEOF_INT  + Constants.SIZEOF_INT +
+											   Constants.SIZEOF_LONG + Constants.SIZEOF_LONG; 
+	
+	/** maximum number of decoded plot entries kept in memory */
+	final private static int MAX_CACHED_ENTRIES = 256;
+	
 	private long index_start;
 	private long index_length;
 	private long plot_start;
@@ -36,7 +44,18 @@ public class DataPlot extends DataCommon
 	
 	private RandomAccessFile file;
 	
-	private HashMap<PlotIndexKey, PlotIndexValue> table_index;
+	private PlotIndex table_index;
+	
+	/** the last plot entries read, indexed by cct and metric */
+	final private Map<Long, DataPlotEntry[]> cache = new LinkedHashMap<Long, DataPlotEntry[]>(
+			MAX_CACHED_ENTRIES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, DataPlotEntry[]> eldest) {
+			return size() > MAX_CACHED_ENTRIES;
+		}
+	};
 	
 	
 	//////////////////////////////////////////////////////////////////////////
@@ -46,6 +65,10 @@ public class DataPlot extends DataCommon
 	
 	@Override
 	public void dispose() {
+		table_index = null;
+		synchronized (cache) {
+			cache.clear();
+		}
 		try {
 			if (file != null)
 				file.close();
@@ -110,16 +133,16 @@ public class DataPlot extends DataCommon
 		{
 			int index  = r.nextInt(table_index.size() - 1);
 			int metric = r.nextInt(2);
-			PlotIndexValue pi = table_index.get(new PlotIndexKey(index, metric));
-			if (pi != null)
+			int pi 	   = table_index.find(index, metric);
+			if (pi >= 0)
 			{
 				out.format("[%d]\t met-id:%d, offset: %d, count: %d\n", 
-						index, metric, pi.offset, pi.count);
+						index, metric, table_index.getOffset(pi), table_index.getCount(pi));
 				try {
-					DataPlotEntry []entry = getPlotEntry(index, 0);
+					DataPlotEntry []entry = getPlotEntry(index, metric);
 					if (entry != null) 
 					{
-						for (int j=0; j<pi.count; j++)
+						for (int j=0; j<entry.length; j++)
 						{
 							out.format("\t%s", entry[j]);
 						}
@@ -139,7 +162,8 @@ public class DataPlot extends DataCommon
 	//////////////////////////////////////////////////////////////////////////
 
 	/******
-	 * Retrieve a list of plot data of a given cct index and metric raw index
+	 * Retrieve a list of plot data of a given cct index and metric raw index.<br/>
+	 * The last arrays read are cached: the caller shouldn't modify them.
 	 *  
 	 * @param cct : cct index
 	 * @param metric : the index of the raw metric
@@ -152,22 +176,43 @@ public class DataPlot extends DataCommon
 	{
 		checkData();
 		
-		PlotIndexValue pi = table_index.get(new PlotIndexKey(cct, metric));
-		if (pi == null)
+		final Long key = Long.valueOf(PlotIndex.getKey(cct, metric));
+		DataPlotEntry []entry;
+		synchronized (cache) {
+			entry = cache.get(key);
+		}
+		if (entry != null)
+			return entry;
+		
+		final int pi = table_index.find(cct, metric);
+		if (pi < 0)
 			// there is no data for the given cct and metric
 			return null;
-		file.seek(pi.offset);
-		byte []buffer = new byte[PLOT_ENTRY_SIZE * pi.count];
-		file.readFully(buffer);
-		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-		DataPlotEntry []entry = new DataPlotEntry[pi.count];
-		for (int i=0; i<pi.count; i++)
+		
+		final int count = table_index.getCount(pi);
+		final ByteBuffer byteBuffer = ByteBuffer.allocate(PLOT_ENTRY_SIZE * count);
+		
+		// positional reads don't move the file pointer: several threads can read at the same time
+		final FileChannel channel = file.getChannel();
+		long position = table_index.getOffset(pi);
+		while (byteBuffer.hasRemaining()) {
+			final int numBytes = channel.read(byteBuffer, position);
+			if (numBytes < 0)
+				throw new IOException("Unexpected end of file " + filename + " for cct " + cct);
+			position += numBytes;
+		}
+		byteBuffer.flip();
+		
+		entry = new DataPlotEntry[count];
+		for (int i=0; i<count; i++)
 		{
-			
 			entry[i] 	    = new DataPlotEntry();
 			entry[i].tid 	= byteBuffer.getInt();
 			entry[i].metval = byteBuffer.getFloat();
 		}
+		synchronized (cache) {
+			cache.put(key, entry);
+		}
 		return entry;
 	}
 	
@@ -183,73 +228,133 @@ public class DataPlot extends DataCommon
 
 	}
 	
-	private void checkData() throws IOException
+	private synchronized void checkData() throws IOException
 	{
 		if (table_index == null) 
 		{
-			fillOffsetTable(filename);
 			file = internal_open(filename);
+			table_index = new PlotIndex(file.getChannel().map(MapMode.READ_ONLY, index_start, index_length),
+					(int) (index_length/INDEX_PLOT_SIZE));
 		}
 	}
 	
-	private void fillOffsetTable(String filename) throws IOException
+
+	/*******************************************************************************************
+	 * 
+	 * Index of the plot data, directly read from the memory mapped index section.<br/>
+	 * The entries are searched with a binary search on (cct, metric). If the entries of the
+	 * file are not sorted, only a sorted array of keys and the position of the entries are
+	 * kept in memory.
+	 *
+	 *******************************************************************************************/
+	private static class PlotIndex
 	{
-		final RandomAccessFile file = new RandomAccessFile(filename, "r");
-		final FileChannel channel = file.getChannel();
-		final MappedByteBuffer mappedBuffer = channel.map(MapMode.READ_ONLY, index_start, index_length);
-		final ByteBuffer byteBuffer = mappedBuffer.asReadOnlyBuffer();
-		
-		final int INDEX_PLOT_SIZE = Constants.SIZEOF_INT  + Constants.SIZEOF_INT +
-								 	Constants.SIZEOF_LONG + Constants.SIZEOF_LONG; 
-		final int num_index = (int) (index_length/INDEX_PLOT_SIZE);
+		final private ByteBuffer buffer;
+		final private int num_index;
 		
-		table_index  = new HashMap<PlotIndexKey, PlotIndexValue>(num_index); 
+		// if the index of the file is not sorted: the sorted keys and the position of their entry
+		private long []sorted_keys;
+		private int  []positions;
 		
-		for (int i=0; i<num_index; i++)
+		PlotIndex(MappedByteBuffer mappedBuffer, int num_index)
 		{
-			int cct_id 	     = byteBuffer.getInt();
-			int metric_id    = byteBuffer.getInt();
-			PlotIndexKey idx = new PlotIndexKey(cct_id, metric_id);
-			
-			PlotIndexValue val = new PlotIndexValue();
-			val.offset 	  = byteBuffer.getLong();
-			val.count	  = (int) byteBuffer.getLong();
+			this.buffer    = mappedBuffer.asReadOnlyBuffer();
+			this.num_index = num_index;
 			
-			table_index.put(idx, val);
+			if (!isSorted())
+				sort();
 		}
-		channel.close();
-		file.close();
-	}
-
-	private static class PlotIndexKey
-	{
-		int cct_index, metric_id;
 		
-		public PlotIndexKey(int cct_index, int metric_id)
+		static long getKey(int cct, int metric)
 		{
-			this.cct_index = cct_index;
-			this.metric_id = metric_id;
+			return ((long)cct << 32) | (metric & 0xffffffffL);
 		}
 		
-		@Override
-		public int hashCode()
+		int size()
 		{
-			return (metric_id << 24 + cct_index);
+			return num_index;
 		}
 		
-		@Override
-		public boolean equals(Object o) 
+		/****
+		 * search an entry
+		 * @param cct
+		 * @param metric
+		 * @return the position of the entry, negative if it doesn't exist
+		 */
+		int find(int cct, int metric)
 		{
-			if (this == o) return true;
-			if (!(o instanceof PlotIndexKey)) return false;
-			PlotIndexKey key = (PlotIndexKey) o;
-			return cct_index == key.cct_index && metric_id == key.metric_id;
+			final long key = getKey(cct, metric);
+			if (sorted_keys != null)
+			{
+				final int i = Arrays.binarySearch(sorted_keys, key);
+				return i < 0 ? -1 : positions[i];
+			}
+			int low  = 0;
+			int high = num_index - 1;
+			while (low <= high)
+			{
+				final int mid 	   = (low + high) >>> 1;
+				final long mid_key = getKey(mid);
+				if (mid_key < key)
+					low = mid + 1;
+				else if (mid_key > key)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -1;
+		}
+		
+		long getOffset(int position)
+		{
+			return buffer.getLong(position * INDEX_PLOT_SIZE + 2 * Constants.SIZEOF_INT);
+		}
+		
+		int getCount(int position)
+		{
+			return (int) buffer.getLong(position * INDEX_PLOT_SIZE + 2 * Constants.SIZEOF_INT 
+					+ Constants.SIZEOF_LONG);
+		}
+		
+		private long getKey(int position)
+		{
+			final int offset = position * INDEX_PLOT_SIZE;
+			return getKey(buffer.getInt(offset), buffer.getInt(offset + Constants.SIZEOF_INT));
+		}
+		
+		private boolean isSorted()
+		{
+			for (int i=1; i<num_index; i++)
+			{
+				if (getKey(i-1) >= getKey(i))
+					return false;
+			}
+			return true;
+		}
+		
+		private void sort()
+		{
+			sorted_keys = new long[num_index];
+			for (int i=0; i<num_index; i++)
+				sorted_keys[i] = getKey(i);
+			Arrays.sort(sorted_keys);
+			
+			// remove the duplicate keys, so that a key has only one slot
+			int num_keys = 0;
+			for (int i=0; i<num_index; i++)
+			{
+				if (num_keys == 0 || sorted_keys[num_keys-1] != sorted_keys[i])
+					sorted_keys[num_keys++] = sorted_keys[i];
+			}
+			if (num_keys < num_index)
+				sorted_keys = Arrays.copyOf(sorted_keys, num_keys);
+			
+			// as with a map, the last entry of a duplicate key wins: 
+			// the entries are visited in the order of the file
+			positions = new int[num_keys];
+			for (int i=0; i<num_index; i++)
+				positions[Arrays.binarySearch(sorted_keys, getKey(i))] = i;
 		}
-	}
-	private static class PlotIndexValue
-	{
-		public long offset;
-		public int count;
 	}
 	
 	
@@ -3,15 +3,19 @@
  */
 package edu.rice.cs.hpc.viewer.metric;
 // jface
+import java.lang.reflect.InvocationTargetException;
 import java.util.Formatter;
 import java.util.FormatterClosedException;
 import java.util.IllegalFormatException;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.dialogs.TitleAreaDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.layout.GridDataFactory;
 import org.eclipse.jface.layout.GridLayoutFactory;
 import org.eclipse.jface.layout.LayoutConstants;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 // swt
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Point;
@@ -35,12 +39,14 @@ import org.eclipse.swt.events.SelectionEvent;
 import com.graphbuilder.math.ExpressionParseException;
 // hpcviewer
 import edu.rice.cs.hpc.common.util.UserInputHistory;
+import edu.rice.cs.hpc.data.experiment.BaseExperiment;
 import edu.rice.cs.hpc.data.experiment.metric.*;
 import edu.rice.cs.hpc.data.experiment.metric.BaseMetric.AnnotationType;
 import edu.rice.cs.hpc.data.experiment.metric.format.IMetricValueFormat;
 import edu.rice.cs.hpc.data.experiment.metric.format.MetricValuePredefinedFormat;
 import edu.rice.cs.hpc.data.experiment.scope.RootScope;
 import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.util.IProgressReport;
 
 /**
  * @author la5
@@ -560,6 +566,67 @@ public class ExtDerivedMetricDlg extends TitleAreaDialog {
 	  // ---- PUBLIC METHODS
 	  //==========================================================
 		
+	  /****
+	   * compute the values of the metric for all the scopes of the views
+	   * with a progress bar. 
+	   */
+	  private void computeValues() {
+		  
+		  final RootScope []roots = getRootScopes();
+		  final DerivedColumnComputation computation = new DerivedColumnComputation(metric, 
+				  Runtime.getRuntime().availableProcessors());
+		  
+		  ProgressMonitorDialog dialog = new ProgressMonitorDialog(getShell());
+		  try {
+			  dialog.run(true, false, new IRunnableWithProgress() {
+				  
+				  public void run(final IProgressMonitor monitor) {
+					  computation.compute(roots, new IProgressReport() {
+						  
+						  public void begin(String title, int num_tasks) {
+							  monitor.beginTask(title, num_tasks);
+						  }
+						  
+						  public void advance() {
+							  monitor.worked(1);
+						  }
+						  
+						  public void end() {
+							  monitor.done();
+						  }
+					  });
+				  }
+			  });
+		  } catch (InvocationTargetException e) {
+			  // not critical: the remaining values will be computed on demand
+			  e.printStackTrace();
+		  } catch (InterruptedException e) {
+			  Thread.currentThread().interrupt();
+		  }
+	  }
+	  
+	  /****
+	   * get the roots of the views where the metric is displayed
+	   * 
+	   * @return the root scopes
+	   */
+	  private RootScope []getRootScopes() {
+		  
+		  if (metricManager instanceof BaseExperiment) {
+			  // the calling context, callers and flat views
+			  final Object []children = ((BaseExperiment)metricManager).getRootScopeChildren();
+			  if (children != null) {
+				  final RootScope []roots = new RootScope[children.length];
+				  for (int i=0; i<children.length; i++) {
+					  if (children[i] instanceof RootScope)
+						  roots[i] = (RootScope) children[i];
+				  }
+				  return roots;
+			  }
+		  }
+		  return new RootScope[] {root};
+	  }
+	  
 	  /****
 	   * setup the dialog with the list of metrics
 	   * 
@@ -604,6 +671,9 @@ public class ExtDerivedMetricDlg extends TitleAreaDialog {
 			// save the options for further usage (required by the caller)
 			doAction();
 			
+			// compute the new values once for all, instead of each time a cell is displayed
+			computeValues();
+			
 			// save user history
 			objHistoryFormula.addLine( cbExpression.getText() );
 			objHistoryName.addLine( cbName.getText() );
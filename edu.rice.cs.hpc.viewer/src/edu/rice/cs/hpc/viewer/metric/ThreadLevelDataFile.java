@@ -5,6 +5,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.jface.action.IStatusLineManager;
 
@@ -24,8 +25,12 @@ public class ThreadLevelDataFile extends FileDB2
 	static private final int HEADER_LONG	=	32;
 	static int recordSz = Constants.SIZEOF_LONG + Constants.SIZEOF_LONG;
 
-	private ExecutorService threadExecutor;
-	private int num_threads;
+	/** minimum number of ranks read by a thread: smaller reads are done by the caller */
+	static private final int MIN_RANKS_PER_TASK = 4096;
+
+	/** threads shared by all the files (there is a file per metric) */
+	static private ExecutorService threadExecutor;
+	static private int num_threads;
 	
 	public ThreadLevelDataFile(IStatusLineManager statusMgr)
 	{
@@ -34,9 +39,6 @@ public class ThreadLevelDataFile extends FileDB2
 	public void open(String filename) throws IOException
 	{
 		super.open(filename, HEADER_LONG, recordSz);
-		final int numWork = getNumberOfRanks();
-		num_threads = Math.min(numWork, Runtime.getRuntime().availableProcessors());
-		threadExecutor = Executors.newFixedThreadPool( num_threads ); 
 	}
 	/**
 	 * return all metric values of a specified node and metric index
@@ -48,23 +50,34 @@ public class ThreadLevelDataFile extends FileDB2
 	 */
 	public double[] getMetrics(long nodeIndex, int metricIndex, int numMetrics) 
 	{
-	
-		final double []metrics = new double[getNumberOfRanks()];
+		final int numWork = getNumberOfRanks();
+		final double []metrics = new double[numWork];
 
-		ExecutorCompletionService<Integer> ecs = new ExecutorCompletionService<Integer>(threadExecutor);
+		final long pos_relative = getFilePosition(nodeIndex, metricIndex, numMetrics);
+		final int numTasks = Math.min(getNumThreads(), numWork / MIN_RANKS_PER_TASK);
+		
+		if (numTasks <= 1) {
+			// not worth to use threads
+			try {
+				getDoubles(getOffsets(), pos_relative, metrics, 0, numWork);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return metrics;
+		}
+		ExecutorCompletionService<Integer> ecs = new ExecutorCompletionService<Integer>(getExecutor());
 
-		final int numWork = getNumberOfRanks();
-		final int numWorkPerThreads = (int) Math.ceil((float)numWork / (float)num_threads);
+		final int numWorkPerThreads = (int) Math.ceil((float)numWork / (float)numTasks);
 		
 		// --------------------------------------------------------------
 		// assign each thread for a range of files to gather the data
 		// --------------------------------------------------------------
-		for (int i=0; i<num_threads; i++) {
+		for (int i=0; i<numTasks; i++) {
 			
 			final int start = i * numWorkPerThreads;
 			final int end = Math.min(start+numWorkPerThreads, numWork);
 			
-			DataReadThread thread = new DataReadThread(nodeIndex, metricIndex, numMetrics, start, end,
+			DataReadThread thread = new DataReadThread(pos_relative, start, end,
 					this, metrics);
 			ecs.submit(thread);
 		}
@@ -72,7 +85,7 @@ public class ThreadLevelDataFile extends FileDB2
 		// --------------------------------------------------------------
 		// wait until all threads finish
 		// --------------------------------------------------------------
-		for (int i=0; i<num_threads; i++) {
+		for (int i=0; i<numTasks; i++) {
 			try {
 				ecs.take().get();
 			} catch (Exception e) {
@@ -89,21 +102,42 @@ public class ThreadLevelDataFile extends FileDB2
 		long offset = getOffsets()[thread_index];
 		int num_cct = getNumberOfCCT(thread_index, num_metrics);
 		double []values = new double[num_cct];
-		for (int i=0; i<num_cct; i++)
-		{
-			long position = getFilePosition(i+1, metricIndex, num_metrics);
-			values[i] = getDouble(offset + position);
-		}
+		
+		// the values of a metric are at a fixed distance: one record per cct
+		long position = getFilePosition(1, metricIndex, num_metrics);
+		getDoubles(offset + position, num_metrics * Constants.SIZEOF_LONG, values, 0, num_cct);
+
 		return values;
 	}
 	
 	@Override
 	public void dispose()
 	{
-		threadExecutor.shutdown();
+		// the threads are shared with the other files
 		super.dispose();
 	}
 	
+	static private synchronized int getNumThreads()
+	{
+		if (num_threads == 0)
+			num_threads = Runtime.getRuntime().availableProcessors();
+		return num_threads;
+	}
+	
+	static private synchronized ExecutorService getExecutor()
+	{
+		if (threadExecutor == null) {
+			threadExecutor = Executors.newFixedThreadPool(getNumThreads(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Thread-level data reader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return threadExecutor;
+	}
+	
 	private int getNumberOfCCT(int thread_id, int num_metrics)
 	{
 		long []offsets = getOffsets();
@@ -136,9 +170,7 @@ public class ThreadLevelDataFile extends FileDB2
 	 */
 	static private class DataReadThread implements Callable<Integer> 
 	{
-		final private long _nodeIndex;
-		final private int _metricIndex;
-		final private int _numMetrics;
+		final private long _posRelative;
 		final private int _indexFileStart, _indexFileEnd;
 		final private double _metrics[];
 		final private ThreadLevelDataFile data;
@@ -149,20 +181,16 @@ public class ThreadLevelDataFile extends FileDB2
 		 * 
 		 * Note: the output metrics has to have the same range as indexFileStart ... indexFileEnd
 		 * 
-		 * @param nodeIndex:	cct node index
-		 * @param metricIndex:	metric index
-		 * @param numMetrics:	number of metrics
+		 * @param posRelative:	position of the value in the data of a file
 		 * @param indexFileStart:	the beginning of file index
 		 * @param indexFileEnd:		the end of file index
-		 * @param monitor:		monitor for long process
+		 * @param data:		the data file
 		 * @param metrics:		output to gather metrics
 		 */
-		public DataReadThread(long nodeIndex, int metricIndex, int numMetrics,
+		public DataReadThread(long posRelative,
 				int indexFileStart, int indexFileEnd, ThreadLevelDataFile data,
 				double metrics[]) {
-			_nodeIndex = nodeIndex;
-			_metricIndex = metricIndex;
-			_numMetrics = numMetrics;
+			_posRelative = posRelative;
 			_indexFileStart = indexFileStart;
 			_indexFileEnd = indexFileEnd;
 			_metrics = metrics;
@@ -172,18 +200,11 @@ public class ThreadLevelDataFile extends FileDB2
 
 		@Override
 		public Integer call() throws Exception {
-			final long pos_relative = getFilePosition(_nodeIndex, _metricIndex, _numMetrics);
-			final long offsets[] = data.getOffsets();
-			
-			for (int i=_indexFileStart; i<_indexFileEnd; i++) {
-				final long pos_absolute = offsets[i] + pos_relative;
-				try {
-					_metrics[i] = data.getDouble(pos_absolute);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					break;
-				}
+			try {
+				data.getDoubles(data.getOffsets(), _posRelative, _metrics, _indexFileStart, _indexFileEnd);
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
 			}
 			return Integer.valueOf(_indexFileEnd);
 		}
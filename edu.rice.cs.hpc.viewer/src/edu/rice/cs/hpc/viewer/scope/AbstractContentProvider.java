@@ -50,6 +50,8 @@ public abstract class AbstractContentProvider
     public Object getParent(Object element) {
     	if(element instanceof Scope)
             return ((Scope) element).getParent();
+    	else if (element instanceof MoreChildrenNode)
+    		return ((MoreChildrenNode) element).getParent();
     	else
     		return null;
     }
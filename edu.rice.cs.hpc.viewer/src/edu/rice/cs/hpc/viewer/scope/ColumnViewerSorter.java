@@ -1,5 +1,6 @@
 package edu.rice.cs.hpc.viewer.scope;
 
+import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerComparator;
@@ -34,6 +35,7 @@ public class ColumnViewerSorter extends ViewerComparator {
 	private TreeViewer viewer;	// viewer
 	private int iColNumber;			// column position
 	private BaseMetric metric;			// data for metric table
+	final private ScopeSortService sortService;	// null if the viewer is not a scope viewer
 	
 	/**
 	 * Update the metric for this column
@@ -56,53 +58,29 @@ public class ColumnViewerSorter extends ViewerComparator {
 		this.viewer = viewer;
 		this.metric = newMetric;
 
+		this.sortService = (viewer instanceof ScopeTreeViewer) ? 
+				((ScopeTreeViewer)viewer).getSortService() : null;
+
 		// catch event when the user sort the column on the column header
 		this.column.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
-				Object []elements = null;
-				if (OSValidator.isMac()) {
-					// --------------------------------------------------------------------
-					//Eclipse Indigo bug on Mac OS: expanding a long call path will cause
-					// SWT to slowly sort tree items. Somehow Eclipse also expands other
-					// collapsed tree items as well.
-					// --------------------------------------------------------------------
-					// save the current expaded elements to be restored after the sort
-					elements = viewer.getExpandedElements();
-				}
-				
-				// collapse all the items
-				viewer.collapseAll();
-				// before sorting, we need to check if the first row is an element header 
-				// something like "aggregate metrics" or zoom-in item
-				Tree tree = ColumnViewerSorter.this.viewer.getTree();
-				if (tree.getItemCount()==0)
-					return; // no items: no need to sort
-				
-				TreeItem item = ColumnViewerSorter.this.viewer.getTree().getItem(0);
-				Image imgItem = item.getImage(0);
-				String []sText = Utilities.getTopRowItems(ColumnViewerSorter.this.viewer);
-				if( ColumnViewerSorter.this.viewer.getComparator() != null ) {
-					if( ColumnViewerSorter.this.viewer.getComparator() == ColumnViewerSorter.this ) {
-						int tdirection = ColumnViewerSorter.this.direction;
-						
-						if( tdirection == ASC ) {
-							setSorter(ColumnViewerSorter.this, DESC);
-						} else if( tdirection == DESC ) {
-							setSorter(ColumnViewerSorter.this, ASC);
-						}
-					} else {
-						setSorter(ColumnViewerSorter.this, ASC);
-					}
-				} else {
-					setSorter(ColumnViewerSorter.this, ASC);
-				}
-				// post-sorting 
-				if(sText != null) {
-					Utilities.insertTopRow(ColumnViewerSorter.this.viewer, imgItem, sText);
-				}
-				if (elements != null) {
-					viewer.setExpandedElements(elements);
+				final int newDirection = getNextDirection();
+				if (sortService == null) {
+					sortColumn(newDirection);
+					return;
 				}
+				// --------------------------------------------------------------------
+				// sorting a node with hundreds of thousands of children takes time:
+				// the children are sorted by a background thread, then the viewer
+				// only has to get them from the cache of the sort service
+				// --------------------------------------------------------------------
+				sortService.prepare(ColumnViewerSorter.this, newDirection, getVisibleParents(), 
+						(ITreeContentProvider) viewer.getContentProvider(), viewer.getTree().getDisplay(), 
+						new Runnable() {
+							public void run() {
+								sortColumn(newDirection);
+							}
+						});
 			}
 
 		}
@@ -111,6 +89,91 @@ public class ColumnViewerSorter extends ViewerComparator {
 		//if (colNum == 1) setSorter(this, ASC); // johnmc
 	}
 	
+	/**
+	 * get the metric of this column
+	 * @return the metric, null for the tree column
+	 */
+	BaseMetric getMetric() {
+		return metric;
+	}
+	
+	/**
+	 * get the position of this column
+	 * @return 0 for the tree column
+	 */
+	int getColumnNumber() {
+		return iColNumber;
+	}
+	
+	/**
+	 * get the direction of the sort when the user clicks the column header
+	 * @return
+	 */
+	private int getNextDirection() {
+		if (viewer.getComparator() == this && direction == ASC)
+			return DESC;
+		return ASC;
+	}
+	
+	/**
+	 * get the parents whose children are visible after sorting the column
+	 * @return
+	 */
+	private Object[] getVisibleParents() {
+		Object input = viewer.getInput();
+		if (input == null)
+			return new Object[0];
+		
+		if (OSValidator.isMac()) {
+			// the expanded elements are restored after the sort (see sortColumn)
+			Object []expanded = viewer.getExpandedElements();
+			Object []parents  = new Object[expanded.length + 1];
+			parents[0] = input;
+			System.arraycopy(expanded, 0, parents, 1, expanded.length);
+			return parents;
+		}
+		return new Object[] {input};
+	}
+	
+	/**
+	 * Sort the column when the user clicks the column header
+	 * @param newDirection
+	 */
+	private void sortColumn(int newDirection) {
+		Object []elements = null;
+		if (OSValidator.isMac()) {
+			// --------------------------------------------------------------------
+			//Eclipse Indigo bug on Mac OS: expanding a long call path will cause
+			// SWT to slowly sort tree items. Somehow Eclipse also expands other
+			// collapsed tree items as well.
+			// --------------------------------------------------------------------
+			// save the current expaded elements to be restored after the sort
+			elements = viewer.getExpandedElements();
+		}
+		
+		// collapse all the items
+		viewer.collapseAll();
+		// before sorting, we need to check if the first row is an element header 
+		// something like "aggregate metrics" or zoom-in item
+		Tree tree = viewer.getTree();
+		if (tree.getItemCount()==0)
+			return; // no items: no need to sort
+		
+		TreeItem item = tree.getItem(0);
+		Image imgItem = item.getImage(0);
+		String []sText = Utilities.getTopRowItems(viewer);
+		
+		setSorter(this, newDirection);
+		
+		// post-sorting 
+		if(sText != null) {
+			Utilities.insertTopRow(viewer, imgItem, sText);
+		}
+		if (elements != null) {
+			viewer.setExpandedElements(elements);
+		}
+	}
+	
 	/**
 	 * Sort the column according to the direction
 	 * @param sorter
@@ -150,6 +213,29 @@ public class ColumnViewerSorter extends ViewerComparator {
 		this.viewer.getTree().setRedraw(true);
 	}
 
+	/**
+	 * Sort the elements with the sort service of the viewer: the metric values
+	 * are read only once, and the result is cached.
+	 */
+	@Override
+	public void sort(Viewer viewer, Object[] elements) {
+		if (sortService == null || !sortService.sort(this, direction, elements))
+			super.sort(viewer, elements);
+	}
+
+	/**
+	 * Sort only the first elements, without sorting all of them
+	 * @param elements : the elements to sort
+	 * @param k : the number of elements to get
+	 * @return the first k elements in sorted order, or null if the elements
+	 * 	cannot be sorted this way
+	 */
+	Object[] sortTop(Object[] elements, int k) {
+		if (sortService == null)
+			return null;
+		return sortService.sortTop(this, direction, elements, k);
+	}
+
 	/**
 	 * general comparison for sorting
 	 */
@@ -165,7 +251,7 @@ public class ColumnViewerSorter extends ViewerComparator {
 	 * @param node2
 	 * @return
 	 */
-	private int doCompare(Scope node1, Scope node2) {
+	int doCompare(Scope node1, Scope node2) {
 		if (node1 instanceof CallSiteScope && 
 			node2 instanceof CallSiteScope) {
 			CallSiteScope cs1 = (CallSiteScope) node1;
@@ -0,0 +1,44 @@
+package edu.rice.cs.hpc.viewer.scope;
+
+/************************************************************************
+ *
+ * Pseudo node displayed after the top children of a scope when the
+ * viewer only displays the top children of each node 
+ * (see {@link ScopeTreeViewer#setTopChildren(int)}).<br/>
+ * It stands for the children which are not displayed: double-clicking
+ * on it displays more children.
+ *
+ ************************************************************************/
+public class MoreChildrenNode 
+{
+	final private Object parent;
+	final private int numHidden;
+	
+	/****
+	 * @param parent : the parent of the hidden children
+	 * @param numHidden : the number of hidden children
+	 */
+	public MoreChildrenNode(Object parent, int numHidden) {
+		this.parent    = parent;
+		this.numHidden = numHidden;
+	}
+	
+	/****
+	 * @return the parent of the hidden children
+	 */
+	public Object getParent() {
+		return parent;
+	}
+	
+	/****
+	 * @return the number of hidden children
+	 */
+	public int getNumHidden() {
+		return numHidden;
+	}
+	
+	@Override
+	public String toString() {
+		return numHidden + " more...";
+	}
+}
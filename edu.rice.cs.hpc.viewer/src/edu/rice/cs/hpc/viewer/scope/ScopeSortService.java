@@ -0,0 +1,552 @@
+package edu.rice.cs.hpc.viewer.scope;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.swt.widgets.Display;
+
+import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
+import edu.rice.cs.hpc.data.experiment.metric.DerivedMetric;
+import edu.rice.cs.hpc.data.experiment.metric.Metric;
+import edu.rice.cs.hpc.data.experiment.metric.MetricValue;
+import edu.rice.cs.hpc.data.experiment.scope.Scope;
+
+/************************************************************************
+ *
+ * Service to sort the children of scopes for a {@link ColumnViewerSorter}.
+ * <p>
+ * Instead of comparing two metric values for each comparison, the values
+ * of the children are read once into primitive arrays, and an array of
+ * child indexes is sorted. The sorted index arrays are cached for each
+ * (parent, column, direction), so that sorting again a column, or going
+ * back to a previous sort, costs only a copy.
+ * </p><p>
+ * The sort of a column can be prepared by a background thread (see
+ * {@link #prepare}): the viewer then only has to copy the sorted children
+ * from the cache instead of blocking the UI thread for the whole sort.
+ * </p><p>
+ * When only the first children are displayed (see {@link ScopeTreeViewer#setTopChildren(int)}),
+ * they are selected without sorting all the children (see {@link #sortTop}).
+ * </p>
+ * There is one service per viewer.
+ ************************************************************************/
+public class ScopeSortService
+{
+	/** maximum number of parents in the cache */
+	final static private int MAX_CACHED_PARENTS = 64;
+
+	/** background thread shared by all the viewers */
+	static private ExecutorService executor;
+
+	/** cache of sorted children, the least recently used are removed first */
+	final private Map<SortKey, SortedChildren> cache = new LinkedHashMap<SortKey, SortedChildren>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<SortKey, SortedChildren> eldest) {
+			return size() > MAX_CACHED_PARENTS;
+		}
+	};
+
+	/** incremented for each new preparation: older preparations are abandoned */
+	private volatile int generation = 0;
+
+
+	/****
+	 * Sort the children of a parent scope in place.
+	 *
+	 * @param sorter : the column to sort
+	 * @param direction : {@link ColumnViewerSorter#ASC} or {@link ColumnViewerSorter#DESC}
+	 * @param elements : the children to sort
+	 *
+	 * @return true if the elements are sorted, false if they cannot be sorted
+	 * 	by this service (they are not scopes)
+	 */
+	public boolean sort(ColumnViewerSorter sorter, int direction, Object []elements)
+	{
+		if (elements.length < 2)
+			return true;
+
+		for (Object element: elements) {
+			if (!(element instanceof Scope))
+				return false;
+		}
+		final SortKey key = new SortKey(((Scope)elements[0]).getParentScope(), sorter, direction);
+		SortedChildren sorted = get(key, elements);
+		if (sorted == null) {
+			sorted = new SortedChildren(elements.clone(), getOrder(sorter, direction, elements));
+			put(key, sorted);
+		}
+		for (int i=0; i<elements.length; i++) {
+			elements[i] = sorted.children[sorted.order[i]];
+		}
+		return true;
+	}
+
+
+	/****
+	 * Get the first elements in sorted order, without sorting all the elements.
+	 * The values of the elements are read once, then the top elements are 
+	 * selected with a bounded heap, which is O(n log k) instead of O(n log n).
+	 * If the whole sort is already in the cache, the top elements are taken from it.
+	 *
+	 * @param sorter : the column to sort
+	 * @param direction
+	 * @param elements : the children of a parent scope, in their original order
+	 * @param k : the number of elements to get
+	 *
+	 * @return the first k elements (or less if there are less elements) in sorted order, 
+	 * 	or null if the elements cannot be sorted by this service (they are not scopes)
+	 */
+	public Object[] sortTop(ColumnViewerSorter sorter, int direction, Object []elements, int k)
+	{
+		for (Object element: elements) {
+			if (!(element instanceof Scope))
+				return null;
+		}
+		final int n = Math.min(k, elements.length);
+		final Object []top = new Object[n];
+		if (n == 0)
+			return top;
+		
+		final SortedChildren sorted = get(new SortKey(((Scope)elements[0]).getParentScope(), sorter, direction), elements);
+		if (sorted != null) {
+			for (int i=0; i<n; i++) {
+				top[i] = sorted.children[sorted.order[i]];
+			}
+			return top;
+		}
+		
+		// ties are ordered by index to get the same elements as a stable sort
+		final IndexComparator comparator = new StableComparator(getComparator(sorter, direction, elements));
+		
+		// max heap of the best elements found so far: the top is the worst one
+		final int []heap = new int[n];
+		int size = 0;
+		for (int i=0; i<elements.length; i++) {
+			if (size < n) {
+				int child = size++;
+				heap[child] = i;
+				while (child > 0) {
+					final int parent = (child - 1) / 2;
+					if (comparator.compare(heap[parent], heap[child]) >= 0)
+						break;
+					swap(heap, parent, child);
+					child = parent;
+				}
+			} else if (comparator.compare(i, heap[0]) < 0) {
+				heap[0] = i;
+				int parent = 0;
+				while (true) {
+					final int left  = 2 * parent + 1;
+					final int right = left + 1;
+					int largest = parent;
+					if (left < n && comparator.compare(heap[left], heap[largest]) > 0)
+						largest = left;
+					if (right < n && comparator.compare(heap[right], heap[largest]) > 0)
+						largest = right;
+					if (largest == parent)
+						break;
+					swap(heap, parent, largest);
+					parent = largest;
+				}
+			}
+		}
+		final int []order = mergeSort(heap, comparator);
+		for (int i=0; i<n; i++) {
+			top[i] = elements[order[i]];
+		}
+		return top;
+	}
+
+
+	/****
+	 * Prepare the sort of a column in the background, and then call
+	 * the given runnable in the UI thread.
+	 * A new preparation cancels the previous one.
+	 * <p>
+	 * The values of the other metrics than raw metrics and thread safe derived
+	 * metrics (see {@link DerivedMetric#isThreadSafe()}) are computed by shared
+	 * expressions which are not thread safe, so the runnable is called
+	 * immediately, and the sort will be done by the UI thread.
+	 * </p>
+	 * This method has to be called by the UI thread.
+	 *
+	 * @param sorter : the column to sort
+	 * @param direction : the new direction
+	 * @param parents : the parents whose children will be displayed
+	 * @param provider : the content provider of the viewer
+	 * @param display
+	 * @param whenReady : to be called once the sort is prepared
+	 */
+	public void prepare(final ColumnViewerSorter sorter, final int direction, final Object []parents,
+			ITreeContentProvider provider, final Display display, final Runnable whenReady)
+	{
+		final int myGeneration = ++generation;
+
+		final BaseMetric metric = sorter.getMetric();
+		if (sorter.getColumnNumber() != 0 && !(metric instanceof Metric) 
+				&& !(metric instanceof DerivedMetric && ((DerivedMetric)metric).isThreadSafe())) {
+			whenReady.run();
+			return;
+		}
+
+		// the children are retrieved here: the content provider is not thread safe
+		final Object [][]children = new Object[parents.length][];
+		for (int i=0; i<parents.length; i++) {
+			children[i] = provider.getChildren(parents[i]);
+		}
+
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				for (int i=0; i<parents.length; i++) {
+					if (myGeneration != generation)
+						return;
+
+					Object []elements = children[i];
+					if (elements != null && elements.length > 1) {
+						// sort a copy: the original order is used to check the cache
+						Object []copy = elements.clone();
+						try {
+							sort(sorter, direction, copy);
+						} catch (RuntimeException e) {
+							// the sort will be done again by the viewer
+							e.printStackTrace();
+						}
+					}
+				}
+				if (myGeneration != generation || display.isDisposed())
+					return;
+
+				display.asyncExec(new Runnable() {
+					public void run() {
+						if (myGeneration == generation)
+							whenReady.run();
+					}
+				});
+			}
+		});
+	}
+
+
+	/****
+	 * Remove all the sorted children, for instance when the values of
+	 * the metrics have changed.
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+	}
+
+
+	// --------------------------------------------------------------------
+	// Private methods
+	// --------------------------------------------------------------------
+
+	/****
+	 * get the sorted children from the cache
+	 *
+	 * @param key
+	 * @param elements : the children in their original order
+	 * @return the sorted children, null if they are not in the cache
+	 * 	or if the children have changed
+	 */
+	private synchronized SortedChildren get(SortKey key, Object []elements)
+	{
+		final SortedChildren sorted = cache.get(key);
+		if (sorted == null || sorted.children.length != elements.length)
+			return null;
+
+		for (int i=0; i<elements.length; i++) {
+			if (sorted.children[i] != elements[i])
+				return null;
+		}
+		return sorted;
+	}
+
+	private synchronized void put(SortKey key, SortedChildren sorted)
+	{
+		cache.put(key, sorted);
+	}
+
+
+	/****
+	 * compute the sorted order of the elements
+	 *
+	 * @param sorter
+	 * @param direction
+	 * @param elements : list of scopes
+	 * @return the indexes of the elements in sorted order
+	 */
+	private int[] getOrder(ColumnViewerSorter sorter, int direction, Object []elements)
+	{
+		final int n = elements.length;
+		int []order = new int[n];
+		for (int i=0; i<n; i++) {
+			order[i] = i;
+		}
+		return mergeSort(order, getComparator(sorter, direction, elements));
+	}
+
+
+	/****
+	 * create the comparator of a column
+	 *
+	 * @param sorter
+	 * @param direction
+	 * @param elements : list of scopes
+	 * @return the comparator of the indexes of the elements
+	 */
+	private IndexComparator getComparator(ColumnViewerSorter sorter, int direction, Object []elements)
+	{
+		final int n = elements.length;
+		final Scope []scopes = new Scope[n];
+		for (int i=0; i<n; i++) {
+			scopes[i] = (Scope) elements[i];
+		}
+
+		if (sorter.getColumnNumber() == 0) {
+			return new NameComparator(sorter, direction, scopes);
+		} else {
+			return new MetricComparator(sorter, direction, scopes);
+		}
+	}
+
+
+	/****
+	 * Stable sort of an array of indexes, like the sort done by the viewer.
+	 *
+	 * @param order : the array to sort
+	 * @param comparator
+	 * @return the sorted array (either order or a new array)
+	 */
+	static private int[] mergeSort(int []order, IndexComparator comparator)
+	{
+		final int INSERTION_SORT_SIZE = 16;
+		final int n = order.length;
+
+		// sort small runs with an insertion sort
+		for (int lo=0; lo<n; lo+=INSERTION_SORT_SIZE) {
+			final int hi = Math.min(lo + INSERTION_SORT_SIZE, n);
+			for (int i=lo+1; i<hi; i++) {
+				final int value = order[i];
+				int j = i - 1;
+				for (; j>=lo && comparator.compare(order[j], value) > 0; j--) {
+					order[j+1] = order[j];
+				}
+				order[j+1] = value;
+			}
+		}
+
+		// then merge the runs
+		int []src = order;
+		int []dst = new int[n];
+		for (int width=INSERTION_SORT_SIZE; width<n; width*=2) {
+			for (int lo=0; lo<n; lo+=2*width) {
+				final int mid = Math.min(lo + width, n);
+				final int hi  = Math.min(lo + 2*width, n);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					// take from the left run on equality to keep the sort stable
+					if (comparator.compare(src[j], src[i]) < 0)
+						dst[k++] = src[j++];
+					else
+						dst[k++] = src[i++];
+				}
+				while (i < mid) dst[k++] = src[i++];
+				while (j < hi)  dst[k++] = src[j++];
+			}
+			int []tmp = src;
+			src = dst;
+			dst = tmp;
+		}
+		return src;
+	}
+
+
+	static private void swap(int []array, int i, int j)
+	{
+		final int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+
+	static private synchronized ExecutorService getExecutor()
+	{
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Scope sort");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+
+	// --------------------------------------------------------------------
+	// Private classes
+	// --------------------------------------------------------------------
+
+	/****
+	 * key of the cache: the parent, the column and the direction
+	 */
+	static private class SortKey
+	{
+		final private Object parent;
+		final private ColumnViewerSorter sorter;
+		final private BaseMetric metric;
+		final private int direction;
+
+		SortKey(Object parent, ColumnViewerSorter sorter, int direction)
+		{
+			this.parent 	= parent;
+			this.sorter 	= sorter;
+			this.metric 	= sorter.getMetric();
+			this.direction  = direction;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(parent) ^ (System.identityHashCode(sorter) * 31) ^ direction;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SortKey))
+				return false;
+			final SortKey other = (SortKey) obj;
+			return parent == other.parent && sorter == other.sorter
+					&& metric == other.metric && direction == other.direction;
+		}
+	}
+
+	/****
+	 * sorted children of a parent
+	 */
+	static private class SortedChildren
+	{
+		/** the children in their original order */
+		final Object []children;
+		/** the indexes of the children in sorted order */
+		final int []order;
+
+		SortedChildren(Object []children, int []order)
+		{
+			this.children = children;
+			this.order 	  = order;
+		}
+	}
+
+	static private abstract class IndexComparator
+	{
+		abstract int compare(int i, int j);
+	}
+
+	/****
+	 * Total order: the elements which are equal for a comparator
+	 * are sorted by their index
+	 */
+	static private class StableComparator extends IndexComparator
+	{
+		final private IndexComparator comparator;
+
+		StableComparator(IndexComparator comparator)
+		{
+			this.comparator = comparator;
+		}
+
+		int compare(int i, int j) {
+			final int result = comparator.compare(i, j);
+			if (result != 0)
+				return result;
+			return (i < j) ? -1 : ((i == j) ? 0 : 1);
+		}
+	}
+
+	/****
+	 * Same order as {@link ColumnViewerSorter#compare} for the tree column
+	 */
+	static private class NameComparator extends IndexComparator
+	{
+		final private ColumnViewerSorter sorter;
+		final private int direction;
+		final private Scope []scopes;
+
+		NameComparator(ColumnViewerSorter sorter, int direction, Scope []scopes)
+		{
+			this.sorter 	= sorter;
+			this.direction 	= direction;
+			this.scopes 	= scopes;
+		}
+
+		int compare(int i, int j) {
+			return direction * sorter.doCompare(scopes[i], scopes[j]);
+		}
+	}
+
+	/****
+	 * Same order as {@link ColumnViewerSorter#compare} for a metric column,
+	 * but the metric values are read only once.
+	 */
+	static private class MetricComparator extends IndexComparator
+	{
+		final private ColumnViewerSorter sorter;
+		final private int direction;
+		final private Scope []scopes;
+
+		final private float []values;
+		final private boolean []available;
+
+		MetricComparator(ColumnViewerSorter sorter, int direction, Scope []scopes)
+		{
+			this.sorter 	= sorter;
+			this.direction 	= direction;
+			this.scopes 	= scopes;
+
+			final BaseMetric metric = sorter.getMetric();
+			if (metric instanceof DerivedMetric) {
+				// evaluate the formula for all the children at once
+				((DerivedMetric)metric).computeValues(scopes);
+			}
+			values 	  = new float[scopes.length];
+			available = new boolean[scopes.length];
+			for (int i=0; i<scopes.length; i++) {
+				final MetricValue mv = metric.getValue(scopes[i]);
+				available[i] = MetricValue.isAvailable(mv);
+				if (available[i])
+					values[i] = mv.getValue();
+			}
+		}
+
+		int compare(int i, int j) {
+			// the largest value first, as MetricValue.compareTo(mv2, mv1)
+			int result;
+			if (available[i] && available[j]) {
+				if (values[j] > values[i])
+					result = 1;
+				else if (values[j] < values[i])
+					result = -1;
+				else
+					result = 0;
+			} else if (available[j]) {
+				result = 1;
+			} else if (available[i]) {
+				result = -1;
+			} else {
+				result = 0;
+			}
+			if (result == 0)
+				result = sorter.doCompare(scopes[i], scopes[j]);
+
+			return direction * result;
+		}
+	}
+}
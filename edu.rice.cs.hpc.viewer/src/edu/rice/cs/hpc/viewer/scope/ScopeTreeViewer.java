@@ -3,20 +3,35 @@
  */
 package edu.rice.cs.hpc.viewer.scope;
 
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.jface.viewers.DoubleClickEvent;
+import org.eclipse.jface.viewers.IDoubleClickListener;
+import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.TreeViewerColumn;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeColumn;
 import org.eclipse.jface.viewers.TreePath;
+import org.eclipse.jface.viewers.ViewerComparator;
 import org.eclipse.swt.widgets.TreeItem;
+import org.eclipse.swt.widgets.Widget;
+import org.eclipse.ui.preferences.ScopedPreferenceStore;
 
 import edu.rice.cs.hpc.data.experiment.metric.BaseMetric;
 import edu.rice.cs.hpc.data.experiment.metric.DerivedMetric;
 import edu.rice.cs.hpc.data.experiment.scope.RootScope;
+import edu.rice.cs.hpc.viewer.framework.Activator;
 import edu.rice.cs.hpc.viewer.metric.MetricLabelProvider;
+import edu.rice.cs.hpc.viewer.util.PreferenceConstants;
 import edu.rice.cs.hpc.viewer.util.Utilities;
 
 /**
@@ -24,12 +39,21 @@ import edu.rice.cs.hpc.viewer.util.Utilities;
  */
 public class ScopeTreeViewer extends TreeViewer {
 
+	/** sorted children of the scopes, shared by all the columns */
+	final private ScopeSortService sortService = new ScopeSortService();
+
+	/** number of top children to display for each node, 0 to display all the children */
+	private int topChildren = 0;
+	
+	/** number of children displayed for the nodes whose "more" node has been expanded */
+	final private IdentityHashMap<Object, Integer> numShownChildren = new IdentityHashMap<Object, Integer>();
+
 	/**
 	 * @param parent
 	 */
 	public ScopeTreeViewer(Composite parent) {
 		super(parent, SWT.VIRTUAL);
-		// TODO Auto-generated constructor stub
+		init();
 	}
 
 	/**
@@ -37,7 +61,7 @@ public class ScopeTreeViewer extends TreeViewer {
 	 */
 	public ScopeTreeViewer(Tree tree) {
 		super(tree, SWT.VIRTUAL);
-		// TODO Auto-generated constructor stub
+		init();
 	}
 
 	/**
@@ -47,11 +71,220 @@ public class ScopeTreeViewer extends TreeViewer {
 	public ScopeTreeViewer(Composite parent, int style) {
 		super(parent, SWT.VIRTUAL | style);
 		this.setUseHashlookup(true);
+		init();
+	}
 
+	/**
+	 * initialize the top-K mode: read the preference (and follow its changes), 
+	 * and display more children when the user double-clicks on a "more" node
+	 */
+	private void init() {
+		final Activator activator = Activator.getDefault();
+		if (activator != null) {
+			final ScopedPreferenceStore objPref = (ScopedPreferenceStore) activator.getPreferenceStore();
+			setTopChildren(objPref.getInt(PreferenceConstants.P_TOP_CHILDREN));
+			
+			final IPropertyChangeListener listener = new IPropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent event) {
+					if (PreferenceConstants.P_TOP_CHILDREN.equals(event.getProperty()))
+						setTopChildren(objPref.getInt(PreferenceConstants.P_TOP_CHILDREN));
+				}
+			};
+			objPref.addPropertyChangeListener(listener);
+			getTree().addDisposeListener(new DisposeListener() {
+				public void widgetDisposed(DisposeEvent e) {
+					objPref.removePropertyChangeListener(listener);
+				}
+			});
+		}
+		addDoubleClickListener(new IDoubleClickListener() {
+			public void doubleClick(DoubleClickEvent event) {
+				Object element = ((IStructuredSelection) event.getSelection()).getFirstElement();
+				if (element instanceof MoreChildrenNode) {
+					showMoreChildren((MoreChildrenNode) element);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Set the number of top children to display for each node. 
+	 * The other children are hidden behind a {@link MoreChildrenNode}, so 
+	 * that nodes with a huge number of children are expanded instantly.
+	 * The change is effective for the next expanded nodes.
+	 * 
+	 * @param numChildren : the number of children, 0 to display all the children
+	 */
+	public void setTopChildren(int numChildren) {
+		topChildren = Math.max(0, numChildren);
+	}
+	
+	/**
+	 * Display more children of the parent of a "more" node
+	 * @param node
+	 */
+	private void showMoreChildren(MoreChildrenNode node) {
+		final Object parent = node.getParent();
+		numShownChildren.put(parent, getNumShownChildren(parent) + topChildren);
+		refreshShownChildren(parent);
+	}
+	
+	/**
+	 * refresh the children of a node once its number of displayed children has changed
+	 * @param parent
+	 */
+	private void refreshShownChildren(Object parent) {
+		if (parent == getInput()) {
+			// the top row is not an element of the tree: insert it back after the refresh
+			TreeItem item = getTree().getItem(0);
+			Image imgItem = item.getImage(0);
+			String []sText = Utilities.getTopRowItems(this);
+			
+			refresh();
+			
+			Utilities.insertTopRow(this, imgItem, sText);
+		} else {
+			refresh(parent);
+		}
+	}
+	
+	/**
+	 * get the number of children to display for a node
+	 * @param parent
+	 * @return
+	 */
+	private int getNumShownChildren(Object parent) {
+		final Integer num = numShownChildren.get(parent);
+		return (num == null) ? topChildren : num.intValue();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.eclipse.jface.viewers.AbstractTreeViewer#internalExpand(java.lang.Object, boolean)
+	 */
+	@Override
+	protected Widget internalExpand(Object elementOrTreePath, boolean expand) {
+		// revealing or expanding a node (hot path, selection, restoring the 
+		// expanded nodes after a sort or a zoom) needs all its ancestors to show it
+		showElement(elementOrTreePath);
+		return super.internalExpand(elementOrTreePath, expand);
+	}
+	
+	/**
+	 * Make sure an element is not hidden behind a "more" node: the number of
+	 * children displayed by its ancestors is increased if necessary.
+	 * 
+	 * @param elementOrTreePath
+	 */
+	private void showElement(Object elementOrTreePath) {
+		if (topChildren <= 0 || !(getComparator() instanceof ColumnViewerSorter) || elementOrTreePath == null)
+			return;
+		
+		if (elementOrTreePath instanceof TreePath) {
+			final TreePath path = (TreePath) elementOrTreePath;
+			for (int i=0; i<path.getSegmentCount(); i++) {
+				final Object parent = (i == 0) ? getInput() : path.getSegment(i-1);
+				showChild(parent, path.getSegment(i));
+			}
+		} else {
+			// from the root to the element, since showing a child may refresh its parent
+			final LinkedList<Object> ancestors = new LinkedList<Object>();
+			Object element = elementOrTreePath;
+			while (element != null && element != getInput()) {
+				ancestors.addFirst(element);
+				element = getParentElement(element);
+			}
+			Object parent = getInput();
+			for (Object child : ancestors) {
+				showChild(parent, child);
+				parent = child;
+			}
+		}
+	}
+	
+	/**
+	 * increase the number of children displayed by a node if the given child is hidden
+	 * 
+	 * @param parent
+	 * @param child
+	 */
+	private void showChild(Object parent, Object child) {
+		if (parent == null || child instanceof MoreChildrenNode)
+			return;
+		
+		final int numShown = getNumShownChildren(parent);
+		final Object []children = getFilteredChildren(parent);
+		if (children.length <= numShown)
+			return;
+		
+		// the position of the child in the sorted children, without sorting them
+		final ViewerComparator comparator = getComparator();
+		int position = 0;
+		boolean found = false;
+		for (Object c : children) {
+			if (c == child)
+				found = true;
+			else if (comparator.compare(this, c, child) <= 0)
+				position++;
+		}
+		if (found && position >= numShown) {
+			numShownChildren.put(parent, position + 1);
+			refreshShownChildren(parent);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.eclipse.jface.viewers.AbstractTreeViewer#getSortedChildren(java.lang.Object)
+	 */
+	@Override
+	protected Object[] getSortedChildren(Object parentElementOrTreePath) {
+		final ViewerComparator comparator = getComparator();
+		if (topChildren <= 0 || !(comparator instanceof ColumnViewerSorter))
+			return super.getSortedChildren(parentElementOrTreePath);
+		
+		final Object parent = (parentElementOrTreePath instanceof TreePath) ? 
+				((TreePath) parentElementOrTreePath).getLastSegment() : parentElementOrTreePath;
+		final int numShown = getNumShownChildren(parent);
+		
+		// the array of children may belong to the content provider
+		final Object []children = getFilteredChildren(parentElementOrTreePath).clone();
+		if (children.length > numShown) {
+			// only the top children are sorted
+			final Object []top = ((ColumnViewerSorter) comparator).sortTop(children, numShown);
+			if (top != null) {
+				final Object []result = new Object[numShown + 1];
+				System.arraycopy(top, 0, result, 0, numShown);
+				result[numShown] = new MoreChildrenNode(parent, children.length - numShown);
+				return result;
+			}
+		}
+		comparator.sort(this, children);
+		return children;
 	}
 
 	
 	
+	/**
+	 * get the service which sorts the children of the scopes
+	 * @return
+	 */
+	public ScopeSortService getSortService() {
+		return sortService;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.eclipse.jface.viewers.AbstractTreeViewer#inputChanged(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	protected void inputChanged(Object input, Object oldInput) {
+		// the sorted children of the old input are useless now
+		sortService.clear();
+		numShownChildren.clear();
+		super.inputChanged(input, oldInput);
+	}
+	
 	/**
 	 * Finding the path based on the treeitem information
 	 * @param item
@@ -162,6 +395,8 @@ public class ScopeTreeViewer extends TreeViewer {
 			TreeItem item = getTree().getItem(0);
 			Image imgItem = item.getImage(0);
 			
+			// the values of the derived metrics may have changed
+			sortService.clear();
 			refresh();
 			
 			Utilities.insertTopRow(this, imgItem, sText);
@@ -89,6 +89,13 @@ public class StyledScopeLabelProvider extends StyledCellLabelProvider {
 			cell.setFont(Utilities.fontGeneral);
 			cell.setText(styledString.toString());
 			cell.setStyleRanges(styledString.getStyleRanges());
+			
+		} else if (element instanceof MoreChildrenNode) {
+			// pseudo node of the hidden children
+			StyledString styledString = new StyledString(element.toString(), StyledString.DECORATIONS_STYLER);
+			cell.setFont(Utilities.fontGeneral);
+			cell.setText(styledString.toString());
+			cell.setStyleRanges(styledString.getStyleRanges());
 		}
 	}
 
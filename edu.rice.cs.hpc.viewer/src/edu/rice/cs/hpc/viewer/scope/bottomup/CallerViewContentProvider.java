@@ -1,5 +1,11 @@
 package edu.rice.cs.hpc.viewer.scope.bottomup;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.viewers.TreeViewer;
 
 import edu.rice.cs.hpc.data.experiment.Experiment;
@@ -12,6 +18,7 @@ import edu.rice.cs.hpc.data.experiment.scope.filters.ExclusiveOnlyMetricPropagat
 import edu.rice.cs.hpc.data.experiment.scope.filters.InclusiveOnlyMetricPropagationFilter;
 //import edu.rice.cs.hpc.data.experiment.scope.visitors.FinalizeMetricVisitorWithBackup;
 //import edu.rice.cs.hpc.data.experiment.scope.visitors.PercentScopeVisitor;
+import edu.rice.cs.hpc.viewer.framework.Activator;
 import edu.rice.cs.hpc.viewer.scope.AbstractContentProvider;
 
 /************************************************************************
@@ -19,10 +26,23 @@ import edu.rice.cs.hpc.viewer.scope.AbstractContentProvider;
  * Content provider class specifically for caller view
  * This class will update the children of a scope dynamically, unlike
  * other views
- *
+ * <p>
+ * Once the children of a node are computed, the children of these children
+ * (the next expansion level) are computed speculatively by a background 
+ * thread, so that expanding them later doesn't block the UI.
+ * </p>
  ************************************************************************/
 public class CallerViewContentProvider extends AbstractContentProvider 
 {
+	/** maximum number of children to prefetch for each expanded node */
+	final static private int MAX_PREFETCH = 64;
+	
+	/** background thread to prefetch the next level of the tree */
+	final private ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new PrefetchThreadFactory());
+	
+	/** incremented for each new prefetch: older prefetches are abandoned */
+	private volatile int prefetchGeneration = 0;
+	
 	public CallerViewContentProvider(TreeViewer viewer) {
 		super(viewer);
 	}
@@ -52,10 +72,13 @@ public class CallerViewContentProvider extends AbstractContentProvider
     		// normal mode
     		IMergedScope parent = ((IMergedScope) parentElement);
     		results = parent.getAllChildren(inclusiveOnly, exclusiveOnly);
+    		prefetch(results);
         	
     	} else if (parentElement instanceof Scope) {
     		Scope scope = (Scope) parentElement;
-    		results = scope.getChildren();
+    		synchronized (CallSiteScopeCallerView.getTreeLock()) {
+    			results = scope.getChildren();
+    		}
     	}
     	return results;
     }
@@ -67,7 +90,11 @@ public class CallerViewContentProvider extends AbstractContentProvider
     public boolean hasChildren(Object element) {
     	if(element instanceof Scope) {
     		Scope node = (Scope) element;
-    		boolean has_children = node.hasChildren();
+    		boolean has_children;
+    		// the children of the node may be built by the prefetch thread
+    		synchronized (CallSiteScopeCallerView.getTreeLock()) {
+    			has_children = node.hasChildren();
+    		}
     		if (!has_children) {
     			if (node instanceof CallSiteScopeCallerView) {
         			CallSiteScopeCallerView cc = (CallSiteScopeCallerView) node;
@@ -88,6 +115,7 @@ public class CallerViewContentProvider extends AbstractContentProvider
      * @param experiment
      */
     public void setDatabase(Experiment experiment) {
+    	prefetchGeneration++;
     	exclusiveOnly = new ExclusiveOnlyMetricPropagationFilter(experiment);
     	inclusiveOnly = new InclusiveOnlyMetricPropagationFilter(experiment);
     	
@@ -95,4 +123,97 @@ public class CallerViewContentProvider extends AbstractContentProvider
 /*    	percentVisitor = new PercentScopeVisitor(experiment.getMetricCount(), root);
     	finalizeVisitor = new FinalizeMetricVisitorWithBackup(experiment.getMetrics());*/
     }
+    
+    /*
+     * (non-Javadoc)
+     * @see edu.rice.cs.hpc.viewer.scope.AbstractContentProvider#dispose()
+     */
+    @Override
+    public void dispose() {
+    	prefetchGeneration++;
+    	prefetchExecutor.shutdownNow();
+    	super.dispose();
+    }
+    
+    
+    /***
+     * Compute in the background the children of the given nodes, so that
+     * they are ready when the user expands them.<br/>
+     * The caller tree is built lazily: computing the children of a procedure
+     * called from many places can take a while.
+     * 
+     * @param nodes : the nodes to prefetch
+     */
+    private void prefetch(Object []nodes) {
+    	if (nodes == null || nodes.length == 0 || prefetchExecutor.isShutdown())
+    		return;
+    	
+    	// the viewer may sort the array of children in place
+    	final Object []candidates = nodes.clone();
+    	final InclusiveOnlyMetricPropagationFilter inclusive = inclusiveOnly;
+    	final ExclusiveOnlyMetricPropagationFilter exclusive = exclusiveOnly;
+    	final int generation = ++prefetchGeneration;
+    	
+    	prefetchExecutor.execute(new Runnable() {
+			public void run() {
+				final int n = Math.min(candidates.length, MAX_PREFETCH);
+				for (int i=0; i<n; i++) {
+					
+					// the user has expanded another node, or the database has changed
+					if (generation != prefetchGeneration)
+						return;
+					
+					final Object node = candidates[i];
+					if (node instanceof CallSiteScopeCallerView) {
+						CallSiteScopeCallerView scope = (CallSiteScopeCallerView) node;
+						if (scope.hasScopeChildren()) {
+							try {
+								// the children are built once: if they already exist,
+								// they are just returned
+								scope.getAllChildren(inclusive, exclusive);
+							} catch (RuntimeException e) {
+								// a prefetch should never break the view: the children
+								// will be computed again when the node is expanded
+								log("Fail to prefetch the callers of " + scope.getName(), e);
+							}
+						}
+					}
+				}
+			}
+		});
+    }
+    
+    
+    /***
+     * Log a warning into the plug-in log, or into the console if the
+     * plug-in isn't running
+     * 
+     * @param message
+     * @param e : the cause
+     */
+    static private void log(String message, Throwable e) {
+    	final Activator activator = Activator.getDefault();
+    	if (activator != null) {
+    		activator.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, message, e));
+    	} else {
+    		System.err.println("Warning: " + message);
+    		e.printStackTrace();
+    	}
+    }
+    
+    
+    /***
+     * Factory of low priority daemon threads, so that the prefetch neither
+     * competes with the UI nor prevents the application to exit
+     */
+    static private class PrefetchThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Callers view prefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+    }
 }
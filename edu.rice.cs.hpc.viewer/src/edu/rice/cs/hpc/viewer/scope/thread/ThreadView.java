@@ -1,15 +1,25 @@
 package edu.rice.cs.hpc.viewer.scope.thread;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.CoolBar;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
@@ -22,6 +32,7 @@ import edu.rice.cs.hpc.data.experiment.metric.MetricRaw;
 import edu.rice.cs.hpc.data.experiment.scope.RootScope;
 import edu.rice.cs.hpc.data.experiment.scope.RootScopeType;
 import edu.rice.cs.hpc.data.experiment.scope.Scope;
+import edu.rice.cs.hpc.data.util.IProgressReport;
 import edu.rice.cs.hpc.viewer.metric.MetricRawManager;
 import edu.rice.cs.hpc.viewer.graph.GraphMenu;
 import edu.rice.cs.hpc.viewer.scope.AbstractBaseScopeView;
@@ -267,6 +278,8 @@ public class ThreadView extends AbstractBaseScopeView
 						((MetricRaw)metric).setMetricPartner((MetricRaw) metricPartner);
 					}
 				}
+				// the values of the new columns are computed in background
+				computeValues(listOfDuplicates.values());
 				
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
@@ -275,6 +288,61 @@ public class ThreadView extends AbstractBaseScopeView
 		}
 	}
 
+	/****
+	 * compute the values of the threads of the metrics with a background job.
+	 * Until the job is done, the cells of the metrics show a placeholder
+	 * (see {@link MetricRaw#getMetricTextValue(Scope)}), then the view is refreshed.
+	 * 
+	 * @param metrics : the metrics of the new columns
+	 */
+	private void computeValues(final Collection<BaseMetric> metrics)
+	{
+		final Experiment experiment = database.getExperiment();
+		final Display display 		= treeViewer.getTree().getDisplay();
+		
+		Job job = new Job("Computing thread-level metrics") {
+			
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				SubMonitor subMonitor = SubMonitor.convert(monitor, getName(), metrics.size());
+				try {
+					for (BaseMetric metric : metrics) {
+						((MetricRaw)metric).computeValues(experiment, new ProgressReport(subMonitor.newChild(1)));
+					}
+				} catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+					
+				} catch (IOException e) {
+					e.printStackTrace();
+					return Status.CANCEL_STATUS;
+					
+				} finally {
+					monitor.done();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.addJobChangeListener(new JobChangeAdapter() {
+			
+			@Override
+			public void done(IJobChangeEvent event) {
+				if (display.isDisposed())
+					return;
+				display.asyncExec(new Runnable() {
+					
+					@Override
+					public void run() {
+						// update the content of the view with the computed values
+						updateDisplay();
+					}
+				});
+			}
+		});
+		job.schedule();
+	}
+	
+	
 	/***
 	 * copy CCT root and duplicate its children to create a new 
 	 * root scope for this thread view.
@@ -307,4 +375,35 @@ public class ThreadView extends AbstractBaseScopeView
 		// create a new metric manager for this view
 		return new MetricRawManager(treeViewer);
 	}
+	
+	
+	/*******************
+	 * Progress of the computation of a metric.
+	 * The computation is canceled by throwing an exception
+	 * when the user cancels the job.
+	 *
+	 */
+	static private class ProgressReport implements IProgressReport 
+	{
+		final private SubMonitor monitor;
+		
+		ProgressReport(SubMonitor monitor)
+		{
+			this.monitor = monitor;
+		}
+		
+		public void begin(String title, int num_tasks) {
+			monitor.beginTask(title, num_tasks);
+		}
+
+		public void advance() {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			monitor.worked(1);
+		}
+
+		public void end() {
+			monitor.done();
+		}
+	}
 }
@@ -16,6 +16,8 @@ public class PreferenceConstants {
 	public static final String P_FONT_GENERIC 		= "fontGenericViewPreference";
 	
 	public static final String P_GRAPH_DOT_DIAMETER = "graphDotDiameterPreference";
+	
+	public static final String P_TOP_CHILDREN 		= "topChildrenPreference";
 
 	public static final float P_THRESHOLD_DEFAULT 	= 0.5f;
 }
@@ -22,6 +22,7 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(PreferenceConstants.P_THRESHOLD, 
 				String.valueOf(PreferenceConstants.P_THRESHOLD_DEFAULT));
 		store.setDefault(PreferenceConstants.P_CALLER_VIEW, true);
+		store.setDefault(PreferenceConstants.P_TOP_CHILDREN, 0);
 	}
 
 }
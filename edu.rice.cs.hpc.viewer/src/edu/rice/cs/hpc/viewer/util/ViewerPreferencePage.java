@@ -91,6 +91,14 @@ public class ViewerPreferencePage
 				this.getFieldEditorParent());
 		addField(objGraphDotDiameter);
 
+		//----------------------------------------------------------------------
+		// option for the number of children to display for each node
+		//----------------------------------------------------------------------
+		IntegerFieldEditor objTopChildren = new IntegerFieldEditor(PreferenceConstants.P_TOP_CHILDREN, 
+				"&Number of top children to display for each node\n(0 to display all the children)",
+				this.getFieldEditorParent());
+		objTopChildren.setValidRange(0, Integer.MAX_VALUE);
+		addField(objTopChildren);
 	}
 
 